@@ -30,6 +30,7 @@ plugins {
   java
   application
   id("com.github.johnrengelman.shadow") version "7.1.2"
+  id("me.champeau.jmh") version "0.6.8"
 }
 
 group = "ru.itmo.ctlab.hict"
@@ -80,6 +81,9 @@ dependencies {
   // https://mvnrepository.com/artifact/org.apache.bcel/bcel
   implementation("org.apache.bcel:bcel:6.7.0")
 
+  // https://mvnrepository.com/artifact/org.lz4/lz4-java
+  implementation("org.lz4:lz4-java:1.8.0")
+
 
 
   compileOnly("org.projectlombok:lombok:1.18.22")
@@ -145,6 +149,14 @@ tasks.withType<Test> {
   }
 }
 
+jmh {
+  jmhVersion.set("1.36")
+  fork.set(1)
+  warmupIterations.set(3)
+  iterations.set(5)
+  resultFormat.set("JSON")
+}
+
 tasks.withType<JavaExec> {
   doFirst {
     environment(
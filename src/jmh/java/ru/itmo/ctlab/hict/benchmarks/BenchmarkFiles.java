@@ -0,0 +1,54 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2024. Aleksandr Serdiukov, Anton Zamyatin, Aleksandr Sinitsyn, Vitalii Dravgelis and Computer Technologies Laboratory ITMO University team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ru.itmo.ctlab.hict.benchmarks;
+
+import org.jetbrains.annotations.NotNull;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.ChunkedFile;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.generator.SyntheticChunkedFileGenerator;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public final class BenchmarkFiles {
+  public static final SyntheticChunkedFileGenerator.GeneratorOptions BENCHMARK_FILE_OPTIONS = SyntheticChunkedFileGenerator.GeneratorOptions.DEFAULT.toBuilder()
+    .contigCount(200)
+    .assemblyLengthBp(55_000_000L)
+    .resolutions(new long[]{5_000L, 20_000L, 100_000L})
+    .build();
+
+  private BenchmarkFiles() {
+  }
+
+  public static @NotNull Path createSyntheticFile() throws IOException {
+    final var path = Files.createTempFile("hict-benchmark-", ".hict.hdf5");
+    new SyntheticChunkedFileGenerator(BENCHMARK_FILE_OPTIONS).generate(path);
+    return path;
+  }
+
+  public static @NotNull ChunkedFile open(final @NotNull Path path, final long blockCacheSizeBytes) {
+    return new ChunkedFile(new ChunkedFile.ChunkedFileOptions(path, 4, 16, blockCacheSizeBytes, 0));
+  }
+}
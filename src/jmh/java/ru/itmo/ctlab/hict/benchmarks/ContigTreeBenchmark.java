@@ -0,0 +1,93 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2024. Aleksandr Serdiukov, Anton Zamyatin, Aleksandr Sinitsyn, Vitalii Dravgelis and Computer Technologies Laboratory ITMO University team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ru.itmo.ctlab.hict.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.ChunkedFile;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.resolution.ResolutionDescriptor;
+import ru.itmo.ctlab.hict.hict_library.domain.ATUSequence;
+import ru.itmo.ctlab.hict.hict_library.domain.QueryLengthUnit;
+import ru.itmo.ctlab.hict.hict_library.trees.ContigTree;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Assembly-level operations that do not touch the contact matrix itself.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ContigTreeBenchmark {
+  @Param({"1", "3"})
+  public int resolutionOrder;
+
+  @Param({"256"})
+  public int rangeLength;
+
+  private Path path;
+  private ChunkedFile chunkedFile;
+  private ResolutionDescriptor resolutionDescriptor;
+  private long lengthPixels;
+  private long lengthBins;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    this.path = BenchmarkFiles.createSyntheticFile();
+    this.chunkedFile = BenchmarkFiles.open(this.path, 0L);
+    this.resolutionDescriptor = ResolutionDescriptor.fromResolutionOrder(this.resolutionOrder);
+    this.lengthPixels = this.chunkedFile.getContigTree().getLengthInUnits(QueryLengthUnit.PIXELS, this.resolutionDescriptor);
+    this.lengthBins = this.chunkedFile.getContigTree().getLengthInUnits(QueryLengthUnit.BINS, this.resolutionDescriptor);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    this.chunkedFile.close();
+    Files.deleteIfExists(this.path);
+  }
+
+  @Benchmark
+  public ATUSequence atusForRange() {
+    final var start = ThreadLocalRandom.current().nextLong(Long.max(1L, this.lengthPixels - this.rangeLength));
+    return this.chunkedFile.matrixQueries().getATUsForRange(this.resolutionDescriptor, start, start + this.rangeLength, true);
+  }
+
+  @Benchmark
+  public ContigTree.Node.ExposedSegment expose() {
+    final var start = ThreadLocalRandom.current().nextLong(Long.max(1L, this.lengthBins - this.rangeLength));
+    return this.chunkedFile.getContigTree().expose(this.resolutionDescriptor, start, start + this.rangeLength, QueryLengthUnit.BINS);
+  }
+
+  @Benchmark
+  public ContigTree.Node splitAndMerge() {
+    final var position = ThreadLocalRandom.current().nextLong(this.lengthBins);
+    final var root = this.chunkedFile.getContigTree().getRoot();
+    final var split = ContigTree.Node.splitNodeByLength(this.resolutionDescriptor, root, position, false, QueryLengthUnit.BINS);
+    return ContigTree.Node.mergeNodes(split);
+  }
+}
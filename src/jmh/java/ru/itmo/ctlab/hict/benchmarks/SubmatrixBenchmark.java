@@ -0,0 +1,103 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2024. Aleksandr Serdiukov, Anton Zamyatin, Aleksandr Sinitsyn, Vitalii Dravgelis and Computer Technologies Laboratory ITMO University team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ru.itmo.ctlab.hict.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.ChunkedFile;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.MatrixQueries;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.resolution.ResolutionDescriptor;
+import ru.itmo.ctlab.hict.hict_library.domain.QueryLengthUnit;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SubmatrixBenchmark {
+  private static final int TILE_POSITIONS = 64;
+
+  @Param({"1", "2", "3"})
+  public int resolutionOrder;
+
+  @Param({"256"})
+  public int tileSize;
+
+  @Param({"0", "512"})
+  public int blockCacheMegabytes;
+
+  private Path path;
+  private ChunkedFile chunkedFile;
+  private ResolutionDescriptor resolutionDescriptor;
+  private long[] rowPositions;
+  private long[] colPositions;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    this.path = BenchmarkFiles.createSyntheticFile();
+    this.chunkedFile = BenchmarkFiles.open(this.path, 1024L * 1024L * this.blockCacheMegabytes);
+    this.resolutionDescriptor = ResolutionDescriptor.fromResolutionOrder(this.resolutionOrder);
+    final var matrixSize = this.chunkedFile.getContigTree().getLengthInUnits(QueryLengthUnit.PIXELS, this.resolutionDescriptor);
+    final var random = new Random(1L);
+    this.rowPositions = new long[TILE_POSITIONS];
+    this.colPositions = new long[TILE_POSITIONS];
+    for (int i = 0; i < TILE_POSITIONS; ++i) {
+      this.rowPositions[i] = (long) (random.nextDouble() * Long.max(1L, matrixSize - this.tileSize));
+      this.colPositions[i] = (long) (random.nextDouble() * Long.max(1L, matrixSize - this.tileSize));
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    this.chunkedFile.close();
+    Files.deleteIfExists(this.path);
+  }
+
+  @Benchmark
+  public MatrixQueries.MatrixWithWeights symmetricTile() {
+    final var start = this.rowPositions[ThreadLocalRandom.current().nextInt(TILE_POSITIONS)];
+    return this.chunkedFile.matrixQueries().getSubmatrix(this.resolutionDescriptor, start, start, start + this.tileSize, start + this.tileSize, true);
+  }
+
+  @Benchmark
+  public MatrixQueries.MatrixWithWeights asymmetricTile() {
+    final var i = ThreadLocalRandom.current().nextInt(TILE_POSITIONS);
+    final var row = this.rowPositions[i];
+    final var col = this.colPositions[i];
+    return this.chunkedFile.matrixQueries().getSubmatrix(this.resolutionDescriptor, row, col, row + this.tileSize, col + this.tileSize, true);
+  }
+
+  @Benchmark
+  public MatrixQueries.FlatMatrixWithWeights asymmetricTileFlat() {
+    final var i = ThreadLocalRandom.current().nextInt(TILE_POSITIONS);
+    final var row = this.rowPositions[i];
+    final var col = this.colPositions[i];
+    return this.chunkedFile.matrixQueries().getSubmatrixFlat(this.resolutionDescriptor, row, col, row + this.tileSize, col + this.tileSize, true);
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2024. Aleksandr Serdiukov, Anton Zamyatin, Aleksandr Sinitsyn, Vitalii Dravgelis and Computer Technologies Laboratory ITMO University team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ru.itmo.ctlab.hict.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.ChunkedFile;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.MatrixQueries;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.resolution.ResolutionDescriptor;
+import ru.itmo.ctlab.hict.hict_library.visualization.SimpleVisualizationOptions;
+import ru.itmo.ctlab.hict.hict_library.visualization.colormap.gradient.SimpleLinearGradient;
+import ru.itmo.ctlab.hict.hict_server.handlers.tiles.PngTileEncoder;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering of an already fetched tile, the same way tile handlers do it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class VisualizationBenchmark {
+  @Param({"256"})
+  public int tileSize;
+
+  @Param({"false", "true"})
+  public boolean applyCoolerWeights;
+
+  private Path path;
+  private ChunkedFile chunkedFile;
+  private SimpleVisualizationOptions options;
+  private MatrixQueries.MatrixWithWeights tile;
+  private MatrixQueries.FlatMatrixWithWeights flatTile;
+  private BufferedImage image;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    this.path = BenchmarkFiles.createSyntheticFile();
+    this.chunkedFile = BenchmarkFiles.open(this.path, 0L);
+    this.options = new SimpleVisualizationOptions(10.0, 0.0, this.applyCoolerWeights, false, false,
+      new SimpleLinearGradient(
+        32,
+        new Color(255, 255, 255, 0),
+        new Color(0, 96, 0, 255),
+        0.0d,
+        1.0d
+      ));
+    this.tile = this.chunkedFile.matrixQueries().getSubmatrix(ResolutionDescriptor.fromResolutionOrder(1), 0L, 0L, this.tileSize, this.tileSize, true);
+    this.flatTile = this.chunkedFile.matrixQueries().getSubmatrixFlat(ResolutionDescriptor.fromResolutionOrder(1), 0L, 0L, this.tileSize, this.tileSize, true);
+    this.image = this.chunkedFile.tileVisualizationProcessor().visualizeTile(this.tile, this.options);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    this.chunkedFile.close();
+    Files.deleteIfExists(this.path);
+  }
+
+  @Benchmark
+  public BufferedImage visualizeTile() {
+    return this.chunkedFile.tileVisualizationProcessor().visualizeTile(this.tile, this.options);
+  }
+
+  @Benchmark
+  public BufferedImage visualizeFlatTile() {
+    return this.chunkedFile.tileVisualizationProcessor().visualizeTile(this.flatTile, this.options);
+  }
+
+  @Benchmark
+  public byte[] encodePNG() throws IOException {
+    final var baos = new ByteArrayOutputStream();
+    ImageIO.write(this.image, "png", baos);
+    return baos.toByteArray();
+  }
+
+  @Benchmark
+  public byte[] visualizeAndEncodePNG() throws IOException {
+    final var baos = new ByteArrayOutputStream();
+    ImageIO.write(this.chunkedFile.tileVisualizationProcessor().visualizeTile(this.flatTile, this.options), "png", baos);
+    return baos.toByteArray();
+  }
+
+  @Benchmark
+  public byte[] encodeTilePNG() {
+    return PngTileEncoder.DEFAULT.encode(((DataBufferInt) this.image.getRaster().getDataBuffer()).getData(), this.image.getWidth(), this.image.getHeight(), this.chunkedFile.getQueryExecutor());
+  }
+}
@@ -184,7 +184,7 @@ public class AGPProcessor {
     final var lock = tree.getRootLock();
     try {
       lock.writeLock().lock();
-      tree.commitRoot(null);
+      final var orderedContigs = new ArrayList<ContigTree.ContigTuple>(agpFileRecords.size());
       for (final var rec : agpFileRecords) {
         if (!(rec instanceof ContigAGPRecord ctgRecord)) {
           continue;
@@ -215,7 +215,7 @@ public class AGPProcessor {
 
         selectedContigDescriptor = sourceDescriptor;
 
-        tree.appendContig(selectedContigDescriptor, switch (ctgRecord.getContigOrientation()) {
+        orderedContigs.add(new ContigTree.ContigTuple(selectedContigDescriptor, switch (ctgRecord.getContigOrientation()) {
           case PLUS -> ContigDirection.FORWARD;
           case MINUS -> ContigDirection.REVERSED;
           case UNKNOWN, IRRELEVANT -> {
@@ -223,8 +223,9 @@ public class AGPProcessor {
             log.warn("A contig " + ctgRecord.getContigName() + " inside scaffold " + ctgRecord.getScaffoldName() + " has orientation " + ctgRecord.getContigOrientation() + " which is automatically treated as " + autoDirection);
             yield autoDirection;
           }
-        });
+        }));
       }
+      tree.commitOrderedContigs(orderedContigs);
     } finally {
       lock.writeLock().unlock();
     }
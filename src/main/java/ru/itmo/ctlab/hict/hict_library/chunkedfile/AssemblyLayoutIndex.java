@@ -0,0 +1,182 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2024. Aleksandr Serdiukov, Anton Zamyatin, Aleksandr Sinitsyn, Vitalii Dravgelis and Computer Technologies Laboratory ITMO University team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ru.itmo.ctlab.hict.hict_library.chunkedfile;
+
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.resolution.ResolutionDescriptor;
+import ru.itmo.ctlab.hict.hict_library.domain.ATUSequence;
+import ru.itmo.ctlab.hict.hict_library.domain.ContigCatalog;
+import ru.itmo.ctlab.hict.hict_library.domain.PackedATU;
+import ru.itmo.ctlab.hict.hict_library.trees.ContigTree;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * ATUs of visible contigs of the current assembly flattened in assembly order for each resolution, together with prefix sums of their lengths in pixels.
+ * ATUs of a pixel range are then found with two binary searches instead of exposing and walking the contig tree.
+ * <p>
+ * Layouts are built on first use of a resolution, rebuilt by {@link ScaffoldingOperations} after each change of the contig tree once the tree lock is released,
+ * and replaced atomically, so readers of an up-to-date layout take no locks. A layout built for an older tree version is never used.
+ * Builds of one resolution are serialized, so that concurrent tile requests after a change build the layout once instead of each building its own.
+ */
+@Slf4j
+public class AssemblyLayoutIndex {
+  private final @NotNull ChunkedFile chunkedFile;
+  private final @NotNull AtomicReferenceArray<Layout> layouts;
+  private final @NotNull Object @NotNull [] buildLocks;
+
+  public AssemblyLayoutIndex(final @NotNull ChunkedFile chunkedFile) {
+    this.chunkedFile = chunkedFile;
+    this.layouts = new AtomicReferenceArray<>(chunkedFile.getResolutions().length);
+    this.buildLocks = new Object[chunkedFile.getResolutions().length];
+    for (int i = 0; i < this.buildLocks.length; ++i) {
+      this.buildLocks[i] = new Object();
+    }
+  }
+
+  /**
+   * @return Layout of the resolution for the current version of the contig tree, building it if needed.
+   */
+  public @NotNull Layout getLayout(final int resolutionOrder) {
+    final var layout = this.layouts.get(resolutionOrder);
+    if (layout != null && layout.version() == this.chunkedFile.getContigTree().getVersion()) {
+      return layout;
+    }
+    return this.buildLayout(resolutionOrder);
+  }
+
+  /**
+   * Rebuilds layouts of all resolutions that have already been used. Should be called after the contig tree has changed.
+   */
+  public void refresh() {
+    for (int resolutionOrder = 0; resolutionOrder < this.layouts.length(); ++resolutionOrder) {
+      if (this.layouts.get(resolutionOrder) != null) {
+        this.buildLayout(resolutionOrder);
+      }
+    }
+  }
+
+  /**
+   * Builds layout of the current tree unless a layout of this or a newer tree version has been built meanwhile.
+   * Tree is only locked to take its root: nodes are immutable and contig catalog publishes copy-on-write snapshots, so the build itself needs no locks.
+   */
+  private @NotNull Layout buildLayout(final int resolutionOrder) {
+    final var contigTree = this.chunkedFile.getContigTree();
+    final @Nullable ContigTree.Node root;
+    final long version;
+    final var lock = contigTree.getRootLock();
+    try {
+      lock.readLock().lock();
+      root = contigTree.getRoot();
+      version = contigTree.getVersion();
+    } finally {
+      lock.readLock().unlock();
+    }
+
+    synchronized (this.buildLocks[resolutionOrder]) {
+      final var current = this.layouts.get(resolutionOrder);
+      if (current != null && current.version() >= version) {
+        return current;
+      }
+      final var atus = new ATUSequence();
+      ContigTree.Node.traverseNodeAtResolution(root, ResolutionDescriptor.fromResolutionOrder(resolutionOrder), node -> {
+        final var contigATUs = node.getContigDescriptor().getATUsAtResolution(resolutionOrder, node.getTrueDirection());
+        contigATUs.appendTo(atus, 0, contigATUs.size());
+      });
+
+      final var flat = atus.toArray();
+      final var sums = new long[flat.length];
+      long sum = 0L;
+      for (int i = 0; i < flat.length; ++i) {
+        sum += PackedATU.length(flat[i]);
+        sums[i] = sum;
+      }
+      log.debug("Built assembly layout of " + flat.length + " ATUs at resolution order " + resolutionOrder + " for tree version " + version);
+      final var layout = new Layout(version, flat, sums);
+      this.layouts.set(resolutionOrder, layout);
+      return layout;
+    }
+  }
+
+  /**
+   * Packed ATUs of visible contigs in assembly order with prefix sums of their lengths.
+   */
+  public record Layout(long version, @NotNull ContigCatalog.ContigATUs atus) {
+    public Layout(final long version, final long @NotNull [] atus, final long @NotNull [] sums) {
+      this(version, new ContigCatalog.ContigATUs(atus, sums, 0, atus.length));
+    }
+
+    public long totalLength() {
+      return this.atus.total();
+    }
+
+    /**
+     * @return ATUs covering pixels from <code>startPxIncl</code> to <code>endPxExcl</code> with the boundary ones trimmed, not reduced.
+     */
+    public @NotNull ATUSequence getATUsForRange(final long startPxIncl, final long endPxExcl) {
+      final var startPx = Long.max(0L, startPxIncl);
+      final var endPx = Long.min(this.totalLength(), endPxExcl);
+      if (endPx <= startPx) {
+        return new ATUSequence(0);
+      }
+
+      final var firstIndex = this.atus.upperBound(startPx);
+      final var lastIndex = this.atus.lowerBound(endPx);
+
+      final var firstTrim = (int) (startPx - ((firstIndex == 0) ? 0L : this.atus.prefixSum(firstIndex - 1)));
+      final var lastTrim = (int) (this.atus.prefixSum(lastIndex) - endPx);
+
+      if (firstIndex == lastIndex) {
+        return ATUSequence.of(trimEnd(trimStart(this.atus.get(firstIndex), firstTrim), lastTrim));
+      }
+
+      final var result = new ATUSequence(1 + lastIndex - firstIndex);
+      result.add(trimStart(this.atus.get(firstIndex), firstTrim));
+      this.atus.appendTo(result, 1 + firstIndex, lastIndex);
+      result.add(trimEnd(this.atus.get(lastIndex), lastTrim));
+      return result;
+    }
+
+    /**
+     * Removes first pixels of the ATU as they are seen in assembly order.
+     */
+    private static long trimStart(final long atu, final int trim) {
+      return PackedATU.isReversed(atu)
+        ? PackedATU.withEnd(atu, PackedATU.end(atu) - trim)
+        : PackedATU.withStart(atu, PackedATU.start(atu) + trim);
+    }
+
+    /**
+     * Removes last pixels of the ATU as they are seen in assembly order.
+     */
+    private static long trimEnd(final long atu, final int trim) {
+      return PackedATU.isReversed(atu)
+        ? PackedATU.withStart(atu, PackedATU.start(atu) + trim)
+        : PackedATU.withEnd(atu, PackedATU.end(atu) - trim);
+    }
+  }
+}
@@ -24,22 +24,25 @@
 
 package ru.itmo.ctlab.hict.hict_library.chunkedfile;
 
-import ch.systemsx.cisd.hdf5.HDF5Factory;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.pool2.ObjectPool;
-import org.apache.commons.pool2.impl.GenericObjectPool;
-import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import ru.itmo.ctlab.hict.hict_library.assembly.AGPProcessor;
 import ru.itmo.ctlab.hict.hict_library.assembly.FASTAProcessor;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.cache.BlockCache;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.hdf5.BlockIndex;
 import ru.itmo.ctlab.hict.hict_library.chunkedfile.hdf5.HDF5FileDatasetsBundle;
-import ru.itmo.ctlab.hict.hict_library.chunkedfile.hdf5.HDF5FileDatasetsBundleFactory;
 import ru.itmo.ctlab.hict.hict_library.chunkedfile.resolution.ResolutionDescriptor;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.util.QueryExecutor;
 import ru.itmo.ctlab.hict.hict_library.domain.AssemblyInfo;
+import ru.itmo.ctlab.hict.hict_library.domain.ContigCatalog;
 import ru.itmo.ctlab.hict.hict_library.domain.ContigDescriptor;
 import ru.itmo.ctlab.hict.hict_library.domain.QueryLengthUnit;
+import ru.itmo.ctlab.hict.hict_library.domain.StripeDescriptor;
 import ru.itmo.ctlab.hict.hict_library.trees.ContigTree;
 import ru.itmo.ctlab.hict.hict_library.trees.ScaffoldTree;
 import ru.itmo.ctlab.hict.hict_library.visualization.TileVisualizationProcessor;
@@ -50,74 +53,74 @@ import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.LongStream;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
+/**
+ * Assembly of an opened file with queries and operations over it. Read-only file state lives in {@link ChunkedFileResources},
+ * which may be shared with other instances, while contig and scaffold trees, layout index and contig catalog belong to this one.
+ */
 @Getter
 @Slf4j
 public class ChunkedFile implements AutoCloseable {
 
-  private final @NotNull Path hdfFilePath;
-  //  private final long[] blockCount;
-  private final int denseBlockSize;
-  private final long @NotNull [] resolutions;
-  private final Map<@NotNull Long, @NotNull Integer> resolutionToIndex;
+  private final @NotNull ChunkedFileResources resources;
+  @Getter(AccessLevel.NONE)
+  private final boolean ownsResources;
   private final long @NotNull [] matrixSizeBins;
-  private final int @NotNull [] stripeCount;
-  private final double @NotNull [] resolutionScalingCoefficient, resolutionLinearScalingCoefficient;
+  private final @NotNull ContigCatalog contigCatalog;
   private final @NotNull ContigTree contigTree;
   private final @NotNull ScaffoldTree scaffoldTree;
   private final @NotNull MatrixQueries matrixQueries;
+  private final @NotNull AssemblyLayoutIndex assemblyLayoutIndex;
   private final @NotNull ScaffoldingOperations scaffoldingOperations;
-  private final @NotNull List<ObjectPool<HDF5FileDatasetsBundle>> datasetBundlePools;
   private final @NotNull AGPProcessor agpProcessor;
   private final @NotNull Map<String, ContigDescriptor> originalDescriptors;
   private final @NotNull TileVisualizationProcessor tileVisualizationProcessor;
   private final @NotNull FASTAProcessor fastaProcessor;
-  @Getter
-  private final AtomicInteger parallelThreadCount = new AtomicInteger(4);
+  /**
+   * Whether ATUs of the resolution were put into the contig catalog of this file, by resolution order.
+   */
+  @Getter(AccessLevel.NONE)
+  private final @NotNull AtomicIntegerArray catalogResolutionLoaded;
 
 
+  /**
+   * Opens the file with resources of its own, they are closed together with this file.
+   */
   public ChunkedFile(final @NotNull ChunkedFileOptions options) {
-    this.hdfFilePath = options.hdfFilePath;
-
-
-    try (final var reader = HDF5Factory.openForReading(this.hdfFilePath.toFile())) {
-      this.resolutions = LongStream.concat(LongStream.of(0L), reader.object().getAllGroupMembers("/resolutions").parallelStream().filter(s -> {
-        try {
-          log.debug("Trying to parse " + s + " as a resolution");
-          Long.parseLong(s);
-          log.debug("Found new resolution: " + s);
-          return true;
-        } catch (final NumberFormatException nfe) {
-          log.debug("Not a resolution: " + s);
-          return false;
-        }
-      }).mapToLong(Long::parseLong)).sorted().toArray();
-
-
-      this.denseBlockSize = (int) Arrays.stream(resolutions).sorted().skip(1L).map(res -> reader.int64().getAttr(String.format("/resolutions/%d/treap_coo", res), "dense_submatrix_size")).max().orElse(256L);
-      log.info("Dense block size: " + this.denseBlockSize);
+    this(new ChunkedFileResources(options), true);
+  }
 
-      log.debug("Resolutions count: " + resolutions.length);
+  /**
+   * Builds the assembly stored in the file on top of shared resources, which are not closed together with this file.
+   */
+  public ChunkedFile(final @NotNull ChunkedFileResources resources) {
+    this(resources, false);
+  }
 
-      this.stripeCount = new int[resolutions.length];
+  private ChunkedFile(final @NotNull ChunkedFileResources resources, final boolean ownsResources) {
+    this.resources = resources;
+    this.ownsResources = ownsResources;
+    final var metadata = resources.getMetadata();
+    final var resolutions = resources.getResolutions();
 
-      this.resolutionToIndex = new ConcurrentHashMap<>();
-      for (int i = 0; i < this.resolutions.length; i++) {
-        this.resolutionToIndex.put(this.resolutions[i], i);
+    this.catalogResolutionLoaded = new AtomicIntegerArray(resolutions.length);
+    this.contigCatalog = new ContigCatalog(resolutions.length, metadata.contigNames().length);
+    this.contigTree = new ContigTree();
+    Initializers.initializeContigTree(this, metadata);
+    for (int i = 1; i < resolutions.length; ++i) {
+      if (resources.isLoaded(i)) {
+        this.ensureResolutionLoaded(i);
       }
     }
-    this.contigTree = new ContigTree();
-    Initializers.initializeContigTree(this);
     final var originalDescriptors = new ConcurrentHashMap<String, ContigDescriptor>();
     this.contigTree.getContigDescriptors().values().forEach(contigDescriptor -> originalDescriptors.put(contigDescriptor.getContigName(), contigDescriptor));
     this.originalDescriptors = originalDescriptors;
-    this.matrixSizeBins = new long[this.resolutions.length];
+    this.matrixSizeBins = new long[resolutions.length];
     this.matrixSizeBins[0] = this.contigTree.getLengthInUnits(QueryLengthUnit.BASE_PAIRS, ResolutionDescriptor.fromResolutionOrder(0));
-    for (int i = 1; i < this.resolutions.length; ++i) {
+    for (int i = 1; i < resolutions.length; ++i) {
       this.matrixSizeBins[i] = this.contigTree.getLengthInUnits(QueryLengthUnit.BINS, ResolutionDescriptor.fromResolutionOrder(i));
       log.debug("Matrix size at resolution order=" + i + " is " + this.matrixSizeBins[i]);
     }
@@ -125,43 +128,76 @@ public class ChunkedFile implements AutoCloseable {
     Initializers.initializeScaffoldTree(this);
 
     this.matrixQueries = new MatrixQueries(this);
+    this.assemblyLayoutIndex = new AssemblyLayoutIndex(this);
     this.scaffoldingOperations = new ScaffoldingOperations(this);
-    {
-      this.datasetBundlePools = new CopyOnWriteArrayList<org.apache.commons.pool2.ObjectPool<HDF5FileDatasetsBundle>>();
-      this.datasetBundlePools.add(null);
-      final var poolConfig = new GenericObjectPoolConfig<HDF5FileDatasetsBundle>();
-      poolConfig.setMaxTotal(options.maxDatasetPoolSize());
-      poolConfig.setMinIdle(options.minDatasetPoolSize());
-      poolConfig.setBlockWhenExhausted(true);
-      for (int i = 1; i < this.resolutions.length; ++i) {
-        this.datasetBundlePools.add(new GenericObjectPool<HDF5FileDatasetsBundle>(
-          new HDF5FileDatasetsBundleFactory(ResolutionDescriptor.fromResolutionOrder(i), this),
-          poolConfig
-        ));
-      }
-      log.info("Using dataset pools with minimum of " + options.minDatasetPoolSize() + " readily available bundles and maximum of " + options.maxDatasetPoolSize() + " readily available bundles.");
-    }
     this.agpProcessor = new AGPProcessor(this);
     this.tileVisualizationProcessor = new TileVisualizationProcessor(this);
     this.fastaProcessor = new FASTAProcessor(this);
+  }
 
-    this.resolutionScalingCoefficient = new double[this.resolutions.length];
-    this.resolutionLinearScalingCoefficient = new double[this.resolutions.length];
-    this.resolutionScalingCoefficient[0] = 1.0d;
-    this.resolutionScalingCoefficient[1] = 1.0d;
-    this.resolutionLinearScalingCoefficient[0] = 1.0d;
-    this.resolutionLinearScalingCoefficient[1] = 1.0d;
-    for (int i = 2; i < this.resolutions.length; ++i) {
-      final var ratio = (this.resolutions[i] / this.resolutions[1]);
-      this.resolutionScalingCoefficient[i] = 1.0d / ((double) (ratio * ratio));
-      this.resolutionLinearScalingCoefficient[i] = 1.0d / ((double) ratio);
-    }
+  public @NotNull Path getHdfFilePath() {
+    return this.resources.getHdfFilePath();
+  }
+
+  public @NotNull ChunkedFileOptions getOptions() {
+    return this.resources.getOptions();
+  }
+
+  public int getDenseBlockSize() {
+    return this.resources.getDenseBlockSize();
+  }
+
+  public @NotNull Map<@NotNull Long, @NotNull Integer> getResolutionToIndex() {
+    return this.resources.getResolutionToIndex();
+  }
+
+  public int @NotNull [] getStripeCount() {
+    return this.resources.getStripeCount();
+  }
+
+  /**
+   * Stripes of each resolution by stripe id, <code>null</code> until the resolution is loaded. Packed ATUs refer to stripes by id.
+   */
+  public @NotNull List<@Nullable List<@NotNull StripeDescriptor>> getStripeDescriptors() {
+    return this.resources.getStripeDescriptors();
+  }
+
+  public double @NotNull [] getResolutionScalingCoefficient() {
+    return this.resources.getResolutionScalingCoefficient();
+  }
+
+  public double @NotNull [] getResolutionLinearScalingCoefficient() {
+    return this.resources.getResolutionLinearScalingCoefficient();
+  }
+
+  public @NotNull List<ObjectPool<HDF5FileDatasetsBundle>> getDatasetBundlePools() {
+    return this.resources.getDatasetBundlePools();
+  }
+
+  public @NotNull List<BlockIndex> getBlockIndices() {
+    return this.resources.getBlockIndices();
+  }
+
+  public @NotNull BlockCache getBlockCache() {
+    return this.resources.getBlockCache();
+  }
+
+  public @NotNull QueryExecutor getQueryExecutor() {
+    return this.resources.getQueryExecutor();
+  }
+
+  public int getParallelThreadCount() {
+    return this.resources.getParallelThreadCount();
   }
 
   public @NotNull MatrixQueries matrixQueries() {
     return this.matrixQueries;
   }
 
+  public @NotNull AssemblyLayoutIndex assemblyLayoutIndex() {
+    return this.assemblyLayoutIndex;
+  }
+
   public @NotNull ScaffoldingOperations scaffoldingOperations() {
     return this.scaffoldingOperations;
   }
@@ -171,21 +207,45 @@ public class ChunkedFile implements AutoCloseable {
   }
 
   public long @NotNull [] getResolutions() {
-    return this.resolutions;
+    return this.resources.getResolutions();
   }
 
   public @NotNull List<@NotNull Long> getResolutionsList() {
-    return Arrays.stream(this.resolutions).boxed().toList();
+    return Arrays.stream(this.getResolutions()).boxed().toList();
   }
 
   public @NotNull AssemblyInfo getAssemblyInfo() {
     return new AssemblyInfo(this.contigTree.getOrderedContigList(), this.scaffoldTree.getScaffoldList());
   }
 
+  /**
+   * Makes sure that stripes, ATUs and dataset pools of the resolution are loaded, blocking until they are.
+   * Does nothing for resolutions loaded when the file was opened, see {@link ChunkedFileOptions#eagerResolutionCount()}.
+   */
+  public void ensureResolutionLoaded(final int resolutionOrder) {
+    if (this.catalogResolutionLoaded.get(resolutionOrder) != 0) {
+      return;
+    }
+    this.resources.ensureLoaded(resolutionOrder);
+    synchronized (this.catalogResolutionLoaded) {
+      if (this.catalogResolutionLoaded.get(resolutionOrder) == 0) {
+        // Contigs are only split once all resolutions are loaded, so every contig of a pending resolution comes from the file:
+        this.contigCatalog.putATUsAtResolution(resolutionOrder, Objects.requireNonNull(this.resources.getFileContigATUs().get(resolutionOrder)));
+        this.catalogResolutionLoaded.set(resolutionOrder, 1);
+      }
+    }
+  }
+
+  public void ensureAllResolutionsLoaded() {
+    for (int i = this.getResolutions().length - 1; i > 0; --i) {
+      this.ensureResolutionLoaded(i);
+    }
+  }
+
   @Override
   public void close() {
-    for (int i = 1; i < resolutions.length; ++i) {
-      this.datasetBundlePools.get(i).close();
+    if (this.ownsResources) {
+      this.resources.close();
     }
   }
 
@@ -199,8 +259,8 @@ public class ChunkedFile implements AutoCloseable {
       lock.readLock().lock();
       final var es = contigTree.expose(fromResolution, position, 1 + position, fromUnits);
 
-      final var fromBpResolution = this.resolutions[fromResolution.getResolutionOrderInArray()];
-      final var toBpResolution = this.resolutions[toResolution.getResolutionOrderInArray()];
+      final var fromBpResolution = this.getResolutions()[fromResolution.getResolutionOrderInArray()];
+      final var toBpResolution = this.getResolutions()[toResolution.getResolutionOrderInArray()];
 
       final long leftFromUnits = (es.less() == null) ? 0L : es.less().getSubtreeLengthInUnits(fromUnits, fromResolution);
       final var leftToUnits = (es.less() == null) ? 0L : es.less().getSubtreeLengthInUnits(toUnits, toResolution);
@@ -238,7 +298,18 @@ public class ChunkedFile implements AutoCloseable {
     }
   }
 
-  public record ChunkedFileOptions(@NotNull Path hdfFilePath, int minDatasetPoolSize, int maxDatasetPoolSize) {
-
+  /**
+   * @param parallelThreadCount       number of threads used to fetch submatrices, non-positive value means the same as <code>maxDatasetPoolSize</code>.
+   * @param metadataSnapshotDirectory directory for metadata snapshots that make reopening unchanged files fast, <code>null</code> disables snapshots.
+   * @param eagerResolutionCount      number of the coarsest resolutions loaded when the file is opened, others are loaded on first access or in background.
+   *                                  Non-positive value loads all resolutions when the file is opened.
+   */
+  public record ChunkedFileOptions(@NotNull Path hdfFilePath, int minDatasetPoolSize, int maxDatasetPoolSize,
+                                   long blockCacheSizeBytes, int parallelThreadCount,
+                                   @Nullable Path metadataSnapshotDirectory, int eagerResolutionCount) {
+
+    public ChunkedFileOptions(final @NotNull Path hdfFilePath, final int minDatasetPoolSize, final int maxDatasetPoolSize, final long blockCacheSizeBytes, final int parallelThreadCount) {
+      this(hdfFilePath, minDatasetPoolSize, maxDatasetPoolSize, blockCacheSizeBytes, parallelThreadCount, null, 0);
+    }
   }
 }
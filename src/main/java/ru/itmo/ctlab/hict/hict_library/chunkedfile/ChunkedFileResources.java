@@ -0,0 +1,177 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2024. Aleksandr Serdiukov, Anton Zamyatin, Aleksandr Sinitsyn, Vitalii Dravgelis and Computer Technologies Laboratory ITMO University team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ru.itmo.ctlab.hict.hict_library.chunkedfile;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.pool2.ObjectPool;
+import org.apache.commons.pool2.impl.GenericObjectPool;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.cache.BlockCache;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.hdf5.BlockIndex;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.hdf5.HDF5FileDatasetsBundle;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.hdf5.HDF5FileDatasetsBundleFactory;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.metadata.FileMetadata;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.resolution.ResolutionDescriptor;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.util.QueryExecutor;
+import ru.itmo.ctlab.hict.hict_library.domain.ATUSequence;
+import ru.itmo.ctlab.hict.hict_library.domain.StripeDescriptor;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.IntStream;
+
+/**
+ * Read-only part of an opened file: metadata, stripes and ATUs as stored in the file, HDF5 dataset pools with block indices,
+ * decoded block cache and query executor. It may be shared by several {@link ChunkedFile}s, each of them with its own assembly.
+ */
+@Getter
+@Slf4j
+public class ChunkedFileResources implements AutoCloseable {
+  private final @NotNull Path hdfFilePath;
+  private final @NotNull ChunkedFile.ChunkedFileOptions options;
+  private final @NotNull FileMetadata metadata;
+  private final int denseBlockSize;
+  private final long @NotNull [] resolutions;
+  private final Map<@NotNull Long, @NotNull Integer> resolutionToIndex;
+  private final int @NotNull [] stripeCount;
+  /**
+   * Stripes of each resolution by stripe id, <code>null</code> until the resolution is loaded. Packed ATUs refer to stripes by id.
+   */
+  private final @NotNull List<@Nullable List<@NotNull StripeDescriptor>> stripeDescriptors;
+  /**
+   * ATUs of each contig of the file by contig id at each resolution, <code>null</code> until the resolution is loaded.
+   */
+  private final @NotNull AtomicReferenceArray<@Nullable List<@NotNull ATUSequence>> fileContigATUs;
+  private final double @NotNull [] resolutionScalingCoefficient, resolutionLinearScalingCoefficient;
+  private final @NotNull List<ObjectPool<HDF5FileDatasetsBundle>> datasetBundlePools;
+  private final @NotNull List<BlockIndex> blockIndices;
+  private final @NotNull BlockCache blockCache;
+  private final @NotNull QueryExecutor queryExecutor;
+  private final int parallelThreadCount;
+  private final @NotNull ResolutionLoader resolutionLoader;
+
+  public ChunkedFileResources(final @NotNull ChunkedFile.ChunkedFileOptions options) {
+    this.hdfFilePath = options.hdfFilePath();
+    this.options = options;
+
+    this.metadata = Initializers.loadFileMetadata(options);
+    this.resolutions = this.metadata.resolutions();
+    this.denseBlockSize = this.metadata.denseBlockSize();
+    log.info("Dense block size: " + this.denseBlockSize);
+    log.debug("Resolutions count: " + this.resolutions.length);
+
+    this.resolutionToIndex = new ConcurrentHashMap<>();
+    for (int i = 0; i < this.resolutions.length; i++) {
+      this.resolutionToIndex.put(this.resolutions[i], i);
+    }
+    this.stripeCount = new int[this.resolutions.length];
+    this.stripeDescriptors = new CopyOnWriteArrayList<>(Collections.nCopies(this.resolutions.length, null));
+    this.fileContigATUs = new AtomicReferenceArray<>(this.resolutions.length);
+    // Eager resolutions are built from in-memory arrays, so they do not contend for the reader:
+    IntStream.range(1, this.resolutions.length)
+      .filter(i -> Initializers.isLoadedEagerly(i, this.resolutions.length, options.eagerResolutionCount()))
+      .parallel()
+      .forEach(i -> Initializers.loadResolution(this, i, this.metadata.resolutionMetadata()[i]));
+
+    this.blockCache = new BlockCache(options.blockCacheSizeBytes());
+    log.info("Using decoded block cache of " + options.blockCacheSizeBytes() + " bytes");
+    this.parallelThreadCount = (options.parallelThreadCount() > 0) ? options.parallelThreadCount() : options.maxDatasetPoolSize();
+    this.queryExecutor = new QueryExecutor(this.parallelThreadCount);
+    log.info("Using " + this.parallelThreadCount + " threads for matrix queries");
+
+    this.datasetBundlePools = new CopyOnWriteArrayList<>(Collections.nCopies(this.resolutions.length, null));
+    this.blockIndices = new CopyOnWriteArrayList<>(Collections.nCopies(this.resolutions.length, null));
+    this.resolutionLoader = new ResolutionLoader(this, this.metadata);
+    for (int i = 1; i < this.resolutions.length; ++i) {
+      if (this.resolutionLoader.isLoaded(i)) {
+        this.openResolutionDatasets(i);
+      }
+    }
+    log.info("Using dataset pools with minimum of " + options.minDatasetPoolSize() + " readily available bundles and maximum of " + options.maxDatasetPoolSize() + " readily available bundles.");
+
+    this.resolutionScalingCoefficient = new double[this.resolutions.length];
+    this.resolutionLinearScalingCoefficient = new double[this.resolutions.length];
+    this.resolutionScalingCoefficient[0] = 1.0d;
+    this.resolutionScalingCoefficient[1] = 1.0d;
+    this.resolutionLinearScalingCoefficient[0] = 1.0d;
+    this.resolutionLinearScalingCoefficient[1] = 1.0d;
+    for (int i = 2; i < this.resolutions.length; ++i) {
+      final var ratio = (this.resolutions[i] / this.resolutions[1]);
+      this.resolutionScalingCoefficient[i] = 1.0d / ((double) (ratio * ratio));
+      this.resolutionLinearScalingCoefficient[i] = 1.0d / ((double) ratio);
+    }
+    // Started last so that the loader only observes fully constructed resources:
+    this.resolutionLoader.startBackgroundLoading();
+  }
+
+  /**
+   * Makes sure that stripes, ATUs and dataset pools of the resolution are loaded, blocking until they are.
+   */
+  public void ensureLoaded(final int resolutionOrder) {
+    this.resolutionLoader.ensureLoaded(resolutionOrder);
+  }
+
+  public boolean isLoaded(final int resolutionOrder) {
+    return this.resolutionLoader.isLoaded(resolutionOrder);
+  }
+
+  /**
+   * Creates dataset pool and block index of the resolution once its stripes are known.
+   */
+  void openResolutionDatasets(final int resolutionOrder) {
+    final var poolConfig = new GenericObjectPoolConfig<HDF5FileDatasetsBundle>();
+    poolConfig.setMaxTotal(this.options.maxDatasetPoolSize());
+    poolConfig.setMinIdle(this.options.minDatasetPoolSize());
+    poolConfig.setBlockWhenExhausted(true);
+    final var pool = new GenericObjectPool<HDF5FileDatasetsBundle>(
+      new HDF5FileDatasetsBundleFactory(ResolutionDescriptor.fromResolutionOrder(resolutionOrder), this),
+      poolConfig
+    );
+    this.datasetBundlePools.set(resolutionOrder, pool);
+    this.blockIndices.set(resolutionOrder, new BlockIndex(this.stripeCount[resolutionOrder], pool));
+  }
+
+  @Override
+  public void close() {
+    log.info("Closing file " + this.hdfFilePath + ", block cache statistics: " + this.blockCache.getStatistics());
+    this.resolutionLoader.close();
+    this.queryExecutor.close();
+    this.blockCache.invalidateAll();
+    for (int i = 1; i < this.resolutions.length; ++i) {
+      final var pool = this.datasetBundlePools.get(i);
+      if (pool != null) {
+        pool.close();
+      }
+    }
+  }
+}
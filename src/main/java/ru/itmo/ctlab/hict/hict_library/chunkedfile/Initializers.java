@@ -29,15 +29,20 @@ import ch.systemsx.cisd.hdf5.IHDF5Reader;
 import lombok.extern.slf4j.Slf4j;
 import org.jetbrains.annotations.NotNull;
 import ru.itmo.ctlab.hict.hict_library.chunkedfile.hdf5.HDF5LibraryInitializer;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.metadata.FileMetadata;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.metadata.MetadataSnapshot;
 import ru.itmo.ctlab.hict.hict_library.domain.*;
 import ru.itmo.ctlab.hict.hict_library.trees.ContigTree;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.Executors;
+import java.util.Objects;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.stream.LongStream;
 
 import static ru.itmo.ctlab.hict.hict_library.chunkedfile.util.PathGenerators.*;
 
@@ -47,190 +52,202 @@ public class Initializers {
     HDF5LibraryInitializer.initializeHDF5Library();
   }
 
-  public static @NotNull List<@NotNull StripeDescriptor> readStripeDescriptors(final long resolution, final @NotNull IHDF5Reader reader) {
-    final List<StripeDescriptor> result = new ArrayList<>();
-    final long[] stripeLengthBins;
-    try (final var stripeLengthsBinsDataset = reader.object().openDataSet(getStripeLengthsBinsDatasetPath(resolution))) {
-      stripeLengthBins = reader.int64().readArray(stripeLengthsBinsDataset.getDataSetPath());
-    }
-
-    for (int stripeId = 0; stripeId < stripeLengthBins.length; ++stripeId) {
-      try (final var stripeBinWeightsDataset = reader.object().openDataSet(getStripeBinWeightsDatasetPath(resolution))) {
-        final var stripeBinWeights = reader.float64().readMDArraySlice(stripeBinWeightsDataset, new long[]{stripeId, -1L});
-        final var newStripe = new StripeDescriptor(stripeId, stripeLengthBins[stripeId], stripeBinWeights.getAsFlatArray());
-        result.add(newStripe);
-      }
-    }
-
-    return result;
+  private static @NotNull FileMetadata.ResolutionMetadata readResolutionMetadata(final long resolution, final @NotNull IHDF5Reader reader) {
+    return new FileMetadata.ResolutionMetadata(
+      reader.int64().readArray(getStripeLengthsBinsDatasetPath(resolution)),
+      reader.float64().readMatrix(getStripeBinWeightsDatasetPath(resolution)),
+      reader.int64().readMatrix(getBasisATUDatasetPath(resolution)),
+      reader.int8().readArray(getContigHideTypeDatasetPath(resolution)),
+      reader.int64().readArray(getContigLengthBinsDatasetPath(resolution)),
+      reader.int64().readMatrix(getContigsATLDatasetPath(resolution))
+    );
   }
 
-  public static @NotNull List<@NotNull ATUDescriptor> readATL(final long resolution, final @NotNull IHDF5Reader reader, final List<StripeDescriptor> stripeDescriptors) {
-    final List<ATUDescriptor> result;
-    final long[][] basisAtuArray;
-
-    log.debug("Reading ATL for resolution " + resolution);
+  private static @NotNull FileMetadata.ResolutionMetadata readContigLengthsMetadata(final long resolution, final @NotNull IHDF5Reader reader) {
+    return new FileMetadata.ResolutionMetadata(
+      null,
+      null,
+      null,
+      reader.int8().readArray(getContigHideTypeDatasetPath(resolution)),
+      reader.int64().readArray(getContigLengthBinsDatasetPath(resolution)),
+      null
+    );
+  }
 
-    try (final var basisATUDataset = reader.object().openDataSet(getBasisATUDatasetPath(resolution))) {
-      basisAtuArray = reader.int64().readMatrix(basisATUDataset.getDataSetPath());
+  /**
+   * Loads metadata from the snapshot if it is enabled and up-to-date, otherwise reads it from HDF5 and refreshes the snapshot.
+   */
+  public static @NotNull FileMetadata loadFileMetadata(final @NotNull ChunkedFile.ChunkedFileOptions options) {
+    final var snapshotDirectory = options.metadataSnapshotDirectory();
+    if (snapshotDirectory == null) {
+      return readFileMetadata(options.hdfFilePath(), options.eagerResolutionCount());
     }
-
-    result = Arrays.stream(basisAtuArray).map(row -> {
-        final var atu = new ATUDescriptor(
-          stripeDescriptors.get((int) row[0]),
-          (int) row[1],
-          (int) row[2],
-          ATUDirection.values()[(int) row[3]]
-        );
-
-//        log.debug("Built ATU: StripeID=" + atu.getStripeDescriptor().stripeId() + " start=" + atu.getStartIndexInStripeIncl() + " end=" + atu.getEndIndexInStripeExcl() + " direction=" + atu.getDirection());
-
-        return atu;
-      }
-    ).collect(Collectors.toList());
-
-
-    return result;
+    final var startTime = System.currentTimeMillis();
+    final var snapshotPath = MetadataSnapshot.snapshotPath(snapshotDirectory, options.hdfFilePath());
+    final var key = MetadataSnapshot.Key.of(options.hdfFilePath());
+    final var snapshot = MetadataSnapshot.read(snapshotPath, key);
+    if (snapshot != null) {
+      log.info("Loaded metadata snapshot " + snapshotPath + " in " + (System.currentTimeMillis() - startTime) + "ms");
+      return snapshot;
+    }
+    // Snapshot could only be saved from complete metadata, so lazy loading is not applied to the file read:
+    final var metadata = readFileMetadata(options.hdfFilePath(), 0);
+    try {
+      MetadataSnapshot.write(snapshotPath, key, metadata);
+      log.info("Saved metadata snapshot " + snapshotPath);
+    } catch (final IOException e) {
+      log.warn("Cannot save metadata snapshot " + snapshotPath, e);
+    }
+    return metadata;
   }
 
-  public static @NotNull List<ContigTree.@NotNull ContigTuple> buildContigDescriptors(final ChunkedFile chunkedFile) {
-    final var resolutions = chunkedFile.getResolutions();
-    final List<List<StripeDescriptor>> resolutionOrderToStripes = new ArrayList<>(resolutions.length);
-    IntStream.range(0, resolutions.length).forEach(idx -> resolutionOrderToStripes.add(null));
-    final List<List<ATUDescriptor>> resolutionOrderToBasisATUs = new ArrayList<>(resolutions.length);
-    IntStream.range(0, resolutions.length).forEach(idx -> resolutionOrderToBasisATUs.add(null));
-    final List<List<ContigDescriptorDataBundle>> contigDescriptorDataBundles = new ArrayList<>(resolutions.length);
-    contigDescriptorDataBundles.add(new ArrayList<>());
-    IntStream.range(1, resolutions.length).forEach(idx -> contigDescriptorDataBundles.add(null));
-    final List<ContigDirection> contigDirections;
-    final String[] contigNames;
-    final long[] contigLengthBp;
-
-    final int contigCount;
-    try (final var reader = HDF5Factory.openForReading(chunkedFile.getHdfFilePath().toFile())) {
-//      try (final ExecutorService executorService = Executors.newFixedThreadPool(8)) {
-//        for (int i = 0; i < resolutions.length; ++i) {
-//          final int finalI = i;
-//          executorService.submit(() -> {
-//            final var stripes = readStripeDescriptors(resolutions[finalI], reader);
-//            resolutionOrderToStripes.set(finalI, stripes);
-//            final var atus = readATL(resolutions[finalI], reader, stripes);
-//            resolutionOrderToBasisATUs.set(finalI, atus);
-//            final var dataBundles = readContigDataBundles(resolutions[finalI], reader, atus);
-//            contigDescriptorDataBundles.set(finalI, dataBundles);
-//          });
-//        }
-//      }
-      try (final var executorService = Executors.newWorkStealingPool()) {
-        for (int i = 1; i < resolutions.length; ++i) {
-          int finalI = i;
-          executorService.submit(() -> {
-            final var stripes = readStripeDescriptors(resolutions[finalI], reader);
-            resolutionOrderToStripes.set(finalI, stripes);
-            chunkedFile.getStripeCount()[finalI] = stripes.size();
-            final var atus = readATL(resolutions[finalI], reader, stripes);
-            resolutionOrderToBasisATUs.set(finalI, atus);
-            final var dataBundles = readContigDataBundles(resolutions[finalI], reader, atus);
-            contigDescriptorDataBundles.set(finalI, dataBundles);
-          });
+  /**
+   * @param eagerResolutionCount Number of the coarsest resolutions whose stripes and ATUs are read, non-positive value means all resolutions.
+   */
+  public static @NotNull FileMetadata readFileMetadata(final @NotNull Path hdfFilePath, final int eagerResolutionCount) {
+    final var startTime = System.currentTimeMillis();
+    try (final var reader = HDF5Factory.openForReading(hdfFilePath.toFile())) {
+      final var resolutions = LongStream.concat(LongStream.of(0L), reader.object().getAllGroupMembers("/resolutions").stream().filter(s -> {
+        try {
+          log.debug("Trying to parse " + s + " as a resolution");
+          Long.parseLong(s);
+          log.debug("Found new resolution: " + s);
+          return true;
+        } catch (final NumberFormatException nfe) {
+          log.debug("Not a resolution: " + s);
+          return false;
         }
-      }
-
-      contigCount = contigDescriptorDataBundles.get(1).size();
-
-      try (final var contigDirectionDataset = reader.object().openDataSet(getContigDirectionDatasetPath())) {
-        contigDirections = Arrays.stream(reader.int64().readArray(contigDirectionDataset.getDataSetPath())).mapToInt(i -> (int) i).mapToObj(dir -> ContigDirection.values()[dir]).toList();
-      }
+      }).mapToLong(Long::parseLong)).sorted().toArray();
 
-      try (final var contigNamesDataset = reader.object().openDataSet(getContigNameDatasetPath())) {
-        contigNames = reader.string().readArray(contigNamesDataset.getDataSetPath());
-      }
+      final var denseBlockSize = (int) Arrays.stream(resolutions).skip(1L).map(res -> reader.int64().getAttr(String.format("/resolutions/%d/treap_coo", res), "dense_submatrix_size")).max().orElse(256L);
 
-      try (final var contigLengthBpDataset = reader.object().openDataSet(getContigLengthBpDatasetPath())) {
-        contigLengthBp = reader.int64().readArray(contigLengthBpDataset.getDataSetPath());
+      // HDF5 library serializes all calls anyway, so every dataset is read sequentially in a single bulk call:
+      final var resolutionMetadata = new FileMetadata.ResolutionMetadata[resolutions.length];
+      for (int i = 1; i < resolutions.length; ++i) {
+        resolutionMetadata[i] = isLoadedEagerly(i, resolutions.length, eagerResolutionCount) ? readResolutionMetadata(resolutions[i], reader) : readContigLengthsMetadata(resolutions[i], reader);
       }
-
-
+      final var metadata = new FileMetadata(
+        resolutions,
+        denseBlockSize,
+        resolutionMetadata,
+        reader.int64().readArray(getContigDirectionDatasetPath()),
+        reader.string().readArray(getContigNameDatasetPath()),
+        reader.int64().readArray(getContigLengthBpDatasetPath()),
+        reader.int64().readArray(getContigOrderDatasetPath())
+      );
+      log.debug("Read metadata of " + (resolutions.length - 1) + " resolutions in " + (System.currentTimeMillis() - startTime) + "ms");
+      return metadata;
     }
+  }
 
+  public static @NotNull List<ContigTree.@NotNull ContigTuple> buildContigDescriptors(final @NotNull ChunkedFile chunkedFile, final @NotNull FileMetadata fileMetadata) {
+    final var resolutions = fileMetadata.resolutions();
+    final var metadata = fileMetadata.resolutionMetadata();
+    final var contigDirections = Arrays.stream(fileMetadata.contigDirections()).mapToInt(i -> (int) i).mapToObj(dir -> ContigDirection.values()[dir]).toList();
+    final var contigNames = fileMetadata.contigNames();
+    final var contigLengthBp = fileMetadata.contigLengthBp();
+    final int contigCount = contigNames.length;
+    final var catalog = chunkedFile.getContigCatalog();
+
+    catalog.putContigs(contigLengthBp);
+    // Lengths are known right away so that contig tree is complete, ATUs are put by ChunkedFile#ensureResolutionLoaded:
+    for (int i = 1; i < resolutions.length; ++i) {
+      catalog.putResolution(i, metadata[i].contigLengthBins(), metadata[i].contigHideTypes());
+    }
 
     final var contigDescriptors = IntStream.range(0, contigCount).parallel().mapToObj(contigId -> new ContigDescriptor(
+      catalog,
       contigId,
       contigNames[contigId],
       contigLengthBp[contigId],
-      contigDescriptorDataBundles.stream().skip(1L).mapToLong(bundlesAtResolution -> bundlesAtResolution.get(contigId).lengthBins()).boxed().toList(),
-      contigDescriptorDataBundles.stream().skip(1L).map(bundlesAtResolution -> bundlesAtResolution.get(contigId).hideType()).toList(),
-      contigDescriptorDataBundles.stream().skip(1L).map(bundlesAtResolution -> bundlesAtResolution.get(contigId).atus()).toList(),
       contigNames[contigId], 0)
     );
 
     return contigDescriptors.map(contigDescriptor -> new ContigTree.ContigTuple(contigDescriptor, contigDirections.get(contigDescriptor.getContigId()))).toList();
   }
 
-  public static @NotNull List<@NotNull ContigDescriptorDataBundle> readContigDataBundles(final long resolution, final @NotNull IHDF5Reader reader, final List<ATUDescriptor> basisATUs) {
-    final List<ContigDescriptorDataBundle> result;
-    final byte[] chtBytes;
-    final long[] contigLengthBins;
-    final long[][] contigATUMapping;
+  /**
+   * Builds stripes and ATUs of contigs of the file at the given resolution and puts them into shared resources.
+   *
+   * @param knownMetadata Metadata of this resolution that was already read, stripes and ATUs are read from the file if it is not complete.
+   */
+  public static void loadResolution(final @NotNull ChunkedFileResources resources, final int resolutionOrder, final @NotNull FileMetadata.ResolutionMetadata knownMetadata) {
+    final var startTime = System.currentTimeMillis();
+    final FileMetadata.ResolutionMetadata metadata;
+    if (knownMetadata.isComplete()) {
+      metadata = knownMetadata;
+    } else {
+      try (final var reader = HDF5Factory.openForReading(resources.getHdfFilePath().toFile())) {
+        metadata = readResolutionMetadata(resources.getResolutions()[resolutionOrder], reader);
+      }
+    }
+    final var bundles = buildResolution(resources, resolutionOrder, metadata);
+    resources.getFileContigATUs().set(resolutionOrder, bundles.stream().map(ContigDescriptorDataBundle::atus).toList());
+    log.info("Loaded resolution " + resources.getResolutions()[resolutionOrder] + " in " + (System.currentTimeMillis() - startTime) + "ms");
+  }
 
+  public static boolean isLoadedEagerly(final int resolutionOrder, final int resolutionCount, final int eagerResolutionCount) {
+    return eagerResolutionCount <= 0 || resolutionOrder >= resolutionCount - eagerResolutionCount;
+  }
 
-    try (final var basisATUDataset = reader.object().openDataSet(getContigHideTypeDatasetPath(resolution))) {
-      chtBytes = reader.int8().readArray(basisATUDataset.getDataSetPath());
-    }
+  private static @NotNull List<@NotNull ContigDescriptorDataBundle> buildResolution(final @NotNull ChunkedFileResources resources, final int resolutionOrder, final FileMetadata.@NotNull ResolutionMetadata metadata) {
+    final var stripes = buildStripeDescriptors(Objects.requireNonNull(metadata.stripeLengthBins()), Objects.requireNonNull(metadata.stripeBinWeights()));
+    resources.getStripeCount()[resolutionOrder] = stripes.size();
+    resources.getStripeDescriptors().set(resolutionOrder, stripes);
+    final var atus = buildPackedATL(Objects.requireNonNull(metadata.basisATUs()));
+    return buildContigDataBundles(metadata.contigHideTypes(), metadata.contigLengthBins(), Objects.requireNonNull(metadata.contigATUMapping()), atus);
+  }
 
-    try (final var contigLengthBinsDataset = reader.object().openDataSet(getContigLengthBinsDatasetPath(resolution))) {
-      contigLengthBins = reader.int64().readArray(contigLengthBinsDataset.getDataSetPath());
-    }
+  private static @NotNull List<@NotNull StripeDescriptor> buildStripeDescriptors(final long @NotNull [] stripeLengthBins, final double @NotNull [] @NotNull [] stripeBinWeights) {
+    return IntStream.range(0, stripeLengthBins.length)
+      .mapToObj(stripeId -> new StripeDescriptor(stripeId, stripeLengthBins[stripeId], stripeBinWeights[stripeId]))
+      .collect(Collectors.toList());
+  }
 
-    try (final var contigATLDataset = reader.object().openDataSet(getContigsATLDatasetPath(resolution))) {
-      contigATUMapping = reader.int64().readMatrix(contigATLDataset.getDataSetPath());
-    }
+  private static long @NotNull [] buildPackedATL(final long @NotNull [] @NotNull [] basisAtuArray) {
+    return Arrays.stream(basisAtuArray).parallel().mapToLong(row -> PackedATU.pack(
+      (int) row[0],
+      (int) row[1],
+      (int) row[2],
+      ATUDirection.values()[(int) row[3]]
+    )).toArray();
+  }
 
-    final List<@NotNull List<ATUDescriptor>> contigIdToATUs = new ArrayList<>(contigLengthBins.length);
-    IntStream.range(0, contigLengthBins.length).forEach(idx -> contigIdToATUs.add(new ArrayList<>()));
+  private static @NotNull List<@NotNull ContigDescriptorDataBundle> buildContigDataBundles(final byte @NotNull [] chtBytes, final long @NotNull [] contigLengthBins, final long @NotNull [] @NotNull [] contigATUMapping, final long @NotNull [] basisATUs) {
+    final List<@NotNull ATUSequence> contigIdToATUs = new ArrayList<>(contigLengthBins.length);
+    IntStream.range(0, contigLengthBins.length).forEach(idx -> contigIdToATUs.add(new ATUSequence(4)));
 
     for (final var row : contigATUMapping) {
       final var contigId = row[0];
       final var atuId = row[1];
-      contigIdToATUs.get((int) contigId).add(basisATUs.get((int) atuId));
+      contigIdToATUs.get((int) contigId).add(basisATUs[(int) atuId]);
     }
 
-    result = IntStream.range(0, contigLengthBins.length).mapToObj(i ->
+    return IntStream.range(0, contigLengthBins.length).mapToObj(i ->
       new ContigDescriptorDataBundle(
         contigIdToATUs.get(i),
         ContigHideType.values()[chtBytes[i]],
         contigLengthBins[i]
       )
     ).collect(Collectors.toList());
-
-    return result;
   }
 
-  public static void initializeContigTree(final ChunkedFile chunkedFile) {
+  public static void initializeContigTree(final @NotNull ChunkedFile chunkedFile, final @NotNull FileMetadata fileMetadata) {
     log.debug("Chunked file has " + chunkedFile.getResolutions().length + " resolutions");
 
-    final var contigs = buildContigDescriptors(chunkedFile);
+    final var contigs = buildContigDescriptors(chunkedFile, fileMetadata);
+    final var contigOrder = fileMetadata.contigOrder();
 
-    final long[] contigOrder;
-    try (final var reader = HDF5Factory.openForReading(chunkedFile.getHdfFilePath().toFile())) {
-      try (final var contigOrderDataset = reader.object().openDataSet(getContigOrderDatasetPath())) {
-        contigOrder = reader.int64().readArray(contigOrderDataset.getDataSetPath());
-      }
-    }
-
-    final var contigTree = chunkedFile.getContigTree();
-
-    for (final var orderLong : contigOrder) {
-      final var order = (int) orderLong;
-      contigTree.appendContig(contigs.get(order).descriptor(), contigs.get(order).direction());
-    }
+    chunkedFile.getContigTree().commitOrderedContigs(
+      Arrays.stream(contigOrder).mapToObj(order -> contigs.get((int) order)).toList()
+    );
   }
 
   public static void initializeScaffoldTree(final ChunkedFile chunkedFile) {
   }
 
   private record ContigDescriptorDataBundle(
-    @NotNull List<@NotNull ATUDescriptor> atus,
+    @NotNull ATUSequence atus,
     @NotNull ContigHideType hideType,
     long lengthBins
   ) {
@@ -28,24 +28,20 @@ import ch.systemsx.cisd.base.mdarray.MDLongArray;
 import ch.systemsx.cisd.hdf5.IndexMap;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.lang3.ArrayUtils;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.cache.BlockCache;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.cache.DecodedBlock;
 import ru.itmo.ctlab.hict.hict_library.chunkedfile.hdf5.HDF5FileDatasetsBundle;
 import ru.itmo.ctlab.hict.hict_library.chunkedfile.resolution.ResolutionDescriptor;
-import ru.itmo.ctlab.hict.hict_library.domain.ATUDescriptor;
-import ru.itmo.ctlab.hict.hict_library.domain.ATUDirection;
-import ru.itmo.ctlab.hict.hict_library.domain.ContigDirection;
-import ru.itmo.ctlab.hict.hict_library.domain.QueryLengthUnit;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.util.QueryValidation;
+import ru.itmo.ctlab.hict.hict_library.domain.*;
 import ru.itmo.ctlab.hict.hict_library.trees.ContigTree;
-import ru.itmo.ctlab.hict.hict_library.util.BinarySearch;
 import ru.itmo.ctlab.hict.hict_library.util.CommonUtils;
-import ru.itmo.ctlab.hict.hict_library.util.matrix.SparseCOOMatrixLong;
 
 import java.util.*;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.Executors;
-import java.util.stream.Collectors;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
 
 @RequiredArgsConstructor
 @Slf4j
@@ -53,6 +49,18 @@ public class MatrixQueries {
   private final @NotNull ChunkedFile chunkedFile;
 
   public MatrixQueries.MatrixWithWeights getSubmatrix(final @NotNull ResolutionDescriptor resolutionDescriptor, final long startRowIncl, final long startColIncl, final long endRowExcl, final long endColExcl, final boolean excludeHiddenContigs) {
+    return getSubmatrixFlat(resolutionDescriptor, startRowIncl, startColIncl, endRowExcl, endColExcl, excludeHiddenContigs).toMatrixWithWeights();
+  }
+
+  public MatrixQueries.FlatMatrixWithWeights getSubmatrixFlat(final @NotNull ResolutionDescriptor resolutionDescriptor, final long startRowIncl, final long startColIncl, final long endRowExcl, final long endColExcl, final boolean excludeHiddenContigs) {
+    return getSubmatrixFlat(resolutionDescriptor, startRowIncl, startColIncl, endRowExcl, endColExcl, excludeHiddenContigs, () -> false);
+  }
+
+  /**
+   * @param cancelled Checked after ATUs are resolved and before each block is fetched, blocks that are already being read are not interrupted.
+   * @throws CancellationException if <code>cancelled</code> returned <code>true</code>.
+   */
+  public MatrixQueries.FlatMatrixWithWeights getSubmatrixFlat(final @NotNull ResolutionDescriptor resolutionDescriptor, final long startRowIncl, final long startColIncl, final long endRowExcl, final long endColExcl, final boolean excludeHiddenContigs, final @NotNull BooleanSupplier cancelled) {
     final var resolutionOrder = resolutionDescriptor.getResolutionOrderInArray();
     final var units = excludeHiddenContigs ? QueryLengthUnit.PIXELS : QueryLengthUnit.BINS;
     final var totalAssemblyLength = excludeHiddenContigs ? (this.chunkedFile.getContigTree().getLengthInUnits(units, resolutionDescriptor)) : (this.chunkedFile.getMatrixSizeBins()[resolutionOrder]);
@@ -64,111 +72,181 @@ public class MatrixQueries {
 
 
     final var rowATUs = getATUsForRange(resolutionDescriptor, startRow, endRow, excludeHiddenContigs);
-    final List<ATUDescriptor> colATUs;
+    final ATUSequence colATUs;
     if (symmetricQuery) {
       colATUs = rowATUs;
     } else {
       colATUs = getATUsForRange(resolutionDescriptor, startCol, endCol, excludeHiddenContigs);
     }
+    throwIfCancelled(cancelled);
 
     final var queryRows = (int) (endRowExcl - startRowIncl);
     final var queryCols = (int) (endColExcl - startColIncl);
-    final long[][] result = new long[queryRows][queryCols];
+    final long[] result = new long[queryRows * queryCols];
 
     int deltaRow = (int) (startRow - startRowIncl);
     int deltaCol = (int) (startCol - startColIncl);
 
-    final double[] rowWeights = rowATUs.parallelStream().flatMapToDouble(atu -> Arrays.stream(getWeightsByATU(atu))).toArray();
-    final double[] colWeights = colATUs.parallelStream().flatMapToDouble(atu -> Arrays.stream(getWeightsByATU(atu))).toArray();
-
     final double[] paddedRowWeights = new double[queryRows];
     final double[] paddedColWeights = new double[queryCols];
 
     if (startCol < totalAssemblyLength && startRow < totalAssemblyLength && endRow > 0 && endCol > 0) {
 
-      System.arraycopy(rowWeights, 0, paddedRowWeights, deltaRow, rowWeights.length);
-      System.arraycopy(colWeights, 0, paddedColWeights, deltaCol, colWeights.length);
-
-
-      try (final var pool = Executors.newWorkStealingPool()) {
-        if (symmetricQuery) {
-          final var atuCount = rowATUs.size();
-          log.debug("Symmetric query with " + atuCount + " ATUs");
-          var startDeltaCol = (int) (startCol - startColIncl);
-          for (int i = 0; i < atuCount; ++i) {
-            final var rowATU = rowATUs.get(i);
-            deltaCol = startDeltaCol;
-            final var rowCount = rowATU.getLength();
-            for (int j = i; j < atuCount; ++j) {
-              final var colATU = colATUs.get(j);
-              final int finalDeltaCol = deltaCol;
-              final int finalDeltaRow = deltaRow;
-              final var colCount = colATU.getLength();
-              pool.submit(() -> {
-                final var dense = getATUIntersection(resolutionDescriptor, rowATU, colATU);
-                for (int k = 0; k < rowCount; k++) {
-                  System.arraycopy(dense[k], 0, result[finalDeltaRow + k], finalDeltaCol, colCount);
-                }
-                for (int k = 0; k < rowCount; k++) {
-                  for (int l = 0; l < colCount; l++) {
-                    result[finalDeltaCol + l][finalDeltaRow + k] = dense[k][l];
-                  }
-                }
-              });
-              deltaCol += colCount;
-            }
-            startDeltaCol += colATUs.get(i).getLength();
-            deltaRow += rowCount;
+      final var stripes = Objects.requireNonNull(this.chunkedFile.getStripeDescriptors().get(resolutionOrder));
+      writeWeights(rowATUs, stripes, paddedRowWeights, deltaRow);
+      writeWeights(colATUs, stripes, paddedColWeights, deltaCol);
+
+
+      final var tasks = new ArrayList<Runnable>();
+      if (symmetricQuery) {
+        final var atuCount = rowATUs.size();
+        log.debug("Symmetric query with " + atuCount + " ATUs");
+        var startDeltaCol = (int) (startCol - startColIncl);
+        for (int i = 0; i < atuCount; ++i) {
+          final var rowATU = rowATUs.get(i);
+          deltaCol = startDeltaCol;
+          final var rowCount = PackedATU.length(rowATU);
+          for (int j = i; j < atuCount; ++j) {
+            final var colATU = colATUs.get(j);
+            final int finalDeltaCol = deltaCol;
+            final int finalDeltaRow = deltaRow;
+            final var colCount = PackedATU.length(colATU);
+            final var onDiagonal = (i == j);
+            tasks.add(() -> {
+              if (cancelled.getAsBoolean()) {
+                return;
+              }
+              scatterATUIntersection(resolutionDescriptor, rowATU, colATU, result, queryCols, finalDeltaRow, finalDeltaCol);
+              if (!onDiagonal) {
+                scatterATUIntersection(resolutionDescriptor, colATU, rowATU, result, queryCols, finalDeltaCol, finalDeltaRow);
+              }
+            });
+            deltaCol += colCount;
           }
-        } else {
-          for (final var rowATU : rowATUs) {
-            deltaCol = (int) (startCol - startColIncl);
-            final var rowCount = rowATU.getLength();
-            for (final var colATU : colATUs) {
-              final int finalDeltaCol = deltaCol;
-              final int finalDeltaRow = deltaRow;
-              final var colCount = colATU.getLength();
-
-              pool.submit(() -> {
-                try {
-                  final var dense = getATUIntersection(resolutionDescriptor, rowATU, colATU);
-                  for (int k = 0; k < rowCount; k++) {
-                    System.arraycopy(dense[k], 0, result[finalDeltaRow + k], finalDeltaCol, colCount);
-                  }
-                } catch (final Throwable ex) {
-                  throw new RuntimeException("Dense matrix fetch failed");
-                }
-              });
-
-              deltaCol += colCount;
-            }
-            deltaRow += rowCount;
+          startDeltaCol += PackedATU.length(colATUs.get(i));
+          deltaRow += rowCount;
+        }
+      } else {
+        for (int i = 0; i < rowATUs.size(); ++i) {
+          final var rowATU = rowATUs.get(i);
+          deltaCol = (int) (startCol - startColIncl);
+          final var rowCount = PackedATU.length(rowATU);
+          for (int j = 0; j < colATUs.size(); ++j) {
+            final var colATU = colATUs.get(j);
+            final int finalDeltaCol = deltaCol;
+            final int finalDeltaRow = deltaRow;
+            final var colCount = PackedATU.length(colATU);
+
+            tasks.add(() -> {
+              if (!cancelled.getAsBoolean()) {
+                scatterATUIntersection(resolutionDescriptor, rowATU, colATU, result, queryCols, finalDeltaRow, finalDeltaCol);
+              }
+            });
+
+            deltaCol += colCount;
           }
+          deltaRow += rowCount;
         }
       }
+      this.chunkedFile.getQueryExecutor().invokeAll(tasks);
+      throwIfCancelled(cancelled);
     }
 
 
-    return new MatrixQueries.MatrixWithWeights(result, paddedRowWeights, paddedColWeights, startRow, startCol, endRow, endCol, units, resolutionDescriptor);
+    return new MatrixQueries.FlatMatrixWithWeights(result, queryRows, queryCols, paddedRowWeights, paddedColWeights, startRow, startCol, endRow, endCol, units, resolutionDescriptor);
   }
 
-  private double @NotNull [] getWeightsByATU(final @NotNull ATUDescriptor atu) {
-    return getWeightsByATU(atu, false);
+  private static void throwIfCancelled(final @NotNull BooleanSupplier cancelled) {
+    if (cancelled.getAsBoolean()) {
+      throw new CancellationException("Submatrix query was cancelled");
+    }
   }
 
-  private double @NotNull [] getWeightsByATU(final @NotNull ATUDescriptor atu, final boolean needsReversal) {
-    final var length = atu.getLength();
-    final var weights = new double[length];
-    System.arraycopy(atu.getStripeDescriptor().bin_weights(), atu.getStartIndexInStripeIncl(), weights, 0, length);
-    if ((atu.getDirection() == ATUDirection.REVERSED) ^ needsReversal) {
-      ArrayUtils.reverse(weights);
+  /**
+   * Reads blocks covering the given region into the block cache without assembling the submatrix.
+   * Stops early when <code>cancelled</code> returns <code>true</code> or when the dataset pool has no idle readers, so that only spare capacity is used.
+   *
+   * @return Number of blocks read from the file.
+   */
+  public int prefetchBlocks(final @NotNull ResolutionDescriptor resolutionDescriptor, final long startRowIncl, final long startColIncl, final long endRowExcl, final long endColExcl, final boolean excludeHiddenContigs, final @NotNull BooleanSupplier cancelled) {
+    final var blockCache = this.chunkedFile.getBlockCache();
+    final var resolutionOrder = resolutionDescriptor.getResolutionOrderInArray();
+    if (!blockCache.isEnabled() || resolutionOrder == 0) {
+      return 0;
     }
-    return weights;
+    final var units = excludeHiddenContigs ? QueryLengthUnit.PIXELS : QueryLengthUnit.BINS;
+    final var totalAssemblyLength = excludeHiddenContigs ? (this.chunkedFile.getContigTree().getLengthInUnits(units, resolutionDescriptor)) : (this.chunkedFile.getMatrixSizeBins()[resolutionOrder]);
+    final var startRow = CommonUtils.clamp(startRowIncl, 0L, totalAssemblyLength);
+    final var endRow = CommonUtils.clamp(endRowExcl, 0L, totalAssemblyLength);
+    final var startCol = CommonUtils.clamp(startColIncl, 0L, totalAssemblyLength);
+    final var endCol = CommonUtils.clamp(endColExcl, 0L, totalAssemblyLength);
+    if (startRow >= endRow || startCol >= endCol) {
+      return 0;
+    }
+
+    final var rowStripeIds = getATUsForRange(resolutionDescriptor, startRow, endRow, excludeHiddenContigs).distinctStripeIds();
+    final var colStripeIds = getATUsForRange(resolutionDescriptor, startCol, endCol, excludeHiddenContigs).distinctStripeIds();
+    final var blockIndex = this.chunkedFile.getBlockIndices().get(resolutionOrder);
+    final var pool = this.chunkedFile.getDatasetBundlePools().get(resolutionOrder);
+    var loadedCount = 0;
+    for (final var rowStripeId : rowStripeIds) {
+      for (final var colStripeId : colStripeIds) {
+        final var key = new BlockCache.BlockKey(resolutionOrder, Integer.min(rowStripeId, colStripeId), Integer.max(rowStripeId, colStripeId));
+        if (blockIndex.isEmpty(key.rowStripeId(), key.colStripeId()) || blockCache.contains(key)) {
+          continue;
+        }
+        if (cancelled.getAsBoolean() || pool.getNumIdle() == 0) {
+          return loadedCount;
+        }
+        getBlock(resolutionOrder, key.rowStripeId(), key.colStripeId());
+        ++loadedCount;
+      }
+    }
+    return loadedCount;
   }
 
-  // TODO: Implement
-  public List<ATUDescriptor> getATUsForRange(final @NotNull ResolutionDescriptor resolutionDescriptor, final long startPxIncl, final long endPxExcl, final boolean excludeHiddenContigs) {
+  private void writeWeights(final @NotNull ATUSequence atus, final @NotNull List<@NotNull StripeDescriptor> stripes, final double @NotNull [] destination, final int destinationOffset) {
+    var position = destinationOffset;
+    for (int atuIndex = 0; atuIndex < atus.size(); ++atuIndex) {
+      final var atu = atus.get(atuIndex);
+      final var weights = stripes.get(PackedATU.stripeId(atu)).bin_weights();
+      final var start = PackedATU.start(atu);
+      final var length = PackedATU.length(atu);
+      if (PackedATU.isReversed(atu)) {
+        final var last = PackedATU.end(atu) - 1;
+        for (int i = 0; i < length; ++i) {
+          destination[position + i] = weights[last - i];
+        }
+      } else {
+        System.arraycopy(weights, start, destination, position, length);
+      }
+      position += length;
+    }
+  }
+
+  /**
+   * Ranges in pixels are looked up in {@link AssemblyLayoutIndex}, ranges in bins that include hidden contigs are collected from the contig tree.
+   */
+  public @NotNull ATUSequence getATUsForRange(final @NotNull ResolutionDescriptor resolutionDescriptor, final long startPxIncl, final long endPxExcl, final boolean excludeHiddenContigs) {
+    if (!excludeHiddenContigs) {
+      return this.collectATUsFromContigTree(resolutionDescriptor, startPxIncl, endPxExcl, false);
+    }
     final var resolutionOrder = resolutionDescriptor.getResolutionOrderInArray();
+    this.chunkedFile.ensureResolutionLoaded(resolutionOrder);
+    final var atus = this.chunkedFile.assemblyLayoutIndex().getLayout(resolutionOrder).getATUsForRange(startPxIncl, endPxExcl);
+    atus.reduce();
+
+    if (QueryValidation.isEnabled()) {
+      final var expected = this.collectATUsFromContigTree(resolutionDescriptor, startPxIncl, endPxExcl, true);
+      QueryValidation.check(QueryValidation.Check.LAYOUT_INDEX, Arrays.equals(expected.toArray(), atus.toArray()), () -> "Assembly layout index returned " + atus.size() + " ATUs of total length " + atus.totalLength() + " while contig tree gives " + expected.size() + " ATUs of total length " + expected.totalLength());
+    }
+
+    return atus;
+  }
+
+  @NotNull ATUSequence collectATUsFromContigTree(final @NotNull ResolutionDescriptor resolutionDescriptor, final long startPxIncl, final long endPxExcl, final boolean excludeHiddenContigs) {
+    final var resolutionOrder = resolutionDescriptor.getResolutionOrderInArray();
+    this.chunkedFile.ensureResolutionLoaded(resolutionOrder);
     final var units = excludeHiddenContigs ? QueryLengthUnit.PIXELS : QueryLengthUnit.BINS;
     final var totalAssemblyLength = excludeHiddenContigs ? (this.chunkedFile.getContigTree().getLengthInUnits(units, resolutionDescriptor)) : (this.chunkedFile.getMatrixSizeBins()[resolutionOrder]);
     final var startPx = CommonUtils.clamp(startPxIncl, 0L, totalAssemblyLength);
@@ -176,7 +254,7 @@ public class MatrixQueries {
 
     final var queryLength = endPx - startPx;
     if (queryLength <= 0) {
-      return List.of();
+      return new ATUSequence(0);
     }
 
     final var es = this.chunkedFile.getContigTree().expose(resolutionDescriptor, startPx, endPx, units);
@@ -191,248 +269,179 @@ public class MatrixQueries {
       lessSize = 0L;
     }
 
-    final List<ContigTree.Node> debugContigNodes = new ArrayList<>();
-    ContigTree.Node.traverseNodeAtResolution(es.segment(), resolutionDescriptor, node -> {
-      debugContigNodes.add(node);
-    });
-
-    final List<ATUDescriptor> debugAllATUs = new ArrayList<>();
-
-    ContigTree.Node.traverseNodeAtResolution(es.segment(), resolutionDescriptor, node -> {
-      final var contigDirection = node.getTrueDirection();
-      final var contigATUs = node.getContigDescriptor().getAtus().get(resolutionOrder);
-      if (contigDirection == ContigDirection.FORWARD) {
-        debugAllATUs.addAll(contigATUs);
-      } else {
-        final var reversedATUs = contigATUs.stream().map(ATUDescriptor::reversed).collect(Collectors.toList());
-        Collections.reverse(reversedATUs);
-        debugAllATUs.addAll(reversedATUs);
-      }
-    });
-
+    final var validate = QueryValidation.isEnabled();
+    if (validate) {
+      QueryValidation.onQueryValidated();
+      final var sourceATUTotalLength = new long[]{0L};
+      ContigTree.Node.traverseNodeAtResolution(es.segment(), resolutionDescriptor, node -> sourceATUTotalLength[0] += node.getContigDescriptor().getATUsAtResolution(resolutionOrder).total());
+      QueryValidation.check(QueryValidation.Check.SEGMENT_LENGTH, segmentSize == sourceATUTotalLength[0], () -> "Exposed segment has length " + segmentSize + " but its contigs have ATUs of total length " + sourceATUTotalLength[0]);
+    }
 
+    // ATUs of the first and the last contigs are taken in traversal order, so that reversed contigs need no special handling:
     final var deltaBetweenSegmentFirstContigAndQueryStart = startPx - lessSize;
     final var firstContigNode = excludeHiddenContigs ? es.segment().leftmostVisibleNode(resolutionDescriptor) : es.segment().leftmost();
     final var firstContigDescriptor = firstContigNode.getContigDescriptor();
-    final var firstContigATUs = firstContigDescriptor.getAtus().get(resolutionOrder);
-    final var firstContigATUPrefixSum = firstContigDescriptor.getAtuPrefixSumLengthBins().get(resolutionOrder);
-    final var firstContigDirection = firstContigNode.getTrueDirection();
+    final var firstContigATUs = firstContigDescriptor.getATUsAtResolution(resolutionOrder, firstContigNode.getTrueDirection());
     final var firstContigId = firstContigDescriptor.getContigId();
 
     final var deltaBetweenRightPxAndExposedSegment = (lessSize + segmentSize) - endPx;
     final var lastContigNode = excludeHiddenContigs ? es.segment().rightmostVisibleNode(resolutionDescriptor) : es.segment().rightmost();
     final var lastContigDescriptor = lastContigNode.getContigDescriptor();
-    final var lastContigATUs = lastContigDescriptor.getAtus().get(resolutionOrder);
-    final var lastContigATUPrefixSum = lastContigDescriptor.getAtuPrefixSumLengthBins().get(resolutionOrder);
-    final var lastContigDirection = lastContigNode.getTrueDirection();
+    final var lastContigATUs = lastContigDescriptor.getATUsAtResolution(resolutionOrder, lastContigNode.getTrueDirection());
     final var lastContigId = lastContigDescriptor.getContigId();
 
     final var onlyOneContig = (firstContigId == lastContigId);
 
+    final int indexOfATUContainingStartPx = firstContigATUs.upperBound(deltaBetweenSegmentFirstContigAndQueryStart);
+    final long oldFirstATU = firstContigATUs.get(indexOfATUContainingStartPx);
+    final var lengthOfATUsBeforeOneContainingStart = (indexOfATUContainingStartPx == 0) ? 0L : firstContigATUs.prefixSum(indexOfATUContainingStartPx - 1);
 
-    final int indexOfATUContainingStartPx;
-    if (firstContigNode.getTrueDirection() == ContigDirection.FORWARD) {
-      indexOfATUContainingStartPx = BinarySearch.rightBinarySearch(
-        firstContigATUPrefixSum,
-        deltaBetweenSegmentFirstContigAndQueryStart
-      );
-    } else {
-      final var topSum = firstContigATUPrefixSum[firstContigATUPrefixSum.length - 1];
-      indexOfATUContainingStartPx = BinarySearch.leftBinarySearch(
-        firstContigATUPrefixSum,
-        topSum - deltaBetweenSegmentFirstContigAndQueryStart
-      );
-    }
+    final var firstATUTrim = (int) (deltaBetweenSegmentFirstContigAndQueryStart - lengthOfATUsBeforeOneContainingStart);
+    final long newFirstATU = PackedATU.isReversed(oldFirstATU)
+      ? PackedATU.withEnd(oldFirstATU, PackedATU.end(oldFirstATU) - firstATUTrim)
+      : PackedATU.withStart(oldFirstATU, PackedATU.start(oldFirstATU) + firstATUTrim);
 
-    final var oldFirstATU = switch (firstContigDirection) {
-      case FORWARD -> firstContigATUs.get(indexOfATUContainingStartPx);
-      case REVERSED -> firstContigATUs.get(indexOfATUContainingStartPx).reversed();
-    };
-
-    final var lengthOfATUsBeforeOneContainingStart = switch (firstContigDirection) {
-      case FORWARD -> (indexOfATUContainingStartPx == 0) ? 0L : firstContigATUPrefixSum[indexOfATUContainingStartPx - 1];
-      case REVERSED -> firstContigATUPrefixSum[firstContigATUPrefixSum.length - 1] - firstContigATUPrefixSum[indexOfATUContainingStartPx];
-    };
-
-    final ATUDescriptor newFirstATU = switch (oldFirstATU.getDirection()) {
-      case FORWARD -> new ATUDescriptor(
-        oldFirstATU.getStripeDescriptor(),
-        oldFirstATU.getStartIndexInStripeIncl() + (int) (deltaBetweenSegmentFirstContigAndQueryStart -
-          lengthOfATUsBeforeOneContainingStart),
-        oldFirstATU.getEndIndexInStripeExcl(),
-        oldFirstATU.getDirection()
-      );
-      case REVERSED -> new ATUDescriptor(
-        oldFirstATU.getStripeDescriptor(),
-        oldFirstATU.getStartIndexInStripeIncl(),
-        oldFirstATU.getEndIndexInStripeExcl() - (int) (deltaBetweenSegmentFirstContigAndQueryStart -
-          lengthOfATUsBeforeOneContainingStart),
-        oldFirstATU.getDirection()
-      );
-    };
-
-    assert (newFirstATU.getLength() > 0) : "Incorrect new first ATU??";
-
-    final int indexOfATUContainingEndPx = switch (lastContigDirection) {
-      case FORWARD -> BinarySearch.leftBinarySearch(
-        lastContigATUPrefixSum,
-        lastContigATUPrefixSum[lastContigATUPrefixSum.length - 1] - deltaBetweenRightPxAndExposedSegment
-      );
-      case REVERSED -> BinarySearch.rightBinarySearch(
-        lastContigATUPrefixSum,
-        deltaBetweenRightPxAndExposedSegment
-      );
-    };
-
-    final long deletedATUsLength = switch (lastContigDirection) {
-      case FORWARD -> lastContigATUPrefixSum[lastContigATUPrefixSum.length - 1] - lastContigATUPrefixSum[indexOfATUContainingEndPx];
-      case REVERSED -> (indexOfATUContainingEndPx == 0) ? 0L : (lastContigATUPrefixSum[indexOfATUContainingEndPx - 1]);
-    };
+    if (validate) {
+      QueryValidation.check(QueryValidation.Check.BOUNDARY_ATU_LENGTH, PackedATU.length(newFirstATU) > 0, () -> "Incorrect new first ATU of length " + PackedATU.length(newFirstATU));
+    }
 
+    final int indexOfATUContainingEndPx = lastContigATUs.lowerBound(lastContigATUs.total() - deltaBetweenRightPxAndExposedSegment);
+    final long deletedATUsLength = lastContigATUs.total() - lastContigATUs.prefixSum(indexOfATUContainingEndPx);
 
     final var sameATUIsFirstAndLast = onlyOneContig && (indexOfATUContainingStartPx == indexOfATUContainingEndPx);
 
-    final ATUDescriptor oldLastATU = sameATUIsFirstAndLast ? newFirstATU : (
-      switch (lastContigNode.getTrueDirection()) {
-        case FORWARD -> lastContigATUs.get(indexOfATUContainingEndPx);
-        case REVERSED -> lastContigATUs.get(indexOfATUContainingEndPx).reversed();
-      }
-    );
+    final long oldLastATU = sameATUIsFirstAndLast ? newFirstATU : lastContigATUs.get(indexOfATUContainingEndPx);
 
-    final ATUDescriptor newLastATU = switch (oldLastATU.getDirection()) {
-      case FORWARD -> new ATUDescriptor(
-        oldLastATU.getStripeDescriptor(),
-        oldLastATU.getStartIndexInStripeIncl(),
-        oldLastATU.getEndIndexInStripeExcl() - (int) (deltaBetweenRightPxAndExposedSegment - deletedATUsLength),
-        oldLastATU.getDirection()
-      );
-      case REVERSED -> new ATUDescriptor(
-        oldLastATU.getStripeDescriptor(),
-        oldLastATU.getStartIndexInStripeIncl() + (int) (deltaBetweenRightPxAndExposedSegment - deletedATUsLength),
-        oldLastATU.getEndIndexInStripeExcl(),
-        oldLastATU.getDirection()
-      );
-    };
-
-    assert (newLastATU.getLength() > 0) : "Incorrect new last ATU??";
-
-    final var atus = new ArrayList<ATUDescriptor>();
+    final var lastATUTrim = (int) (deltaBetweenRightPxAndExposedSegment - deletedATUsLength);
+    final long newLastATU = PackedATU.isReversed(oldLastATU)
+      ? PackedATU.withStart(oldLastATU, PackedATU.start(oldLastATU) + lastATUTrim)
+      : PackedATU.withEnd(oldLastATU, PackedATU.end(oldLastATU) - lastATUTrim);
+
+    if (validate) {
+      QueryValidation.check(QueryValidation.Check.BOUNDARY_ATU_LENGTH, PackedATU.length(newLastATU) > 0, () -> "Incorrect new last ATU of length " + PackedATU.length(newLastATU));
+    }
+
+    final var atus = new ATUSequence();
 
     if (onlyOneContig) {
       if (sameATUIsFirstAndLast) {
-        final var result = new CopyOnWriteArrayList<ATUDescriptor>();
-        result.add(newLastATU);
-        return result;
+        return ATUSequence.of(newLastATU);
       } else {
         atus.add(newFirstATU);
-        final var firstContigIntermediateATUs = firstContigATUs.subList(
-          1 + Integer.min(indexOfATUContainingStartPx, indexOfATUContainingEndPx),
-          Integer.max(indexOfATUContainingStartPx, indexOfATUContainingEndPx)
-        );
-        final List<@NotNull ATUDescriptor> firstContigRestATUs = switch (firstContigDirection) {
-          case FORWARD -> firstContigIntermediateATUs;
-          case REVERSED -> {
-            final var firstContigIntermediateATUsReversed = firstContigIntermediateATUs.parallelStream()
-              .map(ATUDescriptor::reversed)
-              .collect(Collectors.toList());
-            Collections.reverse(firstContigIntermediateATUsReversed);
-            yield firstContigIntermediateATUsReversed;
-          }
-        };
-        atus.addAll(firstContigRestATUs);
+        firstContigATUs.appendTo(atus, 1 + indexOfATUContainingStartPx, indexOfATUContainingEndPx);
       }
     } else {
       atus.add(newFirstATU);
-      final List<@NotNull ATUDescriptor> firstContigRestATUs = switch (firstContigDirection) {
-        case FORWARD -> firstContigATUs.subList(1 + indexOfATUContainingStartPx, firstContigATUs.size());
-        case REVERSED -> {
-          final var firstContigRestATUsReversed = firstContigATUs.parallelStream()
-            .limit(indexOfATUContainingStartPx)
-            .map(ATUDescriptor::reversed)
-            .collect(Collectors.toList());
-          Collections.reverse(firstContigRestATUsReversed);
-          yield firstContigRestATUsReversed;
-        }
-      };
-
-      atus.addAll(firstContigRestATUs);
-
+      firstContigATUs.appendTo(atus, 1 + indexOfATUContainingStartPx, firstContigATUs.size());
 
       ContigTree.Node.traverseNodeAtResolution(es.segment(), resolutionDescriptor, node -> {
         final var nodeContigId = node.getContigDescriptor().getContigId();
         if (nodeContigId != firstContigId && nodeContigId != lastContigId) {
-          final var contigDirection = node.getTrueDirection();
-          final var contigATUs = node.getContigDescriptor().getAtus().get(resolutionOrder);
-          final var processedATUs = switch (contigDirection) {
-            case FORWARD -> contigATUs;
-            case REVERSED -> {
-              final var reversedATUs = contigATUs.stream()
-                .map(ATUDescriptor::reversed)
-                .collect(Collectors.toList());
-              Collections.reverse(reversedATUs);
-              yield reversedATUs;
-            }
-          };
-          atus.addAll(processedATUs);
+          final var contigATUs = node.getContigDescriptor().getATUsAtResolution(resolutionOrder, node.getTrueDirection());
+          contigATUs.appendTo(atus, 0, contigATUs.size());
         }
       });
 
-      final List<@NotNull ATUDescriptor> lastContigBeginningATUs = switch (lastContigDirection) {
-        case FORWARD -> lastContigATUs.subList(0, indexOfATUContainingEndPx);
-        case REVERSED -> {
-          final var reversedATUs = lastContigATUs.parallelStream()
-            .skip(1 + indexOfATUContainingEndPx)
-            .map(ATUDescriptor::reversed)
-            .collect(Collectors.toList());
-          Collections.reverse(reversedATUs);
-          yield reversedATUs;
-        }
-      };
-      atus.addAll(lastContigBeginningATUs);
+      lastContigATUs.appendTo(atus, 0, indexOfATUContainingEndPx);
     }
 
     atus.add(newLastATU);
 
-    {
-      final var sourceATUTotalLength = debugContigNodes.stream().flatMap(node -> node.getContigDescriptor().getAtus().get(resolutionOrder).stream()).mapToInt(ATUDescriptor::getLength).sum();
-
-      assert (segmentSize == sourceATUTotalLength) : "Expose returned more ATUs than segment length??";
-
-      final var collectedATUsTotalLength = atus.stream().mapToLong(ATUDescriptor::getLength).sum();
-
-      assert (
-        collectedATUsTotalLength == (endPx - startPx)
-      ) : "Wrong total length of ATUs before reduction??";
+    if (validate) {
+      final var collectedATUsTotalLength = atus.totalLength();
+      QueryValidation.check(QueryValidation.Check.COLLECTED_LENGTH, collectedATUsTotalLength == queryLength, () -> "Collected ATUs of total length " + collectedATUsTotalLength + " for query of length " + queryLength);
     }
 
-    final var reducedATUs = ATUDescriptor.reduce(atus);
+    atus.reduce();
 
-    assert (
-      reducedATUs.stream().mapToLong(atu -> atu.getEndIndexInStripeExcl() - atu.getStartIndexInStripeIncl()).sum() == (endPx - startPx)
-    ) : "Wrong total length of ATUs after reduction??";
+    if (validate) {
+      final var reducedATUsTotalLength = atus.totalLength();
+      QueryValidation.check(QueryValidation.Check.REDUCED_LENGTH, reducedATUsTotalLength == queryLength, () -> "Reduced ATUs have total length " + reducedATUsTotalLength + " for query of length " + queryLength);
+    }
 
-    return new CopyOnWriteArrayList<>(reducedATUs);
+    return atus;
   }
 
   public long @NotNull [][] getATUIntersection(final @NotNull ResolutionDescriptor resolutionDescriptor, final @NotNull ATUDescriptor rowATU, final @NotNull ATUDescriptor colATU) {
     return getATUIntersection(resolutionDescriptor, rowATU, colATU, false);
   }
 
-  // TODO: Implement
   public long @NotNull [][] getATUIntersection(final @NotNull ResolutionDescriptor resolutionDescriptor, final @NotNull ATUDescriptor rowATU, final @NotNull ATUDescriptor colATU, final boolean needsTranspose) {
-    if (rowATU.getStripeDescriptor().stripeId() > colATU.getStripeDescriptor().stripeId()) {
-      return getATUIntersection(resolutionDescriptor, colATU, rowATU, !needsTranspose);
+    // Contact matrix is symmetric, so transposed intersection is the intersection with swapped ATUs:
+    final var resultRowATU = PackedATU.of(needsTranspose ? colATU : rowATU);
+    final var resultColATU = PackedATU.of(needsTranspose ? rowATU : colATU);
+    final var queryRows = PackedATU.length(resultRowATU);
+    final var queryCols = PackedATU.length(resultColATU);
+    final var flat = new long[queryRows * queryCols];
+    scatterATUIntersection(resolutionDescriptor, resultRowATU, resultColATU, flat, queryCols, 0, 0);
+    final long[][] denseMatrix = new long[queryRows][queryCols];
+    for (int i = 0; i < queryRows; ++i) {
+      System.arraycopy(flat, i * queryCols, denseMatrix[i], 0, queryCols);
     }
+    return denseMatrix;
+  }
+
+  /**
+   * Writes the intersection of given ATUs into the flat row-major buffer so that its top-left corner is placed at
+   * (<code>targetRowOffset</code>, <code>targetColOffset</code>). Target region must be zero-filled.
+   */
+  public void scatterATUIntersection(final @NotNull ResolutionDescriptor resolutionDescriptor, final @NotNull ATUDescriptor rowATU, final @NotNull ATUDescriptor colATU, final long @NotNull [] target, final int targetRowStride, final int targetRowOffset, final int targetColOffset) {
+    scatterATUIntersection(resolutionDescriptor, PackedATU.of(rowATU), PackedATU.of(colATU), target, targetRowStride, targetRowOffset, targetColOffset);
+  }
 
+  /**
+   * Same as {@link #scatterATUIntersection(ResolutionDescriptor, ATUDescriptor, ATUDescriptor, long[], int, int, int)} for ATUs in {@link PackedATU} form.
+   */
+  public void scatterATUIntersection(final @NotNull ResolutionDescriptor resolutionDescriptor, final long rowATU, final long colATU, final long @NotNull [] target, final int targetRowStride, final int targetRowOffset, final int targetColOffset) {
     final var resolutionOrder = resolutionDescriptor.getResolutionOrderInArray();
-    final var resolution = this.chunkedFile.getResolutions()[resolutionOrder];
-    final var rowStripe = rowATU.getStripeDescriptor();
-    final var colStripe = colATU.getStripeDescriptor();
-    final var rowStripeId = rowStripe.stripeId();
-    final var colStripeId = colStripe.stripeId();
-    final var queryRows = rowATU.getLength();
-    final var queryCols = colATU.getLength();
+    // Only blocks above the main diagonal are stored, the lower ones are obtained by transposition:
+    final var needsTranspose = PackedATU.stripeId(rowATU) > PackedATU.stripeId(colATU);
+    final var blockRowATU = needsTranspose ? colATU : rowATU;
+    final var blockColATU = needsTranspose ? rowATU : colATU;
+
+    final var block = getBlock(resolutionOrder, PackedATU.stripeId(blockRowATU), PackedATU.stripeId(blockColATU));
+
+    if (block instanceof DecodedBlock.EmptyBlock) {
+      log.debug("Zero ATU intersection");
+      return;
+    }
+
+    block.scatterInto(
+      target,
+      targetRowStride,
+      targetRowOffset,
+      targetColOffset,
+      PackedATU.start(blockRowATU),
+      PackedATU.end(blockRowATU),
+      PackedATU.isReversed(blockRowATU),
+      PackedATU.start(blockColATU),
+      PackedATU.end(blockColATU),
+      PackedATU.isReversed(blockColATU),
+      needsTranspose
+    );
+  }
+
+  public @NotNull DecodedBlock getBlock(final int resolutionOrder, final int rowStripeId, final int colStripeId) {
+    assert (rowStripeId <= colStripeId) : "Only blocks above the main diagonal are stored";
+    if (this.chunkedFile.getBlockIndices().get(resolutionOrder).isEmpty(rowStripeId, colStripeId)) {
+      return DecodedBlock.EmptyBlock.INSTANCE;
+    }
+    return this.chunkedFile.getBlockCache().get(new BlockCache.BlockKey(resolutionOrder, rowStripeId, colStripeId), this::loadBlock);
+  }
+
+  private @NotNull DecodedBlock loadBlock(final @NotNull BlockCache.BlockKey key) {
+    final var resolutionOrder = key.resolutionOrder();
+    final var rowStripeId = key.rowStripeId();
+    final var colStripeId = key.colStripeId();
     final var blockOnMainDiagonal = (rowStripeId == colStripeId);
+    final var denseBlockSize = this.chunkedFile.getDenseBlockSize();
+    final var blockIndex = this.chunkedFile.getBlockIndices().get(resolutionOrder);
+    final long blockLength = blockIndex.getBlockLength(rowStripeId, colStripeId);
+    final long blockOffset = blockIndex.getBlockOffset(rowStripeId, colStripeId);
+
+    if (blockLength == 0L) {
+      return DecodedBlock.EmptyBlock.INSTANCE;
+    }
 
 //    log.debug("Getting intersection of ATUs with stripes " + rowStripeId + " and " + colStripeId);
     final @NotNull var pool = this.chunkedFile.getDatasetBundlePools().get(resolutionOrder);
@@ -441,142 +450,40 @@ public class MatrixQueries {
       dsBundle = pool.borrowObject();
       Objects.requireNonNull(dsBundle);
       final var reader = dsBundle.getReader();
-      final var blockIndexInDatasets = rowStripeId * this.chunkedFile.getStripeCount()[resolutionOrder] + colStripeId;
-      final long blockLength;
-      final long blockOffset;
-
-      {
-        final var blockLengthDataset = dsBundle.getBlockLengthDataSet();
-        final long[] buf = reader.int64().readArrayBlockWithOffset(blockLengthDataset, 1, blockIndexInDatasets);
-        blockLength = buf[0];
-      }
-
-      final boolean isEmpty = (blockLength == 0L);
-      final long[][] denseMatrix = new long[needsTranspose ? queryCols : queryRows][needsTranspose ? queryRows : queryCols];
-
-      if (isEmpty) {
-        log.debug("Zero ATU intersection");
-        return denseMatrix;
-      }
-
-      final var firstRow = rowATU.getStartIndexInStripeIncl();
-      final var firstCol = colATU.getStartIndexInStripeIncl();
-      final var lastRow = rowATU.getEndIndexInStripeExcl();
-      final var lastCol = colATU.getEndIndexInStripeExcl();
-
-      final var flipRows = ATUDirection.REVERSED.equals(rowATU.getDirection());
-      final var flipCols = ATUDirection.REVERSED.equals(colATU.getDirection());
-
-      {
-        final var blockOffsetDataset = dsBundle.getBlockOffsetDataSet();
-        final long[] buf = reader.int64().readArrayBlockWithOffset(blockOffsetDataset, 1, blockIndexInDatasets);
-        blockOffset = buf[0];
-      }
-
       final var savedAsSparse = (blockOffset >= 0L);
 
       if (savedAsSparse) {
         log.debug("Fetching sparse block");
-        final long[] blockRows;
-        final long[] blockCols;
-        final long[] blockValues;
-
-
-        blockRows = reader.int64().readArrayBlockWithOffset(dsBundle.getBlockRowsDataSet(), (int) blockLength, blockOffset);
-        blockCols = reader.int64().readArrayBlockWithOffset(dsBundle.getBlockColsDataSet(), (int) blockLength, blockOffset);
-        blockValues = reader.int64().readArrayBlockWithOffset(dsBundle.getBlockValuesDataSet(), (int) blockLength, blockOffset);
-
-
-        final int rowStartIndex = BinarySearch.leftBinarySearch(blockRows, Integer.min(rowATU.getStartIndexInStripeIncl(), colATU.getStartIndexInStripeIncl()));
-        final int rowEndIndex = BinarySearch.leftBinarySearch(blockRows, Integer.max(rowATU.getEndIndexInStripeExcl(), colATU.getEndIndexInStripeExcl()));
-        final var maxCol = (int) Arrays.stream(blockCols).max().orElse(0L);
-
-
-//        final var sparseMatrix = new SparseCOOMatrixLong(
-//          Arrays.stream(blockRows).skip(rowStartIndex).limit(rowEndIndex - rowStartIndex).mapToInt(l -> (int) l).toArray(),
-//          Arrays.stream(blockCols).skip(rowStartIndex).limit(rowEndIndex - rowStartIndex).mapToInt(l -> (int) l).toArray(),
-//          Arrays.stream(blockValues).skip(rowStartIndex).limit(rowEndIndex - rowStartIndex).toArray(),
-//          needsTranspose,
-//          blockOnMainDiagonal,
-//          flipRows,
-//          flipCols
-//        );
-        final var sparseMatrix = new SparseCOOMatrixLong(
-          Arrays.stream(blockRows).mapToInt(i -> (int) i).toArray(),
-          Arrays.stream(blockCols).mapToInt(i -> (int) i).toArray(),
-          blockValues,
-          blockOnMainDiagonal
-        );
-
-        final var denseSquarePartial = sparseMatrix.toDense(this.chunkedFile.getDenseBlockSize(), this.chunkedFile.getDenseBlockSize());
-        final var denseBlock = new long[queryRows][queryCols];
-
-        for (int i = firstRow; i < lastRow; ++i) {
-          System.arraycopy(denseSquarePartial[i], firstCol, denseBlock[i - firstRow], 0, queryCols);
+        final long[] blockRows = reader.int64().readArrayBlockWithOffset(dsBundle.getBlockRowsDataSet(), (int) blockLength, blockOffset);
+        final long[] blockCols = reader.int64().readArrayBlockWithOffset(dsBundle.getBlockColsDataSet(), (int) blockLength, blockOffset);
+        final long[] blockValues = reader.int64().readArrayBlockWithOffset(dsBundle.getBlockValuesDataSet(), (int) blockLength, blockOffset);
+
+        final var rows = new int[blockRows.length];
+        final var cols = new int[blockCols.length];
+        for (int i = 0; i < rows.length; ++i) {
+          rows[i] = (int) blockRows[i];
+          cols[i] = (int) blockCols[i];
         }
 
-        if (flipRows) {
-          ArrayUtils.reverse(denseBlock);
-        }
+        assert (Arrays.stream(rows).max().orElse(0) < denseBlockSize) : "Sparse block has more rows than dense block size?";
+        assert (Arrays.stream(cols).max().orElse(0) < denseBlockSize) : "Sparse block has more columns than dense block size?";
 
-        if (flipCols) {
-          for (final var row : denseBlock) {
-            ArrayUtils.reverse(row);
-          }
-        }
-
-        if (needsTranspose) {
-          for (int i = 0; i < queryRows; ++i) {
-            for (int j = 0; j < queryCols; ++j) {
-              denseMatrix[j][i] = denseBlock[i][j];
-            }
-          }
-        } else {
-          System.arraycopy(denseBlock, 0, denseMatrix, 0, queryRows);
-        }
+        return new DecodedBlock.SparseBlock(denseBlockSize, rows, cols, blockValues, blockOnMainDiagonal);
       } else {
         log.debug("Fetching dense block");
         final var idx = new IndexMap().bind(0, -(blockOffset + 1L)).bind(1, 0L);
-        final MDLongArray block;
-        {
-          block = reader.int64().readSlicedMDArrayBlockWithOffset(dsBundle.getDenseBlockDataSet(), new int[]{this.chunkedFile.getDenseBlockSize(), this.chunkedFile.getDenseBlockSize()}, new long[]{0L, 0L}, idx);
-        }
-        final long[][] denseBlock;
-        denseBlock = block.toMatrix();
+        final MDLongArray block = reader.int64().readSlicedMDArrayBlockWithOffset(dsBundle.getDenseBlockDataSet(), new int[]{denseBlockSize, denseBlockSize}, new long[]{0L, 0L}, idx);
+        final long[] values = block.getAsFlatArray();
         if (blockOnMainDiagonal) {
-          for (int i = 0; i < denseBlock.length; ++i) {
-            for (int j = 1 + i; j < denseBlock.length; ++j) {
-              denseBlock[j][i] = denseBlock[i][j];
-            }
-          }
-        }
-        final var denseSubBlock = new long[queryRows][queryCols];
-
-        for (int i = firstRow; i < lastRow; ++i) {
-          System.arraycopy(denseBlock[i], firstCol, denseSubBlock[i - firstRow], 0, queryCols);
-        }
-
-        if (flipRows) {
-          ArrayUtils.reverse(denseSubBlock);
-        }
-        if (flipCols) {
-          for (final var row : denseSubBlock) {
-            ArrayUtils.reverse(row);
-          }
-        }
-        if (needsTranspose) {
-          for (int i = 0; i < queryRows; ++i) {
-            for (int j = 0; j < queryCols; ++j) {
-              denseMatrix[j][i] = denseSubBlock[i][j];
+          for (int i = 0; i < denseBlockSize; ++i) {
+            for (int j = 1 + i; j < denseBlockSize; ++j) {
+              values[j * denseBlockSize + i] = values[i * denseBlockSize + j];
             }
           }
-        } else {
-          System.arraycopy(denseSubBlock, 0, denseMatrix, 0, queryRows);
         }
+        return new DecodedBlock.DenseBlock(denseBlockSize, values);
       }
-
-      return denseMatrix;
-    } catch (Exception e) {
+    } catch (final Exception e) {
       throw new RuntimeException(e);
     } finally {
       if (null != dsBundle) {
@@ -595,4 +502,21 @@ public class MatrixQueries {
                                   @NotNull ResolutionDescriptor resolutionDescriptor) {
   }
 
+  /**
+   * Same as {@link MatrixWithWeights} but with values stored in a single row-major array.
+   */
+  public record FlatMatrixWithWeights(long @NotNull [] values, int rowCount, int columnCount,
+                                      double @NotNull [] rowWeights, double @NotNull [] colWeights,
+                                      long startRowIncl, long startColIncl, long endRowExcl, long endColExcl,
+                                      @NotNull QueryLengthUnit units,
+                                      @NotNull ResolutionDescriptor resolutionDescriptor) {
+    public @NotNull MatrixWithWeights toMatrixWithWeights() {
+      final long[][] matrix = new long[this.rowCount][this.columnCount];
+      for (int i = 0; i < this.rowCount; ++i) {
+        System.arraycopy(this.values, i * this.columnCount, matrix[i], 0, this.columnCount);
+      }
+      return new MatrixWithWeights(matrix, this.rowWeights, this.colWeights, this.startRowIncl, this.startColIncl, this.endRowExcl, this.endColExcl, this.units, this.resolutionDescriptor);
+    }
+  }
+
 }
@@ -0,0 +1,116 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2024. Aleksandr Serdiukov, Anton Zamyatin, Aleksandr Sinitsyn, Vitalii Dravgelis and Computer Technologies Laboratory ITMO University team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ru.itmo.ctlab.hict.hict_library.chunkedfile;
+
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.metadata.FileMetadata;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.IntStream;
+
+/**
+ * Loads stripes, ATUs and dataset pools of resolutions that were not loaded when the file was opened.
+ * A resolution is loaded either by the first query that needs it or by a background thread that walks from coarser to finer resolutions, whichever comes first.
+ */
+@Slf4j
+public class ResolutionLoader implements AutoCloseable {
+  private final @NotNull ChunkedFileResources resources;
+  /**
+   * Metadata already known for each pending resolution, <code>null</code> once the resolution is loaded.
+   */
+  private final @NotNull AtomicReferenceArray<FileMetadata.ResolutionMetadata> pendingMetadata;
+  private final @NotNull Object @NotNull [] locks;
+  private final @NotNull ExecutorService executor;
+  private volatile boolean closed = false;
+
+  ResolutionLoader(final @NotNull ChunkedFileResources resources, final @NotNull FileMetadata metadata) {
+    this.resources = resources;
+    final var resolutionCount = metadata.resolutions().length;
+    this.pendingMetadata = new AtomicReferenceArray<>(resolutionCount);
+    this.locks = new Object[resolutionCount];
+    for (int i = 1; i < resolutionCount; ++i) {
+      this.locks[i] = new Object();
+      if (!Initializers.isLoadedEagerly(i, resolutionCount, resources.getOptions().eagerResolutionCount())) {
+        this.pendingMetadata.set(i, metadata.resolutionMetadata()[i]);
+      }
+    }
+    this.executor = Executors.newSingleThreadExecutor(runnable -> {
+      final var thread = new Thread(runnable, "hict-resolution-loader");
+      thread.setDaemon(true);
+      thread.setPriority(Thread.MIN_PRIORITY);
+      return thread;
+    });
+  }
+
+  /**
+   * Schedules loading of all pending resolutions from the coarsest one.
+   */
+  void startBackgroundLoading() {
+    if (IntStream.range(0, this.pendingMetadata.length()).allMatch(this::isLoaded)) {
+      return;
+    }
+    this.executor.execute(() -> {
+      for (int i = this.pendingMetadata.length() - 1; i > 0 && !this.closed; --i) {
+        try {
+          this.ensureLoaded(i);
+        } catch (final RuntimeException e) {
+          log.warn("Background loading of resolution order " + i + " failed, it will be retried on access", e);
+        }
+      }
+    });
+  }
+
+  public boolean isLoaded(final int resolutionOrder) {
+    return this.pendingMetadata.get(resolutionOrder) == null;
+  }
+
+  /**
+   * Blocks until the resolution is loaded, loading it in the calling thread if nobody else does.
+   */
+  public void ensureLoaded(final int resolutionOrder) {
+    if (this.isLoaded(resolutionOrder)) {
+      return;
+    }
+    synchronized (this.locks[resolutionOrder]) {
+      final var metadata = this.pendingMetadata.get(resolutionOrder);
+      if (metadata == null) {
+        return;
+      }
+      Initializers.loadResolution(this.resources, resolutionOrder, metadata);
+      this.resources.openResolutionDatasets(resolutionOrder);
+      // Volatile write publishes stripes, ATUs and datasets to threads that observe the resolution as loaded:
+      this.pendingMetadata.set(resolutionOrder, null);
+    }
+  }
+
+  @Override
+  public void close() {
+    this.closed = true;
+    this.executor.shutdownNow();
+  }
+}
@@ -34,11 +34,9 @@ import ru.itmo.ctlab.hict.hict_library.domain.*;
 import ru.itmo.ctlab.hict.hict_library.trees.ContigTree;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 import java.util.function.LongFunction;
-import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 @RequiredArgsConstructor
@@ -47,43 +45,90 @@ public class ScaffoldingOperations {
   private @NotNull
   final ChunkedFile chunkedFile;
 
-  public void reverseSelectionRangeBp(final long queriedStartBpIncl, final long queriedEndBpExcl) {
+  /**
+   * @return Changed region or <code>null</code> if nothing was reversed.
+   */
+  public @Nullable AssemblyChange reverseSelectionRangeBp(final long queriedStartBpIncl, final long queriedEndBpExcl) {
     final var contigTree = this.chunkedFile.getContigTree();
     final var scaffoldTree = this.chunkedFile.getScaffoldTree();
     final var lock = contigTree.getRootLock();
+    final AssemblyChange change;
     try {
       lock.writeLock().lock();
       final var ext = scaffoldTree.extendBordersToScaffolds(queriedStartBpIncl, queriedEndBpExcl);
       final var es = contigTree.expose(ResolutionDescriptor.fromResolutionOrder(0), ext.startBP(), ext.endBP(), QueryLengthUnit.BASE_PAIRS);
-      if (es.segment() != null) {
-        final var newSegmentNode = es.segment().cloneBuilder().needsChangingDirection(!es.segment().isNeedsChangingDirection()).build().push().updateSizes();
-        contigTree.commitExposedSegment(new ContigTree.Node.ExposedSegment(es.less(), newSegmentNode, es.greater()));
-        scaffoldTree.reverseSelectionRange(ext.startBP(), ext.endBP());
+      if (es.segment() == null) {
+        return null;
       }
+      final var previousVersion = contigTree.getVersion();
+      final var newSegmentNode = es.segment().cloneBuilder().needsChangingDirection(!es.segment().isNeedsChangingDirection()).build().push().updateSizes();
+      contigTree.commitExposedSegment(new ContigTree.Node.ExposedSegment(es.less(), newSegmentNode, es.greater()));
+      scaffoldTree.reverseSelectionRange(ext.startBP(), ext.endBP());
+      change = describeChange(previousVersion, ext.startBP(), ext.endBP());
     } finally {
       lock.writeLock().unlock();
     }
+    this.refreshLayoutIndex();
+    return change;
   }
 
-  public void moveSelectionRangeBp(final long queriedStartBpIncl, final long queriedEndBpExcl, final long targetStartBp) {
+  /**
+   * @return Changed region or <code>null</code> if nothing was moved.
+   */
+  public @Nullable AssemblyChange moveSelectionRangeBp(final long queriedStartBpIncl, final long queriedEndBpExcl, final long targetStartBp) {
     final var contigTree = this.chunkedFile.getContigTree();
     final var scaffoldTree = this.chunkedFile.getScaffoldTree();
     final var lock = contigTree.getRootLock();
+    final AssemblyChange change;
     try {
       lock.writeLock().lock();
       final var ext = scaffoldTree.extendBordersToScaffolds(queriedStartBpIncl, queriedEndBpExcl);
       final var es = contigTree.expose(ResolutionDescriptor.fromResolutionOrder(0), ext.startBP(), ext.endBP(), QueryLengthUnit.BASE_PAIRS);
-      if (es.segment() != null) {
-        final var leftSizeBp = Optional.ofNullable(es.less()).map(l -> l.getSubtreeLengthInUnits(QueryLengthUnit.BASE_PAIRS, ResolutionDescriptor.fromResolutionOrder(0))).orElse(0L);
-        final var segmentSizeBp = es.segment().getSubtreeLengthInUnits(QueryLengthUnit.BASE_PAIRS, ResolutionDescriptor.fromResolutionOrder(0));
-        final var tmp = ContigTree.Node.mergeNodes(new ContigTree.Node.SplitResult(es.less(), es.greater()));
-        final var nlnr = tmp.splitByLength(ResolutionDescriptor.fromResolutionOrder(0), targetStartBp - ((leftSizeBp > targetStartBp) ? 0L : segmentSizeBp), false, QueryLengthUnit.BASE_PAIRS);
-        contigTree.commitExposedSegment(new ContigTree.Node.ExposedSegment(nlnr.left(), es.segment(), nlnr.right()));
-        scaffoldTree.moveSelectionRange(ext.startBP(), ext.endBP(), targetStartBp);
+      if (es.segment() == null) {
+        return null;
       }
+      final var previousVersion = contigTree.getVersion();
+      final var leftSizeBp = Optional.ofNullable(es.less()).map(l -> l.getSubtreeLengthInUnits(QueryLengthUnit.BASE_PAIRS, ResolutionDescriptor.fromResolutionOrder(0))).orElse(0L);
+      final var segmentSizeBp = es.segment().getSubtreeLengthInUnits(QueryLengthUnit.BASE_PAIRS, ResolutionDescriptor.fromResolutionOrder(0));
+      final var tmp = ContigTree.Node.mergeNodes(new ContigTree.Node.SplitResult(es.less(), es.greater()));
+      final var nlnr = tmp.splitByLength(ResolutionDescriptor.fromResolutionOrder(0), targetStartBp - ((leftSizeBp > targetStartBp) ? 0L : segmentSizeBp), false, QueryLengthUnit.BASE_PAIRS);
+      contigTree.commitExposedSegment(new ContigTree.Node.ExposedSegment(nlnr.left(), es.segment(), nlnr.right()));
+      scaffoldTree.moveSelectionRange(ext.startBP(), ext.endBP(), targetStartBp);
+      final var newStartBp = Optional.ofNullable(nlnr.left()).map(l -> l.getSubtreeLengthInUnits(QueryLengthUnit.BASE_PAIRS, ResolutionDescriptor.fromResolutionOrder(0))).orElse(0L);
+      change = describeChange(previousVersion, Long.min(leftSizeBp, newStartBp), Long.max(leftSizeBp, newStartBp) + segmentSizeBp);
     } finally {
       lock.writeLock().unlock();
     }
+    this.refreshLayoutIndex();
+    return change;
+  }
+
+  /**
+   * Should be called under the contig tree lock right after the change so that pixel coordinates are computed for the new layout.
+   */
+  private @NotNull AssemblyChange describeChange(final long previousVersion, final long startBpIncl, final long endBpExcl) {
+    final var contigTree = this.chunkedFile.getContigTree();
+    final var resolutionCount = this.chunkedFile.getResolutions().length;
+    final var bpResolution = ResolutionDescriptor.fromResolutionOrder(0);
+    final var assemblyLengthBp = contigTree.getLengthInUnits(QueryLengthUnit.BASE_PAIRS, bpResolution);
+    final var startPx = new long[resolutionCount];
+    final var endPx = new long[resolutionCount];
+    endPx[0] = Long.MAX_VALUE;
+    for (int i = 1; i < resolutionCount; ++i) {
+      final var resolution = ResolutionDescriptor.fromResolutionOrder(i);
+      // Region is widened by a pixel on both sides to account for partial bins at contig borders:
+      startPx[i] = (startBpIncl < assemblyLengthBp) ? Long.max(0L, this.chunkedFile.convertUnits(startBpIncl, bpResolution, QueryLengthUnit.BASE_PAIRS, resolution, QueryLengthUnit.PIXELS) - 1L) : 0L;
+      endPx[i] = (endBpExcl < assemblyLengthBp) ? (2L + this.chunkedFile.convertUnits(endBpExcl - 1L, bpResolution, QueryLengthUnit.BASE_PAIRS, resolution, QueryLengthUnit.PIXELS)) : Long.MAX_VALUE;
+    }
+    return new AssemblyChange(previousVersion, contigTree.getVersion(), startBpIncl, endBpExcl, startPx, endPx);
+  }
+
+  /**
+   * Rebuilds assembly layout index after the contig tree lock is released, so that tile queries are not blocked by the rebuild.
+   * Queries that come before it finishes do not use the stale layout and build the current one themselves.
+   */
+  private void refreshLayoutIndex() {
+    this.chunkedFile.assemblyLayoutIndex().refresh();
   }
 
   public void scaffoldRegion(final long startIncl, final long endExcl, final @NotNull ResolutionDescriptor resolutionDescriptor, final @NotNull QueryLengthUnit units, final @Nullable LongFunction<ScaffoldDescriptor> scaffoldGenerator) {
@@ -166,7 +211,10 @@ public class ScaffoldingOperations {
     }
   }
 
-  public void moveRegionToDebris(final long startIncl, final long endExcl, final @NotNull ResolutionDescriptor resolutionDescriptor, final @NotNull QueryLengthUnit units) {
+  /**
+   * @return Changed region or <code>null</code> if there was nothing to move.
+   */
+  public @Nullable AssemblyChange moveRegionToDebris(final long startIncl, final long endExcl, final @NotNull ResolutionDescriptor resolutionDescriptor, final @NotNull QueryLengthUnit units) {
     assert (startIncl < endExcl) : "Unscaffolding: start >= end??";
 
     final var contigTree = this.chunkedFile.getContigTree();
@@ -199,25 +247,33 @@ public class ScaffoldingOperations {
 
       if (trueStartBpIncl < trueEndBpExcl) {
         scaffoldRegion(trueStartBpIncl, trueEndBpExcl, ResolutionDescriptor.fromResolutionOrder(0), QueryLengthUnit.BASE_PAIRS, id -> new ScaffoldDescriptor(id, String.format("scaffold_debris_%d", id), 1000));
-        moveSelectionRangeBp(trueStartBpIncl, trueEndBpExcl, this.chunkedFile.getMatrixSizeBins()[0]);
+        return moveSelectionRangeBp(trueStartBpIncl, trueEndBpExcl, this.chunkedFile.getMatrixSizeBins()[0]);
       }
+      return null;
     } finally {
       scaffoldTree.getRootLock().writeLock().unlock();
       contigTree.getRootLock().writeLock().unlock();
     }
   }
 
-  public void splitContigAtBin(final long splitPosition, final @NotNull @NonNull ResolutionDescriptor resolutionDescriptor, final @NotNull @NonNull QueryLengthUnit units) {
+  /**
+   * @return Changed region, which spans from the split contig to the end of assembly since one bin is removed at the split position.
+   */
+  public @NotNull AssemblyChange splitContigAtBin(final long splitPosition, final @NotNull @NonNull ResolutionDescriptor resolutionDescriptor, final @NotNull @NonNull QueryLengthUnit units) {
     assert !QueryLengthUnit.BASE_PAIRS.equals(units) || (resolutionDescriptor.getResolutionOrderInArray() == 0) : "In bp query resolution should be set to 0";
 
+    // New contig descriptors need ATUs of every resolution, which should be loaded before the tree is locked:
+    this.chunkedFile.ensureAllResolutionsLoaded();
     final var minResolutionDescriptor = ResolutionDescriptor.fromResolutionOrder(1);
     final long minBpResolution = this.chunkedFile.getResolutions()[1];
 
     final var contigTree = this.chunkedFile.getContigTree();
     final var scaffoldTree = this.chunkedFile.getScaffoldTree();
     final var lock = contigTree.getRootLock();
+    final AssemblyChange change;
     try {
       lock.writeLock().lock();
+      final var previousVersion = contigTree.getVersion();
       final var oldContigTreeRoot = contigTree.getRoot();
       final var oldAssemblyLengthBp = oldContigTreeRoot.getSubtreeLengthInUnits(QueryLengthUnit.BASE_PAIRS, ResolutionDescriptor.fromResolutionOrder(0));
       final var splitPositionBp = this.chunkedFile.convertUnits(splitPosition, resolutionDescriptor, units, ResolutionDescriptor.fromResolutionOrder(0), QueryLengthUnit.BASE_PAIRS);
@@ -266,7 +322,7 @@ public class ScaffoldingOperations {
 
       final List<@NotNull List<@NotNull Long>> newContigLengthsBinsAtResolution = List.of(new ArrayList<>(), new ArrayList<>());
       final List<@NotNull List<@NotNull ContigHideType>> newContigPresenceAtResolution = List.of(new ArrayList<>(), new ArrayList<>());
-      final List<@NotNull List<@NotNull List<@NotNull ATUDescriptor>>> newContigAtus = List.of(new ArrayList<>(), new ArrayList<>());
+      final List<@NotNull List<@NotNull ATUSequence>> newContigAtus = List.of(new ArrayList<>(), new ArrayList<>());
 
       for (int i = 1; i < this.chunkedFile.getResolutions().length; i++) {
         final var bpResolution = this.chunkedFile.getResolutions()[i];
@@ -298,22 +354,22 @@ public class ScaffoldingOperations {
         IntStream.range(0, 2).forEach(j -> newContigLengthsBinsAtResolution.get(j).add(newLengthsAtResolution.get(j)));
         IntStream.range(0, 2).forEach(j -> newContigPresenceAtResolution.get(j).add((newContigLengthBps.get(j) >= bpResolution) ? ContigHideType.SHOWN : ContigHideType.HIDDEN));
 
-        final var oldATUsLengthBinsPrefixSum = oldContigDescriptor.getAtuPrefixSumLengthBins().get(i);
+        final var oldATUsLengthBinsPrefixSum = oldContigDescriptor.getATUsAtResolution(i);
 
         final var newLeftATUs = this.chunkedFile.matrixQueries().getATUsForRange(ResolutionDescriptor.fromResolutionOrder(i), contigStartBinsAtResolution, splitPositionBinsAtResolution, false);
         final var newRightATUs = this.chunkedFile.matrixQueries().getATUsForRange(ResolutionDescriptor.fromResolutionOrder(i), splitPositionBinsAtResolution + ((i > 1) ? 0 : 1), contigStartBinsAtResolution + oldContigLengthBinsAtResolution, false);
 
         assert (
-          newLeftATUs.parallelStream().mapToInt(ATUDescriptor::getLength).sum()
+          newLeftATUs.totalLength()
             +
-            newRightATUs.parallelStream().mapToInt(ATUDescriptor::getLength).sum()
+            newRightATUs.totalLength()
             ==
-            oldATUsLengthBinsPrefixSum[oldATUsLengthBinsPrefixSum.length - 1] - ((i > 1) ? 0 : 1)
+            oldATUsLengthBinsPrefixSum.total() - ((i > 1) ? 0 : 1)
         ) : String.format(
           "ATUs total length %d + %d has changed after splitting contig with ATU length %d at resolution order %d??",
-          newLeftATUs.parallelStream().mapToInt(ATUDescriptor::getLength).sum(),
-          newRightATUs.parallelStream().mapToInt(ATUDescriptor::getLength).sum(),
-          oldATUsLengthBinsPrefixSum[oldATUsLengthBinsPrefixSum.length - 1],
+          newLeftATUs.totalLength(),
+          newRightATUs.totalLength(),
+          oldATUsLengthBinsPrefixSum.total(),
           i
         );
 
@@ -323,10 +379,8 @@ public class ScaffoldingOperations {
             newContigAtus.get(1).add(newRightATUs);
           }
           case REVERSED -> {
-            newContigAtus.get(0).add(newLeftATUs.parallelStream().map(ATUDescriptor::reversed).collect(Collectors.toList()));
-            newContigAtus.get(1).add(newRightATUs.parallelStream().map(ATUDescriptor::reversed).collect(Collectors.toList()));
-            Collections.reverse(newContigAtus.get(0).get(i - 1));
-            Collections.reverse(newContigAtus.get(1).get(i - 1));
+            newContigAtus.get(0).add(newLeftATUs.reversed());
+            newContigAtus.get(1).add(newRightATUs.reversed());
           }
         }
 
@@ -335,6 +389,7 @@ public class ScaffoldingOperations {
       }
 
       final var newCds = IntStream.range(0, 2).mapToObj(i -> new ContigDescriptor(
+        this.chunkedFile.getContigCatalog(),
         newContigIds.get(i),
         newContigNames.get(i),
         newContigLengthBps.get(i),
@@ -360,9 +415,12 @@ public class ScaffoldingOperations {
 
       assert (oldAssemblyLengthBp == (newAssemblyLengthBp + minBpResolution)) : "Assembly length has changed after splitting contig??";
 
+      change = describeChange(previousVersion, leftBps, oldAssemblyLengthBp);
     } finally {
       lock.writeLock().unlock();
     }
+    this.refreshLayoutIndex();
+    return change;
   }
 
 }
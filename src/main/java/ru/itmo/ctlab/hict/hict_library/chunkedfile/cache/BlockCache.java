@@ -0,0 +1,202 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2024. Aleksandr Serdiukov, Anton Zamyatin, Aleksandr Sinitsyn, Vitalii Dravgelis and Computer Technologies Laboratory ITMO University team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ru.itmo.ctlab.hict.hict_library.chunkedfile.cache;
+
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Size-bounded LRU cache of decoded matrix blocks shared by all queries to the same file.
+ * Concurrent misses on the same block share a single load, so tiles, prefetching and warm-up do not decode one block several times.
+ */
+public class BlockCache {
+  @Getter
+  private final long maxSizeBytes;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final LinkedHashMap<@NotNull BlockKey, @NotNull DecodedBlock> blocks = new LinkedHashMap<>(1024, 0.75f, true);
+  private final HashMap<@NotNull BlockKey, @NotNull CompletableFuture<@NotNull DecodedBlock>> loadsInFlight = new HashMap<>();
+  private long currentSizeBytes = 0L;
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+  private final AtomicLong evictionCount = new AtomicLong();
+
+  public BlockCache(final long maxSizeBytes) {
+    this.maxSizeBytes = Long.max(0L, maxSizeBytes);
+  }
+
+  public boolean isEnabled() {
+    return this.maxSizeBytes > 0L;
+  }
+
+  /**
+   * Returns cached block, waits for a load of the same block already started by another thread or loads it using the given loader.
+   * Waiting for a load in flight counts as a hit since the block is not decoded again.
+   */
+  public @NotNull DecodedBlock get(final @NotNull BlockKey key, final @NotNull Function<@NotNull BlockKey, @NotNull DecodedBlock> loader) {
+    while (true) {
+      final CompletableFuture<DecodedBlock> inFlight;
+      final CompletableFuture<DecodedBlock> ownLoad;
+      try {
+        this.lock.lock();
+        final var cached = this.blocks.get(key);
+        if (cached != null) {
+          this.hitCount.incrementAndGet();
+          return cached;
+        }
+        inFlight = this.loadsInFlight.get(key);
+        if (inFlight == null) {
+          ownLoad = new CompletableFuture<>();
+          this.loadsInFlight.put(key, ownLoad);
+        } else {
+          ownLoad = null;
+        }
+      } finally {
+        this.lock.unlock();
+      }
+
+      if (ownLoad != null) {
+        this.missCount.incrementAndGet();
+        return this.load(key, loader, ownLoad);
+      }
+
+      try {
+        final var loaded = inFlight.join();
+        this.hitCount.incrementAndGet();
+        return loaded;
+      } catch (final CancellationException | CompletionException e) {
+        // Load of another query was cancelled or failed, this query retries with its own loader:
+        if (e instanceof CompletionException && !(e.getCause() instanceof CancellationException)) {
+          throw (e.getCause() instanceof RuntimeException runtimeException) ? runtimeException : e;
+        }
+      }
+    }
+  }
+
+  private @NotNull DecodedBlock load(final @NotNull BlockKey key, final @NotNull Function<@NotNull BlockKey, @NotNull DecodedBlock> loader, final @NotNull CompletableFuture<DecodedBlock> ownLoad) {
+    // Block is decoded outside the lock so that concurrent misses on different blocks do not wait for each other:
+    try {
+      final var loaded = loader.apply(key);
+      this.put(key, loaded);
+      this.finishLoad(key, ownLoad);
+      ownLoad.complete(loaded);
+      return loaded;
+    } catch (final RuntimeException | Error e) {
+      this.finishLoad(key, ownLoad);
+      ownLoad.completeExceptionally(e);
+      throw e;
+    }
+  }
+
+  private void finishLoad(final @NotNull BlockKey key, final @NotNull CompletableFuture<DecodedBlock> ownLoad) {
+    try {
+      this.lock.lock();
+      this.loadsInFlight.remove(key, ownLoad);
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  public void put(final @NotNull BlockKey key, final @NotNull DecodedBlock block) {
+    final var blockSize = block.sizeInBytes();
+    if (!isEnabled() || blockSize > this.maxSizeBytes) {
+      return;
+    }
+    try {
+      this.lock.lock();
+      final var previous = this.blocks.put(key, block);
+      if (previous != null) {
+        this.currentSizeBytes -= previous.sizeInBytes();
+      }
+      this.currentSizeBytes += blockSize;
+      final var iterator = this.blocks.entrySet().iterator();
+      while (this.currentSizeBytes > this.maxSizeBytes && iterator.hasNext()) {
+        final var eldest = iterator.next();
+        iterator.remove();
+        this.currentSizeBytes -= eldest.getValue().sizeInBytes();
+        this.evictionCount.incrementAndGet();
+      }
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * @return Whether the block is cached or is being loaded.
+   */
+  public boolean contains(final @NotNull BlockKey key) {
+    try {
+      this.lock.lock();
+      return this.blocks.containsKey(key) || this.loadsInFlight.containsKey(key);
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  public void invalidateAll() {
+    try {
+      this.lock.lock();
+      this.blocks.clear();
+      this.currentSizeBytes = 0L;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  public @NotNull Statistics getStatistics() {
+    try {
+      this.lock.lock();
+      return new Statistics(
+        this.hitCount.get(),
+        this.missCount.get(),
+        this.evictionCount.get(),
+        this.blocks.size(),
+        this.currentSizeBytes,
+        this.maxSizeBytes
+      );
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  public record BlockKey(int resolutionOrder, int rowStripeId, int colStripeId) {
+  }
+
+  public record Statistics(long hitCount, long missCount, long evictionCount, int blockCount, long sizeBytes,
+                           long maxSizeBytes) {
+    public double hitRate() {
+      final var requestCount = this.hitCount + this.missCount;
+      return (requestCount == 0L) ? 0.0d : ((double) this.hitCount / requestCount);
+    }
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2024. Aleksandr Serdiukov, Anton Zamyatin, Aleksandr Sinitsyn, Vitalii Dravgelis and Computer Technologies Laboratory ITMO University team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ru.itmo.ctlab.hict.hict_library.chunkedfile.cache;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Block of the contact matrix that was read from the HDF5 file and decoded into primitive arrays.
+ * Indices of rows and columns are relative to the stripes that form this block.
+ */
+public sealed interface DecodedBlock permits DecodedBlock.EmptyBlock, DecodedBlock.SparseBlock, DecodedBlock.DenseBlock {
+  long OBJECT_OVERHEAD_BYTES = 64L;
+
+  long sizeInBytes();
+
+  /**
+   * Writes values of the rectangle [firstRow, lastRow) x [firstCol, lastCol) of this block into a flat row-major buffer.
+   * Row (column) with index <code>firstRow</code> (<code>firstCol</code>) is placed at <code>targetRowOffset</code>
+   * (<code>targetColOffset</code>) of the buffer, flips and transposition are applied by index arithmetic only.
+   * Sparse blocks write only their non-zero values, so the target region is expected to be zero-filled.
+   */
+  void scatterInto(long @NotNull [] target, int targetRowStride, int targetRowOffset, int targetColOffset,
+                   int firstRow, int lastRow, boolean flipRows,
+                   int firstCol, int lastCol, boolean flipCols,
+                   boolean transpose);
+
+  record EmptyBlock() implements DecodedBlock {
+    public static final EmptyBlock INSTANCE = new EmptyBlock();
+
+    @Override
+    public long sizeInBytes() {
+      return OBJECT_OVERHEAD_BYTES;
+    }
+
+    @Override
+    public void scatterInto(final long @NotNull [] target, final int targetRowStride, final int targetRowOffset, final int targetColOffset,
+                            final int firstRow, final int lastRow, final boolean flipRows,
+                            final int firstCol, final int lastCol, final boolean flipCols,
+                            final boolean transpose) {
+    }
+  }
+
+  /**
+   * Sparse block in COO format. If the block lies on the main diagonal, only one of symmetric values is stored.
+   */
+  record SparseBlock(int blockSize, int @NotNull [] rows, int @NotNull [] cols, long @NotNull [] values,
+                     boolean symmetric) implements DecodedBlock {
+    @Override
+    public long sizeInBytes() {
+      return OBJECT_OVERHEAD_BYTES + 16L * this.values.length;
+    }
+
+    @Override
+    public void scatterInto(final long @NotNull [] target, final int targetRowStride, final int targetRowOffset, final int targetColOffset,
+                            final int firstRow, final int lastRow, final boolean flipRows,
+                            final int firstCol, final int lastCol, final boolean flipCols,
+                            final boolean transpose) {
+      final var base = targetRowOffset * targetRowStride + targetColOffset;
+      final var rowStep = transpose ? 1 : targetRowStride;
+      final var colStep = transpose ? targetRowStride : 1;
+      final var nonZeroCount = this.values.length;
+      for (int i = 0; i < nonZeroCount; ++i) {
+        final var row = this.rows[i];
+        final var col = this.cols[i];
+        if (row >= firstRow && row < lastRow && col >= firstCol && col < lastCol) {
+          final var r = flipRows ? (lastRow - 1 - row) : (row - firstRow);
+          final var c = flipCols ? (lastCol - 1 - col) : (col - firstCol);
+          target[base + r * rowStep + c * colStep] = this.values[i];
+        }
+        if (this.symmetric && row != col && col >= firstRow && col < lastRow && row >= firstCol && row < lastCol) {
+          final var r = flipRows ? (lastRow - 1 - col) : (col - firstRow);
+          final var c = flipCols ? (lastCol - 1 - row) : (row - firstCol);
+          target[base + r * rowStep + c * colStep] = this.values[i];
+        }
+      }
+    }
+  }
+
+  /**
+   * Dense block stored in row-major order. Blocks on the main diagonal are already symmetrized.
+   */
+  record DenseBlock(int blockSize, long @NotNull [] values) implements DecodedBlock {
+    @Override
+    public long sizeInBytes() {
+      return OBJECT_OVERHEAD_BYTES + 8L * this.values.length;
+    }
+
+    @Override
+    public void scatterInto(final long @NotNull [] target, final int targetRowStride, final int targetRowOffset, final int targetColOffset,
+                            final int firstRow, final int lastRow, final boolean flipRows,
+                            final int firstCol, final int lastCol, final boolean flipCols,
+                            final boolean transpose) {
+      final var base = targetRowOffset * targetRowStride + targetColOffset;
+      final var colCount = lastCol - firstCol;
+      if (!transpose && !flipCols) {
+        for (int row = firstRow; row < lastRow; ++row) {
+          final var r = flipRows ? (lastRow - 1 - row) : (row - firstRow);
+          System.arraycopy(this.values, row * this.blockSize + firstCol, target, base + r * targetRowStride, colCount);
+        }
+        return;
+      }
+      final var rowStep = transpose ? 1 : targetRowStride;
+      final var colStep = transpose ? targetRowStride : 1;
+      for (int row = firstRow; row < lastRow; ++row) {
+        final var r = flipRows ? (lastRow - 1 - row) : (row - firstRow);
+        final var sourceRowStart = row * this.blockSize;
+        final var targetRowStart = base + r * rowStep;
+        for (int col = firstCol; col < lastCol; ++col) {
+          final var c = flipCols ? (lastCol - 1 - col) : (col - firstCol);
+          target[targetRowStart + c * colStep] = this.values[sourceRowStart + col];
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,416 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2024. Aleksandr Serdiukov, Anton Zamyatin, Aleksandr Sinitsyn, Vitalii Dravgelis and Computer Technologies Laboratory ITMO University team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ru.itmo.ctlab.hict.hict_library.chunkedfile.generator;
+
+import ch.systemsx.cisd.base.mdarray.MDLongArray;
+import ch.systemsx.cisd.hdf5.HDF5Factory;
+import ch.systemsx.cisd.hdf5.IHDF5Writer;
+import lombok.Builder;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.hdf5.HDF5LibraryInitializer;
+import ru.itmo.ctlab.hict.hict_library.domain.ATUDirection;
+import ru.itmo.ctlab.hict.hict_library.domain.ContigDirection;
+import ru.itmo.ctlab.hict.hict_library.domain.ContigHideType;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static ru.itmo.ctlab.hict.hict_library.chunkedfile.util.PathGenerators.*;
+
+/**
+ * Generates a valid multi-resolution <code>.hict.hdf5</code> file with random contigs and a synthetic contact signal
+ * whose probability decays with the distance from the main diagonal as <code>density * (S / (S + d))^decay</code>,
+ * where <code>S</code> is the stripe size.
+ * Blocks and bin weights are generated one stripe at a time and written straight to the file, so memory usage only grows
+ * with the number of stripes and ATUs, not with the number of contacts.
+ */
+@Slf4j
+public class SyntheticChunkedFileGenerator {
+  private static final int SPARSE_CHUNK_SIZE = 1 << 16;
+  private final @NotNull GeneratorOptions options;
+
+  public SyntheticChunkedFileGenerator(final @NotNull GeneratorOptions options) {
+    if (options.contigCount() <= 0 || options.assemblyLengthBp() < options.contigCount()) {
+      throw new IllegalArgumentException("Assembly should have at least one contig and at least one base pair per contig");
+    }
+    if (options.resolutions().length == 0 || Arrays.stream(options.resolutions()).anyMatch(r -> r <= 0L)) {
+      throw new IllegalArgumentException("At least one positive resolution must be specified");
+    }
+    if (options.stripeSize() <= 0) {
+      throw new IllegalArgumentException("Stripe size must be positive");
+    }
+    this.options = options;
+  }
+
+  public static void main(final String[] args) {
+    final var builder = GeneratorOptions.DEFAULT.toBuilder();
+    Path output = null;
+    try {
+      for (int i = 0; i < args.length; i += 2) {
+        if (i + 1 >= args.length) {
+          throw new IllegalArgumentException("Missing value for " + args[i]);
+        }
+        final var value = args[i + 1];
+        switch (args[i]) {
+          case "--output" -> output = Path.of(value);
+          case "--contigs" -> builder.contigCount(Integer.parseInt(value));
+          case "--length-bp" -> builder.assemblyLengthBp(Long.parseLong(value));
+          case "--resolutions" -> builder.resolutions(Arrays.stream(value.split(",")).mapToLong(Long::parseLong).toArray());
+          case "--stripe-size" -> builder.stripeSize(Integer.parseInt(value));
+          case "--density" -> builder.contactDensity(Double.parseDouble(value));
+          case "--decay" -> builder.distanceDecayExponent(Double.parseDouble(value));
+          case "--dense-threshold" -> builder.denseBlockThreshold(Double.parseDouble(value));
+          case "--reversed" -> builder.reversedContigFraction(Double.parseDouble(value));
+          case "--reversed-atus" -> builder.reversedATUFraction(Double.parseDouble(value));
+          case "--seed" -> builder.seed(Long.parseLong(value));
+          default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+        }
+      }
+      if (output == null) {
+        throw new IllegalArgumentException("Output file must be specified");
+      }
+    } catch (final IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      System.err.println("Usage: SyntheticChunkedFileGenerator --output <file.hict.hdf5> [--contigs N] [--length-bp L] [--resolutions r1,r2,...] [--stripe-size S] [--density D] [--decay A] [--dense-threshold T] [--reversed F] [--reversed-atus F] [--seed X]");
+      System.exit(1);
+      return;
+    }
+    new SyntheticChunkedFileGenerator(builder.build()).generate(output);
+  }
+
+  public void generate(final @NotNull Path target) {
+    HDF5LibraryInitializer.initializeHDF5Library();
+    final var random = new Random(this.options.seed());
+    final var contigLengthBp = generateContigLengths(random);
+
+    log.info("Generating " + target + " with " + this.options.contigCount() + " contigs and " + this.options.assemblyLengthBp() + " bp");
+    try (final var writer = HDF5Factory.configure(target.toFile()).overwrite().writer()) {
+      writeContigInfo(writer, contigLengthBp, random);
+      for (final var resolution : this.options.resolutions()) {
+        writeResolution(writer, resolution, contigLengthBp, new Random(this.options.seed() ^ resolution));
+      }
+    }
+  }
+
+  private long @NotNull [] generateContigLengths(final @NotNull Random random) {
+    final var contigCount = this.options.contigCount();
+    final var assemblyLength = this.options.assemblyLengthBp();
+    // Log-normal weights give a few long contigs and a long tail of short ones, like real assemblies have:
+    final var weights = new double[contigCount];
+    for (int i = 0; i < contigCount; ++i) {
+      weights[i] = Math.exp(random.nextGaussian());
+    }
+    final var weightSum = Arrays.stream(weights).sum();
+    final var lengths = new long[contigCount];
+    long assigned = 0L;
+    for (int i = 0; i < contigCount; ++i) {
+      lengths[i] = 1L + (long) ((assemblyLength - contigCount) * (weights[i] / weightSum));
+      assigned += lengths[i];
+    }
+    lengths[contigCount - 1] += assemblyLength - assigned;
+    return lengths;
+  }
+
+  private void writeContigInfo(final @NotNull IHDF5Writer writer, final long @NotNull [] contigLengthBp, final @NotNull Random random) {
+    final var contigCount = this.options.contigCount();
+    final var names = new String[contigCount];
+    final var directions = new long[contigCount];
+    final var order = new long[contigCount];
+    for (int i = 0; i < contigCount; ++i) {
+      names[i] = "ctg" + (1 + i);
+      directions[i] = ((random.nextDouble() < this.options.reversedContigFraction()) ? ContigDirection.REVERSED : ContigDirection.FORWARD).ordinal();
+      order[i] = i;
+    }
+    writer.string().writeArray(getContigNameDatasetPath(), names);
+    writer.int64().writeArray(getContigLengthBpDatasetPath(), contigLengthBp);
+    writer.int64().writeArray(getContigDirectionDatasetPath(), directions);
+    writer.int64().writeArray(getContigOrderDatasetPath(), order);
+  }
+
+  private void writeResolution(final @NotNull IHDF5Writer writer, final long resolution, final long @NotNull [] contigLengthBp, final @NotNull Random random) {
+    final var stripeSize = this.options.stripeSize();
+    final var contigCount = contigLengthBp.length;
+    final var contigLengthBins = Arrays.stream(contigLengthBp).map(length -> (length + resolution - 1L) / resolution).toArray();
+    final var totalBins = Arrays.stream(contigLengthBins).sum();
+    final var stripeCount = Math.toIntExact((totalBins + stripeSize - 1L) / stripeSize);
+    log.info("Resolution " + resolution + ": " + totalBins + " bins in " + stripeCount + " stripes");
+
+    final var stripeLengthBins = new long[stripeCount];
+    final var weightsPath = getStripeBinWeightsDatasetPath(resolution);
+    final var stripeBinWeights = new double[1][stripeSize];
+    writer.float64().createMatrix(weightsPath, 0L, stripeSize, 1, stripeSize);
+    for (int i = 0; i < stripeCount; ++i) {
+      stripeLengthBins[i] = Long.min(stripeSize, totalBins - (long) i * stripeSize);
+      Arrays.fill(stripeBinWeights[0], 0.0d);
+      for (int j = 0; j < stripeLengthBins[i]; ++j) {
+        stripeBinWeights[0][j] = 0.5d + random.nextDouble();
+      }
+      writer.float64().writeMatrixBlockWithOffset(weightsPath, stripeBinWeights, i, 0L);
+    }
+    writer.int64().writeArray(getStripeLengthsBinsDatasetPath(resolution), stripeLengthBins);
+
+    // Contigs are laid out in their original order, each ATU is a part of contig that fits into one stripe.
+    // Reversed ATUs only change which bins of the stripe map to which bins of the contig, so the contact signal stays valid:
+    final var atuCount = Math.toIntExact(Arrays.stream(contigLengthBins).map(length -> 2L + length / stripeSize).sum());
+    final var basisATUs = new long[atuCount][];
+    final var contigATL = new long[atuCount][];
+    int atuId = 0;
+    long position = 0L;
+    for (int contigId = 0; contigId < contigCount; ++contigId) {
+      var remaining = contigLengthBins[contigId];
+      while (remaining > 0L) {
+        final var stripeId = position / stripeSize;
+        final var startInStripe = position % stripeSize;
+        final var length = Long.min(remaining, stripeSize - startInStripe);
+        final var direction = (this.options.reversedATUFraction() > 0.0d && random.nextDouble() < this.options.reversedATUFraction()) ? ATUDirection.REVERSED : ATUDirection.FORWARD;
+        basisATUs[atuId] = new long[]{stripeId, startInStripe, startInStripe + length, direction.ordinal()};
+        contigATL[atuId] = new long[]{contigId, atuId};
+        ++atuId;
+        position += length;
+        remaining -= length;
+      }
+    }
+    writer.int64().writeMatrix(getBasisATUDatasetPath(resolution), Arrays.copyOf(basisATUs, atuId));
+    writer.int64().writeMatrix(getContigsATLDatasetPath(resolution), Arrays.copyOf(contigATL, atuId));
+    writer.int64().writeArray(getContigLengthBinsDatasetPath(resolution), contigLengthBins);
+    final var hideTypes = new byte[contigCount];
+    Arrays.fill(hideTypes, (byte) ContigHideType.SHOWN.ordinal());
+    writer.int8().writeArray(getContigHideTypeDatasetPath(resolution), hideTypes);
+
+    writeBlocks(writer, resolution, stripeLengthBins, random);
+  }
+
+  private void writeBlocks(final @NotNull IHDF5Writer writer, final long resolution, final long @NotNull [] stripeLengthBins, final @NotNull Random random) {
+    final var stripeSize = this.options.stripeSize();
+    final var stripeCount = stripeLengthBins.length;
+    final var blockCount = (long) stripeCount * stripeCount;
+    final var lengthPath = getBlockLengthDatasetPath(resolution);
+    final var offsetPath = getBlockOffsetDatasetPath(resolution);
+    final var densePath = getDenseBlockDatasetPath(resolution);
+    final var indexChunkSize = (int) Long.min(blockCount, SPARSE_CHUNK_SIZE);
+    writer.int64().createArray(lengthPath, blockCount, indexChunkSize);
+    writer.int64().createArray(offsetPath, blockCount, indexChunkSize);
+    writer.int64().createMDArray(densePath, new long[]{0L, 1L, stripeSize, stripeSize}, new int[]{1, 1, stripeSize, stripeSize});
+
+    final var sparseWriter = new SparseTripletWriter(writer, resolution);
+    final var block = new BlockBuffer(stripeSize);
+    final var denseValues = new long[stripeSize * stripeSize];
+    long denseCount = 0L;
+    long nonZeroTotal = 0L;
+    final var rowLengths = new long[stripeCount];
+    final var rowOffsets = new long[stripeCount];
+
+    for (int rowStripe = 0; rowStripe < stripeCount; ++rowStripe) {
+      Arrays.fill(rowLengths, 0L);
+      Arrays.fill(rowOffsets, 0L);
+      for (int colStripe = rowStripe; colStripe < stripeCount; ++colStripe) {
+        fillBlock(block, rowStripe, colStripe, (int) stripeLengthBins[rowStripe], (int) stripeLengthBins[colStripe], random);
+        final var nonZeroCount = block.size;
+        if (nonZeroCount == 0) {
+          continue;
+        }
+        nonZeroTotal += nonZeroCount;
+        rowLengths[colStripe] = nonZeroCount;
+        if (nonZeroCount > this.options.denseBlockThreshold() * denseValues.length) {
+          Arrays.fill(denseValues, 0L);
+          for (int k = 0; k < nonZeroCount; ++k) {
+            denseValues[block.rows[k] * stripeSize + block.cols[k]] = block.values[k];
+          }
+          writer.int64().writeMDArrayBlockWithOffset(densePath, new MDLongArray(denseValues, new int[]{1, 1, stripeSize, stripeSize}), new long[]{denseCount, 0L, 0L, 0L});
+          rowOffsets[colStripe] = -(denseCount + 1L);
+          ++denseCount;
+        } else {
+          rowOffsets[colStripe] = sparseWriter.append(block);
+        }
+      }
+      writer.int64().writeArrayBlockWithOffset(lengthPath, rowLengths, stripeCount, (long) rowStripe * stripeCount);
+      writer.int64().writeArrayBlockWithOffset(offsetPath, rowOffsets, stripeCount, (long) rowStripe * stripeCount);
+    }
+    sparseWriter.flush();
+
+    writer.int64().setAttr(String.format("/resolutions/%d/treap_coo", resolution), "dense_submatrix_size", stripeSize);
+    log.info("Resolution " + resolution + ": " + nonZeroTotal + " non-zero values, " + denseCount + " dense blocks, " + sparseWriter.written + " values in sparse blocks");
+  }
+
+  /**
+   * Fills the upper triangle of the block with contacts.
+   * Cells are visited by geometric skips with the highest contact probability in this block and then thinned
+   * to the exact probability, so that the cost is proportional to the number of generated contacts.
+   */
+  private void fillBlock(final @NotNull BlockBuffer block, final int rowStripe, final int colStripe, final int rowCount, final int colCount, final @NotNull Random random) {
+    block.size = 0;
+    final var stripeSize = this.options.stripeSize();
+    final var minDistance = Long.max(0L, (long) (colStripe - rowStripe - 1) * stripeSize + 1L);
+    final var maxProbability = contactProbability(rowStripe == colStripe ? 0L : minDistance);
+    if (maxProbability <= 0.0d) {
+      return;
+    }
+    final var logComplement = Math.log1p(-Math.min(maxProbability, 1.0d - 1e-12d));
+    final long cellCount = (long) rowCount * colCount;
+    long cell = -1L;
+    while (true) {
+      cell += 1L + ((maxProbability >= 1.0d) ? 0L : (long) (Math.log(1.0d - random.nextDouble()) / logComplement));
+      if (cell >= cellCount) {
+        return;
+      }
+      final var row = (int) (cell / colCount);
+      final var col = (int) (cell % colCount);
+      if (rowStripe == colStripe && row > col) {
+        continue;
+      }
+      final long distance = (long) (colStripe - rowStripe) * stripeSize + col - row;
+      final var probability = contactProbability(distance);
+      if (random.nextDouble() * maxProbability < probability) {
+        block.add(row, col, 1L + (long) (100.0d * probability * random.nextDouble()));
+      }
+    }
+  }
+
+  private double contactProbability(final long distanceBins) {
+    final var stripeSize = this.options.stripeSize();
+    return this.options.contactDensity() * Math.pow((double) stripeSize / (stripeSize + distanceBins), this.options.distanceDecayExponent());
+  }
+
+  /**
+   * @param contigCount            number of contigs in the assembly.
+   * @param assemblyLengthBp       total length of all contigs.
+   * @param resolutions            bin sizes in base pairs, one group is written for each of them.
+   * @param stripeSize             size of stripes and blocks in bins, stored as <code>dense_submatrix_size</code>.
+   * @param contactDensity         probability of contact on the main diagonal.
+   * @param distanceDecayExponent  how fast contact probability decays with the distance from the main diagonal.
+   * @param denseBlockThreshold    blocks with more non-zero cells than this fraction are stored as dense, use <code>0</code> to store all non-empty blocks as dense and <code>1</code> to store them all as sparse.
+   * @param reversedContigFraction fraction of contigs that are initially reversed.
+   * @param reversedATUFraction    fraction of basis ATUs that map bins of their stripe in reverse order.
+   * @param seed                   seed of the random generator, files generated with the same options are identical.
+   */
+  @Builder(toBuilder = true)
+  public record GeneratorOptions(
+    int contigCount,
+    long assemblyLengthBp,
+    long @NotNull [] resolutions,
+    int stripeSize,
+    double contactDensity,
+    double distanceDecayExponent,
+    double denseBlockThreshold,
+    double reversedContigFraction,
+    double reversedATUFraction,
+    long seed
+  ) {
+    public static final @NotNull GeneratorOptions DEFAULT = new GeneratorOptions(
+      1000,
+      100_000_000L,
+      new long[]{10_000L, 50_000L, 250_000L, 1_000_000L},
+      256,
+      0.5d,
+      1.0d,
+      0.25d,
+      0.0d,
+      0.0d,
+      42L
+    );
+  }
+
+  private static final class BlockBuffer {
+    private int[] rows;
+    private int[] cols;
+    private long[] values;
+    private int size;
+
+    private BlockBuffer(final int stripeSize) {
+      final var capacity = Integer.max(16, stripeSize);
+      this.rows = new int[capacity];
+      this.cols = new int[capacity];
+      this.values = new long[capacity];
+    }
+
+    private void add(final int row, final int col, final long value) {
+      if (this.size == this.rows.length) {
+        final var capacity = 2 * this.size;
+        this.rows = Arrays.copyOf(this.rows, capacity);
+        this.cols = Arrays.copyOf(this.cols, capacity);
+        this.values = Arrays.copyOf(this.values, capacity);
+      }
+      this.rows[this.size] = row;
+      this.cols[this.size] = col;
+      this.values[this.size] = value;
+      ++this.size;
+    }
+  }
+
+  /**
+   * Appends sparse blocks to extendable <code>block_rows</code>, <code>block_cols</code> and <code>block_vals</code> datasets in large chunks.
+   */
+  private static final class SparseTripletWriter {
+    private final @NotNull IHDF5Writer writer;
+    private final @NotNull String rowsPath;
+    private final @NotNull String colsPath;
+    private final @NotNull String valuesPath;
+    private final long[] rows = new long[SPARSE_CHUNK_SIZE];
+    private final long[] cols = new long[SPARSE_CHUNK_SIZE];
+    private final long[] values = new long[SPARSE_CHUNK_SIZE];
+    private int buffered = 0;
+    private long written = 0L;
+
+    private SparseTripletWriter(final @NotNull IHDF5Writer writer, final long resolution) {
+      this.writer = writer;
+      this.rowsPath = getBlockRowsDatasetPath(resolution);
+      this.colsPath = getBlockColsDatasetPath(resolution);
+      this.valuesPath = getBlockValuesDatasetPath(resolution);
+      writer.int64().createArray(this.rowsPath, 0L, SPARSE_CHUNK_SIZE);
+      writer.int64().createArray(this.colsPath, 0L, SPARSE_CHUNK_SIZE);
+      writer.int64().createArray(this.valuesPath, 0L, SPARSE_CHUNK_SIZE);
+    }
+
+    /**
+     * @return offset of the first value of this block in sparse datasets.
+     */
+    private long append(final @NotNull BlockBuffer block) {
+      final var offset = this.written + this.buffered;
+      for (int k = 0; k < block.size; ++k) {
+        if (this.buffered == SPARSE_CHUNK_SIZE) {
+          flush();
+        }
+        this.rows[this.buffered] = block.rows[k];
+        this.cols[this.buffered] = block.cols[k];
+        this.values[this.buffered] = block.values[k];
+        ++this.buffered;
+      }
+      return offset;
+    }
+
+    private void flush() {
+      if (this.buffered == 0) {
+        return;
+      }
+      this.writer.int64().writeArrayBlockWithOffset(this.rowsPath, this.rows, this.buffered, this.written);
+      this.writer.int64().writeArrayBlockWithOffset(this.colsPath, this.cols, this.buffered, this.written);
+      this.writer.int64().writeArrayBlockWithOffset(this.valuesPath, this.values, this.buffered, this.written);
+      this.written += this.buffered;
+      this.buffered = 0;
+    }
+  }
+}
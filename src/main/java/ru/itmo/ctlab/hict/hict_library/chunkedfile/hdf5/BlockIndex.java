@@ -0,0 +1,100 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2024. Aleksandr Serdiukov, Anton Zamyatin, Aleksandr Sinitsyn, Vitalii Dravgelis and Computer Technologies Laboratory ITMO University team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ru.itmo.ctlab.hict.hict_library.chunkedfile.hdf5;
+
+import lombok.Getter;
+import org.apache.commons.pool2.ObjectPool;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * In-memory copy of <code>block_length</code> and <code>block_offset</code> datasets for one resolution.
+ * Each row of blocks is read from the file with a single bulk request when it is accessed for the first time.
+ * Only the part of the row above the main diagonal is kept since the lower blocks are never stored.
+ */
+public class BlockIndex {
+  @Getter
+  private final int stripeCount;
+  private final @NotNull ObjectPool<HDF5FileDatasetsBundle> datasetBundlePool;
+  private final @NotNull AtomicReferenceArray<IndexRow> rows;
+
+  public BlockIndex(final int stripeCount, final @NotNull ObjectPool<HDF5FileDatasetsBundle> datasetBundlePool) {
+    this.stripeCount = stripeCount;
+    this.datasetBundlePool = datasetBundlePool;
+    this.rows = new AtomicReferenceArray<>(stripeCount);
+  }
+
+  public long getBlockLength(final int rowStripeId, final int colStripeId) {
+    return getRow(rowStripeId).lengths()[colStripeId - rowStripeId];
+  }
+
+  public long getBlockOffset(final int rowStripeId, final int colStripeId) {
+    return getRow(rowStripeId).offsets()[colStripeId - rowStripeId];
+  }
+
+  public boolean isEmpty(final int rowStripeId, final int colStripeId) {
+    return getBlockLength(rowStripeId, colStripeId) == 0L;
+  }
+
+  private @NotNull IndexRow getRow(final int rowStripeId) {
+    final var cached = this.rows.get(rowStripeId);
+    if (cached != null) {
+      return cached;
+    }
+    final var loaded = loadRow(rowStripeId);
+    // Concurrent loads of the same row yield equal content, so whichever is stored first is kept:
+    return this.rows.compareAndSet(rowStripeId, null, loaded) ? loaded : this.rows.get(rowStripeId);
+  }
+
+  private @NotNull IndexRow loadRow(final int rowStripeId) {
+    final var rowLength = this.stripeCount - rowStripeId;
+    final var offsetInDatasets = (long) rowStripeId * this.stripeCount + rowStripeId;
+    @Nullable HDF5FileDatasetsBundle dsBundle = null;
+    try {
+      dsBundle = this.datasetBundlePool.borrowObject();
+      Objects.requireNonNull(dsBundle);
+      final var reader = dsBundle.getReader();
+      final long[] lengths = reader.int64().readArrayBlockWithOffset(dsBundle.getBlockLengthDataSet(), rowLength, offsetInDatasets);
+      final long[] offsets = reader.int64().readArrayBlockWithOffset(dsBundle.getBlockOffsetDataSet(), rowLength, offsetInDatasets);
+      return new IndexRow(lengths, offsets);
+    } catch (final Exception e) {
+      throw new RuntimeException(e);
+    } finally {
+      if (null != dsBundle) {
+        try {
+          this.datasetBundlePool.returnObject(dsBundle);
+        } catch (final Exception ignored) {
+          // ignored
+        }
+      }
+    }
+  }
+
+  private record IndexRow(long @NotNull [] lengths, long @NotNull [] offsets) {
+  }
+}
@@ -30,7 +30,7 @@ import ch.systemsx.cisd.hdf5.IHDF5Reader;
 import lombok.Getter;
 import lombok.NonNull;
 import org.jetbrains.annotations.NotNull;
-import ru.itmo.ctlab.hict.hict_library.chunkedfile.ChunkedFile;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.ChunkedFileResources;
 import ru.itmo.ctlab.hict.hict_library.chunkedfile.resolution.ResolutionDescriptor;
 
 import static ru.itmo.ctlab.hict.hict_library.chunkedfile.util.PathGenerators.*;
@@ -45,12 +45,12 @@ public class HDF5FileDatasetsBundle implements AutoCloseable {
   private final @NotNull HDF5DataSet blockValuesDataSet;
   private final @NotNull HDF5DataSet denseBlockDataSet;
 
-  private final @NotNull ChunkedFile chunkedFile;
+  private final @NotNull ChunkedFileResources resources;
 
-  public HDF5FileDatasetsBundle(final @NotNull @NonNull ResolutionDescriptor resolutionDescriptor, final @NotNull @NonNull ChunkedFile chunkedFile) {
-    this.chunkedFile = chunkedFile;
-    final var resolution = this.chunkedFile.getResolutions()[resolutionDescriptor.getResolutionOrderInArray()];
-    this.reader = HDF5Factory.openForReading(this.chunkedFile.getHdfFilePath().toFile());
+  public HDF5FileDatasetsBundle(final @NotNull @NonNull ResolutionDescriptor resolutionDescriptor, final @NotNull @NonNull ChunkedFileResources resources) {
+    this.resources = resources;
+    final var resolution = this.resources.getResolutions()[resolutionDescriptor.getResolutionOrderInArray()];
+    this.reader = HDF5Factory.openForReading(this.resources.getHdfFilePath().toFile());
     this.blockLengthDataSet = reader.object().openDataSet(getBlockLengthDatasetPath(resolution));
     this.blockOffsetDataSet = reader.object().openDataSet(getBlockOffsetDatasetPath(resolution));
     this.blockRowsDataSet = reader.object().openDataSet(getBlockRowsDatasetPath(resolution));
@@ -30,17 +30,17 @@ import org.apache.commons.pool2.BasePooledObjectFactory;
 import org.apache.commons.pool2.PooledObject;
 import org.apache.commons.pool2.impl.DefaultPooledObject;
 import org.jetbrains.annotations.NotNull;
-import ru.itmo.ctlab.hict.hict_library.chunkedfile.ChunkedFile;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.ChunkedFileResources;
 import ru.itmo.ctlab.hict.hict_library.chunkedfile.resolution.ResolutionDescriptor;
 
 @AllArgsConstructor
 public class HDF5FileDatasetsBundleFactory extends BasePooledObjectFactory<HDF5FileDatasetsBundle> {
   private final @NotNull @NonNull ResolutionDescriptor resolutionDescriptor;
-  private final @NotNull @NonNull ChunkedFile chunkedFile;
+  private final @NotNull @NonNull ChunkedFileResources resources;
 
   @Override
   public @NotNull HDF5FileDatasetsBundle create() {
-    return new HDF5FileDatasetsBundle(this.resolutionDescriptor, this.chunkedFile);
+    return new HDF5FileDatasetsBundle(this.resolutionDescriptor, this.resources);
   }
 
   @Override
@@ -0,0 +1,61 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2024. Aleksandr Serdiukov, Anton Zamyatin, Aleksandr Sinitsyn, Vitalii Dravgelis and Computer Technologies Laboratory ITMO University team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ru.itmo.ctlab.hict.hict_library.chunkedfile.metadata;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Metadata datasets of a HiCT file exactly as they are stored in HDF5, before stripe, ATU and contig descriptors are built from them.
+ *
+ * @param resolutions        Ascending resolutions with <code>0</code> for base pairs at index <code>0</code>.
+ * @param resolutionMetadata Datasets of each resolution, element at index <code>0</code> is <code>null</code>.
+ */
+public record FileMetadata(
+  long @NotNull [] resolutions,
+  int denseBlockSize,
+  @Nullable ResolutionMetadata @NotNull [] resolutionMetadata,
+  long @NotNull [] contigDirections,
+  @NotNull String @NotNull [] contigNames,
+  long @NotNull [] contigLengthBp,
+  long @NotNull [] contigOrder
+) {
+  /**
+   * Datasets of one resolution. Stripes and ATUs are <code>null</code> when the resolution is loaded lazily and they were not read yet,
+   * contig lengths and hide types are always present since contig tree needs them.
+   */
+  public record ResolutionMetadata(
+    long @Nullable [] stripeLengthBins,
+    double @Nullable [] @NotNull [] stripeBinWeights,
+    long @Nullable [] @NotNull [] basisATUs,
+    byte @NotNull [] contigHideTypes,
+    long @NotNull [] contigLengthBins,
+    long @Nullable [] @NotNull [] contigATUMapping
+  ) {
+    public boolean isComplete() {
+      return this.stripeLengthBins != null && this.stripeBinWeights != null && this.basisATUs != null && this.contigATUMapping != null;
+    }
+  }
+}
@@ -0,0 +1,276 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2024. Aleksandr Serdiukov, Anton Zamyatin, Aleksandr Sinitsyn, Vitalii Dravgelis and Computer Technologies Laboratory ITMO University team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ru.itmo.ctlab.hict.hict_library.chunkedfile.metadata;
+
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+
+/**
+ * Binary snapshot of {@link FileMetadata} stored in a separate file, so that reopening an unchanged HiCT file does not parse HDF5 metadata.
+ * <p>
+ * Snapshot is memory-mapped for reading and arrays are copied out with bulk buffer operations.
+ * It is only used when its {@link Key} matches the file: absolute path, size, modification time and a hash of the file content.
+ * The content hash covers the first and the last {@value #HASHED_REGION_BYTES} bytes of the file, where HDF5 superblock and most of the metadata reside,
+ * so that computing it does not require reading the whole matrix.
+ */
+@Slf4j
+public final class MetadataSnapshot {
+  private static final long MAGIC = 0x48494354534E4150L; // "HICTSNAP"
+  private static final int FORMAT_VERSION = 1;
+  private static final int HASHED_REGION_BYTES = 1 << 20;
+
+  private MetadataSnapshot() {
+  }
+
+  /**
+   * Location of the snapshot for the given file, name includes hash of the full path so that equally named files from different directories do not collide.
+   */
+  public static @NotNull Path snapshotPath(final @NotNull Path snapshotDirectory, final @NotNull Path hdfFilePath) {
+    final var absolutePath = hdfFilePath.toAbsolutePath().normalize();
+    final var pathHash = HexFormat.of().formatHex(sha256().digest(absolutePath.toString().getBytes(StandardCharsets.UTF_8)), 0, 8);
+    return snapshotDirectory.resolve(absolutePath.getFileName() + "." + pathHash + ".hictmeta");
+  }
+
+  /**
+   * @return Metadata stored in the snapshot or <code>null</code> if there is no snapshot, it was written for another version of the file or is damaged.
+   */
+  public static @Nullable FileMetadata read(final @NotNull Path snapshotPath, final @NotNull Key key) {
+    if (!Files.isRegularFile(snapshotPath)) {
+      return null;
+    }
+    try (final var channel = FileChannel.open(snapshotPath, StandardOpenOption.READ)) {
+      final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size());
+      if (buffer.getLong() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+        log.info("Ignoring metadata snapshot " + snapshotPath + " of unsupported format");
+        return null;
+      }
+      final var storedKey = new Key(getString(buffer), buffer.getLong(), buffer.getLong(), getBytes(buffer));
+      if (!storedKey.equals(key)) {
+        log.info("Metadata snapshot " + snapshotPath + " is outdated");
+        return null;
+      }
+      final var resolutions = getLongs(buffer);
+      final var denseBlockSize = buffer.getInt();
+      final var resolutionMetadata = new FileMetadata.ResolutionMetadata[resolutions.length];
+      for (int i = 1; i < resolutions.length; ++i) {
+        resolutionMetadata[i] = new FileMetadata.ResolutionMetadata(
+          getLongs(buffer),
+          getDoubleMatrix(buffer),
+          getLongMatrix(buffer),
+          getBytes(buffer),
+          getLongs(buffer),
+          getLongMatrix(buffer)
+        );
+      }
+      final var contigDirections = getLongs(buffer);
+      final var contigNames = new String[buffer.getInt()];
+      for (int i = 0; i < contigNames.length; ++i) {
+        contigNames[i] = getString(buffer);
+      }
+      return new FileMetadata(resolutions, denseBlockSize, resolutionMetadata, contigDirections, contigNames, getLongs(buffer), getLongs(buffer));
+    } catch (final IOException | BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+      log.warn("Cannot read metadata snapshot " + snapshotPath + ", falling back to HDF5", e);
+      return null;
+    }
+  }
+
+  /**
+   * Writes snapshot of complete metadata into a temporary file first and then moves it in place, so that readers never observe a partially written snapshot.
+   */
+  public static void write(final @NotNull Path snapshotPath, final @NotNull Key key, final @NotNull FileMetadata metadata) throws IOException {
+    if (Arrays.stream(metadata.resolutionMetadata()).skip(1L).anyMatch(resolutionMetadata -> !resolutionMetadata.isComplete())) {
+      throw new IllegalArgumentException("Only complete metadata could be saved into a snapshot");
+    }
+    final var directory = Files.createDirectories(snapshotPath.toAbsolutePath().getParent());
+    final var temporaryPath = Files.createTempFile(directory, snapshotPath.getFileName().toString(), ".tmp");
+    try {
+      try (final var output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryPath), 1 << 20))) {
+        output.writeLong(MAGIC);
+        output.writeInt(FORMAT_VERSION);
+        putString(output, key.path());
+        output.writeLong(key.size());
+        output.writeLong(key.lastModifiedMillis());
+        putBytes(output, key.contentHash());
+        putLongs(output, metadata.resolutions());
+        output.writeInt(metadata.denseBlockSize());
+        for (int i = 1; i < metadata.resolutions().length; ++i) {
+          final var resolutionMetadata = metadata.resolutionMetadata()[i];
+          putLongs(output, resolutionMetadata.stripeLengthBins());
+          putDoubleMatrix(output, resolutionMetadata.stripeBinWeights());
+          putLongMatrix(output, resolutionMetadata.basisATUs());
+          putBytes(output, resolutionMetadata.contigHideTypes());
+          putLongs(output, resolutionMetadata.contigLengthBins());
+          putLongMatrix(output, resolutionMetadata.contigATUMapping());
+        }
+        putLongs(output, metadata.contigDirections());
+        output.writeInt(metadata.contigNames().length);
+        for (final var contigName : metadata.contigNames()) {
+          putString(output, contigName);
+        }
+        putLongs(output, metadata.contigLengthBp());
+        putLongs(output, metadata.contigOrder());
+      }
+      Files.move(temporaryPath, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temporaryPath);
+    }
+  }
+
+  private static @NotNull MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (final NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is required to be supported by every Java platform", e);
+    }
+  }
+
+  private static @NotNull String getString(final @NotNull ByteBuffer buffer) {
+    return new String(getBytes(buffer), StandardCharsets.UTF_8);
+  }
+
+  private static byte @NotNull [] getBytes(final @NotNull ByteBuffer buffer) {
+    final var result = new byte[buffer.getInt()];
+    buffer.get(result);
+    return result;
+  }
+
+  private static long @NotNull [] getLongs(final @NotNull ByteBuffer buffer) {
+    final var result = new long[buffer.getInt()];
+    buffer.asLongBuffer().get(result);
+    buffer.position(buffer.position() + Long.BYTES * result.length);
+    return result;
+  }
+
+  private static long @NotNull [] @NotNull [] getLongMatrix(final @NotNull ByteBuffer buffer) {
+    final var result = new long[buffer.getInt()][];
+    for (int i = 0; i < result.length; ++i) {
+      result[i] = getLongs(buffer);
+    }
+    return result;
+  }
+
+  private static double @NotNull [] @NotNull [] getDoubleMatrix(final @NotNull ByteBuffer buffer) {
+    final var result = new double[buffer.getInt()][];
+    for (int i = 0; i < result.length; ++i) {
+      final var row = new double[buffer.getInt()];
+      buffer.asDoubleBuffer().get(row);
+      buffer.position(buffer.position() + Double.BYTES * row.length);
+      result[i] = row;
+    }
+    return result;
+  }
+
+  private static void putString(final @NotNull DataOutputStream output, final @NotNull String value) throws IOException {
+    putBytes(output, value.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static void putBytes(final @NotNull DataOutputStream output, final byte @NotNull [] values) throws IOException {
+    output.writeInt(values.length);
+    output.write(values);
+  }
+
+  private static void putLongs(final @NotNull DataOutputStream output, final long @NotNull [] values) throws IOException {
+    output.writeInt(values.length);
+    for (final var value : values) {
+      output.writeLong(value);
+    }
+  }
+
+  private static void putLongMatrix(final @NotNull DataOutputStream output, final long @NotNull [] @NotNull [] rows) throws IOException {
+    output.writeInt(rows.length);
+    for (final var row : rows) {
+      putLongs(output, row);
+    }
+  }
+
+  private static void putDoubleMatrix(final @NotNull DataOutputStream output, final double @NotNull [] @NotNull [] rows) throws IOException {
+    output.writeInt(rows.length);
+    for (final var row : rows) {
+      output.writeInt(row.length);
+      for (final var value : row) {
+        output.writeDouble(value);
+      }
+    }
+  }
+
+  /**
+   * Identity of the HiCT file version a snapshot was written for.
+   */
+  public record Key(@NotNull String path, long size, long lastModifiedMillis, byte @NotNull [] contentHash) {
+    public static @NotNull Key of(final @NotNull Path hdfFilePath) {
+      final var absolutePath = hdfFilePath.toAbsolutePath().normalize();
+      try (final var channel = FileChannel.open(absolutePath, StandardOpenOption.READ)) {
+        final var size = channel.size();
+        final var digest = sha256();
+        final var region = ByteBuffer.allocate((int) Long.min(size, HASHED_REGION_BYTES));
+        for (final var regionStart : new long[]{0L, Long.max(0L, size - region.capacity())}) {
+          region.clear();
+          while (region.hasRemaining()) {
+            if (channel.read(region, regionStart + region.position()) < 0) {
+              break;
+            }
+          }
+          digest.update(region.flip());
+        }
+        return new Key(absolutePath.toString(), size, Files.getLastModifiedTime(absolutePath).toMillis(), digest.digest());
+      } catch (final IOException e) {
+        throw new UncheckedIOException("Cannot compute metadata snapshot key for " + absolutePath, e);
+      }
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      return (this == o) || ((o instanceof Key other)
+        && this.size == other.size
+        && this.lastModifiedMillis == other.lastModifiedMillis
+        && this.path.equals(other.path)
+        && Arrays.equals(this.contentHash, other.contentHash));
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * this.path.hashCode() + Arrays.hashCode(this.contentHash);
+    }
+  }
+}
@@ -0,0 +1,132 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2024. Aleksandr Serdiukov, Anton Zamyatin, Aleksandr Sinitsyn, Vitalii Dravgelis and Computer Technologies Laboratory ITMO University team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ru.itmo.ctlab.hict.hict_library.chunkedfile.util;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Bounded thread pool shared by all queries to the same file.
+ * Tasks of one request are submitted together and cancelled together if the request thread is interrupted or any of them fails.
+ */
+@Slf4j
+public class QueryExecutor implements AutoCloseable {
+  private static final ThreadLocal<QueryExecutor> CURRENT_EXECUTOR = new ThreadLocal<>();
+  private static final ThreadLocal<Boolean> IN_PLACE = ThreadLocal.withInitial(() -> false);
+  @Getter
+  private final int parallelism;
+  private final ThreadPoolExecutor executor;
+
+  public QueryExecutor(final int parallelism) {
+    this.parallelism = Integer.max(1, parallelism);
+    final var threadCounter = new AtomicInteger();
+    final ThreadFactory threadFactory = runnable -> {
+      final var thread = new Thread(() -> {
+        CURRENT_EXECUTOR.set(this);
+        runnable.run();
+      }, "hict-query-" + threadCounter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+    this.executor = new ThreadPoolExecutor(this.parallelism, this.parallelism, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), threadFactory);
+    this.executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Calls the action so that every batch it submits to any executor runs on the calling thread.
+   * Used by background work that should not take pool threads from client requests, nor run at their priority.
+   */
+  public static <T> T callInPlace(final @NotNull Supplier<T> action) {
+    final boolean previous = IN_PLACE.get();
+    IN_PLACE.set(true);
+    try {
+      return action.get();
+    } finally {
+      IN_PLACE.set(previous);
+    }
+  }
+
+  /**
+   * Runs all tasks and waits for their completion.
+   *
+   * @throws CancellationException if the calling thread was interrupted while waiting, remaining tasks are cancelled in that case.
+   * @throws RuntimeException      wrapping the first task failure, remaining tasks are cancelled in that case.
+   */
+  public void invokeAll(final @NotNull List<@NotNull Runnable> tasks) {
+    if (tasks.isEmpty()) {
+      return;
+    }
+    // Waiting for the pool from one of its own threads could exhaust it, so nested and trivial batches are run in place:
+    if (tasks.size() == 1 || CURRENT_EXECUTOR.get() == this || IN_PLACE.get()) {
+      tasks.forEach(Runnable::run);
+      return;
+    }
+
+    final var futures = new ArrayList<Future<?>>(tasks.size());
+    try {
+      for (final var task : tasks) {
+        futures.add(this.executor.submit(task));
+      }
+      for (final var future : futures) {
+        future.get();
+      }
+    } catch (final InterruptedException e) {
+      cancelAll(futures);
+      Thread.currentThread().interrupt();
+      throw new CancellationException("Query was interrupted");
+    } catch (final ExecutionException e) {
+      cancelAll(futures);
+      final var cause = e.getCause();
+      if (cause instanceof RuntimeException runtimeException) {
+        throw runtimeException;
+      }
+      throw new RuntimeException("Query task failed", cause);
+    } catch (final RuntimeException e) {
+      cancelAll(futures);
+      throw e;
+    }
+  }
+
+  private static void cancelAll(final @NotNull List<Future<?>> futures) {
+    for (final var future : futures) {
+      future.cancel(true);
+    }
+  }
+
+  @Override
+  public void close() {
+    final var dropped = this.executor.shutdownNow();
+    if (!dropped.isEmpty()) {
+      log.debug("Dropped " + dropped.size() + " pending query tasks on close");
+    }
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2024. Aleksandr Serdiukov, Anton Zamyatin, Aleksandr Sinitsyn, Vitalii Dravgelis and Computer Technologies Laboratory ITMO University team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ru.itmo.ctlab.hict.hict_library.chunkedfile.util;
+
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Opt-in consistency checks of matrix queries that can be switched at runtime.
+ * When disabled, queries skip the checks together with traversals needed only for them.
+ * Violations are counted and logged instead of failing the query, unless JVM assertions are enabled.
+ */
+@Slf4j
+public final class QueryValidation {
+  private static final LongAdder validatedQueries = new LongAdder();
+  private static final Map<Check, LongAdder> violations = new EnumMap<>(Check.class);
+  private static volatile boolean enabled = QueryValidation.class.desiredAssertionStatus();
+
+  static {
+    for (final var check : Check.values()) {
+      violations.put(check, new LongAdder());
+    }
+  }
+
+  private QueryValidation() {
+  }
+
+  public static boolean isEnabled() {
+    return enabled;
+  }
+
+  public static void setEnabled(final boolean enabled) {
+    QueryValidation.enabled = enabled;
+    log.info("Query validation is " + (enabled ? "enabled" : "disabled"));
+  }
+
+  public static void onQueryValidated() {
+    validatedQueries.increment();
+  }
+
+  public static void check(final @NotNull Check check, final boolean passed, final @NotNull Supplier<@NotNull String> message) {
+    if (!passed) {
+      violations.get(check).increment();
+      log.warn("Query validation failed: " + check + ": " + message.get());
+      assert false : message.get();
+    }
+  }
+
+  public static @NotNull Counters getCounters() {
+    final var counts = new EnumMap<Check, Long>(Check.class);
+    violations.forEach((check, count) -> counts.put(check, count.sum()));
+    return new Counters(enabled, validatedQueries.sum(), counts);
+  }
+
+  public static void resetCounters() {
+    validatedQueries.reset();
+    violations.values().forEach(LongAdder::reset);
+  }
+
+  public enum Check {
+    /**
+     * Length of the exposed segment differs from the total length of ATUs of its contigs.
+     */
+    SEGMENT_LENGTH,
+    /**
+     * First or last ATU became empty after trimming it to the query range.
+     */
+    BOUNDARY_ATU_LENGTH,
+    /**
+     * Total length of collected ATUs differs from the query length.
+     */
+    COLLECTED_LENGTH,
+    /**
+     * Total length of ATUs changed after merging adjacent ones.
+     */
+    REDUCED_LENGTH,
+    /**
+     * ATUs found in the assembly layout index differ from ones collected from the contig tree.
+     */
+    LAYOUT_INDEX,
+  }
+
+  public record Counters(boolean enabled, long validatedQueries, @NotNull Map<@NotNull Check, @NotNull Long> violations) {
+  }
+}
@@ -0,0 +1,173 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2024. Aleksandr Serdiukov, Anton Zamyatin, Aleksandr Sinitsyn, Vitalii Dravgelis and Computer Technologies Laboratory ITMO University team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ru.itmo.ctlab.hict.hict_library.domain;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Growable list of ATUs in {@link PackedATU} form.
+ */
+public class ATUSequence {
+  private long @NotNull [] atus;
+  private int size;
+
+  public ATUSequence() {
+    this(16);
+  }
+
+  public ATUSequence(final int initialCapacity) {
+    this.atus = new long[Math.max(1, initialCapacity)];
+  }
+
+  public static @NotNull ATUSequence of(final long... atus) {
+    final var sequence = new ATUSequence(atus.length);
+    sequence.addRange(atus, 0, atus.length);
+    return sequence;
+  }
+
+  public static @NotNull ATUSequence of(final @NotNull List<@NotNull ATUDescriptor> atus) {
+    final var sequence = new ATUSequence(atus.size());
+    atus.forEach(atu -> sequence.add(PackedATU.of(atu)));
+    return sequence;
+  }
+
+  public int size() {
+    return this.size;
+  }
+
+  public boolean isEmpty() {
+    return this.size == 0;
+  }
+
+  public long get(final int index) {
+    if (index >= this.size) {
+      throw new IndexOutOfBoundsException(index);
+    }
+    return this.atus[index];
+  }
+
+  public void add(final long atu) {
+    this.ensureCapacity(1 + this.size);
+    this.atus[this.size++] = atu;
+  }
+
+  public void addAll(final @NotNull ATUSequence other) {
+    this.addRange(other.atus, 0, other.size);
+  }
+
+  /**
+   * Appends <code>source[fromIncl..toExcl)</code>.
+   */
+  public void addRange(final long @NotNull [] source, final int fromIncl, final int toExcl) {
+    if (toExcl <= fromIncl) {
+      return;
+    }
+    this.ensureCapacity(this.size + toExcl - fromIncl);
+    System.arraycopy(source, fromIncl, this.atus, this.size, toExcl - fromIncl);
+    this.size += toExcl - fromIncl;
+  }
+
+  /**
+   * Appends <code>source[fromIncl..toExcl)</code> as it is seen in a reversed contig: in backwards order with each ATU reversed.
+   */
+  public void addRangeReversed(final long @NotNull [] source, final int fromIncl, final int toExcl) {
+    if (toExcl <= fromIncl) {
+      return;
+    }
+    this.ensureCapacity(this.size + toExcl - fromIncl);
+    for (int i = toExcl - 1; i >= fromIncl; --i) {
+      this.atus[this.size++] = PackedATU.reversed(source[i]);
+    }
+  }
+
+  public long totalLength() {
+    long length = 0L;
+    for (int i = 0; i < this.size; ++i) {
+      length += PackedATU.length(this.atus[i]);
+    }
+    return length;
+  }
+
+  /**
+   * Merges adjacent ATUs in place, same as {@link ATUDescriptor#reduce(List)}.
+   *
+   * @return This sequence.
+   */
+  public @NotNull ATUSequence reduce() {
+    if (this.size < 2) {
+      return this;
+    }
+    int last = 0;
+    for (int i = 1; i < this.size; ++i) {
+      final var merged = PackedATU.merge(this.atus[last], this.atus[i]);
+      if (merged != 0L) {
+        this.atus[last] = merged;
+      } else {
+        this.atus[++last] = this.atus[i];
+      }
+    }
+    this.size = 1 + last;
+    return this;
+  }
+
+  /**
+   * @return New sequence as it is seen in a reversed contig.
+   */
+  public @NotNull ATUSequence reversed() {
+    final var result = new ATUSequence(this.size);
+    result.addRangeReversed(this.atus, 0, this.size);
+    return result;
+  }
+
+  public long @NotNull [] toArray() {
+    return Arrays.copyOf(this.atus, this.size);
+  }
+
+  public int @NotNull [] distinctStripeIds() {
+    final var stripeIds = new int[this.size];
+    for (int i = 0; i < this.size; ++i) {
+      stripeIds[i] = PackedATU.stripeId(this.atus[i]);
+    }
+    return Arrays.stream(stripeIds).distinct().toArray();
+  }
+
+  public @NotNull List<@NotNull ATUDescriptor> toDescriptors(final @NotNull List<@NotNull StripeDescriptor> stripes) {
+    final var result = new ArrayList<ATUDescriptor>(this.size);
+    for (int i = 0; i < this.size; ++i) {
+      result.add(PackedATU.toDescriptor(this.atus[i], stripes));
+    }
+    return result;
+  }
+
+  private void ensureCapacity(final int capacity) {
+    if (capacity > this.atus.length) {
+      this.atus = Arrays.copyOf(this.atus, Math.max(capacity, 2 * this.atus.length));
+    }
+  }
+}
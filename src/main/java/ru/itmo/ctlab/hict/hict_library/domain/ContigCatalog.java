@@ -0,0 +1,383 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2024. Aleksandr Serdiukov, Anton Zamyatin, Aleksandr Sinitsyn, Vitalii Dravgelis and Computer Technologies Laboratory ITMO University team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ru.itmo.ctlab.hict.hict_library.domain;
+
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Per-resolution metadata of all contigs of a file, kept in flat primitive arrays indexed by contig id and resolution order
+ * instead of collections inside every {@link ContigDescriptor}. ATUs of each resolution are stored in {@link PackedATU} form in a single pool
+ * together with prefix sums of their lengths, a contig refers to its range inside of that pool.
+ * <p>
+ * Writers are serialized and copy-on-write: each one works on a copy of the columns and of the per-resolution pool references,
+ * then publishes it through a volatile reference, so readers take no locks and never see a partially written snapshot.
+ * Pool arrays are only written past the pool sizes of already published snapshots, which never read there.
+ * Catalog only grows: when a contig is split or its ATUs are put again, its old range stays in the pool unreferenced.
+ * A split leaks at most the ATUs of the split contig at each resolution, and a catalog belongs to one opened assembly,
+ * so leaked ranges are dropped together with it when the file is closed or opened again.
+ * <p>
+ * ATUs as they are seen in reversed contigs are built lazily per resolution into a mirror of the pool on the first request,
+ * and extended by the ranges appended since then, so that traversing a reversed contig needs neither reversal nor index arithmetic.
+ */
+public class ContigCatalog {
+  @Getter
+  private final int resolutionCount;
+  private final Object writeLock = new Object();
+  private volatile @NotNull Columns columns;
+  private final @NotNull AtomicReferenceArray<ReversedPool> reversedPools;
+  /**
+   * Pool ranges in the order they were appended at each resolution, as <code>offset &lt;&lt; 32 | length</code>, guarded by the write lock.
+   */
+  private final long @NotNull [] @NotNull [] appendedRanges;
+  private final int @NotNull [] appendedRangeCounts;
+
+  /**
+   * @param resolutionCount     Number of resolutions including base pairs at order <code>0</code>.
+   * @param expectedContigCount Number of contigs to reserve space for.
+   */
+  public ContigCatalog(final int resolutionCount, final int expectedContigCount) {
+    this.resolutionCount = resolutionCount;
+    this.columns = new Columns(resolutionCount, Math.max(1, expectedContigCount));
+    this.reversedPools = new AtomicReferenceArray<>(resolutionCount);
+    this.appendedRanges = new long[resolutionCount][Math.max(1, expectedContigCount)];
+    this.appendedRangeCounts = new int[resolutionCount];
+  }
+
+  /**
+   * Puts base pair lengths of contigs with ids from <code>0</code> to <code>contigLengthBp.length</code>.
+   */
+  public void putContigs(final long @NotNull [] contigLengthBp) {
+    synchronized (this.writeLock) {
+      final var c = this.copyForWrite(contigLengthBp.length);
+      for (int contigId = 0; contigId < contigLengthBp.length; ++contigId) {
+        final var slot = contigId * this.resolutionCount;
+        c.lengthBins[slot] = contigLengthBp[contigId];
+        c.hideTypes[slot] = (byte) ContigHideType.SHOWN.ordinal();
+      }
+      this.columns = c;
+    }
+  }
+
+  /**
+   * Puts lengths and hide types of contigs with ids from <code>0</code> at one resolution, as they are stored in the file.
+   */
+  public void putResolution(final int resolutionOrder, final long @NotNull [] contigLengthBins, final byte @NotNull [] contigHideTypes) {
+    synchronized (this.writeLock) {
+      final var c = this.copyForWrite(contigLengthBins.length);
+      for (int contigId = 0; contigId < contigLengthBins.length; ++contigId) {
+        final var slot = contigId * this.resolutionCount + resolutionOrder;
+        c.lengthBins[slot] = contigLengthBins[contigId];
+        c.hideTypes[slot] = contigHideTypes[contigId];
+      }
+      this.columns = c;
+    }
+  }
+
+  /**
+   * Puts all metadata of a single contig, e.g. one produced by a split.
+   * Lists start from resolution order <code>1</code>, same as in {@link ContigDescriptor} constructor.
+   */
+  public void putContig(
+    final int contigId,
+    final long lengthBp,
+    final @NotNull List<@NotNull Long> lengthBinsAtResolution,
+    final @NotNull List<@NotNull ContigHideType> presenceAtResolution,
+    final @NotNull List<@NotNull ATUSequence> atus
+  ) {
+    synchronized (this.writeLock) {
+      final var c = this.copyForWrite(1 + contigId);
+      final var base = contigId * this.resolutionCount;
+      c.lengthBins[base] = lengthBp;
+      c.hideTypes[base] = (byte) ContigHideType.SHOWN.ordinal();
+      for (int order = 1; order < this.resolutionCount; ++order) {
+        c.lengthBins[base + order] = lengthBinsAtResolution.get(order - 1);
+        c.hideTypes[base + order] = (byte) presenceAtResolution.get(order - 1).ordinal();
+        appendATUs(c, contigId, order, atus.get(order - 1));
+      }
+      this.columns = c;
+    }
+  }
+
+  /**
+   * Puts ATUs of contigs with ids from <code>0</code> to <code>atusByContigId.size()</code> at one resolution.
+   */
+  public void putATUsAtResolution(final int resolutionOrder, final @NotNull List<@NotNull ATUSequence> atusByContigId) {
+    synchronized (this.writeLock) {
+      final var c = this.copyForWrite(atusByContigId.size());
+      ensurePoolCapacity(c, resolutionOrder, atusByContigId.stream().mapToInt(ATUSequence::size).sum());
+      for (int contigId = 0; contigId < atusByContigId.size(); ++contigId) {
+        appendATUs(c, contigId, resolutionOrder, atusByContigId.get(contigId));
+      }
+      this.columns = c;
+    }
+  }
+
+  public long getLengthBins(final int contigId, final int resolutionOrder) {
+    return this.columns.lengthBins[contigId * this.resolutionCount + resolutionOrder];
+  }
+
+  /**
+   * @return Lengths of the contig at all resolutions with base pairs at index <code>0</code>, array is a copy.
+   */
+  public long @NotNull [] copyLengthBins(final int contigId) {
+    final var from = contigId * this.resolutionCount;
+    return Arrays.copyOfRange(this.columns.lengthBins, from, from + this.resolutionCount);
+  }
+
+  public @NotNull ContigHideType getHideType(final int contigId, final int resolutionOrder) {
+    return ContigHideType.values()[this.columns.hideTypes[contigId * this.resolutionCount + resolutionOrder]];
+  }
+
+  public @NotNull ContigATUs getATUs(final int contigId, final int resolutionOrder) {
+    final var c = this.columns;
+    final var slot = contigId * this.resolutionCount + resolutionOrder;
+    return new ContigATUs(c.atuPool[resolutionOrder], c.atuPrefixSums[resolutionOrder], c.atuOffsets[slot], c.atuCounts[slot]);
+  }
+
+  /**
+   * @return ATUs of the contig in the order they are traversed when the contig has the given direction.
+   * For reversed contigs both ATUs and prefix sums come from the cached reversed pool.
+   */
+  public @NotNull ContigATUs getATUs(final int contigId, final int resolutionOrder, final @NotNull ContigDirection direction) {
+    if (direction == ContigDirection.FORWARD) {
+      return this.getATUs(contigId, resolutionOrder);
+    }
+    final var c = this.columns;
+    final var slot = contigId * this.resolutionCount + resolutionOrder;
+    final var offset = c.atuOffsets[slot];
+    final var length = c.atuCounts[slot];
+    var reversed = this.reversedPools.get(resolutionOrder);
+    if (reversed == null || reversed.builtSize < offset + length) {
+      reversed = this.buildReversedPool(resolutionOrder);
+    }
+    return new ContigATUs(reversed.atus, reversed.sums, offset, length);
+  }
+
+  /**
+   * Reverses ranges appended since the pool was built last time. Arrays are grown geometrically and filled in place past
+   * <code>builtSize</code> of older snapshots, which they never read, so extending the pool takes time proportional to the new ATUs.
+   */
+  private @NotNull ReversedPool buildReversedPool(final int resolutionOrder) {
+    synchronized (this.writeLock) {
+      final var poolSize = this.columns.atuPoolSizes[resolutionOrder];
+      final var existing = this.reversedPools.get(resolutionOrder);
+      if (existing != null && existing.builtSize == poolSize) {
+        return existing;
+      }
+      final long[] atus;
+      final long[] sums;
+      if (existing == null) {
+        atus = new long[poolSize];
+        sums = new long[poolSize];
+      } else if (existing.atus.length < poolSize) {
+        final var capacity = Math.max(poolSize, 2 * existing.atus.length);
+        atus = Arrays.copyOf(existing.atus, capacity);
+        sums = Arrays.copyOf(existing.sums, capacity);
+      } else {
+        atus = existing.atus;
+        sums = existing.sums;
+      }
+      final var pool = this.columns.atuPool[resolutionOrder];
+      final var ranges = this.appendedRanges[resolutionOrder];
+      final var rangeCount = this.appendedRangeCounts[resolutionOrder];
+      for (int range = (existing == null) ? 0 : existing.builtRangeCount; range < rangeCount; ++range) {
+        final var offset = (int) (ranges[range] >>> 32);
+        final var length = (int) ranges[range];
+        long sum = 0L;
+        for (int i = 0; i < length; ++i) {
+          final var atu = PackedATU.reversed(pool[offset + length - 1 - i]);
+          atus[offset + i] = atu;
+          sum += PackedATU.length(atu);
+          sums[offset + i] = sum;
+        }
+      }
+      final var result = new ReversedPool(atus, sums, poolSize, rangeCount);
+      this.reversedPools.set(resolutionOrder, result);
+      return result;
+    }
+  }
+
+  /**
+   * @return Unpublished copy of the current columns with room for at least <code>contigCount</code> contigs.
+   */
+  private @NotNull Columns copyForWrite(final int contigCount) {
+    final var c = this.columns;
+    return c.copy((contigCount <= c.contigCapacity) ? c.contigCapacity : Math.max(contigCount, 2 * c.contigCapacity));
+  }
+
+  private static void ensurePoolCapacity(final @NotNull Columns c, final int resolutionOrder, final int additionalCount) {
+    final var required = c.atuPoolSizes[resolutionOrder] + additionalCount;
+    final var capacity = c.atuPool[resolutionOrder].length;
+    if (required > capacity) {
+      final var newCapacity = Math.max(required, 2 * capacity);
+      c.atuPool[resolutionOrder] = Arrays.copyOf(c.atuPool[resolutionOrder], newCapacity);
+      c.atuPrefixSums[resolutionOrder] = Arrays.copyOf(c.atuPrefixSums[resolutionOrder], newCapacity);
+    }
+  }
+
+  private void appendATUs(final @NotNull Columns c, final int contigId, final int resolutionOrder, final @NotNull ATUSequence atus) {
+    ensurePoolCapacity(c, resolutionOrder, atus.size());
+    final var offset = c.atuPoolSizes[resolutionOrder];
+    final var pool = c.atuPool[resolutionOrder];
+    final var prefixSums = c.atuPrefixSums[resolutionOrder];
+    long sum = 0L;
+    for (int i = 0; i < atus.size(); ++i) {
+      final var atu = atus.get(i);
+      pool[offset + i] = atu;
+      sum += PackedATU.length(atu);
+      prefixSums[offset + i] = sum;
+    }
+    final var slot = contigId * this.resolutionCount + resolutionOrder;
+    c.atuOffsets[slot] = offset;
+    c.atuCounts[slot] = atus.size();
+    c.atuPoolSizes[resolutionOrder] = offset + atus.size();
+    if (!atus.isEmpty()) {
+      var ranges = this.appendedRanges[resolutionOrder];
+      final var rangeCount = this.appendedRangeCounts[resolutionOrder];
+      if (rangeCount == ranges.length) {
+        ranges = Arrays.copyOf(ranges, 2 * ranges.length);
+        this.appendedRanges[resolutionOrder] = ranges;
+      }
+      ranges[rangeCount] = ((long) offset << 32) | atus.size();
+      this.appendedRangeCounts[resolutionOrder] = 1 + rangeCount;
+    }
+  }
+
+  /**
+   * Packed ATUs of one contig at one resolution with prefix sums of their lengths, a range of the shared arrays.
+   * Sum at index <code>i</code> includes the length of ATU <code>i</code>.
+   */
+  public record ContigATUs(long @NotNull [] atus, long @NotNull [] sums, int offset, int length) {
+    public int size() {
+      return this.length;
+    }
+
+    public long get(final int index) {
+      return this.atus[this.offset + index];
+    }
+
+    public long prefixSum(final int index) {
+      return this.sums[this.offset + index];
+    }
+
+    /**
+     * Appends ATUs with indices from <code>fromIncl</code> to <code>toExcl</code>.
+     */
+    public void appendTo(final @NotNull ATUSequence target, final int fromIncl, final int toExcl) {
+      target.addRange(this.atus, this.offset + fromIncl, this.offset + toExcl);
+    }
+
+    public long total() {
+      return (this.length == 0) ? 0L : this.sums[this.offset + this.length - 1];
+    }
+
+    /**
+     * @return Index of the first sum that is not less than the key.
+     */
+    public int lowerBound(final long key) {
+      var l = this.offset;
+      var h = this.offset + this.length;
+      while (l < h) {
+        final int mid = l + (h - l) / 2;
+        if (this.sums[mid] < key) {
+          l = mid + 1;
+        } else {
+          h = mid;
+        }
+      }
+      return l - this.offset;
+    }
+
+    /**
+     * @return Index of the first sum that is greater than the key.
+     */
+    public int upperBound(final long key) {
+      var l = this.offset;
+      var h = this.offset + this.length;
+      while (l < h) {
+        final int mid = l + (h - l) / 2;
+        if (this.sums[mid] <= key) {
+          l = mid + 1;
+        } else {
+          h = mid;
+        }
+      }
+      return l - this.offset;
+    }
+  }
+
+  /**
+   * Reversed ATUs and their prefix sums for pool positions below <code>builtSize</code>, each appended range reversed in place.
+   * Arrays may be longer and shared with newer snapshots that fill positions past <code>builtSize</code>.
+   *
+   * @param builtRangeCount Number of appended ranges that were reversed.
+   */
+  private record ReversedPool(long @NotNull [] atus, long @NotNull [] sums, int builtSize, int builtRangeCount) {
+  }
+
+  private static final class Columns {
+    final int contigCapacity;
+    final long @NotNull [] lengthBins;
+    final byte @NotNull [] hideTypes;
+    final int @NotNull [] atuOffsets;
+    final int @NotNull [] atuCounts;
+    final long @NotNull [] @NotNull [] atuPool;
+    final long @NotNull [] @NotNull [] atuPrefixSums;
+    final int @NotNull [] atuPoolSizes;
+
+    Columns(final int resolutionCount, final int contigCapacity) {
+      this.contigCapacity = contigCapacity;
+      this.lengthBins = new long[contigCapacity * resolutionCount];
+      this.hideTypes = new byte[contigCapacity * resolutionCount];
+      this.atuOffsets = new int[contigCapacity * resolutionCount];
+      this.atuCounts = new int[contigCapacity * resolutionCount];
+      this.atuPool = new long[resolutionCount][contigCapacity];
+      this.atuPrefixSums = new long[resolutionCount][contigCapacity];
+      this.atuPoolSizes = new int[resolutionCount];
+    }
+
+    private Columns(final @NotNull Columns base, final int contigCapacity) {
+      final var size = contigCapacity * base.atuPoolSizes.length;
+      this.contigCapacity = contigCapacity;
+      this.lengthBins = Arrays.copyOf(base.lengthBins, size);
+      this.hideTypes = Arrays.copyOf(base.hideTypes, size);
+      this.atuOffsets = Arrays.copyOf(base.atuOffsets, size);
+      this.atuCounts = Arrays.copyOf(base.atuCounts, size);
+      // Pools themselves are shared, only the references to them are copied so that growing a pool does not affect published snapshots:
+      this.atuPool = base.atuPool.clone();
+      this.atuPrefixSums = base.atuPrefixSums.clone();
+      this.atuPoolSizes = base.atuPoolSizes.clone();
+    }
+
+    @NotNull Columns copy(final int contigCapacity) {
+      return new Columns(this, contigCapacity);
+    }
+  }
+}
@@ -31,11 +31,11 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import ru.itmo.ctlab.hict.hict_library.chunkedfile.resolution.ResolutionDescriptor;
 
-import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.stream.Stream;
 
+/**
+ * Contig identity and its position in source FASTA, per-resolution metadata is a view over one row of {@link ContigCatalog}.
+ */
 @Getter
 @Slf4j
 @EqualsAndHashCode
@@ -45,30 +45,26 @@ public class ContigDescriptor {
   String contigName;
 
   private final long lengthBp;
-  private final long[] lengthBinsAtResolution;
-  private final @NotNull
-  List<@NotNull ContigHideType> presenceAtResolution;
-  private final @NotNull List<@NotNull List<@NotNull ATUDescriptor>> atus;
-  private final @NotNull List<long @NotNull []> atuPrefixSumLengthBins;
+  @EqualsAndHashCode.Exclude
+  private final @NotNull ContigCatalog catalog;
   private final @NotNull String contigNameInSourceFASTA;
   private final int offsetInSourceFASTA;
 
+  /**
+   * Creates a view over a contig whose metadata is already in the catalog.
+   */
   public ContigDescriptor(
+    final @NotNull ContigCatalog catalog,
     final int contigId,
     final @NotNull String contigName,
     final long lengthBp,
-    final @NotNull List<@NotNull Long> lengthBinsAtResolution,
-    final @NotNull List<@NotNull ContigHideType> presenceAtResolution,
-    final @NotNull List<@NotNull List<@NotNull ATUDescriptor>> atus,
     final @Nullable String contigNameInSourceFASTA,
     final int offsetInSourceFASTA
   ) {
+    this.catalog = catalog;
     this.contigId = contigId;
     this.contigName = contigName;
     this.lengthBp = lengthBp;
-
-    assert (lengthBinsAtResolution.get(0) != lengthBp) : "Length bp should not be added at zero position of lengthBinsAtResolutions for constructor";
-    this.lengthBinsAtResolution = Stream.concat(Stream.of(this.lengthBp), lengthBinsAtResolution.stream()).mapToLong(lng -> lng).toArray();
     if (contigNameInSourceFASTA != null) {
       this.contigNameInSourceFASTA = contigNameInSourceFASTA;
       this.offsetInSourceFASTA = offsetInSourceFASTA;
@@ -76,35 +72,67 @@ public class ContigDescriptor {
       this.contigNameInSourceFASTA = contigName;
       this.offsetInSourceFASTA = 0;
     }
-    final var resolutionCount = this.lengthBinsAtResolution.length;
-    this.presenceAtResolution = new CopyOnWriteArrayList<>();
-    this.presenceAtResolution.add(ContigHideType.SHOWN);
-    this.presenceAtResolution.addAll(presenceAtResolution);
-    assert (atus.size() == resolutionCount - 1) : "Only ATUs for non-zero resolutions must be supplied";
-    this.atus = new CopyOnWriteArrayList<>();
-    this.atus.add(new CopyOnWriteArrayList<>());
-    this.atus.addAll(atus);
+  }
+
+  /**
+   * Puts metadata of a new contig into the catalog and creates a view over it.
+   */
+  public ContigDescriptor(
+    final @NotNull ContigCatalog catalog,
+    final int contigId,
+    final @NotNull String contigName,
+    final long lengthBp,
+    final @NotNull List<@NotNull Long> lengthBinsAtResolution,
+    final @NotNull List<@NotNull ContigHideType> presenceAtResolution,
+    final @NotNull List<@NotNull ATUSequence> atus,
+    final @Nullable String contigNameInSourceFASTA,
+    final int offsetInSourceFASTA
+  ) {
+    this(catalog, contigId, contigName, lengthBp, contigNameInSourceFASTA, offsetInSourceFASTA);
+    assert (lengthBinsAtResolution.get(0) != lengthBp) : "Length bp should not be added at zero position of lengthBinsAtResolutions for constructor";
+    assert (atus.size() == catalog.getResolutionCount() - 1) : "Only ATUs for non-zero resolutions must be supplied";
+    catalog.putContig(contigId, lengthBp, lengthBinsAtResolution, presenceAtResolution, atus);
+  }
+
+  /**
+   * @return Lengths at all resolutions with base pairs at index <code>0</code>, a new array on each call.
+   */
+  public long @NotNull [] getLengthBinsAtResolution() {
+    return this.catalog.copyLengthBins(this.contigId);
+  }
+
+  public long getLengthBinsAtResolution(final int resolutionOrder) {
+    return this.catalog.getLengthBins(this.contigId, resolutionOrder);
+  }
+
+  public @NotNull ContigHideType getPresenceAtResolution(final int resolutionOrder) {
+    return this.catalog.getHideType(this.contigId, resolutionOrder);
+  }
+
+  public @NotNull ContigCatalog.ContigATUs getATUsAtResolution(final int resolutionOrder) {
+    return this.catalog.getATUs(this.contigId, resolutionOrder);
+  }
 
-    this.atuPrefixSumLengthBins = new CopyOnWriteArrayList<>(this.atus.parallelStream().map(atusAtResolution -> {
-      final var atusLengthArray = atusAtResolution.parallelStream().mapToLong(atu -> atu.endIndexInStripeExcl - atu.startIndexInStripeIncl).toArray();
-      Arrays.parallelPrefix(atusLengthArray, Long::sum);
-      return atusLengthArray;
-    }).toList());
+  /**
+   * @return ATUs in the order they are traversed when this contig has the given direction, reversed ones are cached by the catalog.
+   */
+  public @NotNull ContigCatalog.ContigATUs getATUsAtResolution(final int resolutionOrder, final @NotNull ContigDirection direction) {
+    return this.catalog.getATUs(this.contigId, resolutionOrder, direction);
   }
 
   public long getLengthInUnits(final @NotNull QueryLengthUnit units, final ResolutionDescriptor resolution) {
     final int resolutionOrder = resolution.getResolutionOrderInArray();
     return switch (units) {
       case PIXELS -> {
-        final var presence = this.presenceAtResolution.get(resolutionOrder);
+        final var presence = this.getPresenceAtResolution(resolutionOrder);
         if (presence == ContigHideType.SHOWN) {
-          yield this.lengthBinsAtResolution[resolutionOrder];
+          yield this.getLengthBinsAtResolution(resolutionOrder);
         } else {
           yield 0L;
         }
       }
       case BASE_PAIRS -> this.lengthBp;
-      case BINS -> this.lengthBinsAtResolution[resolutionOrder];
+      case BINS -> this.getLengthBinsAtResolution(resolutionOrder);
     };
   }
 }
@@ -0,0 +1,118 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2024. Aleksandr Serdiukov, Anton Zamyatin, Aleksandr Sinitsyn, Vitalii Dravgelis and Computer Technologies Laboratory ITMO University team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ru.itmo.ctlab.hict.hict_library.domain;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+/**
+ * ATU packed into a single <code>long</code> so that ATU lists can be stored in primitive arrays and trimmed or reversed without allocation.
+ * From the highest bit: direction (<code>1</code> for {@link ATUDirection#FORWARD}), 27 bits of stripe id, 18 bits of start index and 18 bits of end index in stripe.
+ */
+public final class PackedATU {
+  public static final int MAX_STRIPE_ID = (1 << 27) - 1;
+  public static final int MAX_INDEX_IN_STRIPE = (1 << 18) - 1;
+  private static final int INDEX_BITS = 18;
+  private static final int STRIPE_SHIFT = 2 * INDEX_BITS;
+  private static final long INDEX_MASK = MAX_INDEX_IN_STRIPE;
+  private static final long DIRECTION_BIT = 1L << 63;
+
+  private PackedATU() {
+  }
+
+  public static long pack(final int stripeId, final int startIndexInStripeIncl, final int endIndexInStripeExcl, final @NotNull ATUDirection direction) {
+    if (stripeId < 0 || stripeId > MAX_STRIPE_ID) {
+      throw new IllegalArgumentException("Stripe id " + stripeId + " does not fit into packed ATU");
+    }
+    if (startIndexInStripeIncl < 0 || endIndexInStripeExcl > MAX_INDEX_IN_STRIPE || startIndexInStripeIncl > endIndexInStripeExcl) {
+      throw new IllegalArgumentException("ATU range [" + startIndexInStripeIncl + ", " + endIndexInStripeExcl + ") does not fit into packed ATU");
+    }
+    return ((direction == ATUDirection.FORWARD) ? DIRECTION_BIT : 0L)
+      | ((long) stripeId << STRIPE_SHIFT)
+      | ((long) startIndexInStripeIncl << INDEX_BITS)
+      | (long) endIndexInStripeExcl;
+  }
+
+  public static long of(final @NotNull ATUDescriptor atu) {
+    return pack(atu.getStripeDescriptor().stripeId(), atu.getStartIndexInStripeIncl(), atu.getEndIndexInStripeExcl(), atu.getDirection());
+  }
+
+  public static @NotNull ATUDescriptor toDescriptor(final long atu, final @NotNull List<@NotNull StripeDescriptor> stripes) {
+    return new ATUDescriptor(stripes.get(stripeId(atu)), start(atu), end(atu), direction(atu));
+  }
+
+  public static int stripeId(final long atu) {
+    return (int) ((atu & ~DIRECTION_BIT) >>> STRIPE_SHIFT);
+  }
+
+  public static int start(final long atu) {
+    return (int) ((atu >>> INDEX_BITS) & INDEX_MASK);
+  }
+
+  public static int end(final long atu) {
+    return (int) (atu & INDEX_MASK);
+  }
+
+  public static int length(final long atu) {
+    return end(atu) - start(atu);
+  }
+
+  public static boolean isReversed(final long atu) {
+    return (atu & DIRECTION_BIT) == 0L;
+  }
+
+  public static @NotNull ATUDirection direction(final long atu) {
+    return isReversed(atu) ? ATUDirection.REVERSED : ATUDirection.FORWARD;
+  }
+
+  public static long reversed(final long atu) {
+    return atu ^ DIRECTION_BIT;
+  }
+
+  public static long withStart(final long atu, final int startIndexInStripeIncl) {
+    return (atu & ~(INDEX_MASK << INDEX_BITS)) | ((long) startIndexInStripeIncl << INDEX_BITS);
+  }
+
+  public static long withEnd(final long atu, final int endIndexInStripeExcl) {
+    return (atu & ~INDEX_MASK) | (long) endIndexInStripeExcl;
+  }
+
+  /**
+   * @return Single ATU covering both arguments if they are adjacent parts of the same stripe with the same direction, or <code>0</code> otherwise.
+   * Zero is never a result of merging since merged ATU has non-zero length.
+   */
+  public static long merge(final long first, final long second) {
+    if (stripeId(first) != stripeId(second) || isReversed(first) != isReversed(second)) {
+      return 0L;
+    }
+    if (end(first) == start(second)) {
+      return withEnd(first, end(second));
+    } else if (end(second) == start(first)) {
+      return withEnd(second, end(first));
+    }
+    return 0L;
+  }
+}
@@ -37,6 +37,7 @@ import ru.itmo.ctlab.hict.hict_library.domain.QueryLengthUnit;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Consumer;
@@ -50,6 +51,7 @@ public class ContigTree implements Iterable<ContigTree.Node> {
   private @Nullable Node root;
   @Getter
   private final @NotNull Map<Integer, ContigDescriptor> contigDescriptors = new ConcurrentHashMap<>();
+  private final AtomicLong version = new AtomicLong();
 
   @Override
   public Iterator<Node> iterator() {
@@ -95,6 +97,7 @@ public class ContigTree implements Iterable<ContigTree.Node> {
     try {
       this.rootLock.writeLock().lock();
       this.root = sg;
+      this.version.incrementAndGet();
     } finally {
       this.rootLock.writeLock().unlock();
     }
@@ -104,11 +107,19 @@ public class ContigTree implements Iterable<ContigTree.Node> {
     try {
       this.rootLock.writeLock().lock();
       this.root = newRoot;
+      this.version.incrementAndGet();
     } finally {
       this.rootLock.writeLock().unlock();
     }
   }
 
+  /**
+   * @return Counter that is incremented each time the root is replaced, so that anything computed for the same version describes the same assembly.
+   */
+  public long getVersion() {
+    return this.version.get();
+  }
+
   public List<ContigTuple> getOrderedContigList() {
     final List<ContigTuple> descriptors = new ArrayList<>();
 
@@ -138,6 +149,23 @@ public class ContigTree implements Iterable<ContigTree.Node> {
       this.rootLock.writeLock().lock();
       this.root = Node.mergeNodes(new Node.SplitResult(this.root, newNode));
       this.contigDescriptors.put(contigDescriptor.getContigId(), contigDescriptor);
+      this.version.incrementAndGet();
+    } finally {
+      this.rootLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Replaces the whole tree with the given contigs in the given order, building it in a single pass instead of appending contigs one by one.
+   *
+   * @param contigs Contigs in assembly order.
+   */
+  public void commitOrderedContigs(final @NotNull List<@NotNull ContigTuple> contigs) {
+    final var newRoot = Node.buildFromOrderedContigs(contigs);
+    try {
+      this.rootLock.writeLock().lock();
+      contigs.forEach(contig -> this.contigDescriptors.put(contig.descriptor().getContigId(), contig.descriptor()));
+      this.commitRoot(newRoot);
     } finally {
       this.rootLock.writeLock().unlock();
     }
@@ -207,11 +235,11 @@ public class ContigTree implements Iterable<ContigTree.Node> {
     }
 
     public static Node createNodeFromDescriptor(final ContigDescriptor contigDescriptor, final ContigDirection contigDirection) {
-      final var resolutionCount = contigDescriptor.getLengthBinsAtResolution().length;
-      return Node.builder().contigDescriptor(contigDescriptor).subtreeCount(1L).needsChangingDirection(false).subtreeLengthBins(contigDescriptor.getLengthBinsAtResolution()).subtreeLengthPixels(IntStream.range(0, resolutionCount).mapToLong(resolutionIdx -> {
+      final var lengthBins = contigDescriptor.getLengthBinsAtResolution();
+      return Node.builder().contigDescriptor(contigDescriptor).subtreeCount(1L).needsChangingDirection(false).subtreeLengthBins(lengthBins).subtreeLengthPixels(IntStream.range(0, lengthBins.length).mapToLong(resolutionIdx -> {
         final long length;
-        if (contigDescriptor.getPresenceAtResolution().get(resolutionIdx).equals(ContigHideType.SHOWN)) {
-          length = contigDescriptor.getLengthBinsAtResolution()[resolutionIdx];
+        if (contigDescriptor.getPresenceAtResolution(resolutionIdx).equals(ContigHideType.SHOWN)) {
+          length = lengthBins[resolutionIdx];
         } else {
           length = 0L;
         }
@@ -219,6 +247,57 @@ public class ContigTree implements Iterable<ContigTree.Node> {
       }).toArray()).yPriority(rnd.nextLong(-(Long.MAX_VALUE / 4), Long.MAX_VALUE / 4)).contigDirection(contigDirection).left(null).right(null).build();
     }
 
+    /**
+     * Builds a treap from the ordered contig list in linear time using the stack-based Cartesian tree construction.
+     * The stack holds the right spine of the tree built so far, a node is finalized when it leaves the spine, so that each node is created once.
+     *
+     * @param contigs Contigs in assembly order.
+     * @return Root of the new tree or {@code null} if the list is empty.
+     */
+    public static @Nullable Node buildFromOrderedContigs(final @NotNull List<@NotNull ContigTuple> contigs) {
+      return buildFromLeaves(contigs.stream().map(contig -> createNodeFromDescriptor(contig.descriptor(), contig.direction())).toList());
+    }
+
+    /**
+     * Links single-node trees in the given order into a treap, on equal priorities the later node becomes the ancestor as in {@link #mergeNodes(SplitResult)}.
+     */
+    static @Nullable Node buildFromLeaves(final @NotNull List<@NotNull Node> leaves) {
+      final var rightSpine = new ArrayDeque<PendingNode>(64);
+      for (final var leaf : leaves) {
+        @Nullable Node finalized = null;
+        while (!rightSpine.isEmpty() && rightSpine.peekLast().leaf().yPriority <= leaf.yPriority) {
+          final var spineNode = rightSpine.pollLast();
+          finalized = linkChildren(spineNode.leaf(), spineNode.left(), finalized);
+        }
+        rightSpine.addLast(new PendingNode(leaf, finalized));
+      }
+      @Nullable Node root = null;
+      while (!rightSpine.isEmpty()) {
+        final var spineNode = rightSpine.pollLast();
+        root = linkChildren(spineNode.leaf(), spineNode.left(), root);
+      }
+      return root;
+    }
+
+    private static @NotNull Node linkChildren(final @NotNull Node leaf, final @Nullable Node left, final @Nullable Node right) {
+      if (left == null && right == null) {
+        return leaf;
+      }
+      final var lengthBins = leaf.subtreeLengthBins.clone();
+      final var lengthPixels = leaf.subtreeLengthPixels.clone();
+      long count = 1L;
+      for (final var child : new Node[]{left, right}) {
+        if (child != null) {
+          count += child.subtreeCount;
+          for (int i = 0; i < lengthBins.length; ++i) {
+            lengthBins[i] += child.subtreeLengthBins[i];
+            lengthPixels[i] += child.subtreeLengthPixels[i];
+          }
+        }
+      }
+      return leaf.cloneBuilder().left(left).right(right).subtreeCount(count).subtreeLengthBins(lengthBins).subtreeLengthPixels(lengthPixels).build();
+    }
+
     public static SplitResult splitNodeByLength(final ResolutionDescriptor resolutionDescriptor, final Node t, final long k, final boolean includeEqualToTheLeft, final boolean excludeHiddenContigs) {
       if (t == null) {
         return new SplitResult(null, null);
@@ -336,7 +415,7 @@ public class ContigTree implements Iterable<ContigTree.Node> {
         final var resolutionOrder = resolutionDescriptor.getResolutionOrderInArray();
         final var newNode = node.push();
         traverseNodeAtResolution(newNode.left, resolutionDescriptor, f);
-        if (ContigHideType.SHOWN.equals(newNode.getContigDescriptor().getPresenceAtResolution().get(resolutionOrder))) {
+        if (ContigHideType.SHOWN.equals(newNode.getContigDescriptor().getPresenceAtResolution(resolutionOrder))) {
           f.accept(newNode);
         }
         traverseNodeAtResolution(newNode.right, resolutionDescriptor, f);
@@ -347,7 +426,7 @@ public class ContigTree implements Iterable<ContigTree.Node> {
       if (node != null) {
         final @Nullable var leftSonVisibleNode = leftmostVisibleNode(node.needsChangingDirection ? node.right : node.left, resolutionDescriptor);
         if (leftSonVisibleNode == null) {
-          if (ContigHideType.SHOWN.equals(node.getContigDescriptor().getPresenceAtResolution().get(resolutionDescriptor.getResolutionOrderInArray()))) {
+          if (ContigHideType.SHOWN.equals(node.getContigDescriptor().getPresenceAtResolution(resolutionDescriptor.getResolutionOrderInArray()))) {
             return node;
           } else {
             return leftmostVisibleNode(node.needsChangingDirection ? node.left : node.right, resolutionDescriptor);
@@ -364,7 +443,7 @@ public class ContigTree implements Iterable<ContigTree.Node> {
       if (node != null) {
         final @Nullable var rightSonVisibleNode = rightmostVisibleNode(node.needsChangingDirection ? node.left : node.right, resolutionDescriptor);
         if (rightSonVisibleNode == null) {
-          if (ContigHideType.SHOWN.equals(node.getContigDescriptor().getPresenceAtResolution().get(resolutionDescriptor.getResolutionOrderInArray()))) {
+          if (ContigHideType.SHOWN.equals(node.getContigDescriptor().getPresenceAtResolution(resolutionDescriptor.getResolutionOrderInArray()))) {
             return node;
           } else {
             return rightmostVisibleNode(node.needsChangingDirection ? node.right : node.left, resolutionDescriptor);
@@ -421,7 +500,7 @@ public class ContigTree implements Iterable<ContigTree.Node> {
 
       final var resolutionCount = this.subtreeLengthBins.length;
 
-      final var newLengthBins = this.contigDescriptor.getLengthBinsAtResolution().clone();
+      final var newLengthBins = this.contigDescriptor.getLengthBinsAtResolution();
       if (this.left != null) {
         IntStream.range(0, resolutionCount).parallel().forEach(idx -> newLengthBins[idx] += this.left.subtreeLengthBins[idx]);
       }
@@ -429,10 +508,10 @@ public class ContigTree implements Iterable<ContigTree.Node> {
         IntStream.range(0, resolutionCount).parallel().forEach(idx -> newLengthBins[idx] += this.right.subtreeLengthBins[idx]);
       }
 
-      final long[] newLengthPixels = this.contigDescriptor.getLengthBinsAtResolution().clone();
+      final long[] newLengthPixels = this.contigDescriptor.getLengthBinsAtResolution();
 
       IntStream.range(0, resolutionCount).parallel().forEach(resolutionOrder -> {
-        if (!this.contigDescriptor.getPresenceAtResolution().get(resolutionOrder).equals(ContigHideType.SHOWN)) {
+        if (!this.contigDescriptor.getPresenceAtResolution(resolutionOrder).equals(ContigHideType.SHOWN)) {
           newLengthPixels[resolutionOrder] = 0L;
         }
       });
@@ -599,6 +678,9 @@ public class ContigTree implements Iterable<ContigTree.Node> {
 
     public record SplitResult(Node left, Node right) {
     }
+
+    private record PendingNode(@NotNull Node leaf, @Nullable Node left) {
+    }
   }
 
   public record ContigTuple(ContigDescriptor descriptor, ContigDirection direction) {
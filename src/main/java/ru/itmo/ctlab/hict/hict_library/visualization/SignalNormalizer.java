@@ -0,0 +1,98 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2024. Aleksandr Serdiukov, Anton Zamyatin, Aleksandr Sinitsyn, Vitalii Dravgelis and Computer Technologies Laboratory ITMO University team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ru.itmo.ctlab.hict.hict_library.visualization;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Fused normalization of raw contact counts: pre-log, resolution scaling, cooler weights and post-log in one pass over primitive arrays.
+ * Operations are applied in the same order and with the same rounding as the step-by-step stream pipeline did.
+ */
+public final class SignalNormalizer {
+  private final double lnPreLogBase;
+  private final double lnPostLogBase;
+  private final boolean resolutionScaling;
+  private final double resolutionScalingCoefficient;
+  private final boolean resolutionLinearScaling;
+  private final double resolutionLinearScalingCoefficient;
+  private final boolean applyCoolerWeights;
+
+  public SignalNormalizer(final @NotNull SimpleVisualizationOptions options, final double resolutionScalingCoefficient, final double resolutionLinearScalingCoefficient) {
+    this.lnPreLogBase = options.getLnPreLogBase();
+    this.lnPostLogBase = options.getLnPostLogBase();
+    this.resolutionScaling = options.isResolutionScaling();
+    this.resolutionScalingCoefficient = resolutionScalingCoefficient;
+    this.resolutionLinearScaling = options.isResolutionLinearScaling();
+    this.resolutionLinearScalingCoefficient = resolutionLinearScalingCoefficient;
+    this.applyCoolerWeights = options.isApplyCoolerWeights();
+  }
+
+  public void normalizeRow(final long @NotNull [] input, final int inputOffset, final int length, final double rowWeight, final double @Nullable [] columnWeights, final int columnWeightsOffset, final double @NotNull [] output, final int outputOffset) {
+    final var pre = this.lnPreLogBase;
+    final var post = this.lnPostLogBase;
+    final var applyPre = pre > 0;
+    final var applyPost = post > 0;
+    final var scaling = this.resolutionScaling;
+    final var scalingCoefficient = this.resolutionScalingCoefficient;
+    final var linearScaling = this.resolutionLinearScaling;
+    final var linearScalingCoefficient = this.resolutionLinearScalingCoefficient;
+    final var applyRowWeight = this.applyCoolerWeights && (rowWeight != 1.0);
+    final var applyColumnWeights = this.applyCoolerWeights && (columnWeights != null);
+
+    for (int j = 0; j < length; ++j) {
+      double signal = (double) input[inputOffset + j];
+      if (applyPre) {
+        signal = Math.log1p(signal) / pre;
+      }
+      if (scaling) {
+        signal = signal * scalingCoefficient;
+      }
+      if (linearScaling) {
+        signal = signal * linearScalingCoefficient;
+      }
+      if (applyRowWeight) {
+        signal = signal * rowWeight;
+      }
+      if (applyColumnWeights) {
+        signal = signal * columnWeights[columnWeightsOffset + j];
+      }
+      if (applyPost) {
+        signal = Math.log1p(signal) / post;
+      }
+      output[outputOffset + j] = signal;
+    }
+  }
+
+  /**
+   * Normalizes the row-major tile into the caller-supplied buffer of at least <code>rowCount * columnCount</code> elements.
+   */
+  public void normalizeTile(final long @NotNull [] input, final int rowCount, final int columnCount, final double @Nullable [] rowWeights, final double @Nullable [] columnWeights, final double @NotNull [] output) {
+    for (int i = 0; i < rowCount; ++i) {
+      final var rowWeight = (rowWeights != null) ? rowWeights[i] : 1.0;
+      normalizeRow(input, i * columnCount, columnCount, rowWeight, columnWeights, 0, output, i * columnCount);
+    }
+  }
+}
@@ -27,52 +27,20 @@ package ru.itmo.ctlab.hict.hict_library.visualization;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import org.jetbrains.annotations.NotNull;
-import org.jetbrains.annotations.Nullable;
 import ru.itmo.ctlab.hict.hict_library.chunkedfile.ChunkedFile;
 import ru.itmo.ctlab.hict.hict_library.chunkedfile.MatrixQueries;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.resolution.ResolutionDescriptor;
 
-import java.awt.*;
-import java.awt.image.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.DoubleStream;
-import java.util.stream.LongStream;
-import java.util.stream.Stream;
 
 @RequiredArgsConstructor
 @Getter
 public class TileVisualizationProcessor {
   private final @NotNull ChunkedFile chunkedFile;
 
-  protected DoubleStream applyCoolerWeightsToRow(final DoubleStream rowStream, final double rowWeight, final double @Nullable [] columnWeights) {
-    var doubleStream = rowStream;
-    if (rowWeight != 1.0) {
-      doubleStream = doubleStream.map(signal -> signal * rowWeight);
-    }
-
-    if (columnWeights != null) {
-      final var atomicColumnIndex = new AtomicInteger();
-      doubleStream = doubleStream.sequential().map(signal -> signal * columnWeights[atomicColumnIndex.getAndIncrement()]);
-    }
-    return doubleStream;
-  }
-
-  protected DoubleStream applyCoolerWeightsToRow(final LongStream rowStream, final double rowWeight, final double @Nullable [] columnWeights) {
-    DoubleStream doubleStream;
-    if (rowWeight != 1.0) {
-      doubleStream = rowStream.mapToDouble(signal -> signal * rowWeight);
-    } else {
-      doubleStream = rowStream.mapToDouble(signal -> (double) signal);
-    }
-
-    if (columnWeights != null) {
-      final var atomicColumnIndex = new AtomicInteger();
-      doubleStream = doubleStream.sequential().map(signal -> signal * columnWeights[atomicColumnIndex.getAndIncrement()]);
-    }
-    return doubleStream;
-  }
-
   public @NotNull TileWithWeights applyWeightsToTile(final @NotNull RawTileWithWeights rawTile) {
     final var rowCount = rawTile.values().length;
     final var columnCount = (rawTile.values().length > 0) ? (rawTile.values()[0].length) : 0;
@@ -92,19 +60,24 @@ public class TileVisualizationProcessor {
       Arrays.fill(colWeights, 1.0d);
     }
     final var weightedValues = new double[rowCount][];
-    try (final var pool = Executors.newFixedThreadPool(this.chunkedFile.getParallelThreadCount().get())) {
-      for (int i = 0; i < rowCount; ++i) {
-        final var rowIndex = i;
-        pool.submit(() -> {
+    final var queryExecutor = this.chunkedFile.getQueryExecutor();
+    final var rowsPerTask = Integer.max(1, (rowCount + queryExecutor.getParallelism() - 1) / queryExecutor.getParallelism());
+    final var tasks = new ArrayList<Runnable>();
+    for (int firstRow = 0; firstRow < rowCount; firstRow += rowsPerTask) {
+      final var startRowIndex = firstRow;
+      final var endRowIndex = Integer.min(rowCount, firstRow + rowsPerTask);
+      tasks.add(() -> {
+        for (int rowIndex = startRowIndex; rowIndex < endRowIndex; ++rowIndex) {
           final var rawRow = rawValues[rowIndex];
           final var wRow = new double[columnCount];
           for (int j = 0; j < columnCount; j++) {
             wRow[j] = ((double) rawRow[j]) * rowWeights[rowIndex] * colWeights[j];
           }
           weightedValues[rowIndex] = wRow;
-        });
-      }
+        }
+      });
     }
+    queryExecutor.invokeAll(tasks);
     return new TileWithWeights(
       weightedValues,
       rowWeights,
@@ -112,6 +85,15 @@ public class TileVisualizationProcessor {
     );
   }
 
+  public @NotNull SignalNormalizer createNormalizer(final @NotNull ResolutionDescriptor resolutionDescriptor, final @NotNull SimpleVisualizationOptions visualizationOptions) {
+    final var resolutionOrder = resolutionDescriptor.getResolutionOrderInArray();
+    return new SignalNormalizer(
+      visualizationOptions,
+      this.chunkedFile.getResolutionScalingCoefficient()[resolutionOrder],
+      this.chunkedFile.getResolutionLinearScalingCoefficient()[resolutionOrder]
+    );
+  }
+
   public TileWithWeights processTile(final @NotNull MatrixQueries.MatrixWithWeights rawTile, final @NotNull SimpleVisualizationOptions visualizationOptions) {
     final var input = rawTile.matrix();
     final var rowWeights = rawTile.rowWeights();
@@ -119,43 +101,38 @@ public class TileVisualizationProcessor {
     final var rowCount = input.length;
     final var columnCount = (rowCount > 0) ? input[0].length : 0;
     final var result = new double[rowCount][columnCount];
-    final var resolutionScalingCoeffs = this.chunkedFile.getResolutionScalingCoefficient();
-    final var resolutionLinearScalingCoeffs = this.chunkedFile.getResolutionLinearScalingCoefficient();
-    final var resolutionScalingCoeff = resolutionScalingCoeffs[rawTile.resolutionDescriptor().getResolutionOrderInArray()];
-    final var resolutionLinearScalingCoeff = resolutionLinearScalingCoeffs[rawTile.resolutionDescriptor().getResolutionOrderInArray()];
+    final var normalizer = createNormalizer(rawTile.resolutionDescriptor(), visualizationOptions);
 
-    for (int rowIndex = 0; rowIndex < input.length; ++rowIndex) {
-      final var startStream = Arrays.stream(input[rowIndex]).parallel();
+    for (int rowIndex = 0; rowIndex < rowCount; ++rowIndex) {
       final var rowWeight = (rowWeights != null) ? rowWeights[rowIndex] : 1.0;
+      normalizer.normalizeRow(input[rowIndex], 0, columnCount, rowWeight, columnWeights, 0, result[rowIndex], 0);
+    }
+    return new TileWithWeights(result, rowWeights, columnWeights);
+  }
 
-      final var pre = visualizationOptions.getLnPreLogBase();
-      final var post = visualizationOptions.getLnPostLogBase();
-
-      DoubleStream doubleStream = startStream.mapToDouble(signal -> (double) signal);
-
-      if (pre > 0) {
-        doubleStream = doubleStream.map(signal -> Math.log1p(signal) / pre);
-      }
-
-      if (visualizationOptions.isResolutionScaling()) {
-        doubleStream = doubleStream.map(signal -> signal * resolutionScalingCoeff);
-      }
-
-      if (visualizationOptions.isResolutionLinearScaling()) {
-        doubleStream = doubleStream.map(signal -> signal * resolutionLinearScalingCoeff);
-      }
-
-      if (visualizationOptions.isApplyCoolerWeights()) {
-        doubleStream = applyCoolerWeightsToRow(doubleStream, rowWeight, columnWeights);
-      }
-
-      if (post > 0) {
-        doubleStream = doubleStream.map(signal -> Math.log1p(signal) / post);
-      }
+  /**
+   * Normalizes the flat tile into the caller-supplied buffer of at least <code>rowCount * columnCount</code> elements.
+   */
+  public void processTile(final @NotNull MatrixQueries.FlatMatrixWithWeights rawTile, final @NotNull SimpleVisualizationOptions visualizationOptions, final double @NotNull [] output) {
+    createNormalizer(rawTile.resolutionDescriptor(), visualizationOptions)
+      .normalizeTile(rawTile.values(), rawTile.rowCount(), rawTile.columnCount(), rawTile.rowWeights(), rawTile.colWeights(), output);
+  }
 
-      result[rowIndex] = doubleStream.toArray();
+  public @NotNull BufferedImage visualizeTile(final @NotNull MatrixQueries.FlatMatrixWithWeights rawTile, final @NotNull SimpleVisualizationOptions options) {
+    final var rowCount = rawTile.rowCount();
+    final var columnCount = rawTile.columnCount();
+    final var input = rawTile.values();
+    final var rowWeights = rawTile.rowWeights();
+    final var normalizer = createNormalizer(rawTile.resolutionDescriptor(), options);
+    final var colormap = options.getColormap();
+    final var image = new BufferedImage(columnCount, rowCount, BufferedImage.TYPE_INT_ARGB);
+    final int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    final var normalizedRow = new double[columnCount];
+    for (int rowIndex = 0; rowIndex < rowCount; ++rowIndex) {
+      normalizer.normalizeRow(input, rowIndex * columnCount, columnCount, rowWeights[rowIndex], rawTile.colWeights(), 0, normalizedRow, 0);
+      colormap.mapSignalsToARGB(normalizedRow, 0, columnCount, pixels, rowIndex * columnCount);
     }
-    return new TileWithWeights(result, rowWeights, columnWeights);
+    return image;
   }
 
   public @NotNull BufferedImage visualizeTile(final @NotNull MatrixQueries.MatrixWithWeights rawTile, final @NotNull SimpleVisualizationOptions options) {
@@ -164,32 +141,13 @@ public class TileVisualizationProcessor {
     final var columnCount = (rowCount > 0) ? input[0].length : 0;
     final var normalized = processTile(rawTile, options);
     final var colormap = options.getColormap();
-    final var boxedARGBValues = Arrays.stream(normalized.values())
-      .flatMap(arrayRow ->
-        Arrays.stream(arrayRow)
-          .mapToObj(colormap::mapSignal)
-          .flatMap(color -> Stream.of(
-              (byte) (color.getRed()), // Red
-              (byte) (color.getGreen()), // Green
-              (byte) (color.getBlue()), // Blue,
-              (byte) (color.getAlpha()) // Alpha,
-            )
-          )
-      )
-      .toArray(Byte[]::new);
-
-    final byte[] rgbValues = new byte[boxedARGBValues.length];
-    for (var i = 0; i < boxedARGBValues.length; ++i) {
-      rgbValues[i] = boxedARGBValues[i];
+    final var image = new BufferedImage(columnCount, rowCount, BufferedImage.TYPE_INT_ARGB);
+    final int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    final var values = normalized.values();
+    for (int rowIndex = 0; rowIndex < rowCount; ++rowIndex) {
+      colormap.mapSignalsToARGB(values[rowIndex], 0, columnCount, pixels, rowIndex * columnCount);
     }
 
-    final DataBuffer buffer = new DataBufferByte(rgbValues, rgbValues.length);
-
-    final WritableRaster raster = Raster.createInterleavedRaster(buffer, columnCount, rowCount, 4 * columnCount, 4, new int[]{0, 1, 2, 3}, null);
-    final ColorModel cm = new ComponentColorModel(ColorModel.getRGBdefault().getColorSpace(), true, false, Transparency.TRANSLUCENT, DataBuffer.TYPE_BYTE);
-    //final ColorModel cm = new ComponentColorModel(ColorModel.getRGBdefault().getColorSpace(), false, true, Transparency.OPAQUE, DataBuffer.TYPE_BYTE);
-    final BufferedImage image = new BufferedImage(cm, raster, true, null);
-
     return image;
   }
 }
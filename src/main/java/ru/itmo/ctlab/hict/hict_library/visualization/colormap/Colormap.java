@@ -39,4 +39,17 @@ public abstract class Colormap {
   public abstract @NotNull Color mapSignal(double value);
 
   public abstract @NotNull Color mapSignal(long signalValue);
+
+  /**
+   * @return Color for the given signal packed into ARGB integer, in the same format as {@link Color#getRGB()}.
+   */
+  public int mapSignalToARGB(final double value) {
+    return mapSignal(value).getRGB();
+  }
+
+  public void mapSignalsToARGB(final double @NotNull [] values, final int offset, final int length, final int @NotNull [] destination, final int destinationOffset) {
+    for (int i = 0; i < length; ++i) {
+      destination[destinationOffset + i] = mapSignalToARGB(values[offset + i]);
+    }
+  }
 }
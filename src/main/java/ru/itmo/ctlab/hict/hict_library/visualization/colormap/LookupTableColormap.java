@@ -0,0 +1,95 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2024. Aleksandr Serdiukov, Anton Zamyatin, Aleksandr Sinitsyn, Vitalii Dravgelis and Computer Technologies Laboratory ITMO University team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ru.itmo.ctlab.hict.hict_library.visualization.colormap;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+
+import java.awt.*;
+
+/**
+ * Colormap that maps signal to one of precomputed packed ARGB colors, so that no objects are allocated per pixel.
+ * Table has <code>2^bitDepth</code> entries evenly covering the signal range of the source colormap, but no more than <code>2^16</code>
+ * since 8-bit color channels could not be distinguished with a finer step anyway.
+ * Signal outside of the range is clamped to the first or the last entry, NaN gets the color the source colormap gives it.
+ */
+@Getter(AccessLevel.PUBLIC)
+public class LookupTableColormap extends DoubleColormap {
+  public static final int MAX_TABLE_BIT_DEPTH = 16;
+  private final double minSignal;
+  private final double maxSignal;
+  private final int @NotNull [] table;
+  private final int nanARGB;
+  private final double scale;
+
+  public LookupTableColormap(final @NotNull Colormap source, final double minSignal, final double maxSignal) {
+    super(source.getBitDepth());
+    if (maxSignal <= minSignal) {
+      throw new IllegalArgumentException("Signal range must be positive: min < max");
+    }
+    this.minSignal = minSignal;
+    this.maxSignal = maxSignal;
+    final var tableSize = 1 << Integer.max(1, Integer.min(source.getBitDepth(), MAX_TABLE_BIT_DEPTH));
+    this.table = new int[tableSize];
+    final var lastIndex = tableSize - 1;
+    for (int i = 0; i < tableSize; ++i) {
+      this.table[i] = source.mapSignal(minSignal + (maxSignal - minSignal) * ((double) i / lastIndex)).getRGB();
+    }
+    this.nanARGB = source.mapSignal(Double.NaN).getRGB();
+    this.scale = lastIndex / (maxSignal - minSignal);
+  }
+
+  @Override
+  public @NotNull Color mapSignal(final double value) {
+    return new Color(mapSignalToARGB(value), true);
+  }
+
+  @Override
+  public int mapSignalToARGB(final double value) {
+    final var position = (value - this.minSignal) * this.scale;
+    if (!(position > 0.0d)) {
+      return Double.isNaN(position) ? this.nanARGB : this.table[0];
+    }
+    return this.table[(int) Math.min(position + 0.5d, this.table.length - 1)];
+  }
+
+  @Override
+  public void mapSignalsToARGB(final double @NotNull [] values, final int offset, final int length, final int @NotNull [] destination, final int destinationOffset) {
+    final var table = this.table;
+    final var lastIndex = table.length - 1;
+    final var minSignal = this.minSignal;
+    final var scale = this.scale;
+    final var nanARGB = this.nanARGB;
+    for (int i = 0; i < length; ++i) {
+      final var position = (values[offset + i] - minSignal) * scale;
+      if (position > 0.0d) {
+        destination[destinationOffset + i] = table[(int) Math.min(position + 0.5d, lastIndex)];
+      } else {
+        destination[destinationOffset + i] = Double.isNaN(position) ? nanARGB : table[0];
+      }
+    }
+  }
+}
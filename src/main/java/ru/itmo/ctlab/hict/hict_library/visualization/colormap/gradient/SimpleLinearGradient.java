@@ -28,6 +28,7 @@ import lombok.AccessLevel;
 import lombok.Getter;
 import org.jetbrains.annotations.NotNull;
 import ru.itmo.ctlab.hict.hict_library.visualization.colormap.DoubleColormap;
+import ru.itmo.ctlab.hict.hict_library.visualization.colormap.LookupTableColormap;
 
 import java.awt.*;
 import java.awt.image.ComponentColorModel;
@@ -42,6 +43,8 @@ public class SimpleLinearGradient extends DoubleColormap {
   private final double[] deltaComponents;
   private final int componentCount;
   private final float[] startComponents, endComponents;
+  @Getter(AccessLevel.NONE)
+  private volatile LookupTableColormap lookupTable;
 
   public SimpleLinearGradient(final int bitDepth, final @NotNull Color startColor, final @NotNull Color endColor, final double minSignal, final double maxSignal) {
     super(bitDepth);
@@ -78,4 +81,24 @@ public class SimpleLinearGradient extends DoubleColormap {
     );
     return color;
   }
+
+  @Override
+  public int mapSignalToARGB(final double value) {
+    return getLookupTable().mapSignalToARGB(value);
+  }
+
+  @Override
+  public void mapSignalsToARGB(final double @NotNull [] values, final int offset, final int length, final int @NotNull [] destination, final int destinationOffset) {
+    getLookupTable().mapSignalsToARGB(values, offset, length, destination, destinationOffset);
+  }
+
+  private @NotNull LookupTableColormap getLookupTable() {
+    var table = this.lookupTable;
+    if (table == null) {
+      // Racing threads could build the table twice, but the result is the same:
+      table = new LookupTableColormap(this, this.minSignal, this.maxSignal);
+      this.lookupTable = table;
+    }
+    return table;
+  }
 }
@@ -42,23 +42,31 @@ import io.vertx.ext.web.handler.CorsHandler;
 import lombok.extern.slf4j.Slf4j;
 import org.slf4j.LoggerFactory;
 import ru.itmo.ctlab.hict.hict_library.chunkedfile.hdf5.HDF5LibraryInitializer;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.util.QueryValidation;
 import ru.itmo.ctlab.hict.hict_library.visualization.SimpleVisualizationOptions;
 import ru.itmo.ctlab.hict.hict_library.visualization.colormap.gradient.SimpleLinearGradient;
+import ru.itmo.ctlab.hict.hict_server.handlers.diagnostics.DiagnosticsHandlersHolder;
 import ru.itmo.ctlab.hict.hict_server.handlers.fileop.FileOpHandlersHolder;
 import ru.itmo.ctlab.hict.hict_server.handlers.files.FSHandlersHolder;
 import ru.itmo.ctlab.hict.hict_server.handlers.operations.ScaffoldingOpHandlersHolder;
+import ru.itmo.ctlab.hict.hict_server.handlers.tiles.PngTileEncoder;
 import ru.itmo.ctlab.hict.hict_server.handlers.tiles.TileHandlersHolder;
+import ru.itmo.ctlab.hict.hict_server.session.ChunkedFileRegistry;
+import ru.itmo.ctlab.hict.hict_server.session.SessionRegistry;
+import ru.itmo.ctlab.hict.hict_server.util.BoundedWorkerPool;
 import ru.itmo.ctlab.hict.hict_server.util.shareable.ShareableWrappers;
 
 import java.awt.*;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.BrokenBarrierException;
 import java.util.concurrent.CyclicBarrier;
 
 @Slf4j(topic = "MainVerticle")
 public class MainVerticle extends AbstractVerticle {
+  private static final long EVICTION_PERIOD_MILLIS = 60_000L;
 
   static {
     HDF5LibraryInitializer.initializeHDF5Library();
@@ -80,7 +88,7 @@ public class MainVerticle extends AbstractVerticle {
     log.info("Logging initialized");
 
     final ConfigStoreOptions jsonEnvConfig = new ConfigStoreOptions().setType("env")
-      .setConfig(new JsonObject().put("keys", new JsonArray().add("DATA_DIR").add("TILE_SIZE").add("VXPORT").add("MIN_DS_POOL").add("MAX_DS_POOL")));
+      .setConfig(new JsonObject().put("keys", new JsonArray().add("DATA_DIR").add("TILE_SIZE").add("VXPORT").add("MIN_DS_POOL").add("MAX_DS_POOL").add("BLOCK_CACHE_MB").add("PARALLEL_THREADS").add("TILE_CACHE_MB").add("TILE_CACHE_DIR").add("TILE_CACHE_DISK_MB").add("PNG_COMPRESSION_LEVEL").add("PNG_FILTER").add("TILE_WARMUP_LEVELS").add("TILE_PREFETCH").add("TILE_WORKERS").add("TILE_QUEUE").add("OPERATION_WORKERS").add("OPERATION_QUEUE").add("SESSION_IDLE_MINUTES").add("FILE_IDLE_MINUTES").add("METADATA_SNAPSHOT_DIR").add("EAGER_RESOLUTIONS").add("QUERY_VALIDATION")));
     final ConfigRetrieverOptions myOptions = new ConfigRetrieverOptions().addStore(jsonEnvConfig);
     final ConfigRetriever myConfigRetriver = ConfigRetriever.create(vertx, myOptions);
     myConfigRetriver.getConfig(asyncResults -> System.out.println(asyncResults.result().encodePrettily()));
@@ -92,8 +100,35 @@ public class MainVerticle extends AbstractVerticle {
       final var tileSize = event.result().getInteger("TILE_SIZE", 256);
       final var minDSPool = event.result().getInteger("MIN_DS_POOL", 4);
       final var maxDSPool = event.result().getInteger("MAX_DS_POOL", 16);
+      final var blockCacheMegabytes = event.result().getInteger("BLOCK_CACHE_MB", 512);
+      final var parallelThreads = event.result().getInteger("PARALLEL_THREADS", 0);
+      final var tileCacheMegabytes = event.result().getInteger("TILE_CACHE_MB", 256);
+      final var tileCacheDirectory = event.result().getString("TILE_CACHE_DIR", "");
+      final var tileCacheDiskMegabytes = event.result().getInteger("TILE_CACHE_DISK_MB", 2048);
+      final var metadataSnapshotDirectory = event.result().getString("METADATA_SNAPSHOT_DIR", "");
+      final var eagerResolutions = event.result().getInteger("EAGER_RESOLUTIONS", 0);
+      final var pngCompressionLevel = event.result().getInteger("PNG_COMPRESSION_LEVEL", PngTileEncoder.DEFAULT.compressionLevel());
+      final var pngFilterName = event.result().getString("PNG_FILTER", PngTileEncoder.DEFAULT.filter().name());
+      final var tileWarmupLevels = event.result().getInteger("TILE_WARMUP_LEVELS", 2);
+      final var tilePrefetch = event.result().getBoolean("TILE_PREFETCH", true);
+      final var tileWorkers = event.result().getInteger("TILE_WORKERS", 16);
+      final var tileQueue = event.result().getInteger("TILE_QUEUE", 512);
+      final var operationWorkers = event.result().getInteger("OPERATION_WORKERS", 4);
+      final var operationQueue = event.result().getInteger("OPERATION_QUEUE", 64);
+      final var sessionIdleMinutes = event.result().getInteger("SESSION_IDLE_MINUTES", 60);
+      final var fileIdleMinutes = event.result().getInteger("FILE_IDLE_MINUTES", 5);
+      final var queryValidation = event.result().getBoolean("QUERY_VALIDATION", QueryValidation.isEnabled());
       final var port = event.result().getInteger("VXPORT", 5000);
 
+      // PNG options are checked once here instead of on every tile:
+      final PngTileEncoder.Filter pngFilter;
+      try {
+        pngFilter = PngTileEncoder.Filter.valueOf(pngFilterName);
+      } catch (final IllegalArgumentException e) {
+        throw new IllegalArgumentException("PNG_FILTER should be one of " + Arrays.toString(PngTileEncoder.Filter.values()) + ", got " + pngFilterName, e);
+      }
+      final var pngTileEncoder = new PngTileEncoder(pngCompressionLevel, pngFilter);
+
       try {
         log.info("Trying to write configuration to local map");
         final var map = vertx.sharedData().getLocalMap("hict_server");
@@ -102,6 +137,24 @@ public class MainVerticle extends AbstractVerticle {
         map.put("VXPORT", port);
         map.put("MIN_DS_POOL", minDSPool);
         map.put("MAX_DS_POOL", maxDSPool);
+        map.put("BLOCK_CACHE_MB", blockCacheMegabytes);
+        map.put("PARALLEL_THREADS", parallelThreads);
+        map.put("TILE_CACHE_MB", tileCacheMegabytes);
+        map.put("TILE_CACHE_DIR", tileCacheDirectory);
+        map.put("TILE_CACHE_DISK_MB", tileCacheDiskMegabytes);
+        map.put("METADATA_SNAPSHOT_DIR", metadataSnapshotDirectory);
+        map.put("EAGER_RESOLUTIONS", eagerResolutions);
+        map.put("pngTileEncoder", pngTileEncoder);
+        map.put("TILE_WARMUP_LEVELS", tileWarmupLevels);
+        map.put("TILE_PREFETCH", tilePrefetch);
+        map.put("TILE_WORKERS", tileWorkers);
+        map.put("TILE_QUEUE", tileQueue);
+        map.put("OPERATION_WORKERS", operationWorkers);
+        map.put("OPERATION_QUEUE", operationQueue);
+        map.put("SESSION_IDLE_MINUTES", sessionIdleMinutes);
+        map.put("FILE_IDLE_MINUTES", fileIdleMinutes);
+        map.put("QUERY_VALIDATION", queryValidation);
+        QueryValidation.setEnabled(queryValidation);
 
         final var defaultVisualizationOptions = new SimpleVisualizationOptions(10.0, 0.0, false, false, false,
           new SimpleLinearGradient(
@@ -153,9 +206,18 @@ public class MainVerticle extends AbstractVerticle {
     barrier.await();
 
     final int port;
+    final BoundedWorkerPool operationsPool;
+    final BoundedWorkerPool tilePool;
+    final long sessionIdleMillis;
+    final long fileIdleMillis;
     try {
       final var map = vertx.sharedData().getLocalMap("hict_server");
       port = (int) map.get("VXPORT");
+      // Tiles are served from their own pool so that slow file and scaffolding operations could not delay them:
+      operationsPool = new BoundedWorkerPool(vertx, "operations", (int) map.get("OPERATION_WORKERS"), (int) map.get("OPERATION_QUEUE"));
+      tilePool = new BoundedWorkerPool(vertx, "tiles", (int) map.get("TILE_WORKERS"), (int) map.get("TILE_QUEUE"));
+      sessionIdleMillis = 60_000L * (int) map.get("SESSION_IDLE_MINUTES");
+      fileIdleMillis = 60_000L * (int) map.get("FILE_IDLE_MINUTES");
     } finally {
       log.info("Finished maps");
     }
@@ -166,12 +228,28 @@ public class MainVerticle extends AbstractVerticle {
     });
 
 
+    final var sessions = new SessionRegistry(vertx);
+    final var chunkedFiles = new ChunkedFileRegistry();
+    vertx.setPeriodic(EVICTION_PERIOD_MILLIS, timerId -> vertx.<Void>executeBlocking(promise -> {
+      final var evictedSessions = sessions.evictIdle(sessionIdleMillis);
+      final var closedFiles = chunkedFiles.evictIdle(fileIdleMillis);
+      if (evictedSessions > 0 || closedFiles > 0) {
+        log.info("Evicted " + evictedSessions + " idle sessions and closed " + closedFiles + " idle files, " + sessions.getSessionCount() + " sessions and " + chunkedFiles.getOpenFileCount() + " files remain");
+      }
+      promise.complete();
+    }, false, result -> {
+      if (result.failed()) {
+        log.warn("Failed to evict idle sessions", result.cause());
+      }
+    }));
+
     log.info("Initializing handlers");
     final List<HandlersHolder> handlersHolders = new ArrayList<>();
-    handlersHolders.add(new FSHandlersHolder(vertx));
-    handlersHolders.add(new TileHandlersHolder(vertx));
-    handlersHolders.add(new FileOpHandlersHolder(vertx));
-    handlersHolders.add(new ScaffoldingOpHandlersHolder(vertx));
+    handlersHolders.add(new FSHandlersHolder(vertx, operationsPool));
+    handlersHolders.add(new TileHandlersHolder(vertx, operationsPool, tilePool, sessions));
+    handlersHolders.add(new FileOpHandlersHolder(vertx, operationsPool, sessions, chunkedFiles));
+    handlersHolders.add(new ScaffoldingOpHandlersHolder(vertx, operationsPool, sessions));
+    handlersHolders.add(new DiagnosticsHandlersHolder(vertx, operationsPool));
 
 
     router.route().failureHandler(ctx -> {
@@ -0,0 +1,61 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2024. Aleksandr Serdiukov, Anton Zamyatin, Aleksandr Sinitsyn, Vitalii Dravgelis and Computer Technologies Laboratory ITMO University team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ru.itmo.ctlab.hict.hict_server.handlers.diagnostics;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.Json;
+import io.vertx.ext.web.Router;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.util.QueryValidation;
+import ru.itmo.ctlab.hict.hict_server.HandlersHolder;
+import ru.itmo.ctlab.hict.hict_server.dto.request.diagnostics.QueryValidationRequestDTO;
+import ru.itmo.ctlab.hict.hict_server.dto.response.diagnostics.QueryValidationResponseDTO;
+import ru.itmo.ctlab.hict.hict_server.util.BoundedWorkerPool;
+
+@RequiredArgsConstructor
+@Slf4j
+public class DiagnosticsHandlersHolder extends HandlersHolder {
+  private final Vertx vertx;
+  private final BoundedWorkerPool operationsPool;
+
+  @Override
+  public void addHandlersToRouter(final @NotNull Router router) {
+    router.post("/query_validation").handler(this.operationsPool.handler(ctx -> {
+      final var requestBody = ctx.body();
+      final var request = QueryValidationRequestDTO.fromJSONObject((requestBody == null || requestBody.isEmpty()) ? null : requestBody.asJsonObject());
+
+      if (request.enabled() != null) {
+        QueryValidation.setEnabled(request.enabled());
+      }
+      if (request.resetCounters()) {
+        QueryValidation.resetCounters();
+      }
+
+      ctx.response().setStatusCode(200).end(Json.encode(QueryValidationResponseDTO.fromCounters(QueryValidation.getCounters())));
+    }));
+  }
+}
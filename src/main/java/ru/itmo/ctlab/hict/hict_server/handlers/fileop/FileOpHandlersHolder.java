@@ -37,7 +37,13 @@ import ru.itmo.ctlab.hict.hict_library.chunkedfile.ChunkedFile;
 import ru.itmo.ctlab.hict.hict_server.HandlersHolder;
 import ru.itmo.ctlab.hict.hict_server.dto.response.assembly.AssemblyInfoDTO;
 import ru.itmo.ctlab.hict.hict_server.dto.response.fileop.OpenFileResponseDTO;
+import ru.itmo.ctlab.hict.hict_server.handlers.tiles.TilePrefetcher;
+import ru.itmo.ctlab.hict.hict_server.handlers.tiles.TilePyramidWarmer;
+import ru.itmo.ctlab.hict.hict_server.handlers.util.RenderedTileCache;
 import ru.itmo.ctlab.hict.hict_server.handlers.util.TileStatisticHolder;
+import ru.itmo.ctlab.hict.hict_server.session.ChunkedFileRegistry;
+import ru.itmo.ctlab.hict.hict_server.session.SessionRegistry;
+import ru.itmo.ctlab.hict.hict_server.util.BoundedWorkerPool;
 import ru.itmo.ctlab.hict.hict_server.util.shareable.ShareableWrappers;
 
 import java.io.IOException;
@@ -51,10 +57,13 @@ import java.util.Objects;
 @Slf4j
 public class FileOpHandlersHolder extends HandlersHolder {
   private final Vertx vertx;
+  private final BoundedWorkerPool operationsPool;
+  private final SessionRegistry sessions;
+  private final ChunkedFileRegistry chunkedFiles;
 
   @Override
   public void addHandlersToRouter(final @NotNull Router router) {
-    router.post("/open").blockingHandler(ctx -> {
+    router.post("/open").handler(this.operationsPool.handler(ctx -> {
       final var dataDirectoryWrapper = (ShareableWrappers.PathWrapper) vertx.sharedData().getLocalMap("hict_server").get("dataDirectory");
       if (dataDirectoryWrapper == null) {
         ctx.fail(new RuntimeException("Data directory is not present in local map"));
@@ -76,26 +85,56 @@ public class FileOpHandlersHolder extends HandlersHolder {
       }
 
       final var map = vertx.sharedData().getLocalMap("hict_server");
+      final var sessionMap = this.sessions.sessionMap(ctx);
 
-      final var chunkedFile = new ChunkedFile(
+      final var metadataSnapshotDirectory = (String) map.getOrDefault("METADATA_SNAPSHOT_DIR", "");
+      // Handle is acquired before the previous one is released, so reopening the same file reuses its resources while the assembly is built anew:
+      final var chunkedFileHandle = this.chunkedFiles.acquire(
         new ChunkedFile.ChunkedFileOptions(
           Path.of(dataDirectory.toString(), filename),
           (int) map.getOrDefault("MIN_DS_POOL", 4),
-          (int) map.getOrDefault("MAX_DS_POOL", 16)
+          (int) map.getOrDefault("MAX_DS_POOL", 16),
+          1024L * 1024L * (int) map.getOrDefault("BLOCK_CACHE_MB", 512),
+          (int) map.getOrDefault("PARALLEL_THREADS", 0),
+          metadataSnapshotDirectory.isBlank() ? null : Path.of(metadataSnapshotDirectory),
+          (int) map.getOrDefault("EAGER_RESOLUTIONS", 0)
         )
       );
-      final var chunkedFileWrapper = new ShareableWrappers.ChunkedFileWrapper(chunkedFile);
+      final var chunkedFile = chunkedFileHandle.getChunkedFile();
+      SessionRegistry.releaseFileState(sessionMap);
 
-      log.info("Putting chunkedFile into the local map");
-      map.put("chunkedFile", chunkedFileWrapper);
+      log.info("Putting chunkedFile into the session map");
+      sessionMap.put("chunkedFile", chunkedFileHandle);
+      sessionMap.putIfAbsent("visualizationOptions", map.get("visualizationOptions"));
 
-      map.put("TileStatisticHolder", TileStatisticHolder.newDefaultStatisticHolder(chunkedFile.getResolutions().length));
+      sessionMap.put("TileStatisticHolder", TileStatisticHolder.newDefaultStatisticHolder(chunkedFile.getResolutions().length));
+
+      final var tileCacheDirectory = (String) map.getOrDefault("TILE_CACHE_DIR", "");
+      final var tileCache = new RenderedTileCache(
+        1024L * 1024L * (int) map.getOrDefault("TILE_CACHE_MB", 256),
+        tileCacheDirectory.isBlank() ? null : Path.of(tileCacheDirectory),
+        1024L * 1024L * (int) map.getOrDefault("TILE_CACHE_DISK_MB", 2048)
+      );
+      sessionMap.put("renderedTileCache", tileCache);
+      final var tilePyramidWarmer = new TilePyramidWarmer(
+        vertx,
+        sessionMap,
+        chunkedFile,
+        tileCache,
+        (int) map.getOrDefault("TILE_WARMUP_LEVELS", 2),
+        (int) map.getOrDefault("tileSize", 256)
+      );
+      sessionMap.put("tilePyramidWarmer", tilePyramidWarmer);
+      tilePyramidWarmer.requestWarmUp();
+      if ((boolean) map.getOrDefault("TILE_PREFETCH", true)) {
+        sessionMap.put("tilePrefetcher", new TilePrefetcher(chunkedFile));
+      }
 
       ctx.response().end(Json.encode(generateOpenFileResponse(chunkedFile)));
-    });
+    }));
 
-    router.post("/get_agp_for_assembly").blockingHandler(ctx -> {
-      final var map = vertx.sharedData().getLocalMap("hict_server");
+    router.post("/get_agp_for_assembly").handler(this.operationsPool.handler(ctx -> {
+      final var map = this.sessions.sessionMap(ctx);
       log.debug("Got map");
       final var chunkedFileWrapper = ((ShareableWrappers.ChunkedFileWrapper) (map.get("chunkedFile")));
       if (chunkedFileWrapper == null) {
@@ -115,10 +154,10 @@ public class FileOpHandlersHolder extends HandlersHolder {
       chunkedFile.getAgpProcessor().getAGPStream(defaultSpacerLength).sequential().forEach(s -> buffer.appendBytes(s.getBytes(StandardCharsets.UTF_8)));
 
       ctx.response().setChunked(true).putHeader("Content-Type", "text/plain").end(buffer);
-    });
+    }));
 
-    router.post("/load_agp").blockingHandler(ctx -> {
-      final var map = vertx.sharedData().getLocalMap("hict_server");
+    router.post("/load_agp").handler(this.operationsPool.handler(ctx -> {
+      final var map = this.sessions.sessionMap(ctx);
       log.debug("Got map");
       final var chunkedFileWrapper = ((ShareableWrappers.ChunkedFileWrapper) (map.get("chunkedFile")));
       if (chunkedFileWrapper == null) {
@@ -146,9 +185,13 @@ public class FileOpHandlersHolder extends HandlersHolder {
       } catch (IOException | NoSuchFieldException e) {
         throw new RuntimeException(e);
       }
+      final var tilePyramidWarmer = (TilePyramidWarmer) map.get("tilePyramidWarmer");
+      if (tilePyramidWarmer != null) {
+        tilePyramidWarmer.requestWarmUp();
+      }
 
       ctx.response().end(Json.encode(AssemblyInfoDTO.generateFromChunkedFile(chunkedFile)));
-    });
+    }));
   }
 
   private @NotNull OpenFileResponseDTO generateOpenFileResponse(final @NotNull ChunkedFile chunkedFile) {
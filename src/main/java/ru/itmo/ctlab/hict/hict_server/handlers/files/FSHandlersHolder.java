@@ -31,6 +31,7 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.jetbrains.annotations.NotNull;
 import ru.itmo.ctlab.hict.hict_server.HandlersHolder;
+import ru.itmo.ctlab.hict.hict_server.util.BoundedWorkerPool;
 import ru.itmo.ctlab.hict.hict_server.util.shareable.ShareableWrappers;
 
 import java.io.IOException;
@@ -42,10 +43,11 @@ import java.util.stream.Collectors;
 @Slf4j
 public class FSHandlersHolder extends HandlersHolder {
   private final Vertx vertx;
+  private final BoundedWorkerPool operationsPool;
 
   @Override
   public void addHandlersToRouter(final @NotNull Router router) {
-    router.post("/list_files").blockingHandler(ctx -> {
+    router.post("/list_files").handler(this.operationsPool.handler(ctx -> {
       final var dataDirectoryWrapper = (ShareableWrappers.PathWrapper) vertx.sharedData().getLocalMap("hict_server").get("dataDirectory");
       if (dataDirectoryWrapper == null) {
         ctx.fail(new RuntimeException("Data directory is not present in local map"));
@@ -60,9 +62,9 @@ public class FSHandlersHolder extends HandlersHolder {
         throw new RuntimeException(e);
       }
       ctx.response().putHeader("content-type", "application/json").end(Json.encode(files));
-    });
+    }));
 
-    router.post("/list_agp_files").blockingHandler(ctx -> {
+    router.post("/list_agp_files").handler(this.operationsPool.handler(ctx -> {
       final var dataDirectoryWrapper = (ShareableWrappers.PathWrapper) vertx.sharedData().getLocalMap("hict_server").get("dataDirectory");
       if (dataDirectoryWrapper == null) {
         ctx.fail(new RuntimeException("Data directory is not present in local map"));
@@ -77,9 +79,9 @@ public class FSHandlersHolder extends HandlersHolder {
         throw new RuntimeException(e);
       }
       ctx.response().putHeader("content-type", "application/json").end(Json.encode(files));
-    });
+    }));
 
-    router.post("/list_fasta_files").blockingHandler(ctx -> {
+    router.post("/list_fasta_files").handler(this.operationsPool.handler(ctx -> {
       final var dataDirectoryWrapper = (ShareableWrappers.PathWrapper) vertx.sharedData().getLocalMap("hict_server").get("dataDirectory");
       if (dataDirectoryWrapper == null) {
         ctx.fail(new RuntimeException("Data directory is not present in local map"));
@@ -94,9 +96,9 @@ public class FSHandlersHolder extends HandlersHolder {
         throw new RuntimeException(e);
       }
       ctx.response().putHeader("content-type", "application/json").end(Json.encode(files));
-    });
+    }));
 
-    router.post("/list_coolers").blockingHandler(ctx -> {
+    router.post("/list_coolers").handler(this.operationsPool.handler(ctx -> {
       final var dataDirectoryWrapper = (ShareableWrappers.PathWrapper) vertx.sharedData().getLocalMap("hict_server").get("dataDirectory");
       if (dataDirectoryWrapper == null) {
         ctx.fail(new RuntimeException("Data directory is not present in local map"));
@@ -111,6 +113,6 @@ public class FSHandlersHolder extends HandlersHolder {
         throw new RuntimeException(e);
       }
       ctx.response().putHeader("content-type", "application/json").end(Json.encode(files));
-    });
+    }));
   }
 }
@@ -26,32 +26,41 @@ package ru.itmo.ctlab.hict.hict_server.handlers.operations;
 
 import io.vertx.core.Vertx;
 import io.vertx.core.json.Json;
+import io.vertx.core.shareddata.LocalMap;
 import io.vertx.ext.web.Router;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import ru.itmo.ctlab.hict.hict_library.chunkedfile.resolution.ResolutionDescriptor;
+import ru.itmo.ctlab.hict.hict_library.domain.AssemblyChange;
 import ru.itmo.ctlab.hict.hict_library.domain.QueryLengthUnit;
 import ru.itmo.ctlab.hict.hict_server.HandlersHolder;
 import ru.itmo.ctlab.hict.hict_server.dto.request.scaffolding.*;
 import ru.itmo.ctlab.hict.hict_server.dto.response.assembly.AssemblyInfoDTO;
+import ru.itmo.ctlab.hict.hict_server.handlers.tiles.TilePyramidWarmer;
+import ru.itmo.ctlab.hict.hict_server.handlers.util.RenderedTileCache;
+import ru.itmo.ctlab.hict.hict_server.session.SessionRegistry;
+import ru.itmo.ctlab.hict.hict_server.util.BoundedWorkerPool;
 import ru.itmo.ctlab.hict.hict_server.util.shareable.ShareableWrappers;
 
 @RequiredArgsConstructor
 @Slf4j
 public class ScaffoldingOpHandlersHolder extends HandlersHolder {
   final Vertx vertx;
+  final BoundedWorkerPool operationsPool;
+  final SessionRegistry sessions;
 
   @Override
   public void addHandlersToRouter(final @NotNull Router router) {
-    router.post("/reverse_selection_range").blockingHandler(ctx -> {
+    router.post("/reverse_selection_range").handler(this.operationsPool.handler(ctx -> {
       final @NotNull var requestBody = ctx.body();
       final @NotNull var requestJSON = requestBody.asJsonObject();
 
       final @NotNull @NonNull var request = ReverseSelectionRangeRequestDTO.fromJSONObject(requestJSON);
 
-      final var map = vertx.sharedData().getLocalMap("hict_server");
+      final var map = this.sessions.sessionMap(ctx);
       log.debug("Got map");
       final var chunkedFileWrapper = ((ShareableWrappers.ChunkedFileWrapper) (map.get("chunkedFile")));
       if (chunkedFileWrapper == null) {
@@ -61,17 +70,18 @@ public class ScaffoldingOpHandlersHolder extends HandlersHolder {
       final var chunkedFile = chunkedFileWrapper.getChunkedFile();
       log.debug("Got ChunkedFile from map");
 
-      chunkedFile.scaffoldingOperations().reverseSelectionRangeBp(request.startBP(), request.endBP());
+      final var change = chunkedFile.scaffoldingOperations().reverseSelectionRangeBp(request.startBP(), request.endBP());
+      onAssemblyChanged(map, change);
 
       ctx.response().end(Json.encode(AssemblyInfoDTO.generateFromChunkedFile(chunkedFile)));
-    });
-    router.post("/move_selection_range").blockingHandler(ctx -> {
+    }));
+    router.post("/move_selection_range").handler(this.operationsPool.handler(ctx -> {
       final @NotNull var requestBody = ctx.body();
       final @NotNull var requestJSON = requestBody.asJsonObject();
 
       final @NotNull @NonNull var request = MoveSelectionRangeRequestDTO.fromJSONObject(requestJSON);
 
-      final var map = vertx.sharedData().getLocalMap("hict_server");
+      final var map = this.sessions.sessionMap(ctx);
       log.debug("Got map");
       final var chunkedFileWrapper = ((ShareableWrappers.ChunkedFileWrapper) (map.get("chunkedFile")));
       if (chunkedFileWrapper == null) {
@@ -81,17 +91,18 @@ public class ScaffoldingOpHandlersHolder extends HandlersHolder {
       final var chunkedFile = chunkedFileWrapper.getChunkedFile();
       log.debug("Got ChunkedFile from map");
 
-      chunkedFile.scaffoldingOperations().moveSelectionRangeBp(request.startBP(), request.endBP(), request.targetStartBP());
+      final var change = chunkedFile.scaffoldingOperations().moveSelectionRangeBp(request.startBP(), request.endBP(), request.targetStartBP());
+      onAssemblyChanged(map, change);
 
       ctx.response().end(Json.encode(AssemblyInfoDTO.generateFromChunkedFile(chunkedFile)));
-    });
-    router.post("/split_contig_at_bin").blockingHandler(ctx -> {
+    }));
+    router.post("/split_contig_at_bin").handler(this.operationsPool.handler(ctx -> {
       final @NotNull var requestBody = ctx.body();
       final @NotNull var requestJSON = requestBody.asJsonObject();
 
       final @NotNull @NonNull var request = SplitContigRequestDTO.fromJSONObject(requestJSON);
 
-      final var map = vertx.sharedData().getLocalMap("hict_server");
+      final var map = this.sessions.sessionMap(ctx);
       log.debug("Got map");
       final var chunkedFileWrapper = ((ShareableWrappers.ChunkedFileWrapper) (map.get("chunkedFile")));
       if (chunkedFileWrapper == null) {
@@ -101,17 +112,18 @@ public class ScaffoldingOpHandlersHolder extends HandlersHolder {
       final var chunkedFile = chunkedFileWrapper.getChunkedFile();
       log.debug("Got ChunkedFile from map");
 
-      chunkedFile.scaffoldingOperations().splitContigAtBin(request.splitPx(), ResolutionDescriptor.fromBpResolution(request.bpResolution(), chunkedFile), QueryLengthUnit.PIXELS);
+      final var change = chunkedFile.scaffoldingOperations().splitContigAtBin(request.splitPx(), ResolutionDescriptor.fromBpResolution(request.bpResolution(), chunkedFile), QueryLengthUnit.PIXELS);
+      onAssemblyChanged(map, change);
 
       ctx.response().end(Json.encode(AssemblyInfoDTO.generateFromChunkedFile(chunkedFile)));
-    });
-    router.post("/group_contigs_into_scaffold").blockingHandler(ctx -> {
+    }));
+    router.post("/group_contigs_into_scaffold").handler(this.operationsPool.handler(ctx -> {
       final @NotNull var requestBody = ctx.body();
       final @NotNull var requestJSON = requestBody.asJsonObject();
 
       final @NotNull @NonNull var request = ScaffoldRegionRequestDTO.fromJSONObject(requestJSON);
 
-      final var map = vertx.sharedData().getLocalMap("hict_server");
+      final var map = this.sessions.sessionMap(ctx);
       log.debug("Got map");
       final var chunkedFileWrapper = ((ShareableWrappers.ChunkedFileWrapper) (map.get("chunkedFile")));
       if (chunkedFileWrapper == null) {
@@ -124,14 +136,14 @@ public class ScaffoldingOpHandlersHolder extends HandlersHolder {
       chunkedFile.scaffoldingOperations().scaffoldRegion(request.startBP(), request.endBP(), ResolutionDescriptor.fromResolutionOrder(0), QueryLengthUnit.BASE_PAIRS, null);
 
       ctx.response().end(Json.encode(AssemblyInfoDTO.generateFromChunkedFile(chunkedFile)));
-    });
-    router.post("/ungroup_contigs_from_scaffold").blockingHandler(ctx -> {
+    }));
+    router.post("/ungroup_contigs_from_scaffold").handler(this.operationsPool.handler(ctx -> {
       final @NotNull var requestBody = ctx.body();
       final @NotNull var requestJSON = requestBody.asJsonObject();
 
       final @NotNull @NonNull var request = UnscaffoldRegionRequestDTO.fromJSONObject(requestJSON);
 
-      final var map = vertx.sharedData().getLocalMap("hict_server");
+      final var map = this.sessions.sessionMap(ctx);
       log.debug("Got map");
       final var chunkedFileWrapper = ((ShareableWrappers.ChunkedFileWrapper) (map.get("chunkedFile")));
       if (chunkedFileWrapper == null) {
@@ -144,14 +156,14 @@ public class ScaffoldingOpHandlersHolder extends HandlersHolder {
       chunkedFile.scaffoldingOperations().unscaffoldRegion(request.startBP(), request.endBP(), ResolutionDescriptor.fromResolutionOrder(0), QueryLengthUnit.BASE_PAIRS);
 
       ctx.response().end(Json.encode(AssemblyInfoDTO.generateFromChunkedFile(chunkedFile)));
-    });
-    router.post("/move_selection_to_debris").blockingHandler(ctx -> {
+    }));
+    router.post("/move_selection_to_debris").handler(this.operationsPool.handler(ctx -> {
       final @NotNull var requestBody = ctx.body();
       final @NotNull var requestJSON = requestBody.asJsonObject();
 
       final @NotNull @NonNull var request = MoveSelectionToDebrisRequestDTO.fromJSONObject(requestJSON);
 
-      final var map = vertx.sharedData().getLocalMap("hict_server");
+      final var map = this.sessions.sessionMap(ctx);
       log.debug("Got map");
       final var chunkedFileWrapper = ((ShareableWrappers.ChunkedFileWrapper) (map.get("chunkedFile")));
       if (chunkedFileWrapper == null) {
@@ -161,9 +173,25 @@ public class ScaffoldingOpHandlersHolder extends HandlersHolder {
       final var chunkedFile = chunkedFileWrapper.getChunkedFile();
       log.debug("Got ChunkedFile from map");
 
-      chunkedFile.scaffoldingOperations().moveRegionToDebris(request.startBP(), request.endBP(), ResolutionDescriptor.fromResolutionOrder(0), QueryLengthUnit.BASE_PAIRS);
+      final var change = chunkedFile.scaffoldingOperations().moveRegionToDebris(request.startBP(), request.endBP(), ResolutionDescriptor.fromResolutionOrder(0), QueryLengthUnit.BASE_PAIRS);
+      onAssemblyChanged(map, change);
 
       ctx.response().end(Json.encode(AssemblyInfoDTO.generateFromChunkedFile(chunkedFile)));
-    });
+    }));
+  }
+
+  /**
+   * Updates tile caches of the session that performed the operation, other sessions have assemblies of their own.
+   */
+  private void onAssemblyChanged(final @NotNull LocalMap<Object, Object> map, final @Nullable AssemblyChange change) {
+    final var tileCache = (RenderedTileCache) map.get("renderedTileCache");
+    if (change == null || tileCache == null) {
+      return;
+    }
+    tileCache.onAssemblyChanged(change);
+    final var tilePyramidWarmer = (TilePyramidWarmer) map.get("tilePyramidWarmer");
+    if (tilePyramidWarmer != null) {
+      tilePyramidWarmer.requestWarmUp();
+    }
   }
 }
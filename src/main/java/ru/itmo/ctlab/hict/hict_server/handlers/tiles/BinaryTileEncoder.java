@@ -0,0 +1,173 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2024. Aleksandr Serdiukov, Anton Zamyatin, Aleksandr Sinitsyn, Vitalii Dravgelis and Computer Technologies Laboratory ITMO University team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ru.itmo.ctlab.hict.hict_server.handlers.tiles;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import net.jpountz.lz4.LZ4Factory;
+import org.jetbrains.annotations.NotNull;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.MatrixQueries;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.Deflater;
+
+/**
+ * Encodes normalized tile signal into the compact little-endian binary transport format.
+ * <p>
+ * Layout: magic <code>HCTT</code>, format version (u8), {@link Dtype} ordinal (u8), {@link Compression} ordinal (u8), reserved (u8),
+ * row count (i32), column count (i32), minimum and maximum of finite signal (f64 each), row weights (f64 x rows), column weights (f64 x columns),
+ * uncompressed payload length (i32), payload length (i32), payload.
+ * Integer samples are quantized linearly: <code>signal = minimum + sample * (maximum - minimum) / (2^bits - 2)</code>.
+ * The largest sample <code>2^bits - 1</code> is reserved for non-finite signal (e.g. of bins with zero weight), so that it is not confused with the minimum,
+ * float samples keep non-finite values as they are.
+ * Only the payload is compressed, LZ4 uses the block format without length prefix.
+ */
+public final class BinaryTileEncoder {
+  public static final int MAGIC = 0x54544348; // "HCTT" in little-endian order
+  public static final byte FORMAT_VERSION = 2;
+  public static final @NotNull String CONTENT_TYPE = "application/octet-stream";
+
+  private BinaryTileEncoder() {
+  }
+
+  public static byte @NotNull [] encode(final @NotNull MatrixQueries.FlatMatrixWithWeights rawTile, final double @NotNull [] normalized, final @NotNull Dtype dtype, final @NotNull Compression compression) {
+    final var rowCount = rawTile.rowCount();
+    final var columnCount = rawTile.columnCount();
+    final var sampleCount = rowCount * columnCount;
+
+    double minimum = Double.POSITIVE_INFINITY;
+    double maximum = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < sampleCount; ++i) {
+      final var signal = normalized[i];
+      if (Double.isFinite(signal)) {
+        minimum = Math.min(minimum, signal);
+        maximum = Math.max(maximum, signal);
+      }
+    }
+    if (minimum > maximum) {
+      minimum = 0.0d;
+      maximum = 0.0d;
+    }
+
+    final var payload = quantize(normalized, sampleCount, dtype, minimum, maximum);
+    final var compressed = compress(payload, compression);
+
+    final var headerLength = 4 + 4 + 4 + 4 + 8 + 8 + 8 * (rowCount + columnCount) + 4 + 4;
+    final var buffer = ByteBuffer.allocate(headerLength + compressed.length).order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(MAGIC)
+      .put(FORMAT_VERSION)
+      .put((byte) dtype.ordinal())
+      .put((byte) compression.ordinal())
+      .put((byte) 0)
+      .putInt(rowCount)
+      .putInt(columnCount)
+      .putDouble(minimum)
+      .putDouble(maximum);
+    for (int i = 0; i < rowCount; ++i) {
+      buffer.putDouble(rawTile.rowWeights()[i]);
+    }
+    for (int j = 0; j < columnCount; ++j) {
+      buffer.putDouble(rawTile.colWeights()[j]);
+    }
+    buffer.putInt(payload.length).putInt(compressed.length).put(compressed);
+    return buffer.array();
+  }
+
+  private static byte @NotNull [] quantize(final double @NotNull [] normalized, final int sampleCount, final @NotNull Dtype dtype, final double minimum, final double maximum) {
+    final var payload = ByteBuffer.allocate(sampleCount * dtype.getBytesPerSample()).order(ByteOrder.LITTLE_ENDIAN);
+    final var range = maximum - minimum;
+    switch (dtype) {
+      case UINT8, UINT16 -> {
+        final var scale = (range > 0.0d) ? (dtype.getMaxSample() / range) : 0.0d;
+        for (int i = 0; i < sampleCount; ++i) {
+          final var signal = normalized[i];
+          final var sample = Double.isFinite(signal) ? (int) Math.round((signal - minimum) * scale) : dtype.getNonFiniteSample();
+          if (dtype == Dtype.UINT8) {
+            payload.put((byte) sample);
+          } else {
+            payload.putShort((short) sample);
+          }
+        }
+      }
+      case FLOAT32 -> {
+        for (int i = 0; i < sampleCount; ++i) {
+          payload.putFloat((float) normalized[i]);
+        }
+      }
+    }
+    return payload.array();
+  }
+
+  private static byte @NotNull [] compress(final byte @NotNull [] payload, final @NotNull Compression compression) {
+    return switch (compression) {
+      case NONE -> payload;
+      case DEFLATE -> {
+        final var deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+          deflater.setInput(payload);
+          deflater.finish();
+          final var output = new ByteArrayOutputStream(1 + payload.length / 2);
+          final var chunk = new byte[8192];
+          while (!deflater.finished()) {
+            output.write(chunk, 0, deflater.deflate(chunk));
+          }
+          yield output.toByteArray();
+        } finally {
+          deflater.end();
+        }
+      }
+      case LZ4 -> LZ4Factory.fastestInstance().fastCompressor().compress(payload);
+    };
+  }
+
+  @RequiredArgsConstructor
+  @Getter
+  public enum Dtype {
+    UINT8(1, 0xFE),
+    UINT16(2, 0xFFFE),
+    FLOAT32(4, 0);
+
+    private final int bytesPerSample;
+    /**
+     * Sample of the maximum finite signal for integer types.
+     */
+    private final int maxSample;
+
+    /**
+     * @return Sample reserved for non-finite signal in integer types.
+     */
+    public int getNonFiniteSample() {
+      return this.maxSample + 1;
+    }
+  }
+
+  public enum Compression {
+    NONE,
+    DEFLATE,
+    LZ4
+  }
+}
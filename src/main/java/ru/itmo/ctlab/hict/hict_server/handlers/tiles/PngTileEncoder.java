@@ -0,0 +1,382 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2024. Aleksandr Serdiukov, Anton Zamyatin, Aleksandr Sinitsyn, Vitalii Dravgelis and Computer Technologies Laboratory ITMO University team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ru.itmo.ctlab.hict.hict_server.handlers.tiles;
+
+import io.vertx.core.shareddata.Shareable;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.util.QueryExecutor;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * PNG encoder for ARGB tiles that writes an 8-bit palette image when the tile has at most 256 distinct colors and 8-bit RGBA otherwise.
+ * Large images are filtered and deflated in row bands in parallel, each band primed with the preceding 32KiB as a dictionary and sync-flushed,
+ * so that the concatenation forms a single zlib stream like the one produced by a sequential encoder.
+ *
+ * @param compressionLevel Deflate level from 0 to 9.
+ * @param filter           Row filter, see {@link Filter}.
+ */
+public record PngTileEncoder(int compressionLevel, @NotNull Filter filter) implements Shareable {
+  public static final @NotNull PngTileEncoder DEFAULT = new PngTileEncoder(4, Filter.ADAPTIVE);
+  private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+  private static final int MAX_PALETTE_SIZE = 256;
+  private static final int DICTIONARY_SIZE = 32 * 1024;
+  private static final int MIN_BAND_BYTES = 64 * 1024;
+
+  public PngTileEncoder {
+    if (compressionLevel < 0 || compressionLevel > 9) {
+      throw new IllegalArgumentException("PNG compression level should be between 0 and 9, got " + compressionLevel);
+    }
+  }
+
+  /**
+   * @param argb     Row-major pixels in the format of {@link java.awt.Color#getRGB()}, not premultiplied.
+   * @param executor When present, bands of a large image are encoded on it.
+   * @return Complete PNG file.
+   */
+  public byte @NotNull [] encode(final int @NotNull [] argb, final int width, final int height, final @Nullable QueryExecutor executor) {
+    final var palette = buildPalette(argb, width * height);
+    final var bytesPerPixel = (palette != null) ? 1 : 4;
+    final var stride = 1 + width * bytesPerPixel;
+    final var filtered = new byte[stride * height];
+
+    final var parallelism = (executor != null) ? executor.getParallelism() : 1;
+    final var rowsPerBand = Integer.max(1, Integer.max(MIN_BAND_BYTES / stride, (height + parallelism - 1) / parallelism));
+    final var bandCount = (height + rowsPerBand - 1) / rowsPerBand;
+    final var effectiveFilter = (palette != null && this.filter == Filter.ADAPTIVE) ? Filter.NONE : this.filter;
+
+    final var filterTasks = new ArrayList<Runnable>(bandCount);
+    for (int band = 0; band < bandCount; ++band) {
+      final var firstRow = band * rowsPerBand;
+      final var lastRow = Integer.min(height, firstRow + rowsPerBand);
+      filterTasks.add(() -> filterRows(argb, palette, width, bytesPerPixel, effectiveFilter, firstRow, lastRow, filtered));
+    }
+    runAll(filterTasks, executor);
+
+    final var compressedBands = new byte[bandCount][];
+    final var deflateTasks = new ArrayList<Runnable>(bandCount);
+    for (int band = 0; band < bandCount; ++band) {
+      final var bandIndex = band;
+      final var from = band * rowsPerBand * stride;
+      final var to = Integer.min(height, (band + 1) * rowsPerBand) * stride;
+      deflateTasks.add(() -> compressedBands[bandIndex] = deflateBand(filtered, from, to, bandIndex == bandCount - 1));
+    }
+    runAll(deflateTasks, executor);
+
+    final var adler = new Adler32();
+    adler.update(filtered, 0, filtered.length);
+    return assemble(width, height, palette, compressedBands, (int) adler.getValue());
+  }
+
+  private static void runAll(final @NotNull List<Runnable> tasks, final @Nullable QueryExecutor executor) {
+    if (executor != null) {
+      executor.invokeAll(tasks);
+    } else {
+      tasks.forEach(Runnable::run);
+    }
+  }
+
+  /**
+   * @return Palette as ARGB colors with the <code>index</code> lookup table, or <code>null</code> if there are too many colors.
+   */
+  private static @Nullable Palette buildPalette(final int @NotNull [] argb, final int pixelCount) {
+    // Open addressing table with twice as many slots as the maximum palette size:
+    final var slots = 2 * MAX_PALETTE_SIZE;
+    final var keys = new int[slots];
+    final var indices = new int[slots];
+    Arrays.fill(indices, -1);
+    final var colors = new int[MAX_PALETTE_SIZE];
+    var colorCount = 0;
+    var previousColor = 0;
+    var hasPrevious = false;
+    for (int i = 0; i < pixelCount; ++i) {
+      final var color = argb[i];
+      if (hasPrevious && color == previousColor) {
+        continue;
+      }
+      hasPrevious = true;
+      previousColor = color;
+      var slot = Palette.slotOf(color, slots);
+      while (indices[slot] != -1 && keys[slot] != color) {
+        slot = (slot + 1) & (slots - 1);
+      }
+      if (indices[slot] == -1) {
+        if (colorCount == MAX_PALETTE_SIZE) {
+          return null;
+        }
+        keys[slot] = color;
+        indices[slot] = colorCount;
+        colors[colorCount++] = color;
+      }
+    }
+    return new Palette(Arrays.copyOf(colors, colorCount), keys, indices);
+  }
+
+  private static void filterRows(final int @NotNull [] argb, final @Nullable Palette palette, final int width, final int bytesPerPixel, final @NotNull Filter filter, final int firstRow, final int lastRow, final byte @NotNull [] filtered) {
+    final var rowBytes = width * bytesPerPixel;
+    var previous = new byte[rowBytes];
+    var current = new byte[rowBytes];
+    if (firstRow > 0) {
+      unpackRow(argb, palette, width, firstRow - 1, previous);
+    }
+    final Filter[] candidates = (filter == Filter.ADAPTIVE) ? new Filter[]{Filter.NONE, Filter.SUB, Filter.UP, Filter.PAETH} : new Filter[]{filter};
+    final var scratch = new byte[rowBytes];
+    for (int row = firstRow; row < lastRow; ++row) {
+      unpackRow(argb, palette, width, row, current);
+      final var outputOffset = row * (1 + rowBytes);
+      if (candidates.length == 1) {
+        filtered[outputOffset] = (byte) filter.getType();
+        applyFilter(filter, current, previous, bytesPerPixel, filtered, outputOffset + 1);
+      } else {
+        // Minimum sum of absolute differences heuristic as recommended by the PNG specification:
+        var bestScore = Long.MAX_VALUE;
+        for (final var candidate : candidates) {
+          applyFilter(candidate, current, previous, bytesPerPixel, scratch, 0);
+          var score = 0L;
+          for (final var b : scratch) {
+            score += Math.abs(b);
+          }
+          if (score < bestScore) {
+            bestScore = score;
+            filtered[outputOffset] = (byte) candidate.getType();
+            System.arraycopy(scratch, 0, filtered, outputOffset + 1, rowBytes);
+          }
+        }
+      }
+      final var swap = previous;
+      previous = current;
+      current = swap;
+    }
+  }
+
+  private static void unpackRow(final int @NotNull [] argb, final @Nullable Palette palette, final int width, final int row, final byte @NotNull [] destination) {
+    final var rowOffset = row * width;
+    if (palette != null) {
+      for (int x = 0; x < width; ++x) {
+        destination[x] = (byte) palette.indexOf(argb[rowOffset + x]);
+      }
+    } else {
+      for (int x = 0; x < width; ++x) {
+        final var color = argb[rowOffset + x];
+        final var offset = 4 * x;
+        destination[offset] = (byte) (color >>> 16);
+        destination[offset + 1] = (byte) (color >>> 8);
+        destination[offset + 2] = (byte) color;
+        destination[offset + 3] = (byte) (color >>> 24);
+      }
+    }
+  }
+
+  private static void applyFilter(final @NotNull Filter filter, final byte @NotNull [] current, final byte @NotNull [] previous, final int bytesPerPixel, final byte @NotNull [] output, final int outputOffset) {
+    final var length = current.length;
+    switch (filter) {
+      case NONE, ADAPTIVE -> System.arraycopy(current, 0, output, outputOffset, length);
+      case SUB -> {
+        System.arraycopy(current, 0, output, outputOffset, Integer.min(bytesPerPixel, length));
+        for (int i = bytesPerPixel; i < length; ++i) {
+          output[outputOffset + i] = (byte) (current[i] - current[i - bytesPerPixel]);
+        }
+      }
+      case UP -> {
+        for (int i = 0; i < length; ++i) {
+          output[outputOffset + i] = (byte) (current[i] - previous[i]);
+        }
+      }
+      case PAETH -> {
+        for (int i = 0; i < length; ++i) {
+          final var a = (i >= bytesPerPixel) ? (current[i - bytesPerPixel] & 0xFF) : 0;
+          final var b = previous[i] & 0xFF;
+          final var c = (i >= bytesPerPixel) ? (previous[i - bytesPerPixel] & 0xFF) : 0;
+          output[outputOffset + i] = (byte) (current[i] - paethPredictor(a, b, c));
+        }
+      }
+    }
+  }
+
+  private static int paethPredictor(final int a, final int b, final int c) {
+    final var p = a + b - c;
+    final var pa = Math.abs(p - a);
+    final var pb = Math.abs(p - b);
+    final var pc = Math.abs(p - c);
+    if (pa <= pb && pa <= pc) {
+      return a;
+    }
+    return (pb <= pc) ? b : c;
+  }
+
+  private byte @NotNull [] deflateBand(final byte @NotNull [] filtered, final int from, final int to, final boolean last) {
+    final var deflater = new Deflater(this.compressionLevel, true);
+    try {
+      if (from > 0) {
+        final var dictionaryStart = Integer.max(0, from - DICTIONARY_SIZE);
+        deflater.setDictionary(filtered, dictionaryStart, from - dictionaryStart);
+      }
+      deflater.setInput(filtered, from, to - from);
+      var output = new byte[Integer.max(64, (to - from) / 4)];
+      var written = 0;
+      if (last) {
+        deflater.finish();
+      }
+      while (true) {
+        if (written == output.length) {
+          output = Arrays.copyOf(output, 2 * output.length);
+        }
+        final var count = deflater.deflate(output, written, output.length - written, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+        written += count;
+        if (last ? deflater.finished() : (written < output.length)) {
+          break;
+        }
+      }
+      return Arrays.copyOf(output, written);
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private byte @NotNull [] assemble(final int width, final int height, final @Nullable Palette palette, final byte @NotNull [] @NotNull [] compressedBands, final int adler32) {
+    final var compressedLength = Arrays.stream(compressedBands).mapToInt(band -> band.length).sum();
+    final var idatLength = 2 + compressedLength + 4;
+    var totalLength = SIGNATURE.length + (12 + 13) + (12 + idatLength) + 12;
+    var hasTransparency = false;
+    if (palette != null) {
+      totalLength += 12 + 3 * palette.colors().length;
+      hasTransparency = Arrays.stream(palette.colors()).anyMatch(color -> (color >>> 24) != 0xFF);
+      if (hasTransparency) {
+        totalLength += 12 + palette.colors().length;
+      }
+    }
+
+    final var buffer = ByteBuffer.allocate(totalLength);
+    buffer.put(SIGNATURE);
+
+    var chunkStart = beginChunk(buffer, 13, "IHDR");
+    buffer.putInt(width).putInt(height)
+      .put((byte) 8) // Bit depth
+      .put((byte) ((palette != null) ? 3 : 6)) // Color type: indexed or RGBA
+      .put((byte) 0) // Compression method
+      .put((byte) 0) // Filter method
+      .put((byte) 0); // No interlace
+    endChunk(buffer, chunkStart);
+
+    if (palette != null) {
+      final var colors = palette.colors();
+      chunkStart = beginChunk(buffer, 3 * colors.length, "PLTE");
+      for (final var color : colors) {
+        buffer.put((byte) (color >>> 16)).put((byte) (color >>> 8)).put((byte) color);
+      }
+      endChunk(buffer, chunkStart);
+      if (hasTransparency) {
+        chunkStart = beginChunk(buffer, colors.length, "tRNS");
+        for (final var color : colors) {
+          buffer.put((byte) (color >>> 24));
+        }
+        endChunk(buffer, chunkStart);
+      }
+    }
+
+    chunkStart = beginChunk(buffer, idatLength, "IDAT");
+    buffer.put(zlibHeader());
+    for (final var band : compressedBands) {
+      buffer.put(band);
+    }
+    buffer.putInt(adler32);
+    endChunk(buffer, chunkStart);
+
+    chunkStart = beginChunk(buffer, 0, "IEND");
+    endChunk(buffer, chunkStart);
+    return buffer.array();
+  }
+
+  private byte @NotNull [] zlibHeader() {
+    final var cmf = 0x78; // Deflate with 32KiB window
+    final int levelFlag;
+    if (this.compressionLevel <= 1) {
+      levelFlag = 0;
+    } else if (this.compressionLevel <= 5) {
+      levelFlag = 1;
+    } else if (this.compressionLevel == 6) {
+      levelFlag = 2;
+    } else {
+      levelFlag = 3;
+    }
+    var flg = levelFlag << 6;
+    flg += (31 - ((cmf << 8) + flg) % 31) % 31;
+    return new byte[]{(byte) cmf, (byte) flg};
+  }
+
+  private static int beginChunk(final @NotNull ByteBuffer buffer, final int length, final @NotNull String type) {
+    buffer.putInt(length);
+    final var typeStart = buffer.position();
+    buffer.put(type.getBytes(StandardCharsets.US_ASCII));
+    return typeStart;
+  }
+
+  private static void endChunk(final @NotNull ByteBuffer buffer, final int typeStart) {
+    final var crc = new CRC32();
+    crc.update(buffer.array(), typeStart, buffer.position() - typeStart);
+    buffer.putInt((int) crc.getValue());
+  }
+
+  /**
+   * PNG row filter types. {@link #ADAPTIVE} picks the filter per row for RGBA images and uses no filtering for palette images,
+   * as the PNG specification recommends; heatmaps with smooth gradients usually compress best with {@link #UP} or {@link #PAETH}.
+   */
+  @RequiredArgsConstructor
+  @Getter
+  public enum Filter {
+    NONE(0),
+    SUB(1),
+    UP(2),
+    PAETH(4),
+    ADAPTIVE(-1);
+
+    private final int type;
+  }
+
+  private record Palette(int @NotNull [] colors, int @NotNull [] keys, int @NotNull [] indices) {
+    static int slotOf(final int color, final int slots) {
+      return (color * 0x9E3779B9 >>> 16) & (slots - 1);
+    }
+
+    int indexOf(final int color) {
+      final var slots = this.keys.length;
+      var slot = slotOf(color, slots);
+      while (this.keys[slot] != color || this.indices[slot] == -1) {
+        slot = (slot + 1) & (slots - 1);
+      }
+      return this.indices[slot];
+    }
+  }
+}
@@ -28,40 +28,48 @@ import io.vertx.core.Vertx;
 import io.vertx.core.buffer.Buffer;
 import io.vertx.core.json.Json;
 import io.vertx.ext.web.Router;
+import io.vertx.ext.web.RoutingContext;
+import lombok.Getter;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.jetbrains.annotations.NotNull;
-import ru.itmo.ctlab.hict.hict_library.chunkedfile.resolution.ResolutionDescriptor;
+import org.jetbrains.annotations.Nullable;
 import ru.itmo.ctlab.hict.hict_server.HandlersHolder;
 import ru.itmo.ctlab.hict.hict_server.dto.symmetric.visualization.VisualizationOptionsDTO;
+import ru.itmo.ctlab.hict.hict_server.handlers.util.RenderedTileCache;
 import ru.itmo.ctlab.hict.hict_server.handlers.util.TileStatisticHolder;
+import ru.itmo.ctlab.hict.hict_server.session.SessionRegistry;
+import ru.itmo.ctlab.hict.hict_server.util.BoundedWorkerPool;
 import ru.itmo.ctlab.hict.hict_server.util.shareable.ShareableWrappers;
 
-import javax.imageio.ImageIO;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.util.Base64;
 import java.util.Map;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
 
 @RequiredArgsConstructor
 @Slf4j
 public class TileHandlersHolder extends HandlersHolder {
   private final Vertx vertx;
+  private final BoundedWorkerPool operationsPool;
+  private final BoundedWorkerPool tilePool;
+  private final SessionRegistry sessions;
 
   @Override
   public void addHandlersToRouter(final @NotNull Router router) {
-    router.post("/set_visualization_options").blockingHandler(ctx -> {
+    router.post("/set_visualization_options").handler(this.operationsPool.handler(ctx -> {
       final @NotNull var requestBody = ctx.body();
       final @NotNull var requestJSON = requestBody.asJsonObject();
 
       final @NotNull @NonNull var request = VisualizationOptionsDTO.fromJSONObject(requestJSON);
 
-      final var map = vertx.sharedData().getLocalMap("hict_server");
+      final var map = this.sessions.sessionMap(ctx);
       log.debug("Got map");
       map.put("visualizationOptions", new ShareableWrappers.SimpleVisualizationOptionsWrapper(request.toEntity()));
+      final var tileCache = (RenderedTileCache) map.get("renderedTileCache");
+      if (tileCache != null) {
+        tileCache.onVisualizationOptionsChanged();
+      }
       final var chunkedFileWrapper = ((ShareableWrappers.ChunkedFileWrapper) (map.get("chunkedFile")));
       if (chunkedFileWrapper == null) {
         ctx.fail(new RuntimeException("Chunked file is not present in the local map, maybe the file is not yet opened?"));
@@ -84,11 +92,15 @@ public class TileHandlersHolder extends HandlersHolder {
         return;
       }
       final var options = visualizationOptionsWrapper.getSimpleVisualizationOptions();
+      final var tilePyramidWarmer = (TilePyramidWarmer) map.get("tilePyramidWarmer");
+      if (tilePyramidWarmer != null) {
+        tilePyramidWarmer.requestWarmUp();
+      }
       ctx.response().setStatusCode(200).end(Json.encode(VisualizationOptionsDTO.fromEntity(options, chunkedFile)));
-    });
+    }));
 
-    router.post("/get_visualization_options").blockingHandler(ctx -> {
-      final var map = vertx.sharedData().getLocalMap("hict_server");
+    router.post("/get_visualization_options").handler(this.operationsPool.handler(ctx -> {
+      final var map = this.sessions.sessionMap(ctx);
       log.debug("Got map");
       final var chunkedFileWrapper = ((ShareableWrappers.ChunkedFileWrapper) (map.get("chunkedFile")));
       if (chunkedFileWrapper == null) {
@@ -104,12 +116,12 @@ public class TileHandlersHolder extends HandlersHolder {
       }
       final var options = visualizationOptionsWrapper.getSimpleVisualizationOptions();
       ctx.response().setStatusCode(200).end(Json.encode(VisualizationOptionsDTO.fromEntity(options, chunkedFile)));
-    });
+    }));
 
     router.get("/get_tile").handler(ctx -> {
       log.debug("Entered non-blocking handler");
       ctx.next();
-    }).blockingHandler(ctx -> {
+    }).handler(this.tilePool.handler(ctx -> {
       log.debug("Entered blockingHandler");
 
       final var row = Long.parseLong(ctx.request().getParam("row", "0"));
@@ -118,10 +130,11 @@ public class TileHandlersHolder extends HandlersHolder {
       final int tileHeight;
       final int tileWidth;
       final var format = TileFormat.valueOf(ctx.request().getParam("format", "JSON_PNG_WITH_RANGES"));
+      final var compression = BinaryTileEncoder.Compression.valueOf(ctx.request().getParam("compression", "NONE"));
 
       log.debug("Got parameters");
 
-      final var map = vertx.sharedData().getLocalMap("hict_server");
+      final var map = this.sessions.sessionMap(ctx);
 
       log.debug("Got map");
       final var chunkedFileWrapper = ((ShareableWrappers.ChunkedFileWrapper) (map.get("chunkedFile")));
@@ -131,6 +144,9 @@ public class TileHandlersHolder extends HandlersHolder {
       }
       final var chunkedFile = chunkedFileWrapper.getChunkedFile();
       log.debug("Got ChunkedFile from map");
+      final var tileCache = (RenderedTileCache) map.get("renderedTileCache");
+      // Generation must be read before the options so that a concurrent options change could only make this tile stale, not mislabeled:
+      final var optionsGeneration = (tileCache != null) ? tileCache.getOptionsGeneration() : 0L;
       final var visualizationOptionsWrapper = ((ShareableWrappers.SimpleVisualizationOptionsWrapper) (map.get("visualizationOptions")));
       if (visualizationOptionsWrapper == null) {
         ctx.fail(new RuntimeException("Visualization options are not present in the local map, maybe the file is not yet opened?"));
@@ -173,74 +189,71 @@ public class TileHandlersHolder extends HandlersHolder {
         endColPx = (col + 1) * tileWidth;
       }
 
-      final var matrixWithWeights = chunkedFile.matrixQueries().getSubmatrix(ResolutionDescriptor.fromResolutionOrder(level), startRowPx, startColPx, endRowPx, endColPx, true);
-      final var image = chunkedFile.tileVisualizationProcessor().visualizeTile(matrixWithWeights, options);
-      final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-
-      log.debug("Created byte stream");
-
-      /*
-      try (final var pool = Executors.newSingleThreadExecutor()) {
-        pool.submit(() -> {
-          // Update signal ranges
-          final var tileSummary = Arrays.stream(normalized).flatMapToLong(Arrays::stream).summaryStatistics();
-          final var tileMinimum = tileSummary.getMin();
-          final var tileMaximum = tileSummary.getMax();
-
-          long oldMinimumDoubleBits;
-          do {
-            oldMinimumDoubleBits = stats.minimumsAtResolutionDoubleBits().get(level);
-          } while (Double.longBitsToDouble(oldMinimumDoubleBits) > tileMinimum && !stats.minimumsAtResolutionDoubleBits().compareAndSet(level, oldMinimumDoubleBits, Double.doubleToLongBits(tileMinimum)));
-
-          long oldMaximumDoubleBits;
-          do {
-            oldMaximumDoubleBits = stats.maximumsAtResolutionDoubleBits().get(level);
-          } while (Double.longBitsToDouble(oldMaximumDoubleBits) < tileMaximum && !stats.maximumsAtResolutionDoubleBits().compareAndSet(level, oldMaximumDoubleBits, Double.doubleToLongBits(tileMaximum)));
-        });
+      final var tilePrefetcher = (TilePrefetcher) map.get("tilePrefetcher");
+      if (tilePrefetcher != null) {
+        tilePrefetcher.onTileRequested(SessionRegistry.sessionId(ctx), version, level, startRowPx, startColPx, tileHeight, tileWidth);
       }
-      */
 
+      final var tileKey = new RenderedTileCache.TileKey(chunkedFile.getContigTree().getVersion(), optionsGeneration, level, startRowPx, startColPx, tileHeight, tileWidth, TileRenderer.cacheFormatKey(format, compression));
+      final var ifNoneMatch = ctx.request().getHeader("If-None-Match");
+      if (tileCache != null) {
+        final var cached = tileCache.get(tileKey);
+        if (cached != null) {
+          log.debug("Tile cache hit");
+          respondWithTile(ctx, (format == TileFormat.JSON_PNG_WITH_RANGES) ? TileRenderer.withSignalRanges(cached, stats, chunkedFile.getResolutions().length) : cached, ifNoneMatch);
+          return;
+        }
+      }
 
+      // Client discards tiles of older versions, so rendering stops once a newer version is requested or the connection is gone:
+      final BooleanSupplier obsolete = () -> {
+        final var currentStats = (TileStatisticHolder) map.get("TileStatisticHolder");
+        return ctx.response().closed() || (currentStats != null && currentStats.versionCounter().get() > version);
+      };
+      final RenderedTileCache.RenderedTile tile;
       try {
-        if (format == TileFormat.JSON_PNG_WITH_RANGES) {
-          ImageIO.write(image, "png", baos); // convert BufferedImage to byte array
-
-          final byte[] base64 = Base64.getEncoder().encode(baos.toByteArray());
-          final String base64image = new String(base64);
-          final var result = new TileWithRanges(
-            String.format("data:image/png;base64,%s", base64image),
-            new TileSignalRanges(
-              IntStream.range(0, chunkedFile.getResolutions().length).boxed().map(
-                lvl -> Map.entry(chunkedFile.getResolutions().length - lvl, Double.longBitsToDouble(stats.minimumsAtResolutionDoubleBits().get(lvl)))
-              ).collect(Collectors.toUnmodifiableMap(Map.Entry::getKey, Map.Entry::getValue)),
-              IntStream.range(0, chunkedFile.getResolutions().length).boxed().map(
-                lvl -> Map.entry(chunkedFile.getResolutions().length - lvl, Double.longBitsToDouble(stats.maximumsAtResolutionDoubleBits().get(lvl)))
-              ).collect(Collectors.toUnmodifiableMap(Map.Entry::getKey, Map.Entry::getValue))
-            )
-          );
-          log.debug("Wrote stream to buffer");
-          ctx.response()
-            .putHeader("content-type", "application/json")
-            .end(Json.encode(result));
-        } else {
-          ImageIO.write(image, "png", baos); // convert BufferedImage to byte array
-          log.debug("Wrote stream to buffer");
-          ctx.response()
-            .putHeader("content-type", "image/png")
-            .end(Buffer.buffer(baos.toByteArray()));
+        tile = new TileRenderer(chunkedFile, options, stats, (PngTileEncoder) vertx.sharedData().getLocalMap("hict_server").get("pngTileEncoder"))
+          .render(level, startRowPx, startColPx, tileHeight, tileWidth, format, compression, obsolete);
+      } catch (final CancellationException e) {
+        log.debug("Tile request of version " + version + " was cancelled");
+        if (!ctx.response().closed()) {
+          ctx.response().setStatusCode(204).putHeader("Content-Type", "text/plain").end(String.format("Request version %d became outdated", version));
         }
-        log.debug("Response");
-      } catch (final IOException e) {
-        log.error("Cannot write tile image: " + e.getMessage());
+        return;
+      }
+      log.debug("Rendered tile");
+      if (tileCache != null) {
+        tileCache.put(tileKey, tile);
       }
-    });
+      respondWithTile(ctx, (format == TileFormat.JSON_PNG_WITH_RANGES) ? TileRenderer.withSignalRanges(tile, stats, chunkedFile.getResolutions().length) : tile, ifNoneMatch);
+      log.debug("Response");
+    }));
+  }
+
+  private static void respondWithTile(final @NotNull RoutingContext ctx, final @NotNull RenderedTileCache.RenderedTile tile, final @Nullable String ifNoneMatch) {
+    final var response = ctx.response().putHeader("ETag", tile.etag());
+    if (tile.matches(ifNoneMatch)) {
+      response.setStatusCode(304).end();
+    } else {
+      response.putHeader("content-type", tile.contentType()).end(Buffer.buffer(tile.bytes()));
+    }
   }
 
 
+  @RequiredArgsConstructor
+  @Getter
   public enum TileFormat {
-    JSON_PNG_WITH_RANGES,
-    PNG,
-    PNG_BY_PIXELS
+    JSON_PNG_WITH_RANGES(null),
+    PNG(null),
+    PNG_BY_PIXELS(null),
+    /**
+     * Normalized signal encoded by {@link BinaryTileEncoder}, colormap is not applied.
+     */
+    RAW_UINT8(BinaryTileEncoder.Dtype.UINT8),
+    RAW_UINT16(BinaryTileEncoder.Dtype.UINT16),
+    RAW_FLOAT32(BinaryTileEncoder.Dtype.FLOAT32);
+
+    private final @Nullable BinaryTileEncoder.Dtype rawDtype;
   }
 
   public record TileSignalRanges(@NotNull Map<@NotNull Integer, @NotNull Double> lowerBounds,
@@ -0,0 +1,209 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2024. Aleksandr Serdiukov, Anton Zamyatin, Aleksandr Sinitsyn, Vitalii Dravgelis and Computer Technologies Laboratory ITMO University team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ru.itmo.ctlab.hict.hict_server.handlers.tiles;
+
+import io.vertx.core.shareddata.Shareable;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.ChunkedFile;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.resolution.ResolutionDescriptor;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Speculatively reads HDF5 blocks of the viewport each client session is likely to request next.
+ * <p>
+ * Tile requests carry the <code>version</code> of the client viewport, so all tiles of one version are accumulated into a bounding box.
+ * When a session moves to a newer version, the motion between its two last complete viewports is extrapolated:
+ * a pan continues in the same direction, a zoom continues to the next level in the same direction, and a still viewport gets its surroundings prefetched.
+ * Blocks are read on a single low-priority thread only while the dataset pool has idle readers,
+ * and a prefetch is abandoned as soon as the same session requests a newer version.
+ */
+@Slf4j
+public class TilePrefetcher implements Shareable, AutoCloseable {
+  private static final int MAX_SESSIONS = 64;
+  private final @NotNull ChunkedFile chunkedFile;
+  private final @NotNull ExecutorService executor;
+  private final Map<@NotNull String, @NotNull SessionState> sessions = new LinkedHashMap<>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(final Map.Entry<String, SessionState> eldest) {
+      return size() > MAX_SESSIONS;
+    }
+  };
+  private volatile boolean closed = false;
+
+  public TilePrefetcher(final @NotNull ChunkedFile chunkedFile) {
+    this.chunkedFile = chunkedFile;
+    this.executor = Executors.newSingleThreadExecutor(runnable -> {
+      final var thread = new Thread(runnable, "hict-tile-prefetch");
+      thread.setDaemon(true);
+      thread.setPriority(Thread.MIN_PRIORITY);
+      return thread;
+    });
+  }
+
+  /**
+   * Records a tile request of the session, should only be called for requests that are not outdated.
+   *
+   * @param sessionId Session as resolved by {@link ru.itmo.ctlab.hict.hict_server.session.SessionRegistry#sessionId}.
+   * @param level Resolution order of the tile.
+   */
+  public void onTileRequested(final @NotNull String sessionId, final long version, final int level, final long startRowPx, final long startColPx, final int tileHeight, final int tileWidth) {
+    if (this.closed) {
+      return;
+    }
+    final SessionState state;
+    final Viewport prediction;
+    synchronized (this.sessions) {
+      state = this.sessions.computeIfAbsent(sessionId, id -> new SessionState());
+      prediction = state.record(version, new Viewport(level, startRowPx, startColPx, startRowPx + tileHeight, startColPx + tileWidth), this.chunkedFile.getResolutions());
+    }
+    if (prediction == null) {
+      return;
+    }
+    try {
+      this.executor.execute(() -> prefetch(state, version, prediction));
+    } catch (final RejectedExecutionException ignored) {
+      // Prefetcher was closed concurrently
+    }
+  }
+
+  private void prefetch(final @NotNull SessionState state, final long version, final @NotNull Viewport viewport) {
+    if (isOutdated(state, version)) {
+      return;
+    }
+    try {
+      final var loadedCount = this.chunkedFile.matrixQueries().prefetchBlocks(
+        ResolutionDescriptor.fromResolutionOrder(viewport.level()),
+        viewport.startRow(),
+        viewport.startCol(),
+        viewport.endRow(),
+        viewport.endCol(),
+        true,
+        () -> isOutdated(state, version)
+      );
+      log.debug("Prefetched " + loadedCount + " blocks at resolution order " + viewport.level() + " for version " + version);
+    } catch (final RuntimeException e) {
+      if (!this.closed) {
+        log.debug("Prefetch failed", e);
+      }
+    }
+  }
+
+  private boolean isOutdated(final @NotNull SessionState state, final long version) {
+    return this.closed || Thread.currentThread().isInterrupted() || state.latestVersion.get() > version;
+  }
+
+  @Override
+  public void close() {
+    this.closed = true;
+    this.executor.shutdownNow();
+  }
+
+  record Viewport(int level, long startRow, long startCol, long endRow, long endCol) {
+    @NotNull Viewport union(final @NotNull Viewport other) {
+      return new Viewport(this.level, Long.min(this.startRow, other.startRow), Long.min(this.startCol, other.startCol), Long.max(this.endRow, other.endRow), Long.max(this.endCol, other.endCol));
+    }
+
+    @NotNull Viewport shifted(final long deltaRows, final long deltaCols) {
+      return new Viewport(this.level, this.startRow + deltaRows, this.startCol + deltaCols, this.endRow + deltaRows, this.endCol + deltaCols);
+    }
+
+    @NotNull Viewport expanded(final long rows, final long cols) {
+      return new Viewport(this.level, this.startRow - rows, this.startCol - cols, this.endRow + rows, this.endCol + cols);
+    }
+
+    @NotNull Viewport centeredWithSize(final long rows, final long cols) {
+      final var centerRow = (this.startRow + this.endRow) / 2;
+      final var centerCol = (this.startCol + this.endCol) / 2;
+      return new Viewport(this.level, centerRow - rows / 2, centerCol - cols / 2, centerRow - rows / 2 + rows, centerCol - cols / 2 + cols);
+    }
+
+    /**
+     * @return Viewport covering the same part of assembly at another resolution, approximately if some contigs are hidden.
+     */
+    @NotNull Viewport atLevel(final int newLevel, final long @NotNull [] resolutions) {
+      final var numerator = resolutions[this.level];
+      final var denominator = resolutions[newLevel];
+      return new Viewport(newLevel, this.startRow * numerator / denominator, this.startCol * numerator / denominator, (this.endRow * numerator + denominator - 1) / denominator, (this.endCol * numerator + denominator - 1) / denominator);
+    }
+  }
+
+  private static final class SessionState {
+    /**
+     * Latest version requested by the session, read by the prefetch thread without the sessions lock.
+     */
+    private final AtomicLong latestVersion = new AtomicLong(Long.MIN_VALUE);
+    private long currentVersion = Long.MIN_VALUE;
+    private @Nullable Viewport current;
+    private @Nullable Viewport previous;
+
+    /**
+     * @return Predicted next viewport if this request starts a new version, <code>null</code> otherwise.
+     */
+    @Nullable Viewport record(final long version, final @NotNull Viewport tile, final long @NotNull [] resolutions) {
+      this.latestVersion.accumulateAndGet(version, Long::max);
+      if (version < this.currentVersion) {
+        return null;
+      }
+      if (version == this.currentVersion && this.current != null && this.current.level() == tile.level()) {
+        this.current = this.current.union(tile);
+        return null;
+      }
+      final var completed = this.current;
+      final var beforeCompleted = this.previous;
+      this.previous = completed;
+      this.current = tile;
+      this.currentVersion = version;
+      if (completed == null) {
+        return null;
+      }
+      if (beforeCompleted == null) {
+        return completed.expanded(completed.endRow() - completed.startRow(), completed.endCol() - completed.startCol());
+      }
+      if (beforeCompleted.level() != completed.level()) {
+        final var nextLevel = completed.level() + Integer.signum(completed.level() - beforeCompleted.level());
+        if (nextLevel < 1 || nextLevel >= resolutions.length) {
+          return null;
+        }
+        // Zooming keeps the viewport size in pixels while its center stays in place:
+        return completed.atLevel(nextLevel, resolutions).centeredWithSize(completed.endRow() - completed.startRow(), completed.endCol() - completed.startCol());
+      }
+      final var deltaRows = (completed.startRow() + completed.endRow() - beforeCompleted.startRow() - beforeCompleted.endRow()) / 2;
+      final var deltaCols = (completed.startCol() + completed.endCol() - beforeCompleted.startCol() - beforeCompleted.endCol()) / 2;
+      if (deltaRows == 0 && deltaCols == 0) {
+        return completed.expanded(completed.endRow() - completed.startRow(), completed.endCol() - completed.startCol());
+      }
+      // The viewport one step ahead is being requested right now, so the one after it is prefetched:
+      return completed.shifted(2 * deltaRows, 2 * deltaCols);
+    }
+  }
+}
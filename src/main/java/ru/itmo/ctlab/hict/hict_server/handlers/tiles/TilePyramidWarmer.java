@@ -0,0 +1,155 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2024. Aleksandr Serdiukov, Anton Zamyatin, Aleksandr Sinitsyn, Vitalii Dravgelis and Computer Technologies Laboratory ITMO University team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ru.itmo.ctlab.hict.hict_server.handlers.tiles;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.ChunkedFile;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.resolution.ResolutionDescriptor;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.util.QueryExecutor;
+import ru.itmo.ctlab.hict.hict_library.domain.QueryLengthUnit;
+import ru.itmo.ctlab.hict.hict_server.handlers.util.RenderedTileCache;
+import ru.itmo.ctlab.hict.hict_server.handlers.util.TileStatisticHolder;
+import ru.itmo.ctlab.hict.hict_server.util.shareable.ShareableWrappers;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Renders tiles of the coarsest pyramid levels into the {@link RenderedTileCache} on a single low-priority thread,
+ * so that overview tiles requested by every client of the session are ready without waiting for HDF5.
+ * Blocks are read and tiles are encoded on that thread too, so warm-up never occupies the shared query executor.
+ * A pass only renders tiles missing from the cache and is abandoned as soon as another pass is requested,
+ * which happens after every scaffolding operation or visualization options change.
+ */
+@Slf4j
+public class TilePyramidWarmer implements Shareable, AutoCloseable {
+  private final @NotNull Vertx vertx;
+  private final @NotNull LocalMap<Object, Object> sessionMap;
+  private final @NotNull ChunkedFile chunkedFile;
+  private final @NotNull RenderedTileCache tileCache;
+  @Getter
+  private final int levelCount;
+  @Getter
+  private final int tileSize;
+  private final @NotNull TileHandlersHolder.TileFormat format;
+  private final @NotNull ExecutorService executor;
+  private final AtomicBoolean passPending = new AtomicBoolean();
+  private volatile boolean closed = false;
+
+  public TilePyramidWarmer(final @NotNull Vertx vertx, final @NotNull LocalMap<Object, Object> sessionMap, final @NotNull ChunkedFile chunkedFile, final @NotNull RenderedTileCache tileCache, final int levelCount, final int tileSize) {
+    this.vertx = vertx;
+    this.sessionMap = sessionMap;
+    this.chunkedFile = chunkedFile;
+    this.tileCache = tileCache;
+    this.levelCount = Integer.max(0, Integer.min(levelCount, chunkedFile.getResolutions().length - 1));
+    this.tileSize = tileSize;
+    this.format = TileHandlersHolder.TileFormat.JSON_PNG_WITH_RANGES;
+    this.executor = Executors.newSingleThreadExecutor(runnable -> {
+      final var thread = new Thread(runnable, "hict-tile-warmup");
+      thread.setDaemon(true);
+      thread.setPriority(Thread.MIN_PRIORITY);
+      return thread;
+    });
+  }
+
+  /**
+   * Schedules a pass over the coarsest levels, does nothing if a pass is already waiting to start.
+   */
+  public void requestWarmUp() {
+    if (this.closed || this.levelCount == 0 || !this.tileCache.isEnabled()) {
+      return;
+    }
+    if (this.passPending.compareAndSet(false, true)) {
+      this.executor.execute(this::runPass);
+    }
+  }
+
+  private void runPass() {
+    this.passPending.set(false);
+    final var map = this.sessionMap;
+    final var chunkedFileWrapper = (ShareableWrappers.ChunkedFileWrapper) map.get("chunkedFile");
+    if (chunkedFileWrapper == null || chunkedFileWrapper.getChunkedFile() != this.chunkedFile) {
+      return;
+    }
+    final var optionsGeneration = this.tileCache.getOptionsGeneration();
+    final var visualizationOptionsWrapper = (ShareableWrappers.SimpleVisualizationOptionsWrapper) map.get("visualizationOptions");
+    final var stats = (TileStatisticHolder) map.get("TileStatisticHolder");
+    if (visualizationOptionsWrapper == null || stats == null) {
+      return;
+    }
+    final var renderer = new TileRenderer(this.chunkedFile, visualizationOptionsWrapper.getSimpleVisualizationOptions(), stats, (PngTileEncoder) this.vertx.sharedData().getLocalMap("hict_server").get("pngTileEncoder"));
+    final var formatKey = TileRenderer.cacheFormatKey(this.format, BinaryTileEncoder.Compression.NONE);
+    final var contigTree = this.chunkedFile.getContigTree();
+    final var resolutionCount = this.chunkedFile.getResolutions().length;
+
+    var renderedCount = 0;
+    final var startTime = System.currentTimeMillis();
+    try {
+      for (int level = resolutionCount - 1; level >= resolutionCount - this.levelCount; --level) {
+        final var sizePx = contigTree.getLengthInUnits(QueryLengthUnit.PIXELS, ResolutionDescriptor.fromResolutionOrder(level));
+        final var tileCount = (sizePx + this.tileSize - 1) / this.tileSize;
+        for (long row = 0; row < tileCount; ++row) {
+          for (long col = 0; col < tileCount; ++col) {
+            if (this.closed || this.passPending.get() || Thread.currentThread().isInterrupted()) {
+              log.debug("Tile warm-up pass abandoned after " + renderedCount + " tiles");
+              return;
+            }
+            final var key = new RenderedTileCache.TileKey(contigTree.getVersion(), optionsGeneration, level, row * this.tileSize, col * this.tileSize, this.tileSize, this.tileSize, formatKey);
+            if (this.tileCache.contains(key)) {
+              continue;
+            }
+            final var tileLevel = level;
+            final var tile = QueryExecutor.callInPlace(() -> renderer.render(tileLevel, key.row(), key.col(), this.tileSize, this.tileSize, this.format, BinaryTileEncoder.Compression.NONE, () -> this.closed || this.passPending.get()));
+            this.tileCache.put(key, tile);
+            ++renderedCount;
+          }
+        }
+      }
+      log.info("Tile warm-up rendered " + renderedCount + " tiles of " + this.levelCount + " coarsest levels in " + (System.currentTimeMillis() - startTime) + "ms");
+    } catch (final CancellationException e) {
+      log.debug("Tile warm-up pass cancelled after " + renderedCount + " tiles");
+    } catch (final RuntimeException e) {
+      if (!this.closed) {
+        log.warn("Tile warm-up pass failed after " + renderedCount + " tiles", e);
+      }
+    }
+  }
+
+  /**
+   * Cancels the running pass and stops accepting new ones.
+   */
+  @Override
+  public void close() {
+    this.closed = true;
+    this.executor.shutdownNow();
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2024. Aleksandr Serdiukov, Anton Zamyatin, Aleksandr Sinitsyn, Vitalii Dravgelis and Computer Technologies Laboratory ITMO University team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ru.itmo.ctlab.hict.hict_server.handlers.tiles;
+
+import io.vertx.core.json.Json;
+import org.jetbrains.annotations.NotNull;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.ChunkedFile;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.resolution.ResolutionDescriptor;
+import ru.itmo.ctlab.hict.hict_library.visualization.SimpleVisualizationOptions;
+import ru.itmo.ctlab.hict.hict_server.handlers.util.RenderedTileCache;
+import ru.itmo.ctlab.hict.hict_server.handlers.util.TileStatisticHolder;
+
+import java.awt.image.DataBufferInt;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Fetches and encodes a single tile, shared by the tile handler and the background pyramid warm-up so that both produce identical responses.
+ */
+public record TileRenderer(@NotNull ChunkedFile chunkedFile, @NotNull SimpleVisualizationOptions options,
+                           @NotNull TileStatisticHolder stats, @NotNull PngTileEncoder pngEncoder) {
+
+  /**
+   * Tiles with ranges are cached as plain PNG, so both formats share cache entries.
+   */
+  public static @NotNull String cacheFormatKey(final @NotNull TileHandlersHolder.TileFormat format, final @NotNull BinaryTileEncoder.Compression compression) {
+    if (format == TileHandlersHolder.TileFormat.JSON_PNG_WITH_RANGES) {
+      return TileHandlersHolder.TileFormat.PNG.name();
+    }
+    return (format.getRawDtype() != null) ? (format.name() + ":" + compression.name()) : format.name();
+  }
+
+  /**
+   * Wraps PNG tile into the <code>JSON_PNG_WITH_RANGES</code> response with signal ranges as they are now.
+   * Ranges are never stored in the tile cache since they change independently of the assembly version.
+   */
+  public static @NotNull RenderedTileCache.RenderedTile withSignalRanges(final @NotNull RenderedTileCache.RenderedTile png, final @NotNull TileStatisticHolder stats, final int resolutionCount) {
+    final byte[] base64 = Base64.getEncoder().encode(png.bytes());
+    final String base64image = new String(base64);
+    final var result = new TileHandlersHolder.TileWithRanges(
+      String.format("data:image/png;base64,%s", base64image),
+      new TileHandlersHolder.TileSignalRanges(
+        IntStream.range(0, resolutionCount).boxed().map(
+          lvl -> Map.entry(resolutionCount - lvl, Double.longBitsToDouble(stats.minimumsAtResolutionDoubleBits().get(lvl)))
+        ).collect(Collectors.toUnmodifiableMap(Map.Entry::getKey, Map.Entry::getValue)),
+        IntStream.range(0, resolutionCount).boxed().map(
+          lvl -> Map.entry(resolutionCount - lvl, Double.longBitsToDouble(stats.maximumsAtResolutionDoubleBits().get(lvl)))
+        ).collect(Collectors.toUnmodifiableMap(Map.Entry::getKey, Map.Entry::getValue))
+      )
+    );
+    return RenderedTileCache.RenderedTile.of(Json.encode(result).getBytes(StandardCharsets.UTF_8), "application/json");
+  }
+
+  /**
+   * Tiles requested in <code>JSON_PNG_WITH_RANGES</code> format are rendered as PNG, see {@link #withSignalRanges}.
+   *
+   * @param cancelled Checked between fetching, rendering and encoding stages and before each block fetch.
+   * @throws CancellationException if <code>cancelled</code> returned <code>true</code>.
+   */
+  public @NotNull RenderedTileCache.RenderedTile render(final int level, final long startRowPx, final long startColPx, final int tileHeight, final int tileWidth, final @NotNull TileHandlersHolder.TileFormat format, final @NotNull BinaryTileEncoder.Compression compression, final @NotNull BooleanSupplier cancelled) {
+    final var matrixWithWeights = this.chunkedFile.matrixQueries().getSubmatrixFlat(ResolutionDescriptor.fromResolutionOrder(level), startRowPx, startColPx, startRowPx + tileHeight, startColPx + tileWidth, true, cancelled);
+    if (format.getRawDtype() != null) {
+      final var normalized = new double[matrixWithWeights.rowCount() * matrixWithWeights.columnCount()];
+      this.chunkedFile.tileVisualizationProcessor().processTile(matrixWithWeights, this.options, normalized);
+      throwIfCancelled(cancelled);
+      return RenderedTileCache.RenderedTile.of(BinaryTileEncoder.encode(matrixWithWeights, normalized, format.getRawDtype(), compression), BinaryTileEncoder.CONTENT_TYPE);
+    }
+    final var image = this.chunkedFile.tileVisualizationProcessor().visualizeTile(matrixWithWeights, this.options);
+    throwIfCancelled(cancelled);
+
+    /*
+    try (final var pool = Executors.newSingleThreadExecutor()) {
+      pool.submit(() -> {
+        // Update signal ranges
+        final var tileSummary = Arrays.stream(normalized).flatMapToLong(Arrays::stream).summaryStatistics();
+        final var tileMinimum = tileSummary.getMin();
+        final var tileMaximum = tileSummary.getMax();
+
+        long oldMinimumDoubleBits;
+        do {
+          oldMinimumDoubleBits = stats.minimumsAtResolutionDoubleBits().get(level);
+        } while (Double.longBitsToDouble(oldMinimumDoubleBits) > tileMinimum && !stats.minimumsAtResolutionDoubleBits().compareAndSet(level, oldMinimumDoubleBits, Double.doubleToLongBits(tileMinimum)));
+
+        long oldMaximumDoubleBits;
+        do {
+          oldMaximumDoubleBits = stats.maximumsAtResolutionDoubleBits().get(level);
+        } while (Double.longBitsToDouble(oldMaximumDoubleBits) < tileMaximum && !stats.maximumsAtResolutionDoubleBits().compareAndSet(level, oldMaximumDoubleBits, Double.doubleToLongBits(tileMaximum)));
+      });
+    }
+    */
+
+    final var png = this.pngEncoder.encode(((DataBufferInt) image.getRaster().getDataBuffer()).getData(), image.getWidth(), image.getHeight(), this.chunkedFile.getQueryExecutor());
+    return RenderedTileCache.RenderedTile.of(png, "image/png");
+  }
+
+  private static void throwIfCancelled(final @NotNull BooleanSupplier cancelled) {
+    if (cancelled.getAsBoolean()) {
+      throw new CancellationException("Tile rendering was cancelled");
+    }
+  }
+}
@@ -0,0 +1,379 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2024. Aleksandr Serdiukov, Anton Zamyatin, Aleksandr Sinitsyn, Vitalii Dravgelis and Computer Technologies Laboratory ITMO University team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ru.itmo.ctlab.hict.hict_server.handlers.util;
+
+import io.vertx.core.shareddata.Shareable;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.itmo.ctlab.hict.hict_library.domain.AssemblyChange;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * LRU cache of encoded tile responses with a byte budget, optionally spilling evicted tiles to disk.
+ * Keys carry the assembly version and visualization options generation, so a tile computed for the outdated state is never returned.
+ * Once a key with a newer version arrives, all older entries are dropped and late inserts for the older versions are ignored.
+ */
+@Slf4j
+public class RenderedTileCache implements Shareable {
+  @Getter
+  private final long maxMemoryBytes;
+  @Getter
+  private final long maxDiskBytes;
+  private final @Nullable Path spillDirectory;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final LinkedHashMap<@NotNull TileKey, @NotNull RenderedTile> memoryTiles = new LinkedHashMap<>(256, 0.75f, true);
+  private final LinkedHashMap<@NotNull TileKey, @NotNull SpilledTile> diskTiles = new LinkedHashMap<>(256, 0.75f, true);
+  private final AtomicLong optionsGeneration = new AtomicLong();
+  private final AtomicLong spillFileCounter = new AtomicLong();
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+  private long memoryBytes = 0L;
+  private long diskBytes = 0L;
+  private long latestAssemblyVersion = Long.MIN_VALUE;
+  private long latestOptionsGeneration = Long.MIN_VALUE;
+
+  public RenderedTileCache(final long maxMemoryBytes, final @Nullable Path spillDirectory, final long maxDiskBytes) {
+    this.maxMemoryBytes = Long.max(0L, maxMemoryBytes);
+    this.maxDiskBytes = (spillDirectory != null) ? Long.max(0L, maxDiskBytes) : 0L;
+    Path directory = null;
+    if (spillDirectory != null && this.maxDiskBytes > 0L) {
+      try {
+        directory = Files.createTempDirectory(Files.createDirectories(spillDirectory), "hict-tiles-");
+      } catch (final IOException e) {
+        log.warn("Cannot create tile spill directory in " + spillDirectory + ", tiles will only be kept in memory", e);
+      }
+    }
+    this.spillDirectory = directory;
+  }
+
+  public boolean isEnabled() {
+    return this.maxMemoryBytes > 0L;
+  }
+
+  /**
+   * Generation of visualization options, should be read before the options themselves.
+   */
+  public long getOptionsGeneration() {
+    return this.optionsGeneration.get();
+  }
+
+  /**
+   * Should be called after new visualization options are published.
+   */
+  public void onVisualizationOptionsChanged() {
+    this.optionsGeneration.incrementAndGet();
+    invalidateAll();
+  }
+
+  /**
+   * Checks presence of the tile without affecting its recency or hit statistics.
+   */
+  public boolean contains(final @NotNull TileKey key) {
+    try {
+      this.lock.lock();
+      return this.memoryTiles.containsKey(key) || this.diskTiles.containsKey(key);
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Moves tiles of the previous assembly version that do not intersect the changed region to the new version and drops all other tiles.
+   */
+  public void onAssemblyChanged(final @NotNull AssemblyChange change) {
+    final var previousVersion = change.previousVersion();
+    final var newVersion = change.newVersion();
+    final var affectedStartPx = change.startPx();
+    final var affectedEndPx = change.endPx();
+    final List<SpilledTile> staleFiles = new ArrayList<>();
+    try {
+      this.lock.lock();
+      if (newVersion < this.latestAssemblyVersion) {
+        return;
+      }
+      final var retainedTiles = new ArrayList<Evicted>();
+      for (final var entry : this.memoryTiles.entrySet()) {
+        final var key = entry.getKey();
+        if (key.assemblyVersion() == previousVersion && key.optionsGeneration() == this.latestOptionsGeneration && !key.intersects(affectedStartPx, affectedEndPx)) {
+          retainedTiles.add(new Evicted(key.withAssemblyVersion(newVersion), entry.getValue()));
+        }
+      }
+      final var retainedFiles = new ArrayList<Map.Entry<TileKey, SpilledTile>>();
+      for (final var entry : this.diskTiles.entrySet()) {
+        final var key = entry.getKey();
+        if (key.assemblyVersion() == previousVersion && key.optionsGeneration() == this.latestOptionsGeneration && !key.intersects(affectedStartPx, affectedEndPx)) {
+          retainedFiles.add(Map.entry(key.withAssemblyVersion(newVersion), entry.getValue()));
+        } else {
+          staleFiles.add(entry.getValue());
+        }
+      }
+      this.memoryTiles.clear();
+      this.diskTiles.clear();
+      this.memoryBytes = 0L;
+      this.diskBytes = 0L;
+      // Entries are re-inserted in their previous LRU order:
+      for (final var retained : retainedTiles) {
+        this.memoryTiles.put(retained.key(), retained.tile());
+        this.memoryBytes += retained.tile().bytes().length;
+      }
+      for (final var retained : retainedFiles) {
+        this.diskTiles.put(retained.getKey(), retained.getValue());
+        this.diskBytes += retained.getValue().size();
+      }
+      this.latestAssemblyVersion = newVersion;
+      log.debug("Kept " + retainedTiles.size() + " tiles in memory and " + retainedFiles.size() + " on disk after assembly change");
+    } finally {
+      this.lock.unlock();
+    }
+    deleteFiles(staleFiles);
+  }
+
+  public @Nullable RenderedTile get(final @NotNull TileKey key) {
+    if (!isEnabled()) {
+      return null;
+    }
+    final SpilledTile spilled;
+    try {
+      this.lock.lock();
+      final var cached = this.memoryTiles.get(key);
+      if (cached != null) {
+        this.hitCount.incrementAndGet();
+        return cached;
+      }
+      spilled = this.diskTiles.remove(key);
+      if (spilled != null) {
+        this.diskBytes -= spilled.size();
+      }
+    } finally {
+      this.lock.unlock();
+    }
+
+    if (spilled == null) {
+      this.missCount.incrementAndGet();
+      return null;
+    }
+    try {
+      final var tile = new RenderedTile(Files.readAllBytes(spilled.path()), spilled.contentType(), spilled.etag());
+      Files.deleteIfExists(spilled.path());
+      this.hitCount.incrementAndGet();
+      put(key, tile);
+      return tile;
+    } catch (final IOException e) {
+      log.warn("Cannot read spilled tile " + spilled.path(), e);
+      this.missCount.incrementAndGet();
+      return null;
+    }
+  }
+
+  public void put(final @NotNull TileKey key, final @NotNull RenderedTile tile) {
+    final var tileSize = tile.bytes().length;
+    if (!isEnabled() || tileSize > this.maxMemoryBytes) {
+      return;
+    }
+    final List<SpilledTile> staleFiles = new ArrayList<>();
+    final List<Evicted> evicted = new ArrayList<>();
+    try {
+      this.lock.lock();
+      if (key.assemblyVersion() < this.latestAssemblyVersion || key.optionsGeneration() < this.latestOptionsGeneration) {
+        // Tile was computed for the state that is already replaced:
+        return;
+      }
+      if (key.assemblyVersion() > this.latestAssemblyVersion || key.optionsGeneration() > this.latestOptionsGeneration) {
+        this.latestAssemblyVersion = key.assemblyVersion();
+        this.latestOptionsGeneration = key.optionsGeneration();
+        staleFiles.addAll(clearLocked());
+      }
+      final var previous = this.memoryTiles.put(key, tile);
+      if (previous != null) {
+        this.memoryBytes -= previous.bytes().length;
+      }
+      this.memoryBytes += tileSize;
+      final var iterator = this.memoryTiles.entrySet().iterator();
+      while (this.memoryBytes > this.maxMemoryBytes && iterator.hasNext()) {
+        final var eldest = iterator.next();
+        iterator.remove();
+        this.memoryBytes -= eldest.getValue().bytes().length;
+        evicted.add(new Evicted(eldest.getKey(), eldest.getValue()));
+      }
+    } finally {
+      this.lock.unlock();
+    }
+
+    deleteFiles(staleFiles);
+    if (this.spillDirectory != null) {
+      evicted.forEach(this::spill);
+    }
+  }
+
+  public void invalidateAll() {
+    final List<SpilledTile> staleFiles;
+    try {
+      this.lock.lock();
+      staleFiles = clearLocked();
+    } finally {
+      this.lock.unlock();
+    }
+    deleteFiles(staleFiles);
+  }
+
+  public @NotNull Statistics getStatistics() {
+    try {
+      this.lock.lock();
+      return new Statistics(this.hitCount.get(), this.missCount.get(), this.memoryTiles.size(), this.memoryBytes, this.diskTiles.size(), this.diskBytes);
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  private @NotNull List<SpilledTile> clearLocked() {
+    final var staleFiles = new ArrayList<>(this.diskTiles.values());
+    this.memoryTiles.clear();
+    this.diskTiles.clear();
+    this.memoryBytes = 0L;
+    this.diskBytes = 0L;
+    return staleFiles;
+  }
+
+  private void spill(final @NotNull Evicted evicted) {
+    final var tile = evicted.tile();
+    final var size = tile.bytes().length;
+    if (size > this.maxDiskBytes) {
+      return;
+    }
+    final var path = this.spillDirectory.resolve(this.spillFileCounter.incrementAndGet() + ".tile");
+    try {
+      Files.write(path, tile.bytes());
+    } catch (final IOException e) {
+      log.warn("Cannot spill tile to " + path, e);
+      return;
+    }
+    final var spilled = new SpilledTile(path, tile.contentType(), tile.etag(), size);
+    final List<SpilledTile> staleFiles = new ArrayList<>();
+    try {
+      this.lock.lock();
+      final var key = evicted.key();
+      if (key.assemblyVersion() != this.latestAssemblyVersion || key.optionsGeneration() != this.latestOptionsGeneration) {
+        staleFiles.add(spilled);
+      } else {
+        final var previous = this.diskTiles.put(key, spilled);
+        if (previous != null) {
+          this.diskBytes -= previous.size();
+          staleFiles.add(previous);
+        }
+        this.diskBytes += size;
+        final var iterator = this.diskTiles.values().iterator();
+        while (this.diskBytes > this.maxDiskBytes && iterator.hasNext()) {
+          final var eldest = iterator.next();
+          iterator.remove();
+          this.diskBytes -= eldest.size();
+          staleFiles.add(eldest);
+        }
+      }
+    } finally {
+      this.lock.unlock();
+    }
+    deleteFiles(staleFiles);
+  }
+
+  private static void deleteFiles(final @NotNull List<SpilledTile> files) {
+    for (final var file : files) {
+      try {
+        Files.deleteIfExists(file.path());
+      } catch (final IOException e) {
+        log.debug("Cannot delete spilled tile " + file.path(), e);
+      }
+    }
+  }
+
+  public record TileKey(long assemblyVersion, long optionsGeneration, int level, long row, long col, int tileHeight,
+                        int tileWidth, @NotNull String format) {
+    public @NotNull TileKey withAssemblyVersion(final long newAssemblyVersion) {
+      return new TileKey(newAssemblyVersion, this.optionsGeneration, this.level, this.row, this.col, this.tileHeight, this.tileWidth, this.format);
+    }
+
+    /**
+     * @return <code>true</code> if any row or column of this tile is inside the given region at this tile's level.
+     */
+    public boolean intersects(final long @NotNull [] startPx, final long @NotNull [] endPx) {
+      if (this.level < 0 || this.level >= startPx.length) {
+        return true;
+      }
+      final var start = startPx[this.level];
+      final var end = endPx[this.level];
+      return (this.row < end && start < this.row + this.tileHeight) || (this.col < end && start < this.col + this.tileWidth);
+    }
+  }
+
+  /**
+   * Encoded response body together with its strong entity tag derived from the content.
+   */
+  public record RenderedTile(byte @NotNull [] bytes, @NotNull String contentType, @NotNull String etag) {
+    public static @NotNull RenderedTile of(final byte @NotNull [] bytes, final @NotNull String contentType) {
+      try {
+        final var digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+        return new RenderedTile(bytes, contentType, "\"" + HexFormat.of().formatHex(digest, 0, 16) + "\"");
+      } catch (final NoSuchAlgorithmException e) {
+        throw new IllegalStateException("SHA-256 is not supported by this JVM", e);
+      }
+    }
+
+    public boolean matches(final @Nullable String ifNoneMatch) {
+      if (ifNoneMatch == null) {
+        return false;
+      }
+      for (final var candidate : ifNoneMatch.split(",")) {
+        final var trimmed = candidate.trim();
+        if (trimmed.equals("*") || trimmed.equals(this.etag) || trimmed.equals("W/" + this.etag)) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  public record Statistics(long hitCount, long missCount, int memoryTileCount, long memoryBytes, int diskTileCount,
+                           long diskBytes) {
+  }
+
+  private record SpilledTile(@NotNull Path path, @NotNull String contentType, @NotNull String etag, int size) {
+  }
+
+  private record Evicted(@NotNull TileKey key, @NotNull RenderedTile tile) {
+  }
+}
@@ -0,0 +1,163 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2024. Aleksandr Serdiukov, Anton Zamyatin, Aleksandr Sinitsyn, Vitalii Dravgelis and Computer Technologies Laboratory ITMO University team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ru.itmo.ctlab.hict.hict_server.session;
+
+import io.vertx.core.shareddata.Shareable;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.ChunkedFile;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.ChunkedFileResources;
+import ru.itmo.ctlab.hict.hict_server.util.shareable.ShareableWrappers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Registry of opened files shared between sessions.
+ * Sessions opening the same file with the same options share its {@link ChunkedFileResources}: metadata, HDF5 dataset pools and block cache.
+ * Every acquired handle gets its own {@link ChunkedFile} with the assembly stored in the file, so sessions do not see each other's
+ * scaffolding operations. Resources are reference-counted and closed by {@link #evictIdle(long)}
+ * once no session has referenced them for the given time, so that reopening a recently closed file stays cheap.
+ */
+@Slf4j
+public class ChunkedFileRegistry implements Shareable {
+  private final Map<ChunkedFile.ChunkedFileOptions, @NotNull Entry> entries = new HashMap<>();
+
+  /**
+   * Opens the file or references resources of the already opened one and builds a new assembly over them,
+   * the returned handle must be closed when session no longer needs the file.
+   */
+  public @NotNull Handle acquire(final @NotNull ChunkedFile.ChunkedFileOptions options) {
+    final var key = new ChunkedFile.ChunkedFileOptions(
+      options.hdfFilePath().toAbsolutePath().normalize(),
+      options.minDatasetPoolSize(),
+      options.maxDatasetPoolSize(),
+      options.blockCacheSizeBytes(),
+      options.parallelThreadCount(),
+      options.metadataSnapshotDirectory(),
+      options.eagerResolutionCount()
+    );
+    final Entry entry;
+    synchronized (this) {
+      entry = this.entries.computeIfAbsent(key, Entry::new);
+      ++entry.referenceCount;
+    }
+    // File is opened outside of the registry lock so that opening a large file does not block other sessions:
+    try {
+      return new Handle(this, entry, new ChunkedFile(entry.open()));
+    } catch (final RuntimeException e) {
+      this.release(entry);
+      throw e;
+    }
+  }
+
+  /**
+   * Closes files that were not referenced for at least <code>idleMillis</code>.
+   *
+   * @return Number of closed files.
+   */
+  public int evictIdle(final long idleMillis) {
+    final var now = System.currentTimeMillis();
+    final List<Entry> evicted = new ArrayList<>();
+    synchronized (this) {
+      final var iterator = this.entries.values().iterator();
+      while (iterator.hasNext()) {
+        final var entry = iterator.next();
+        if (entry.referenceCount == 0 && now - entry.lastReleasedMillis >= idleMillis) {
+          iterator.remove();
+          evicted.add(entry);
+        }
+      }
+    }
+    for (final var entry : evicted) {
+      entry.close();
+    }
+    return evicted.size();
+  }
+
+  public synchronized int getOpenFileCount() {
+    return this.entries.size();
+  }
+
+  private synchronized void release(final @NotNull Entry entry) {
+    --entry.referenceCount;
+    entry.lastReleasedMillis = System.currentTimeMillis();
+  }
+
+  /**
+   * Reference to a file of the registry, it is put into the session map in place of a plain {@link ShareableWrappers.ChunkedFileWrapper}.
+   */
+  public static final class Handle extends ShareableWrappers.ChunkedFileWrapper implements AutoCloseable {
+    private final @NotNull ChunkedFileRegistry registry;
+    private final @NotNull Entry entry;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    private Handle(final @NotNull ChunkedFileRegistry registry, final @NotNull Entry entry, final @NotNull ChunkedFile chunkedFile) {
+      super(chunkedFile);
+      this.registry = registry;
+      this.entry = entry;
+    }
+
+    /**
+     * Drops the reference, does nothing when called again.
+     */
+    @Override
+    public void close() {
+      if (this.released.compareAndSet(false, true)) {
+        this.registry.release(this.entry);
+      }
+    }
+  }
+
+  private static final class Entry {
+    private final ChunkedFile.ChunkedFileOptions options;
+    private int referenceCount = 0;
+    private long lastReleasedMillis = System.currentTimeMillis();
+    private @Nullable ChunkedFileResources resources = null;
+
+    private Entry(final ChunkedFile.ChunkedFileOptions options) {
+      this.options = options;
+    }
+
+    private synchronized @NotNull ChunkedFileResources open() {
+      if (this.resources == null) {
+        log.info("Opening file " + this.options.hdfFilePath());
+        this.resources = new ChunkedFileResources(this.options);
+      }
+      return this.resources;
+    }
+
+    private synchronized void close() {
+      if (this.resources != null) {
+        this.resources.close();
+        this.resources = null;
+      }
+    }
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2024. Aleksandr Serdiukov, Anton Zamyatin, Aleksandr Sinitsyn, Vitalii Dravgelis and Computer Technologies Laboratory ITMO University team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ru.itmo.ctlab.hict.hict_server.session;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.ext.web.RoutingContext;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import ru.itmo.ctlab.hict.hict_server.handlers.tiles.TilePrefetcher;
+import ru.itmo.ctlab.hict.hict_server.handlers.tiles.TilePyramidWarmer;
+import ru.itmo.ctlab.hict.hict_server.handlers.util.RenderedTileCache;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps state of each client session in its own local map: opened file, visualization options, tile statistics, tile cache, warmer and prefetcher.
+ * The keys are the same that were previously stored in the global <code>hict_server</code> map, which now only holds server configuration.
+ * <p>
+ * Session is selected by the <code>X-HiCT-Session</code> header or the <code>session</code> query parameter,
+ * requests without them share the default session which is never evicted.
+ */
+@Slf4j
+@RequiredArgsConstructor
+public class SessionRegistry {
+  public static final @NotNull String SESSION_HEADER = "X-HiCT-Session";
+  public static final @NotNull String DEFAULT_SESSION_ID = "default";
+  private static final @NotNull Pattern SESSION_ID_PATTERN = Pattern.compile("[A-Za-z0-9_.:-]{1,128}");
+  private final @NotNull Vertx vertx;
+  private final Map<@NotNull String, @NotNull Long> lastAccessMillis = new ConcurrentHashMap<>();
+
+  public static @NotNull String sessionId(final @NotNull RoutingContext ctx) {
+    var sessionId = ctx.request().getHeader(SESSION_HEADER);
+    if (sessionId == null || sessionId.isBlank()) {
+      sessionId = ctx.request().getParam("session", DEFAULT_SESSION_ID);
+    }
+    if (!SESSION_ID_PATTERN.matcher(sessionId).matches()) {
+      throw new IllegalArgumentException("Session identifier should consist of at most 128 latin letters, digits, '_', '.', ':' or '-'");
+    }
+    return sessionId;
+  }
+
+  /**
+   * Returns the map of request session and marks this session as recently used.
+   */
+  public @NotNull LocalMap<Object, Object> sessionMap(final @NotNull RoutingContext ctx) {
+    return this.sessionMap(sessionId(ctx));
+  }
+
+  public @NotNull LocalMap<Object, Object> sessionMap(final @NotNull String sessionId) {
+    this.lastAccessMillis.put(sessionId, System.currentTimeMillis());
+    return this.vertx.sharedData().getLocalMap(mapName(sessionId));
+  }
+
+  /**
+   * Drops state of sessions that were not accessed for at least <code>idleMillis</code>, releasing their files.
+   *
+   * @return Number of evicted sessions.
+   */
+  public int evictIdle(final long idleMillis) {
+    final var now = System.currentTimeMillis();
+    var evictedCount = 0;
+    for (final var entry : this.lastAccessMillis.entrySet()) {
+      final var sessionId = entry.getKey();
+      if (DEFAULT_SESSION_ID.equals(sessionId) || now - entry.getValue() < idleMillis) {
+        continue;
+      }
+      // Session accessed concurrently keeps its new timestamp and is not evicted:
+      if (this.lastAccessMillis.remove(sessionId, entry.getValue())) {
+        final var map = this.vertx.sharedData().<Object, Object>getLocalMap(mapName(sessionId));
+        releaseFileState(map);
+        map.close();
+        ++evictedCount;
+        log.info("Evicted idle session " + sessionId);
+      }
+    }
+    return evictedCount;
+  }
+
+  public int getSessionCount() {
+    return this.lastAccessMillis.size();
+  }
+
+  /**
+   * Stops background tasks of the session and releases its file, visualization options are kept.
+   */
+  public static void releaseFileState(final @NotNull LocalMap<Object, Object> map) {
+    final var tilePyramidWarmer = (TilePyramidWarmer) map.remove("tilePyramidWarmer");
+    if (tilePyramidWarmer != null) {
+      tilePyramidWarmer.close();
+    }
+    final var tilePrefetcher = (TilePrefetcher) map.remove("tilePrefetcher");
+    if (tilePrefetcher != null) {
+      tilePrefetcher.close();
+    }
+    final var tileCache = (RenderedTileCache) map.remove("renderedTileCache");
+    if (tileCache != null) {
+      tileCache.invalidateAll();
+    }
+    map.remove("TileStatisticHolder");
+    final var chunkedFileWrapper = map.remove("chunkedFile");
+    if (chunkedFileWrapper instanceof ChunkedFileRegistry.Handle handle) {
+      handle.close();
+    }
+  }
+
+  private static @NotNull String mapName(final @NotNull String sessionId) {
+    return "hict_session:" + sessionId;
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2024. Aleksandr Serdiukov, Anton Zamyatin, Aleksandr Sinitsyn, Vitalii Dravgelis and Computer Technologies Laboratory ITMO University team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ru.itmo.ctlab.hict.hict_server.util;
+
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.WorkerExecutor;
+import io.vertx.ext.web.RoutingContext;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Dedicated worker pool for a group of HTTP handlers with a bounded number of waiting requests.
+ * Unlike <code>Route.blockingHandler</code>, requests are not serialized per context and do not share the default worker pool,
+ * so a slow group of requests could not starve the others. Requests over the limit are rejected with <code>503 Service Unavailable</code>.
+ */
+@Slf4j
+public class BoundedWorkerPool implements AutoCloseable {
+  @Getter
+  private final @NotNull String name;
+  @Getter
+  private final int poolSize;
+  @Getter
+  private final int maxQueuedRequests;
+  private final @NotNull WorkerExecutor workerExecutor;
+  private final AtomicInteger pendingRequests = new AtomicInteger();
+  private final AtomicLong rejectedRequests = new AtomicLong();
+
+  public BoundedWorkerPool(final @NotNull Vertx vertx, final @NotNull String name, final int poolSize, final int maxQueuedRequests) {
+    this.name = name;
+    this.poolSize = Integer.max(1, poolSize);
+    this.maxQueuedRequests = Integer.max(0, maxQueuedRequests);
+    this.workerExecutor = vertx.createSharedWorkerExecutor("hict-" + name, this.poolSize);
+  }
+
+  /**
+   * Wraps a blocking handler so that it runs on this pool.
+   */
+  public @NotNull Handler<RoutingContext> handler(final @NotNull Handler<RoutingContext> blockingHandler) {
+    return ctx -> {
+      if (this.pendingRequests.incrementAndGet() > this.poolSize + this.maxQueuedRequests) {
+        this.pendingRequests.decrementAndGet();
+        final var rejected = this.rejectedRequests.incrementAndGet();
+        log.debug("Rejected " + ctx.request().path() + ", " + this.name + " pool has rejected " + rejected + " requests so far");
+        ctx.response()
+          .setStatusCode(503)
+          .putHeader("Retry-After", "1")
+          .putHeader("Content-Type", "text/plain")
+          .end(String.format("Server is busy with %s requests, please retry later", this.name));
+        return;
+      }
+      this.workerExecutor.<Void>executeBlocking(promise -> {
+        blockingHandler.handle(ctx);
+        promise.complete();
+      }, false, result -> {
+        this.pendingRequests.decrementAndGet();
+        if (result.failed()) {
+          ctx.fail(result.cause());
+        }
+      });
+    };
+  }
+
+  public int getPendingRequests() {
+    return this.pendingRequests.get();
+  }
+
+  public long getRejectedRequests() {
+    return this.rejectedRequests.get();
+  }
+
+  @Override
+  public void close() {
+    this.workerExecutor.close();
+  }
+}
@@ -0,0 +1,243 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2024. Aleksandr Serdiukov, Anton Zamyatin, Aleksandr Sinitsyn, Vitalii Dravgelis and Computer Technologies Laboratory ITMO University team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ru.itmo.ctlab.hict.hict_library.chunkedfile;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.generator.SyntheticChunkedFileGenerator;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.resolution.ResolutionDescriptor;
+import ru.itmo.ctlab.hict.hict_library.domain.ContigDirection;
+import ru.itmo.ctlab.hict.hict_library.domain.ContigHideType;
+import ru.itmo.ctlab.hict.hict_library.domain.PackedATU;
+import ru.itmo.ctlab.hict.hict_library.domain.QueryLengthUnit;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compares ATUs found by the layout index with ones collected from the contig tree.
+ */
+public class AssemblyLayoutIndexTest {
+  private static final int[] HIDDEN_CONTIG_IDS = {0, 3, 4};
+  private static final SyntheticChunkedFileGenerator.GeneratorOptions OPTIONS = SyntheticChunkedFileGenerator.GeneratorOptions.builder()
+    .contigCount(9)
+    .assemblyLengthBp(90_000L)
+    .resolutions(new long[]{1_000L, 5_000L})
+    .stripeSize(8)
+    .contactDensity(0.5d)
+    .distanceDecayExponent(1.0d)
+    .denseBlockThreshold(0.3d)
+    .reversedContigFraction(0.4d)
+    .reversedATUFraction(0.5d)
+    .seed(23L)
+    .build();
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void layoutMatchesContigTree() {
+    try (final var chunkedFile = open()) {
+      final var totalBp = chunkedFile.getMatrixSizeBins()[0];
+      checkAllResolutions(chunkedFile);
+      chunkedFile.scaffoldingOperations().reverseSelectionRangeBp(totalBp / 4, 3 * totalBp / 4);
+      checkAllResolutions(chunkedFile);
+      chunkedFile.scaffoldingOperations().moveSelectionRangeBp(0L, totalBp / 3, totalBp / 2);
+      checkAllResolutions(chunkedFile);
+      final var resolutionDescriptor = ResolutionDescriptor.fromResolutionOrder(1);
+      chunkedFile.scaffoldingOperations().splitContigAtBin(chunkedFile.getContigTree().getLengthInUnits(QueryLengthUnit.PIXELS, resolutionDescriptor) / 2, resolutionDescriptor, QueryLengthUnit.PIXELS);
+      checkAllResolutions(chunkedFile);
+    }
+  }
+
+  @Test
+  void layoutIsBuiltOncePerVersion() throws Exception {
+    try (final var chunkedFile = open()) {
+      final var index = chunkedFile.assemblyLayoutIndex();
+      final var totalBp = chunkedFile.getMatrixSizeBins()[0];
+      final var before = index.getLayout(1);
+      assertSame(before, index.getLayout(1));
+      index.refresh();
+      assertSame(before, index.getLayout(1), "Refresh should not rebuild layout of an unchanged tree");
+
+      chunkedFile.scaffoldingOperations().reverseSelectionRangeBp(0L, totalBp / 2);
+      final var after = index.getLayout(1);
+      assertNotSame(before, after);
+      assertEquals(chunkedFile.getContigTree().getVersion(), after.version());
+
+      // A change that no resolution has been queried for yet, then many concurrent first queries:
+      chunkedFile.getContigTree().commitOrderedContigs(chunkedFile.getContigTree().getOrderedContigList());
+      final var threadCount = 8;
+      final var start = new CountDownLatch(1);
+      final var executor = Executors.newFixedThreadPool(threadCount);
+      try {
+        final var futures = new ArrayList<Future<AssemblyLayoutIndex.Layout>>();
+        for (int i = 0; i < threadCount; ++i) {
+          futures.add(executor.submit(() -> {
+            start.await();
+            return index.getLayout(1);
+          }));
+        }
+        start.countDown();
+        final var first = futures.get(0).get(10, TimeUnit.SECONDS);
+        assertEquals(chunkedFile.getContigTree().getVersion(), first.version());
+        for (final var future : futures) {
+          assertSame(first, future.get(10, TimeUnit.SECONDS));
+        }
+      } finally {
+        executor.shutdownNow();
+      }
+    }
+  }
+
+  @Test
+  void layoutsBuiltDuringSplitsAreComplete() throws Exception {
+    try (final var chunkedFile = open()) {
+      final var index = chunkedFile.assemblyLayoutIndex();
+      final var resolutionCount = chunkedFile.getResolutions().length;
+      final var done = new AtomicBoolean();
+      final var start = new CountDownLatch(1);
+      final var readerCount = 4;
+      final var executor = Executors.newFixedThreadPool(readerCount);
+      try {
+        final var readers = new ArrayList<Future<Integer>>();
+        for (int reader = 0; reader < readerCount; ++reader) {
+          final var resolutionOrder = 1 + reader % (resolutionCount - 1);
+          readers.add(executor.submit(() -> {
+            start.await();
+            var checked = 0;
+            do {
+              final var layout = index.getLayout(resolutionOrder);
+              final var atus = layout.atus();
+              var sum = 0L;
+              for (int i = 0; i < atus.size(); ++i) {
+                assertTrue(PackedATU.length(atus.get(i)) > 0, "Layout of version " + layout.version() + " has an empty ATU at " + i);
+                sum += PackedATU.length(atus.get(i));
+                assertEquals(sum, atus.prefixSum(i));
+              }
+              ++checked;
+            } while (!done.get());
+            return checked;
+          }));
+        }
+        start.countDown();
+        final var resolutionDescriptor = ResolutionDescriptor.fromResolutionOrder(1);
+        final var random = new Random(5L);
+        for (int split = 0; split < 6; ++split) {
+          final var length = chunkedFile.getContigTree().getLengthInUnits(QueryLengthUnit.PIXELS, resolutionDescriptor);
+          chunkedFile.scaffoldingOperations().splitContigAtBin(1L + random.nextLong(length - 2L), resolutionDescriptor, QueryLengthUnit.PIXELS);
+        }
+        done.set(true);
+        for (final var reader : readers) {
+          assertTrue(reader.get(30, TimeUnit.SECONDS) > 0);
+        }
+      } finally {
+        executor.shutdownNow();
+      }
+      checkAllResolutions(chunkedFile);
+    }
+  }
+
+  private ChunkedFile open() {
+    final var path = this.tempDir.resolve("synthetic.hict.hdf5");
+    new SyntheticChunkedFileGenerator(OPTIONS).generate(path);
+    final var chunkedFile = new ChunkedFile(new ChunkedFile.ChunkedFileOptions(path, 1, 4, 0L, 2));
+    chunkedFile.ensureAllResolutionsLoaded();
+
+    // Generated files have no hidden contigs, so some are hidden at every resolution except base pairs:
+    final var catalog = chunkedFile.getContigCatalog();
+    final var contigCount = chunkedFile.getContigTree().getOrderedContigList().size();
+    for (int resolutionOrder = 1; resolutionOrder < chunkedFile.getResolutions().length; ++resolutionOrder) {
+      final var lengthBins = new long[contigCount];
+      final var hideTypes = new byte[contigCount];
+      for (int contigId = 0; contigId < contigCount; ++contigId) {
+        lengthBins[contigId] = catalog.getLengthBins(contigId, resolutionOrder);
+        hideTypes[contigId] = (byte) ContigHideType.SHOWN.ordinal();
+      }
+      for (final var contigId : HIDDEN_CONTIG_IDS) {
+        hideTypes[contigId] = (byte) ContigHideType.HIDDEN.ordinal();
+      }
+      catalog.putResolution(resolutionOrder, lengthBins, hideTypes);
+    }
+    chunkedFile.getContigTree().commitOrderedContigs(chunkedFile.getContigTree().getOrderedContigList());
+    return chunkedFile;
+  }
+
+  private static void checkAllResolutions(final ChunkedFile chunkedFile) {
+    final var contigs = chunkedFile.getContigTree().getOrderedContigList();
+    assertTrue(contigs.stream().anyMatch(contig -> contig.direction() == ContigDirection.REVERSED), "Test assembly should have reversed contigs");
+    for (int resolutionOrder = 1; resolutionOrder < chunkedFile.getResolutions().length; ++resolutionOrder) {
+      final var resolutionDescriptor = ResolutionDescriptor.fromResolutionOrder(resolutionOrder);
+      final var layout = chunkedFile.assemblyLayoutIndex().getLayout(resolutionOrder);
+      assertEquals(chunkedFile.getContigTree().getVersion(), layout.version());
+      final var length = chunkedFile.getContigTree().getLengthInUnits(QueryLengthUnit.PIXELS, resolutionDescriptor);
+      assertEquals(length, layout.totalLength());
+
+      final var ranges = new ArrayList<long[]>();
+      ranges.add(new long[]{0L, length});
+      ranges.add(new long[]{-2L, length + 3L});
+      for (long px = 0L; px < length; ++px) {
+        ranges.add(new long[]{px, px + 1L});
+      }
+      var hiddenContigCount = 0;
+      var contigStart = 0L;
+      for (final var contig : contigs) {
+        if (contig.descriptor().getPresenceAtResolution(resolutionOrder) != ContigHideType.SHOWN) {
+          ++hiddenContigCount;
+          continue;
+        }
+        final var contigEnd = contigStart + contig.descriptor().getLengthBinsAtResolution(resolutionOrder);
+        ranges.add(new long[]{contigStart, contigEnd});
+        ranges.add(new long[]{contigStart - 1L, contigStart + 1L});
+        ranges.add(new long[]{contigStart + 1L, contigEnd - 1L});
+        ranges.add(new long[]{0L, contigEnd});
+        ranges.add(new long[]{contigStart, length});
+        contigStart = contigEnd;
+      }
+      assertEquals(length, contigStart);
+      assertTrue(hiddenContigCount > 0, "Test assembly should have hidden contigs");
+      final var random = new Random(resolutionOrder);
+      for (int i = 0; i < 50; ++i) {
+        final var start = random.nextLong(length);
+        ranges.add(new long[]{start, start + 1L + random.nextLong(length - start)});
+      }
+
+      for (final var range : ranges) {
+        final var expected = chunkedFile.matrixQueries().collectATUsFromContigTree(resolutionDescriptor, range[0], range[1], true);
+        final var actual = layout.getATUsForRange(range[0], range[1]);
+        actual.reduce();
+        assertArrayEquals(expected.toArray(), actual.toArray(), "Resolution order " + resolutionOrder + ", range [" + range[0] + ", " + range[1] + ")");
+      }
+    }
+  }
+}
@@ -0,0 +1,261 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2024. Aleksandr Serdiukov, Anton Zamyatin, Aleksandr Sinitsyn, Vitalii Dravgelis and Computer Technologies Laboratory ITMO University team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ru.itmo.ctlab.hict.hict_library.chunkedfile;
+
+import ch.systemsx.cisd.hdf5.HDF5Factory;
+import ch.systemsx.cisd.hdf5.IHDF5Reader;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.generator.SyntheticChunkedFileGenerator;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.resolution.ResolutionDescriptor;
+import ru.itmo.ctlab.hict.hict_library.domain.ATUDirection;
+import ru.itmo.ctlab.hict.hict_library.domain.ContigDirection;
+import ru.itmo.ctlab.hict.hict_library.domain.ContigHideType;
+import ru.itmo.ctlab.hict.hict_library.domain.QueryLengthUnit;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static ru.itmo.ctlab.hict.hict_library.chunkedfile.util.PathGenerators.*;
+
+/**
+ * Compares submatrices with a dense matrix built straight from the datasets of a synthetic file.
+ */
+public class MatrixQueriesTest {
+  private static final int STRIPE_SIZE = 8;
+  private static final SyntheticChunkedFileGenerator.GeneratorOptions OPTIONS = SyntheticChunkedFileGenerator.GeneratorOptions.builder()
+    .contigCount(9)
+    .assemblyLengthBp(90_000L)
+    .resolutions(new long[]{1_000L, 5_000L})
+    .stripeSize(STRIPE_SIZE)
+    .contactDensity(0.9d)
+    .distanceDecayExponent(1.0d)
+    .denseBlockThreshold(0.3d)
+    .reversedContigFraction(0.4d)
+    .reversedATUFraction(0.5d)
+    .seed(17L)
+    .build();
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void submatricesMatchFileContents() {
+    final var path = generate();
+    for (final var cacheSize : new long[]{0L, 64L << 20}) {
+      try (final var chunkedFile = new ChunkedFile(new ChunkedFile.ChunkedFileOptions(path, 1, 4, cacheSize, 2))) {
+        assertTrue(chunkedFile.getContigTree().getOrderedContigList().stream().anyMatch(contig -> contig.direction() == ContigDirection.REVERSED), "Test file should have reversed contigs");
+        checkAllResolutions(chunkedFile, path);
+      }
+    }
+  }
+
+  @Test
+  void submatricesMatchFileContentsAfterReversalAndMove() {
+    final var path = generate();
+    try (final var chunkedFile = new ChunkedFile(new ChunkedFile.ChunkedFileOptions(path, 1, 4, 64L << 20, 2))) {
+      final var totalBp = chunkedFile.getMatrixSizeBins()[0];
+      chunkedFile.scaffoldingOperations().reverseSelectionRangeBp(totalBp / 4, totalBp / 2);
+      checkAllResolutions(chunkedFile, path);
+      chunkedFile.scaffoldingOperations().moveSelectionRangeBp(0L, totalBp / 5, totalBp / 2);
+      checkAllResolutions(chunkedFile, path);
+    }
+  }
+
+  private Path generate() {
+    final var path = this.tempDir.resolve("synthetic.hict.hdf5");
+    new SyntheticChunkedFileGenerator(OPTIONS).generate(path);
+    return path;
+  }
+
+  private static void checkAllResolutions(final ChunkedFile chunkedFile, final Path path) {
+    for (final var resolution : OPTIONS.resolutions()) {
+      final var resolutionOrder = chunkedFile.getResolutionToIndex().get(resolution);
+      final ReferenceMatrix reference;
+      try (final var reader = HDF5Factory.openForReading(path.toFile())) {
+        reference = new ReferenceMatrix(reader, resolution, chunkedFile, resolutionOrder);
+      }
+      final var resolutionDescriptor = ResolutionDescriptor.fromResolutionOrder(resolutionOrder);
+      final var length = reference.assemblyBins.length;
+      assertEquals(length, chunkedFile.getContigTree().getLengthInUnits(QueryLengthUnit.PIXELS, resolutionDescriptor));
+
+      final var queries = new ArrayList<long[]>();
+      queries.add(new long[]{0L, 0L, length, length});
+      queries.add(new long[]{-3L, -3L, length + 5L, length + 5L});
+      queries.add(new long[]{1L, 1L, 2L, 2L});
+      queries.add(new long[]{STRIPE_SIZE - 1, STRIPE_SIZE - 1, 2L * STRIPE_SIZE + 1, 2L * STRIPE_SIZE + 1});
+      queries.add(new long[]{0L, length / 2, length / 2, length});
+      queries.add(new long[]{length / 2, 0L, length, length / 3});
+      final var random = new Random(resolution);
+      for (int i = 0; i < 40; ++i) {
+        final var rowStart = random.nextLong(length);
+        final var rowEnd = rowStart + 1 + random.nextLong(length - rowStart);
+        if (random.nextBoolean()) {
+          queries.add(new long[]{rowStart, rowStart, rowEnd, rowEnd});
+        } else {
+          final var colStart = random.nextLong(length);
+          queries.add(new long[]{rowStart, colStart, rowEnd, colStart + 1 + random.nextLong(length - colStart)});
+        }
+      }
+
+      for (final var query : queries) {
+        for (final var excludeHiddenContigs : new boolean[]{true, false}) {
+          final var actual = chunkedFile.matrixQueries().getSubmatrixFlat(resolutionDescriptor, query[0], query[1], query[2], query[3], excludeHiddenContigs);
+          final var message = "Resolution " + resolution + ", query " + Arrays.toString(query) + ", excludeHiddenContigs=" + excludeHiddenContigs;
+          assertArrayEquals(reference.values(query), actual.values(), message);
+          assertArrayEquals(reference.weights(query[0], query[2]), actual.rowWeights(), message);
+          assertArrayEquals(reference.weights(query[1], query[3]), actual.colWeights(), message);
+        }
+      }
+    }
+  }
+
+  /**
+   * Full symmetric matrix indexed by global bins <code>stripeId * stripeSize + indexInStripe</code>
+   * and the global bin of each pixel of the current assembly.
+   */
+  private static final class ReferenceMatrix {
+    private final int binCount;
+    private final long[] matrix;
+    private final double[] weights;
+    private final int[] assemblyBins;
+
+    private ReferenceMatrix(final IHDF5Reader reader, final long resolution, final ChunkedFile chunkedFile, final int resolutionOrder) {
+      final var stripeCount = reader.int64().readArray(getStripeLengthsBinsDatasetPath(resolution)).length;
+      this.binCount = stripeCount * STRIPE_SIZE;
+      this.matrix = new long[this.binCount * this.binCount];
+      this.weights = new double[this.binCount];
+
+      final var stripeWeights = reader.float64().readMatrix(getStripeBinWeightsDatasetPath(resolution));
+      for (int stripeId = 0; stripeId < stripeCount; ++stripeId) {
+        System.arraycopy(stripeWeights[stripeId], 0, this.weights, stripeId * STRIPE_SIZE, STRIPE_SIZE);
+      }
+
+      final var blockLengths = reader.int64().readArray(getBlockLengthDatasetPath(resolution));
+      final var blockOffsets = reader.int64().readArray(getBlockOffsetDatasetPath(resolution));
+      final var sparseRows = reader.int64().readArray(getBlockRowsDatasetPath(resolution));
+      final var sparseCols = reader.int64().readArray(getBlockColsDatasetPath(resolution));
+      final var sparseValues = reader.int64().readArray(getBlockValuesDatasetPath(resolution));
+      final var denseBlocks = reader.int64().readMDArray(getDenseBlockDatasetPath(resolution)).getAsFlatArray();
+      var denseBlockCount = 0;
+      var sparseBlockCount = 0;
+      for (int rowStripe = 0; rowStripe < stripeCount; ++rowStripe) {
+        for (int colStripe = rowStripe; colStripe < stripeCount; ++colStripe) {
+          final var blockIndex = rowStripe * stripeCount + colStripe;
+          final var length = blockLengths[blockIndex];
+          final var offset = blockOffsets[blockIndex];
+          if (length == 0L) {
+            continue;
+          }
+          if (offset >= 0L) {
+            ++sparseBlockCount;
+            for (var k = (int) offset; k < offset + length; ++k) {
+              set(rowStripe * STRIPE_SIZE + (int) sparseRows[k], colStripe * STRIPE_SIZE + (int) sparseCols[k], sparseValues[k]);
+            }
+          } else {
+            ++denseBlockCount;
+            final var denseOffset = (int) (-(offset + 1L)) * STRIPE_SIZE * STRIPE_SIZE;
+            for (int i = 0; i < STRIPE_SIZE; ++i) {
+              // Only the upper triangle of blocks on the main diagonal is stored:
+              for (int j = (rowStripe == colStripe) ? i : 0; j < STRIPE_SIZE; ++j) {
+                set(rowStripe * STRIPE_SIZE + i, colStripe * STRIPE_SIZE + j, denseBlocks[denseOffset + i * STRIPE_SIZE + j]);
+              }
+            }
+          }
+        }
+      }
+      assertTrue(denseBlockCount > 0 && sparseBlockCount > 0, "Test file should have both dense and sparse blocks");
+
+      final var basisATUs = reader.int64().readMatrix(getBasisATUDatasetPath(resolution));
+      final var contigATL = reader.int64().readMatrix(getContigsATLDatasetPath(resolution));
+      final var bins = new ArrayList<Integer>();
+      for (final var contig : chunkedFile.getContigTree().getOrderedContigList()) {
+        assertEquals(ContigHideType.SHOWN, contig.descriptor().getPresenceAtResolution(resolutionOrder));
+        final var contigBins = new ArrayList<Integer>();
+        for (final var row : contigATL) {
+          if (row[0] != contig.descriptor().getContigId()) {
+            continue;
+          }
+          final var atu = basisATUs[(int) row[1]];
+          final var stripeStart = (int) atu[0] * STRIPE_SIZE;
+          if (atu[3] == ATUDirection.FORWARD.ordinal()) {
+            for (var i = (int) atu[1]; i < atu[2]; ++i) {
+              contigBins.add(stripeStart + i);
+            }
+          } else {
+            for (var i = (int) atu[2] - 1; i >= atu[1]; --i) {
+              contigBins.add(stripeStart + i);
+            }
+          }
+        }
+        if (contig.direction() == ContigDirection.REVERSED) {
+          Collections.reverse(contigBins);
+        }
+        bins.addAll(contigBins);
+      }
+      this.assemblyBins = bins.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private void set(final int row, final int col, final long value) {
+      this.matrix[row * this.binCount + col] = value;
+      this.matrix[col * this.binCount + row] = value;
+    }
+
+    private int binAt(final long position) {
+      return (position < 0L || position >= this.assemblyBins.length) ? -1 : this.assemblyBins[(int) position];
+    }
+
+    private long[] values(final long[] query) {
+      final var rowCount = (int) (query[2] - query[0]);
+      final var colCount = (int) (query[3] - query[1]);
+      final var result = new long[rowCount * colCount];
+      for (int i = 0; i < rowCount; ++i) {
+        final var row = binAt(query[0] + i);
+        for (int j = 0; j < colCount; ++j) {
+          final var col = binAt(query[1] + j);
+          if (row >= 0 && col >= 0) {
+            result[i * colCount + j] = this.matrix[row * this.binCount + col];
+          }
+        }
+      }
+      return result;
+    }
+
+    private double[] weights(final long start, final long end) {
+      final var result = new double[(int) (end - start)];
+      for (int i = 0; i < result.length; ++i) {
+        final var bin = binAt(start + i);
+        if (bin >= 0) {
+          result[i] = this.weights[bin];
+        }
+      }
+      return result;
+    }
+  }
+}
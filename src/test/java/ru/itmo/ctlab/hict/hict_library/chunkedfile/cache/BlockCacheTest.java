@@ -0,0 +1,150 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2024. Aleksandr Serdiukov, Anton Zamyatin, Aleksandr Sinitsyn, Vitalii Dravgelis and Computer Technologies Laboratory ITMO University team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ru.itmo.ctlab.hict.hict_library.chunkedfile.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BlockCacheTest {
+  private static final BlockCache.BlockKey KEY = new BlockCache.BlockKey(1, 2, 3);
+
+  private static DecodedBlock.SparseBlock block() {
+    return new DecodedBlock.SparseBlock(4, new int[]{0}, new int[]{1}, new long[]{5L}, false);
+  }
+
+  @Test
+  void concurrentMissesShareOneLoad() throws Exception {
+    for (final var cacheSize : new long[]{0L, 1L << 20}) {
+      final var cache = new BlockCache(cacheSize);
+      final var loads = new AtomicInteger();
+      final var loadStarted = new CountDownLatch(1);
+      final var release = new CountDownLatch(1);
+      final var loaded = block();
+      final var executor = Executors.newFixedThreadPool(4);
+      try {
+        final Future<DecodedBlock> first = executor.submit(() -> cache.get(KEY, key -> {
+          loads.incrementAndGet();
+          loadStarted.countDown();
+          awaitUninterruptibly(release);
+          return loaded;
+        }));
+        assertTrue(loadStarted.await(10, TimeUnit.SECONDS));
+        assertTrue(cache.contains(KEY), "Block being loaded should be reported as present");
+
+        final Future<DecodedBlock> second = executor.submit(() -> cache.get(KEY, key -> {
+          loads.incrementAndGet();
+          return block();
+        }));
+        final Future<DecodedBlock> third = executor.submit(() -> cache.get(KEY, key -> {
+          loads.incrementAndGet();
+          return block();
+        }));
+        Thread.sleep(50L);
+        release.countDown();
+
+        assertSame(loaded, first.get(10, TimeUnit.SECONDS));
+        assertSame(loaded, second.get(10, TimeUnit.SECONDS));
+        assertSame(loaded, third.get(10, TimeUnit.SECONDS));
+        assertEquals(1, loads.get());
+        assertEquals(1L, cache.getStatistics().missCount());
+      } finally {
+        executor.shutdownNow();
+      }
+    }
+  }
+
+  @Test
+  void failedLoadIsRethrownToWaitersAndNotCached() throws Exception {
+    final var cache = new BlockCache(1L << 20);
+    final var loadStarted = new CountDownLatch(1);
+    final var release = new CountDownLatch(1);
+    final var executor = Executors.newFixedThreadPool(2);
+    try {
+      final Future<DecodedBlock> first = executor.submit(() -> cache.get(KEY, key -> {
+        loadStarted.countDown();
+        awaitUninterruptibly(release);
+        throw new IllegalStateException("broken block");
+      }));
+      assertTrue(loadStarted.await(10, TimeUnit.SECONDS));
+      final Future<DecodedBlock> second = executor.submit(() -> cache.get(KEY, key -> block()));
+      Thread.sleep(50L);
+      release.countDown();
+
+      for (final var future : List.of(first, second)) {
+        final var e = assertThrows(ExecutionException.class, () -> future.get(10, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof IllegalStateException, () -> "Unexpected exception " + e.getCause());
+      }
+      assertFalse(cache.contains(KEY));
+      final var loaded = block();
+      assertSame(loaded, cache.get(KEY, key -> loaded));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void waiterLoadsBlockItselfWhenSharedLoadIsCancelled() throws Exception {
+    final var cache = new BlockCache(1L << 20);
+    final var loadStarted = new CountDownLatch(1);
+    final var release = new CountDownLatch(1);
+    final var executor = Executors.newFixedThreadPool(2);
+    try {
+      final Future<DecodedBlock> cancelled = executor.submit(() -> cache.get(KEY, key -> {
+        loadStarted.countDown();
+        awaitUninterruptibly(release);
+        throw new CancellationException("query was cancelled");
+      }));
+      assertTrue(loadStarted.await(10, TimeUnit.SECONDS));
+      final var loaded = block();
+      final Future<DecodedBlock> waiter = executor.submit(() -> cache.get(KEY, key -> loaded));
+      Thread.sleep(50L);
+      release.countDown();
+
+      assertThrows(ExecutionException.class, () -> cancelled.get(10, TimeUnit.SECONDS));
+      assertSame(loaded, waiter.get(10, TimeUnit.SECONDS));
+      assertTrue(cache.contains(KEY));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static void awaitUninterruptibly(final CountDownLatch latch) {
+    try {
+      latch.await(10, TimeUnit.SECONDS);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,185 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2024. Aleksandr Serdiukov, Anton Zamyatin, Aleksandr Sinitsyn, Vitalii Dravgelis and Computer Technologies Laboratory ITMO University team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ru.itmo.ctlab.hict.hict_library.chunkedfile.metadata;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MetadataSnapshotTest {
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void readReturnsWrittenMetadata() throws IOException {
+    final var hdfFile = hdfFile();
+    final var key = MetadataSnapshot.Key.of(hdfFile);
+    final var metadata = metadata(new Random(3L));
+    final var snapshotPath = MetadataSnapshot.snapshotPath(this.tempDir.resolve("snapshots"), hdfFile);
+    MetadataSnapshot.write(snapshotPath, key, metadata);
+
+    final var read = MetadataSnapshot.read(snapshotPath, MetadataSnapshot.Key.of(hdfFile));
+    assertNotNull(read);
+    assertArrayEquals(metadata.resolutions(), read.resolutions());
+    assertEquals(metadata.denseBlockSize(), read.denseBlockSize());
+    assertArrayEquals(metadata.contigDirections(), read.contigDirections());
+    assertArrayEquals(metadata.contigNames(), read.contigNames());
+    assertArrayEquals(metadata.contigLengthBp(), read.contigLengthBp());
+    assertArrayEquals(metadata.contigOrder(), read.contigOrder());
+    assertEquals(metadata.resolutionMetadata().length, read.resolutionMetadata().length);
+    assertNull(read.resolutionMetadata()[0]);
+    for (int i = 1; i < metadata.resolutions().length; ++i) {
+      final var expected = metadata.resolutionMetadata()[i];
+      final var actual = read.resolutionMetadata()[i];
+      assertNotNull(actual);
+      assertTrue(actual.isComplete());
+      assertArrayEquals(expected.stripeLengthBins(), actual.stripeLengthBins());
+      assertArrayEquals(expected.stripeBinWeights(), actual.stripeBinWeights());
+      assertArrayEquals(expected.basisATUs(), actual.basisATUs());
+      assertArrayEquals(expected.contigHideTypes(), actual.contigHideTypes());
+      assertArrayEquals(expected.contigLengthBins(), actual.contigLengthBins());
+      assertArrayEquals(expected.contigATUMapping(), actual.contigATUMapping());
+    }
+  }
+
+  @Test
+  void mismatchedKeyReturnsNull() throws IOException {
+    final var hdfFile = hdfFile();
+    final var key = MetadataSnapshot.Key.of(hdfFile);
+    final var snapshotPath = MetadataSnapshot.snapshotPath(this.tempDir, hdfFile);
+    MetadataSnapshot.write(snapshotPath, key, metadata(new Random(5L)));
+    assertNotNull(MetadataSnapshot.read(snapshotPath, key));
+
+    final var otherHash = key.contentHash().clone();
+    otherHash[0] ^= 1;
+    assertNull(MetadataSnapshot.read(snapshotPath, new MetadataSnapshot.Key(key.path(), key.size(), key.lastModifiedMillis(), otherHash)));
+    assertNull(MetadataSnapshot.read(snapshotPath, new MetadataSnapshot.Key(key.path(), key.size() + 1L, key.lastModifiedMillis(), key.contentHash())));
+    assertNull(MetadataSnapshot.read(snapshotPath, new MetadataSnapshot.Key(key.path(), key.size(), key.lastModifiedMillis() + 1L, key.contentHash())));
+    assertNull(MetadataSnapshot.read(snapshotPath, new MetadataSnapshot.Key(key.path() + "x", key.size(), key.lastModifiedMillis(), key.contentHash())));
+
+    // Content change that keeps size and modification time is detected by the hash:
+    final var lastModified = Files.getLastModifiedTime(hdfFile);
+    final var content = Files.readAllBytes(hdfFile);
+    content[content.length - 1] ^= 1;
+    Files.write(hdfFile, content);
+    Files.setLastModifiedTime(hdfFile, lastModified);
+    assertNull(MetadataSnapshot.read(snapshotPath, MetadataSnapshot.Key.of(hdfFile)));
+  }
+
+  @Test
+  void damagedSnapshotReturnsNull() throws IOException {
+    final var hdfFile = hdfFile();
+    final var key = MetadataSnapshot.Key.of(hdfFile);
+    final var snapshotPath = MetadataSnapshot.snapshotPath(this.tempDir, hdfFile);
+    assertNull(MetadataSnapshot.read(snapshotPath, key));
+
+    MetadataSnapshot.write(snapshotPath, key, metadata(new Random(7L)));
+    final var content = Files.readAllBytes(snapshotPath);
+    for (int length = 0; length < content.length; length += 1 + length / 8) {
+      Files.write(snapshotPath, content);
+      try (final var channel = FileChannel.open(snapshotPath, StandardOpenOption.WRITE)) {
+        channel.truncate(length);
+      }
+      assertNull(MetadataSnapshot.read(snapshotPath, key), "Snapshot truncated to " + length + " bytes");
+    }
+
+    final var otherFormat = content.clone();
+    otherFormat[Long.BYTES + Integer.BYTES - 1] ^= 1;
+    Files.write(snapshotPath, otherFormat);
+    assertNull(MetadataSnapshot.read(snapshotPath, key));
+  }
+
+  @Test
+  void incompleteMetadataIsNotWritten() throws IOException {
+    final var hdfFile = hdfFile();
+    final var metadata = metadata(new Random(11L));
+    final var complete = metadata.resolutionMetadata()[1];
+    metadata.resolutionMetadata()[1] = new FileMetadata.ResolutionMetadata(null, null, null, complete.contigHideTypes(), complete.contigLengthBins(), null);
+    final var snapshotPath = MetadataSnapshot.snapshotPath(this.tempDir, hdfFile);
+    assertThrows(IllegalArgumentException.class, () -> MetadataSnapshot.write(snapshotPath, MetadataSnapshot.Key.of(hdfFile), metadata));
+    assertFalse(Files.exists(snapshotPath));
+  }
+
+  private Path hdfFile() throws IOException {
+    final var content = new byte[3 << 20];
+    new Random(1L).nextBytes(content);
+    return Files.write(this.tempDir.resolve("file.hict.hdf5"), content);
+  }
+
+  private static FileMetadata metadata(final Random random) {
+    final var resolutions = new long[]{0L, 1_000L, 5_000L, 25_000L};
+    final var contigCount = 7;
+    final var resolutionMetadata = new FileMetadata.ResolutionMetadata[resolutions.length];
+    for (int i = 1; i < resolutions.length; ++i) {
+      final var stripeCount = 1 + random.nextInt(10);
+      final var stripeBinWeights = new double[stripeCount][];
+      for (int stripe = 0; stripe < stripeCount; ++stripe) {
+        // Rows of different lengths including empty ones and special values:
+        stripeBinWeights[stripe] = random.doubles(random.nextInt(5)).toArray();
+      }
+      stripeBinWeights[0] = new double[]{Double.NaN, Double.NEGATIVE_INFINITY, -0.0d};
+      final var hideTypes = new byte[contigCount];
+      random.nextBytes(hideTypes);
+      resolutionMetadata[i] = new FileMetadata.ResolutionMetadata(
+        random.longs(stripeCount).toArray(),
+        stripeBinWeights,
+        randomLongMatrix(random, 12, 4),
+        hideTypes,
+        random.longs(contigCount, 0L, Long.MAX_VALUE).toArray(),
+        randomLongMatrix(random, 15, 2)
+      );
+    }
+    final var contigNames = new String[contigCount];
+    for (int i = 0; i < contigCount; ++i) {
+      contigNames[i] = "contig_" + i + ((i % 3 == 0) ? "_\u00e9\u4e2d" : "");
+    }
+    contigNames[contigCount - 1] = "";
+    return new FileMetadata(
+      resolutions,
+      256,
+      resolutionMetadata,
+      random.longs(contigCount, 0L, 2L).toArray(),
+      contigNames,
+      random.longs(contigCount).toArray(),
+      random.longs(contigCount).toArray()
+    );
+  }
+
+  private static long[][] randomLongMatrix(final Random random, final int rows, final int columns) {
+    final var result = new long[rows][];
+    for (int i = 0; i < rows; ++i) {
+      result[i] = random.longs(columns).toArray();
+    }
+    return result;
+  }
+}
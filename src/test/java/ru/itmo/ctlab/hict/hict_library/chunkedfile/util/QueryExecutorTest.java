@@ -0,0 +1,78 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2024. Aleksandr Serdiukov, Anton Zamyatin, Aleksandr Sinitsyn, Vitalii Dravgelis and Computer Technologies Laboratory ITMO University team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ru.itmo.ctlab.hict.hict_library.chunkedfile.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QueryExecutorTest {
+  private static List<Runnable> recordingTasks(final Set<Thread> threads, final int count) {
+    final var tasks = new ArrayList<Runnable>();
+    for (int i = 0; i < count; ++i) {
+      tasks.add(() -> {
+        threads.add(Thread.currentThread());
+        try {
+          Thread.sleep(10L);
+        } catch (final InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      });
+    }
+    return tasks;
+  }
+
+  @Test
+  void tasksRunOnPoolThreads() {
+    try (final var executor = new QueryExecutor(4)) {
+      final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+      executor.invokeAll(recordingTasks(threads, 8));
+      assertFalse(threads.contains(Thread.currentThread()));
+    }
+  }
+
+  @Test
+  void callInPlaceRunsTasksOnCallingThread() {
+    try (final var executor = new QueryExecutor(4)) {
+      final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+      final int result = QueryExecutor.callInPlace(() -> {
+        executor.invokeAll(recordingTasks(threads, 8));
+        return 42;
+      });
+      assertEquals(42, result);
+      assertEquals(Set.of(Thread.currentThread()), threads);
+
+      // Only the batches submitted inside the call are affected:
+      threads.clear();
+      executor.invokeAll(recordingTasks(threads, 8));
+      assertFalse(threads.contains(Thread.currentThread()));
+    }
+  }
+}
@@ -0,0 +1,159 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2024. Aleksandr Serdiukov, Anton Zamyatin, Aleksandr Sinitsyn, Vitalii Dravgelis and Computer Technologies Laboratory ITMO University team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ru.itmo.ctlab.hict.hict_library.domain;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ATUSequenceTest {
+  private static final int STRIPE_COUNT = 4;
+  private static final int STRIPE_SIZE = 32;
+  private static final List<StripeDescriptor> STRIPES = stripes();
+
+  @Test
+  void reduceMatchesDescriptorReduce() {
+    final var random = new Random(29L);
+    for (int iteration = 0; iteration < 500; ++iteration) {
+      final var descriptors = randomRuns(random);
+      final var sequence = ATUSequence.of(descriptors);
+      assertEquals(descriptors, sequence.toDescriptors(STRIPES));
+
+      final var expected = ATUDescriptor.reduce(descriptors);
+      final var reduced = sequence.reduce();
+      assertSame(sequence, reduced);
+      assertEquals(expected, reduced.toDescriptors(STRIPES));
+      assertEquals(descriptors.stream().mapToLong(ATUDescriptor::getLength).sum(), reduced.totalLength());
+    }
+  }
+
+  @Test
+  void reversedRunsReduceLikeDescriptors() {
+    final var random = new Random(31L);
+    for (int iteration = 0; iteration < 500; ++iteration) {
+      final var descriptors = randomRuns(random);
+      final var reversedDescriptors = new ArrayList<ATUDescriptor>(descriptors.size());
+      for (int i = descriptors.size() - 1; i >= 0; --i) {
+        reversedDescriptors.add(descriptors.get(i).reversed());
+      }
+
+      final var reversed = ATUSequence.of(descriptors).reversed();
+      assertEquals(reversedDescriptors, reversed.toDescriptors(STRIPES));
+      assertEquals(ATUDescriptor.reduce(reversedDescriptors), reversed.reduce().toDescriptors(STRIPES));
+    }
+  }
+
+  @Test
+  void addRangeReversedAppendsBackwardsWithEachATUReversed() {
+    final long[] source = {
+      PackedATU.pack(0, 0, 4, ATUDirection.FORWARD),
+      PackedATU.pack(1, 2, 3, ATUDirection.REVERSED),
+      PackedATU.pack(2, 5, 9, ATUDirection.FORWARD),
+      PackedATU.pack(3, 0, 1, ATUDirection.FORWARD),
+    };
+    final var sequence = ATUSequence.of(PackedATU.pack(3, 7, 8, ATUDirection.REVERSED));
+    sequence.addRangeReversed(source, 1, 3);
+    assertArrayEquals(new long[]{
+      PackedATU.pack(3, 7, 8, ATUDirection.REVERSED),
+      PackedATU.pack(2, 5, 9, ATUDirection.REVERSED),
+      PackedATU.pack(1, 2, 3, ATUDirection.FORWARD),
+    }, sequence.toArray());
+
+    sequence.addRangeReversed(source, 2, 2);
+    sequence.addRangeReversed(source, 3, 1);
+    assertEquals(3, sequence.size());
+
+    // Grows past the initial capacity:
+    final var grown = new ATUSequence(1);
+    for (int i = 0; i < 10; ++i) {
+      grown.addRangeReversed(source, 0, source.length);
+    }
+    assertEquals(10 * source.length, grown.size());
+    assertEquals(PackedATU.reversed(source[3]), grown.get(0));
+    assertEquals(PackedATU.reversed(source[0]), grown.get(grown.size() - 1));
+    assertThrows(IndexOutOfBoundsException.class, () -> grown.get(grown.size()));
+  }
+
+  @Test
+  void reduceMergesAcrossRunsInBothOrders() {
+    final var sequence = ATUSequence.of(
+      PackedATU.pack(0, 0, 4, ATUDirection.FORWARD),
+      PackedATU.pack(0, 4, 8, ATUDirection.FORWARD),
+      PackedATU.pack(0, 8, 9, ATUDirection.FORWARD),
+      PackedATU.pack(0, 9, 10, ATUDirection.REVERSED),
+      PackedATU.pack(1, 6, 8, ATUDirection.REVERSED),
+      PackedATU.pack(1, 4, 6, ATUDirection.REVERSED),
+      PackedATU.pack(1, 8, 9, ATUDirection.REVERSED)
+    );
+    assertArrayEquals(new long[]{
+      PackedATU.pack(0, 0, 9, ATUDirection.FORWARD),
+      PackedATU.pack(0, 9, 10, ATUDirection.REVERSED),
+      PackedATU.pack(1, 4, 9, ATUDirection.REVERSED),
+    }, sequence.reduce().toArray());
+    assertEquals(0, new ATUSequence().reduce().size());
+    assertEquals(1, ATUSequence.of(PackedATU.pack(2, 1, 2, ATUDirection.FORWARD)).reduce().size());
+  }
+
+  /**
+   * Pieces of stripes cut at random points and taken in their order, in reversed order or shuffled, with random directions of runs.
+   */
+  private static List<ATUDescriptor> randomRuns(final Random random) {
+    final List<ATUDescriptor> result = new ArrayList<>();
+    final var runCount = random.nextInt(6);
+    for (int run = 0; run < runCount; ++run) {
+      final var stripe = STRIPES.get(random.nextInt(STRIPE_COUNT));
+      final var direction = random.nextBoolean() ? ATUDirection.FORWARD : ATUDirection.REVERSED;
+      final List<ATUDescriptor> pieces = new ArrayList<>();
+      var start = random.nextInt(STRIPE_SIZE / 2);
+      final var end = start + 1 + random.nextInt(STRIPE_SIZE / 2);
+      while (start < end) {
+        final var pieceEnd = Math.min(end, start + 1 + random.nextInt(4));
+        pieces.add(new ATUDescriptor(stripe, start, pieceEnd, random.nextInt(8) == 0 ? direction.inverse() : direction));
+        start = pieceEnd;
+      }
+      switch (random.nextInt(3)) {
+        case 0 -> {
+        }
+        case 1 -> Collections.reverse(pieces);
+        default -> Collections.shuffle(pieces, random);
+      }
+      result.addAll(pieces);
+    }
+    return result;
+  }
+
+  private static List<StripeDescriptor> stripes() {
+    final List<StripeDescriptor> stripes = new ArrayList<>();
+    for (int i = 0; i < STRIPE_COUNT; ++i) {
+      stripes.add(new StripeDescriptor(i, STRIPE_SIZE, new double[STRIPE_SIZE]));
+    }
+    return stripes;
+  }
+}
@@ -0,0 +1,194 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2024. Aleksandr Serdiukov, Anton Zamyatin, Aleksandr Sinitsyn, Vitalii Dravgelis and Computer Technologies Laboratory ITMO University team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ru.itmo.ctlab.hict.hict_library.domain;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ContigCatalogTest {
+  private static final int RESOLUTION_COUNT = 3;
+
+  @Test
+  void reversedATUsFollowAppendedContigs() {
+    final var random = new Random(37L);
+    final var contigCount = 20;
+    final var catalog = new ContigCatalog(RESOLUTION_COUNT, 4);
+    catalog.putContigs(random.longs(contigCount, 1L, 1000L).toArray());
+    final List<List<ATUSequence>> expected = new ArrayList<>();
+    for (int order = 1; order < RESOLUTION_COUNT; ++order) {
+      final List<ATUSequence> atus = new ArrayList<>();
+      for (int contigId = 0; contigId < contigCount; ++contigId) {
+        atus.add(randomATUs(random));
+      }
+      catalog.putATUsAtResolution(order, atus);
+      expected.add(atus);
+    }
+    checkAll(catalog, expected);
+
+    // Contigs appended after the reversed pool was built, as splits do, and ones whose ATUs were replaced:
+    for (int step = 0; step < 50; ++step) {
+      final var contigId = (step % 3 == 0) ? random.nextInt(expected.get(0).size()) : expected.get(0).size();
+      final List<ATUSequence> atus = new ArrayList<>();
+      for (int order = 1; order < RESOLUTION_COUNT; ++order) {
+        atus.add(randomATUs(random));
+      }
+      catalog.putContig(contigId, 1000L, List.of(10L, 2L), List.of(ContigHideType.SHOWN, ContigHideType.HIDDEN), atus);
+      for (int order = 1; order < RESOLUTION_COUNT; ++order) {
+        final var byContigId = expected.get(order - 1);
+        if (contigId == byContigId.size()) {
+          byContigId.add(atus.get(order - 1));
+        } else {
+          byContigId.set(contigId, atus.get(order - 1));
+        }
+      }
+      // Only check some steps so that several ranges are appended between rebuilds of the reversed pool:
+      if (random.nextInt(4) == 0) {
+        checkAll(catalog, expected);
+      }
+    }
+    checkAll(catalog, expected);
+    assertEquals(ContigHideType.HIDDEN, catalog.getHideType(contigCount, 2));
+    assertEquals(10L, catalog.getLengthBins(contigCount, 1));
+  }
+
+  @Test
+  void reversedATUsOfEarlierSnapshotStayValid() {
+    final var catalog = new ContigCatalog(2, 1);
+    final var first = ATUSequence.of(PackedATU.pack(0, 0, 3, ATUDirection.FORWARD), PackedATU.pack(1, 2, 4, ATUDirection.REVERSED));
+    catalog.putContig(0, 1000L, List.of(5L), List.of(ContigHideType.SHOWN), List.of(first));
+    final var before = catalog.getATUs(0, 1, ContigDirection.REVERSED);
+    for (int contigId = 1; contigId < 100; ++contigId) {
+      catalog.putContig(contigId, 1000L, List.of(1L), List.of(ContigHideType.SHOWN), List.of(ATUSequence.of(PackedATU.pack(contigId, 0, 1, ATUDirection.FORWARD))));
+      assertEquals(PackedATU.pack(contigId, 0, 1, ATUDirection.REVERSED), catalog.getATUs(contigId, 1, ContigDirection.REVERSED).get(0));
+    }
+    final var after = catalog.getATUs(0, 1, ContigDirection.REVERSED);
+    for (final var atus : List.of(before, after)) {
+      assertEquals(2, atus.size());
+      assertEquals(PackedATU.pack(1, 2, 4, ATUDirection.FORWARD), atus.get(0));
+      assertEquals(PackedATU.pack(0, 0, 3, ATUDirection.REVERSED), atus.get(1));
+      assertEquals(2L, atus.prefixSum(0));
+      assertEquals(5L, atus.total());
+    }
+  }
+
+  @Test
+  void readersSeeCompleteContigsWhileWriterAppends() throws Exception {
+    final var contigCount = 3000;
+    final var catalog = new ContigCatalog(RESOLUTION_COUNT, 1);
+    final var published = new AtomicInteger();
+    final var readerCount = 4;
+    final var start = new CountDownLatch(1);
+    final var executor = Executors.newFixedThreadPool(readerCount);
+    try {
+      final var readers = new ArrayList<Future<Integer>>();
+      for (int reader = 0; reader < readerCount; ++reader) {
+        final var random = new Random(reader);
+        readers.add(executor.submit(() -> {
+          start.await();
+          var checked = 0;
+          while (published.get() < contigCount) {
+            final var count = published.get();
+            if (count == 0) {
+              continue;
+            }
+            final var contigId = random.nextInt(count);
+            for (int order = 1; order < RESOLUTION_COUNT; ++order) {
+              checkATUs(contigATUs(contigId, order), catalog.getATUs(contigId, order));
+              checkATUs(contigATUs(contigId, order).reversed(), catalog.getATUs(contigId, order, ContigDirection.REVERSED));
+            }
+            assertEquals(ContigHideType.HIDDEN, catalog.getHideType(contigId, 2));
+            assertEquals(contigId, catalog.getLengthBins(contigId, 1));
+            ++checked;
+          }
+          return checked;
+        }));
+      }
+      start.countDown();
+      for (int contigId = 0; contigId < contigCount; ++contigId) {
+        catalog.putContig(contigId, 1000L, List.of((long) contigId, 1L), List.of(ContigHideType.SHOWN, ContigHideType.HIDDEN), List.of(contigATUs(contigId, 1), contigATUs(contigId, 2)));
+        published.set(1 + contigId);
+      }
+      for (final var reader : readers) {
+        assertTrue(reader.get(30, TimeUnit.SECONDS) >= 0);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * ATUs of a contig in {@link #readersSeeCompleteContigsWhileWriterAppends()}, so that readers can check them without synchronization.
+   */
+  private static ATUSequence contigATUs(final int contigId, final int resolutionOrder) {
+    final var result = new ATUSequence();
+    for (int i = 0; i < 1 + contigId % 7; ++i) {
+      result.add(PackedATU.pack(contigId, i, i + resolutionOrder + 1, (i % 2 == 0) ? ATUDirection.FORWARD : ATUDirection.REVERSED));
+    }
+    return result;
+  }
+
+  private static void checkAll(final ContigCatalog catalog, final List<List<ATUSequence>> expected) {
+    for (int order = 1; order < RESOLUTION_COUNT; ++order) {
+      final var byContigId = expected.get(order - 1);
+      for (int contigId = 0; contigId < byContigId.size(); ++contigId) {
+        final var forward = byContigId.get(contigId);
+        checkATUs(forward, catalog.getATUs(contigId, order));
+        checkATUs(forward, catalog.getATUs(contigId, order, ContigDirection.FORWARD));
+        checkATUs(forward.reversed(), catalog.getATUs(contigId, order, ContigDirection.REVERSED));
+      }
+    }
+  }
+
+  private static void checkATUs(final ATUSequence expected, final ContigCatalog.ContigATUs actual) {
+    assertEquals(expected.size(), actual.size());
+    long sum = 0L;
+    for (int i = 0; i < expected.size(); ++i) {
+      assertEquals(expected.get(i), actual.get(i));
+      sum += PackedATU.length(expected.get(i));
+      assertEquals(sum, actual.prefixSum(i));
+    }
+    assertEquals(sum, actual.total());
+  }
+
+  private static ATUSequence randomATUs(final Random random) {
+    final var result = new ATUSequence();
+    final var count = random.nextInt(5);
+    for (int i = 0; i < count; ++i) {
+      final var start = random.nextInt(100);
+      result.add(PackedATU.pack(random.nextInt(50), start, start + 1 + random.nextInt(20), random.nextBoolean() ? ATUDirection.FORWARD : ATUDirection.REVERSED));
+    }
+    return result;
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2024. Aleksandr Serdiukov, Anton Zamyatin, Aleksandr Sinitsyn, Vitalii Dravgelis and Computer Technologies Laboratory ITMO University team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ru.itmo.ctlab.hict.hict_library.domain;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PackedATUTest {
+  private static final int[] STRIPE_IDS = {0, 1, 12345, PackedATU.MAX_STRIPE_ID - 1, PackedATU.MAX_STRIPE_ID};
+  private static final int[] INDICES = {0, 1, 777, PackedATU.MAX_INDEX_IN_STRIPE - 1, PackedATU.MAX_INDEX_IN_STRIPE};
+
+  @Test
+  void packedFieldsRoundTripUpToLimits() {
+    for (final var direction : ATUDirection.values()) {
+      for (final var stripeId : STRIPE_IDS) {
+        for (final var start : INDICES) {
+          for (final var end : INDICES) {
+            if (start > end) {
+              continue;
+            }
+            final var atu = PackedATU.pack(stripeId, start, end, direction);
+            assertEquals(stripeId, PackedATU.stripeId(atu));
+            assertEquals(start, PackedATU.start(atu));
+            assertEquals(end, PackedATU.end(atu));
+            assertEquals(end - start, PackedATU.length(atu));
+            assertEquals(direction, PackedATU.direction(atu));
+            assertEquals(direction == ATUDirection.REVERSED, PackedATU.isReversed(atu));
+
+            final var reversed = PackedATU.reversed(atu);
+            assertEquals(direction.inverse(), PackedATU.direction(reversed));
+            assertEquals(PackedATU.pack(stripeId, start, end, direction.inverse()), reversed);
+            assertEquals(atu, PackedATU.reversed(reversed));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  void descriptorsRoundTrip() {
+    final var stripes = List.of(new StripeDescriptor(0, 10L, new double[10]), new StripeDescriptor(1, 20L, new double[20]));
+    for (final var direction : ATUDirection.values()) {
+      final var descriptor = new ATUDescriptor(stripes.get(1), 3, 17, direction);
+      final var atu = PackedATU.of(descriptor);
+      assertEquals(PackedATU.pack(1, 3, 17, direction), atu);
+      assertEquals(descriptor, PackedATU.toDescriptor(atu, stripes));
+    }
+  }
+
+  @Test
+  void valuesOutsideOfLimitsAreRejected() {
+    assertThrows(IllegalArgumentException.class, () -> PackedATU.pack(-1, 0, 1, ATUDirection.FORWARD));
+    assertThrows(IllegalArgumentException.class, () -> PackedATU.pack(PackedATU.MAX_STRIPE_ID + 1, 0, 1, ATUDirection.FORWARD));
+    assertThrows(IllegalArgumentException.class, () -> PackedATU.pack(Integer.MAX_VALUE, 0, 1, ATUDirection.REVERSED));
+    assertThrows(IllegalArgumentException.class, () -> PackedATU.pack(0, -1, 1, ATUDirection.FORWARD));
+    assertThrows(IllegalArgumentException.class, () -> PackedATU.pack(0, 0, PackedATU.MAX_INDEX_IN_STRIPE + 1, ATUDirection.FORWARD));
+    assertThrows(IllegalArgumentException.class, () -> PackedATU.pack(0, 5, 4, ATUDirection.REVERSED));
+    assertThrows(IllegalArgumentException.class, () -> PackedATU.pack(0, PackedATU.MAX_INDEX_IN_STRIPE + 1, PackedATU.MAX_INDEX_IN_STRIPE + 1, ATUDirection.FORWARD));
+  }
+
+  @Test
+  void withStartAndWithEndOnlyChangeTheirField() {
+    for (final var direction : ATUDirection.values()) {
+      final var atu = PackedATU.pack(PackedATU.MAX_STRIPE_ID, 100, 200, direction);
+      assertEquals(PackedATU.pack(PackedATU.MAX_STRIPE_ID, 0, 200, direction), PackedATU.withStart(atu, 0));
+      assertEquals(PackedATU.pack(PackedATU.MAX_STRIPE_ID, 150, 200, direction), PackedATU.withStart(atu, 150));
+      assertEquals(PackedATU.pack(PackedATU.MAX_STRIPE_ID, 100, PackedATU.MAX_INDEX_IN_STRIPE, direction), PackedATU.withEnd(atu, PackedATU.MAX_INDEX_IN_STRIPE));
+      assertEquals(PackedATU.pack(PackedATU.MAX_STRIPE_ID, 100, 101, direction), PackedATU.withEnd(atu, 101));
+      assertEquals(PackedATU.pack(PackedATU.MAX_STRIPE_ID, 7, 9, direction), PackedATU.withEnd(PackedATU.withStart(atu, 7), 9));
+    }
+  }
+
+  @Test
+  void mergeJoinsOnlyAdjacentPartsOfOneStripeWithOneDirection() {
+    for (final var direction : ATUDirection.values()) {
+      final var left = PackedATU.pack(3, 10, 20, direction);
+      final var right = PackedATU.pack(3, 20, 25, direction);
+      final var joined = PackedATU.pack(3, 10, 25, direction);
+      assertEquals(joined, PackedATU.merge(left, right));
+      assertEquals(joined, PackedATU.merge(right, left));
+
+      assertEquals(0L, PackedATU.merge(left, PackedATU.pack(3, 21, 25, direction)));
+      assertEquals(0L, PackedATU.merge(left, PackedATU.pack(3, 5, 9, direction)));
+      assertEquals(0L, PackedATU.merge(left, PackedATU.pack(4, 20, 25, direction)));
+      assertEquals(0L, PackedATU.merge(left, PackedATU.reversed(right)));
+      assertEquals(0L, PackedATU.merge(left, PackedATU.pack(3, 15, 25, direction)));
+    }
+    // Merged ATU in the lowest stripe with the lowest indices is still distinguishable from the failure value:
+    assertNotEquals(0L, PackedATU.merge(PackedATU.pack(0, 0, 1, ATUDirection.REVERSED), PackedATU.pack(0, 1, 2, ATUDirection.REVERSED)));
+  }
+}
@@ -0,0 +1,167 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2024. Aleksandr Serdiukov, Anton Zamyatin, Aleksandr Sinitsyn, Vitalii Dravgelis and Computer Technologies Laboratory ITMO University team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ru.itmo.ctlab.hict.hict_library.trees;
+
+import org.junit.jupiter.api.Test;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.resolution.ResolutionDescriptor;
+import ru.itmo.ctlab.hict.hict_library.domain.ContigCatalog;
+import ru.itmo.ctlab.hict.hict_library.domain.ContigDescriptor;
+import ru.itmo.ctlab.hict.hict_library.domain.ContigDirection;
+import ru.itmo.ctlab.hict.hict_library.domain.ContigHideType;
+import ru.itmo.ctlab.hict.hict_library.domain.QueryLengthUnit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that the tree built in one pass is the same treap that appending contigs one by one produces.
+ */
+public class ContigTreeTest {
+  private static final int RESOLUTION_COUNT = 3;
+
+  @Test
+  void buildFromLeavesMatchesMergeWithTiedPriorities() {
+    final var random = new Random(13L);
+    for (final var contigCount : new int[]{0, 1, 2, 7, 100}) {
+      for (final var priorityRange : new long[]{1L, 3L, Long.MAX_VALUE / 4}) {
+        final var contigs = contigs(random, contigCount);
+        final List<ContigTree.Node> leaves = new ArrayList<>();
+        for (final var contig : contigs) {
+          leaves.add(ContigTree.Node.createNodeFromDescriptor(contig.descriptor(), contig.direction()).cloneBuilder().yPriority(random.nextLong(priorityRange)).build());
+        }
+
+        final var built = ContigTree.Node.buildFromLeaves(leaves);
+        ContigTree.Node merged = null;
+        for (final var leaf : leaves) {
+          merged = ContigTree.Node.mergeNodes(new ContigTree.Node.SplitResult(merged, leaf));
+        }
+        assertSameTree(merged, built);
+        checkSubtree(built);
+
+        final List<ContigTree.Node> inOrder = new ArrayList<>();
+        ContigTree.Node.traverseNode(built, inOrder::add);
+        assertEquals(contigs.size(), inOrder.size());
+        for (int i = 0; i < contigs.size(); ++i) {
+          assertSame(contigs.get(i).descriptor(), inOrder.get(i).getContigDescriptor());
+          assertEquals(contigs.get(i).direction(), inOrder.get(i).getTrueDirection());
+        }
+      }
+    }
+  }
+
+  @Test
+  void committedContigsMatchAppendedOnes() {
+    final var contigs = contigs(new Random(21L), 50);
+    final var appended = new ContigTree();
+    contigs.forEach(contig -> appended.appendContig(contig.descriptor(), contig.direction()));
+    final var committed = new ContigTree();
+    committed.commitOrderedContigs(contigs);
+
+    assertEquals(contigs, committed.getOrderedContigList());
+    assertEquals(appended.getOrderedContigList(), committed.getOrderedContigList());
+    assertEquals(appended.getContigDescriptors(), committed.getContigDescriptors());
+    assertEquals(1L, committed.getVersion());
+    assertEquals(contigs.size(), committed.getRoot().getSubtreeCount());
+    for (int i = 0; i < RESOLUTION_COUNT; ++i) {
+      final var resolution = ResolutionDescriptor.fromResolutionOrder(i);
+      final var units = (i == 0) ? new QueryLengthUnit[]{QueryLengthUnit.BASE_PAIRS} : new QueryLengthUnit[]{QueryLengthUnit.BINS, QueryLengthUnit.PIXELS};
+      for (final var unit : units) {
+        assertEquals(appended.getLengthInUnits(unit, resolution), committed.getLengthInUnits(unit, resolution), unit + " at resolution " + i);
+      }
+    }
+    assertTrue(committed.getLengthInUnits(QueryLengthUnit.PIXELS, ResolutionDescriptor.fromResolutionOrder(1)) < committed.getLengthInUnits(QueryLengthUnit.BINS, ResolutionDescriptor.fromResolutionOrder(1)), "Some contigs should be hidden");
+  }
+
+  private static List<ContigTree.ContigTuple> contigs(final Random random, final int contigCount) {
+    final var catalog = new ContigCatalog(RESOLUTION_COUNT, contigCount);
+    final var lengthBp = random.longs(contigCount, 1L, 100_000L).toArray();
+    catalog.putContigs(lengthBp);
+    for (int i = 1; i < RESOLUTION_COUNT; ++i) {
+      final var lengthBins = new long[contigCount];
+      final var hideTypes = new byte[contigCount];
+      for (int contigId = 0; contigId < contigCount; ++contigId) {
+        lengthBins[contigId] = 1L + lengthBp[contigId] / (1000L * i);
+        hideTypes[contigId] = (byte) ((random.nextInt(4) == 0) ? ContigHideType.HIDDEN.ordinal() : ContigHideType.SHOWN.ordinal());
+      }
+      catalog.putResolution(i, lengthBins, hideTypes);
+    }
+    final List<ContigTree.ContigTuple> contigs = new ArrayList<>(contigCount);
+    for (int contigId = 0; contigId < contigCount; ++contigId) {
+      contigs.add(new ContigTree.ContigTuple(
+        new ContigDescriptor(catalog, contigId, "contig" + contigId, lengthBp[contigId], null, 0),
+        random.nextBoolean() ? ContigDirection.FORWARD : ContigDirection.REVERSED
+      ));
+    }
+    return contigs;
+  }
+
+  private static void assertSameTree(final ContigTree.Node expected, final ContigTree.Node actual) {
+    if (expected == null) {
+      assertNull(actual);
+      return;
+    }
+    assertNotNull(actual);
+    assertSame(expected.getContigDescriptor(), actual.getContigDescriptor());
+    assertEquals(expected.getYPriority(), actual.getYPriority());
+    assertEquals(expected.getTrueDirection(), actual.getTrueDirection());
+    assertEquals(expected.getSubtreeCount(), actual.getSubtreeCount());
+    assertArrayEquals(expected.getSubtreeLengthBins(), actual.getSubtreeLengthBins());
+    assertArrayEquals(expected.getSubtreeLengthPixels(), actual.getSubtreeLengthPixels());
+    assertSameTree(expected.getLeft(), actual.getLeft());
+    assertSameTree(expected.getRight(), actual.getRight());
+  }
+
+  /**
+   * Checks heap order and recomputes subtree aggregates from the contigs.
+   */
+  private static void checkSubtree(final ContigTree.Node node) {
+    if (node == null) {
+      return;
+    }
+    long count = 1L;
+    final var lengthBins = node.getContigDescriptor().getLengthBinsAtResolution();
+    final var lengthPixels = new long[RESOLUTION_COUNT];
+    for (int i = 0; i < RESOLUTION_COUNT; ++i) {
+      lengthPixels[i] = node.getContigDescriptor().getLengthInUnits(QueryLengthUnit.PIXELS, ResolutionDescriptor.fromResolutionOrder(i));
+    }
+    for (final var child : new ContigTree.Node[]{node.getLeft(), node.getRight()}) {
+      if (child != null) {
+        assertTrue(child.getYPriority() <= node.getYPriority());
+        checkSubtree(child);
+        count += child.getSubtreeCount();
+        for (int i = 0; i < RESOLUTION_COUNT; ++i) {
+          lengthBins[i] += child.getSubtreeLengthBins()[i];
+          lengthPixels[i] += child.getSubtreeLengthPixels()[i];
+        }
+      }
+    }
+    assertEquals(count, node.getSubtreeCount());
+    assertArrayEquals(lengthBins, node.getSubtreeLengthBins());
+    assertArrayEquals(lengthPixels, node.getSubtreeLengthPixels());
+  }
+}
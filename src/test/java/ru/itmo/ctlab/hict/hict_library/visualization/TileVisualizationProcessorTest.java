@@ -0,0 +1,171 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2024. Aleksandr Serdiukov, Anton Zamyatin, Aleksandr Sinitsyn, Vitalii Dravgelis and Computer Technologies Laboratory ITMO University team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ru.itmo.ctlab.hict.hict_library.visualization;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.ChunkedFile;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.MatrixQueries;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.generator.SyntheticChunkedFileGenerator;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.resolution.ResolutionDescriptor;
+import ru.itmo.ctlab.hict.hict_library.domain.QueryLengthUnit;
+import ru.itmo.ctlab.hict.hict_library.visualization.colormap.gradient.SimpleLinearGradient;
+
+import java.awt.*;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.DoubleStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compares fused tile normalization with the step-by-step stream pipeline it replaced.
+ */
+public class TileVisualizationProcessorTest {
+  private static final SyntheticChunkedFileGenerator.GeneratorOptions OPTIONS = SyntheticChunkedFileGenerator.GeneratorOptions.builder()
+    .contigCount(4)
+    .assemblyLengthBp(40_000L)
+    .resolutions(new long[]{1_000L, 2_000L, 10_000L})
+    .stripeSize(8)
+    .contactDensity(0.5d)
+    .distanceDecayExponent(1.0d)
+    .denseBlockThreshold(0.3d)
+    .reversedContigFraction(0.0d)
+    .reversedATUFraction(0.0d)
+    .seed(3L)
+    .build();
+  private static final double[] LOG_BASES = {0.0d, 2.0d, 10.0d};
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void flatTileNormalizationMatchesStreamPipeline() {
+    final var path = this.tempDir.resolve("synthetic.hict.hdf5");
+    new SyntheticChunkedFileGenerator(OPTIONS).generate(path);
+    try (final var chunkedFile = new ChunkedFile(new ChunkedFile.ChunkedFileOptions(path, 1, 4, 0L, 2))) {
+      final var processor = chunkedFile.tileVisualizationProcessor();
+      final var random = new Random(8L);
+      for (int resolutionOrder = 1; resolutionOrder < chunkedFile.getResolutions().length; ++resolutionOrder) {
+        final var resolutionDescriptor = ResolutionDescriptor.fromResolutionOrder(resolutionOrder);
+        final var scalingCoefficient = chunkedFile.getResolutionScalingCoefficient()[resolutionOrder];
+        final var linearScalingCoefficient = chunkedFile.getResolutionLinearScalingCoefficient()[resolutionOrder];
+        for (int tile = 0; tile < 4; ++tile) {
+          final var rawTile = randomTile(random, resolutionDescriptor);
+          for (final var options : allOptions()) {
+            final var expected = referenceTile(rawTile, options, scalingCoefficient, linearScalingCoefficient);
+            // Buffer is longer than the tile and its tail must stay untouched:
+            final var output = new double[rawTile.rowCount() * rawTile.columnCount() + 3];
+            Arrays.fill(output, -7.0d);
+            processor.processTile(rawTile, options, output);
+            final var message = "Resolution order " + resolutionOrder + ", options " + options;
+            assertArrayEquals(expected, Arrays.copyOf(output, expected.length), message);
+            assertArrayEquals(new double[]{-7.0d, -7.0d, -7.0d}, Arrays.copyOfRange(output, expected.length, output.length), message);
+          }
+        }
+      }
+    }
+  }
+
+  private static SimpleVisualizationOptions[] allOptions() {
+    final var colormap = new SimpleLinearGradient(8, new Color(255, 255, 255, 0), new Color(0, 96, 0, 255), 0.0d, 1.0d);
+    final var result = new SimpleVisualizationOptions[LOG_BASES.length * LOG_BASES.length * 8];
+    var index = 0;
+    for (final var preLogBase : LOG_BASES) {
+      for (final var postLogBase : LOG_BASES) {
+        for (int flags = 0; flags < 8; ++flags) {
+          result[index++] = new SimpleVisualizationOptions(preLogBase, postLogBase, (flags & 1) != 0, (flags & 2) != 0, (flags & 4) != 0, colormap);
+        }
+      }
+    }
+    return result;
+  }
+
+  private static MatrixQueries.FlatMatrixWithWeights randomTile(final Random random, final ResolutionDescriptor resolutionDescriptor) {
+    final var rowCount = 1 + random.nextInt(20);
+    final var columnCount = 1 + random.nextInt(20);
+    final var values = new long[rowCount * columnCount];
+    for (int i = 0; i < values.length; ++i) {
+      values[i] = random.nextBoolean() ? random.nextInt(5) : random.nextLong(1L << 40);
+    }
+    return new MatrixQueries.FlatMatrixWithWeights(values, rowCount, columnCount, randomWeights(random, rowCount), randomWeights(random, columnCount), 0L, 0L, rowCount, columnCount, QueryLengthUnit.PIXELS, resolutionDescriptor);
+  }
+
+  /**
+   * Weights include ones, which the pipeline skipped for rows, and zeros of masked bins.
+   */
+  private static double[] randomWeights(final Random random, final int count) {
+    final var weights = new double[count];
+    for (int i = 0; i < count; ++i) {
+      weights[i] = switch (random.nextInt(4)) {
+        case 0 -> 1.0d;
+        case 1 -> 0.0d;
+        default -> random.nextDouble() * 3.0d;
+      };
+    }
+    return weights;
+  }
+
+  /**
+   * Normalization as it was done before it was fused, by a chain of parallel row streams.
+   */
+  private static double[] referenceTile(final MatrixQueries.FlatMatrixWithWeights rawTile, final SimpleVisualizationOptions options, final double resolutionScalingCoeff, final double resolutionLinearScalingCoeff) {
+    final var rowCount = rawTile.rowCount();
+    final var columnCount = rawTile.columnCount();
+    final var columnWeights = rawTile.colWeights();
+    final var result = new double[rowCount * columnCount];
+    for (int rowIndex = 0; rowIndex < rowCount; ++rowIndex) {
+      final var startStream = Arrays.stream(rawTile.values(), rowIndex * columnCount, (rowIndex + 1) * columnCount).parallel();
+      final var rowWeight = rawTile.rowWeights()[rowIndex];
+      final var pre = options.getLnPreLogBase();
+      final var post = options.getLnPostLogBase();
+
+      DoubleStream doubleStream = startStream.mapToDouble(signal -> (double) signal);
+      if (pre > 0) {
+        doubleStream = doubleStream.map(signal -> Math.log1p(signal) / pre);
+      }
+      if (options.isResolutionScaling()) {
+        doubleStream = doubleStream.map(signal -> signal * resolutionScalingCoeff);
+      }
+      if (options.isResolutionLinearScaling()) {
+        doubleStream = doubleStream.map(signal -> signal * resolutionLinearScalingCoeff);
+      }
+      if (options.isApplyCoolerWeights()) {
+        if (rowWeight != 1.0) {
+          doubleStream = doubleStream.map(signal -> signal * rowWeight);
+        }
+        final var atomicColumnIndex = new AtomicInteger();
+        doubleStream = doubleStream.sequential().map(signal -> signal * columnWeights[atomicColumnIndex.getAndIncrement()]);
+      }
+      if (post > 0) {
+        doubleStream = doubleStream.map(signal -> Math.log1p(signal) / post);
+      }
+      System.arraycopy(doubleStream.toArray(), 0, result, rowIndex * columnCount, columnCount);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2024. Aleksandr Serdiukov, Anton Zamyatin, Aleksandr Sinitsyn, Vitalii Dravgelis and Computer Technologies Laboratory ITMO University team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ru.itmo.ctlab.hict.hict_library.visualization.colormap;
+
+import org.junit.jupiter.api.Test;
+import ru.itmo.ctlab.hict.hict_library.visualization.colormap.gradient.SimpleLinearGradient;
+
+import java.awt.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compares the quantized table with the gradient colormap it is built from.
+ */
+public class LookupTableColormapTest {
+  private static final int SWEEP_STEPS = 100_000;
+
+  @Test
+  void tableFollowsGradient() {
+    final var gradients = new SimpleLinearGradient[]{
+      new SimpleLinearGradient(8, new Color(255, 255, 255, 0), new Color(0, 96, 0, 255), 0.0d, 1.0d),
+      new SimpleLinearGradient(16, new Color(10, 200, 30, 40), new Color(250, 0, 128, 255), -2.0d, 3.0d),
+      new SimpleLinearGradient(32, new Color(0, 0, 0, 255), new Color(255, 255, 255, 255), 0.0d, 1e-3d)
+    };
+    for (final var gradient : gradients) {
+      final var table = new LookupTableColormap(gradient, gradient.getMinSignal(), gradient.getMaxSignal());
+      final var range = gradient.getMaxSignal() - gradient.getMinSignal();
+      final var signal = new double[SWEEP_STEPS + 1 + 6];
+      for (int i = 0; i <= SWEEP_STEPS; ++i) {
+        // Sweep covers the signal range extended by half of it on both sides:
+        signal[i] = gradient.getMinSignal() - range / 2 + 2 * range * i / SWEEP_STEPS;
+      }
+      signal[SWEEP_STEPS + 1] = Double.NaN;
+      signal[SWEEP_STEPS + 2] = Double.POSITIVE_INFINITY;
+      signal[SWEEP_STEPS + 3] = Double.NEGATIVE_INFINITY;
+      signal[SWEEP_STEPS + 4] = -Double.MAX_VALUE;
+      signal[SWEEP_STEPS + 5] = Double.MAX_VALUE;
+      signal[SWEEP_STEPS + 6] = -0.0d;
+
+      // Destination is offset to check that both offsets are honored:
+      final var argb = new int[signal.length + 2];
+      table.mapSignalsToARGB(signal, 0, signal.length, argb, 2);
+      for (int i = 0; i < signal.length; ++i) {
+        final var expected = gradient.mapSignal(signal[i]).getRGB();
+        final var actual = table.mapSignalToARGB(signal[i]);
+        final var message = "Signal " + signal[i] + " of gradient in [" + gradient.getMinSignal() + ", " + gradient.getMaxSignal() + "]";
+        for (int shift = 0; shift < 32; shift += 8) {
+          assertEquals((expected >>> shift) & 0xFF, (actual >>> shift) & 0xFF, 1, message + ", channel at bit " + shift);
+        }
+        assertEquals(actual, argb[2 + i], message);
+        assertEquals(actual, gradient.mapSignalToARGB(signal[i]), message);
+      }
+      assertEquals(0, argb[0]);
+      assertEquals(0, argb[1]);
+
+      final var part = new int[10];
+      gradient.mapSignalsToARGB(signal, SWEEP_STEPS / 2, part.length, part, 0);
+      for (int i = 0; i < part.length; ++i) {
+        assertEquals(table.mapSignalToARGB(signal[SWEEP_STEPS / 2 + i]), part[i]);
+      }
+    }
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2024. Aleksandr Serdiukov, Anton Zamyatin, Aleksandr Sinitsyn, Vitalii Dravgelis and Computer Technologies Laboratory ITMO University team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ru.itmo.ctlab.hict.hict_server.handlers.tiles;
+
+import net.jpountz.lz4.LZ4Factory;
+import org.junit.jupiter.api.Test;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.MatrixQueries;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.resolution.ResolutionDescriptor;
+import ru.itmo.ctlab.hict.hict_library.domain.QueryLengthUnit;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BinaryTileEncoderTest {
+  private static final int ROWS = 37;
+  private static final int COLUMNS = 23;
+
+  @Test
+  void decodedTileMatchesSignal() throws DataFormatException {
+    final var random = new Random(12L);
+    final var tile = tile(random);
+    final var normalized = new double[ROWS * COLUMNS];
+    for (int i = 0; i < normalized.length; ++i) {
+      normalized[i] = switch (random.nextInt(12)) {
+        case 0 -> Double.NaN;
+        case 1 -> Double.POSITIVE_INFINITY;
+        case 2 -> Double.NEGATIVE_INFINITY;
+        default -> random.nextDouble() * 5.0d - 1.0d;
+      };
+    }
+    // Exact bounds of the finite signal, so that both ends of the sample range are used:
+    normalized[3] = -1.5d;
+    normalized[4] = 4.5d;
+    final var constant = new double[ROWS * COLUMNS];
+    Arrays.fill(constant, 2.0d);
+    constant[0] = Double.NaN;
+    final var nonFinite = new double[ROWS * COLUMNS];
+    Arrays.fill(nonFinite, Double.NaN);
+
+    for (final var dtype : BinaryTileEncoder.Dtype.values()) {
+      for (final var compression : BinaryTileEncoder.Compression.values()) {
+        for (final var signal : new double[][]{normalized, constant, nonFinite}) {
+          checkRoundTrip(tile, signal, dtype, compression);
+        }
+      }
+    }
+  }
+
+  private static void checkRoundTrip(final MatrixQueries.FlatMatrixWithWeights tile, final double[] signal, final BinaryTileEncoder.Dtype dtype, final BinaryTileEncoder.Compression compression) throws DataFormatException {
+    final var message = dtype + " " + compression;
+    final var buffer = ByteBuffer.wrap(BinaryTileEncoder.encode(tile, signal, dtype, compression)).order(ByteOrder.LITTLE_ENDIAN);
+    assertEquals(BinaryTileEncoder.MAGIC, buffer.getInt(), message);
+    assertEquals(BinaryTileEncoder.FORMAT_VERSION, buffer.get(), message);
+    assertEquals(dtype.ordinal(), buffer.get(), message);
+    assertEquals(compression.ordinal(), buffer.get(), message);
+    assertEquals(0, buffer.get(), message);
+    assertEquals(ROWS, buffer.getInt(), message);
+    assertEquals(COLUMNS, buffer.getInt(), message);
+    final var minimum = buffer.getDouble();
+    final var maximum = buffer.getDouble();
+    final var finite = Arrays.stream(signal).filter(Double::isFinite).toArray();
+    assertEquals(Arrays.stream(finite).min().orElse(0.0d), minimum, message);
+    assertEquals(Arrays.stream(finite).max().orElse(0.0d), maximum, message);
+    for (int i = 0; i < ROWS; ++i) {
+      assertEquals(tile.rowWeights()[i], buffer.getDouble(), message);
+    }
+    for (int j = 0; j < COLUMNS; ++j) {
+      assertEquals(tile.colWeights()[j], buffer.getDouble(), message);
+    }
+    final var payloadLength = buffer.getInt();
+    final var compressed = new byte[buffer.getInt()];
+    buffer.get(compressed);
+    assertFalse(buffer.hasRemaining(), message);
+    assertEquals(ROWS * COLUMNS * dtype.getBytesPerSample(), payloadLength, message);
+    final var payload = ByteBuffer.wrap(decompress(compressed, payloadLength, compression)).order(ByteOrder.LITTLE_ENDIAN);
+
+    final var step = (maximum - minimum) / dtype.getMaxSample();
+    for (int i = 0; i < signal.length; ++i) {
+      final var expected = signal[i];
+      switch (dtype) {
+        case FLOAT32 -> assertEquals((float) expected, payload.getFloat(), message);
+        case UINT8, UINT16 -> {
+          final var sample = (dtype == BinaryTileEncoder.Dtype.UINT8) ? Byte.toUnsignedInt(payload.get()) : Short.toUnsignedInt(payload.getShort());
+          if (!Double.isFinite(expected)) {
+            assertEquals(dtype.getNonFiniteSample(), sample, message + " non-finite sample " + i);
+          } else {
+            assertTrue(sample <= dtype.getMaxSample(), message + " sample " + i + " overlaps the non-finite one");
+            assertEquals(expected, minimum + sample * step, step / 2.0d + 1e-12d, message + " sample " + i);
+            if (expected == minimum) {
+              assertEquals(0, sample, message);
+            } else if (expected == maximum) {
+              assertEquals(dtype.getMaxSample(), sample, message);
+            }
+          }
+        }
+      }
+    }
+    assertFalse(payload.hasRemaining(), message);
+  }
+
+  private static byte[] decompress(final byte[] compressed, final int length, final BinaryTileEncoder.Compression compression) throws DataFormatException {
+    return switch (compression) {
+      case NONE -> compressed;
+      case DEFLATE -> {
+        final var inflater = new Inflater();
+        try {
+          inflater.setInput(compressed);
+          final var result = new byte[length];
+          assertEquals(length, inflater.inflate(result));
+          assertTrue(inflater.finished());
+          yield result;
+        } finally {
+          inflater.end();
+        }
+      }
+      case LZ4 -> LZ4Factory.fastestInstance().fastDecompressor().decompress(compressed, length);
+    };
+  }
+
+  private static MatrixQueries.FlatMatrixWithWeights tile(final Random random) {
+    final var rowWeights = random.doubles(ROWS).toArray();
+    final var colWeights = random.doubles(COLUMNS).toArray();
+    return new MatrixQueries.FlatMatrixWithWeights(new long[ROWS * COLUMNS], ROWS, COLUMNS, rowWeights, colWeights, 0L, 0L, ROWS, COLUMNS, QueryLengthUnit.PIXELS, ResolutionDescriptor.fromResolutionOrder(1));
+  }
+}
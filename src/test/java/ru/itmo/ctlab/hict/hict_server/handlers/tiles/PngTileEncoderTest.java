@@ -0,0 +1,123 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2024. Aleksandr Serdiukov, Anton Zamyatin, Aleksandr Sinitsyn, Vitalii Dravgelis and Computer Technologies Laboratory ITMO University team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ru.itmo.ctlab.hict.hict_server.handlers.tiles;
+
+import org.junit.jupiter.api.Test;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.util.QueryExecutor;
+
+import javax.imageio.ImageIO;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PngTileEncoderTest {
+  // Large enough to be split into several bands by an executor with 4 threads:
+  private static final int WIDTH = 300;
+  private static final int HEIGHT = 512;
+
+  @Test
+  void decodedImageMatchesInput() throws IOException {
+    final var images = new int[][]{paletteImage(), rgbaImage()};
+    // Color type in IHDR chunk, indexed or RGBA:
+    final var colorTypes = new int[]{3, 6};
+    try (final var executor = new QueryExecutor(4)) {
+      for (int imageIndex = 0; imageIndex < images.length; ++imageIndex) {
+        final var argb = images[imageIndex];
+        for (final var filter : PngTileEncoder.Filter.values()) {
+          for (final var level : new int[]{0, 9}) {
+            final var encoder = new PngTileEncoder(level, filter);
+            final var sequential = encoder.encode(argb, WIDTH, HEIGHT, null);
+            assertEquals(colorTypes[imageIndex], sequential[25], encoder + " color type");
+            assertDecodesTo(argb, sequential, encoder + " sequential");
+            assertDecodesTo(argb, encoder.encode(argb, WIDTH, HEIGHT, executor), encoder + " banded");
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  void smallImagesRoundTrip() throws IOException {
+    final var random = new Random(3L);
+    for (final var size : new int[][]{{1, 1}, {1, 7}, {7, 1}, {3, 5}}) {
+      final var argb = new int[size[0] * size[1]];
+      for (int i = 0; i < argb.length; ++i) {
+        argb[i] = random.nextInt();
+      }
+      for (final var filter : PngTileEncoder.Filter.values()) {
+        final var encoder = new PngTileEncoder(PngTileEncoder.DEFAULT.compressionLevel(), filter);
+        assertDecodesTo(argb, size[0], size[1], encoder.encode(argb, size[0], size[1], null), encoder + " " + size[0] + "x" + size[1]);
+      }
+    }
+  }
+
+  @Test
+  void rejectsInvalidCompressionLevel() {
+    assertThrows(IllegalArgumentException.class, () -> new PngTileEncoder(-1, PngTileEncoder.Filter.NONE));
+    assertThrows(IllegalArgumentException.class, () -> new PngTileEncoder(10, PngTileEncoder.Filter.NONE));
+  }
+
+  /**
+   * Smooth gradient of 200 colors, some of them translucent, so that the tile is written with a palette.
+   */
+  private static int[] paletteImage() {
+    final var argb = new int[WIDTH * HEIGHT];
+    for (int y = 0; y < HEIGHT; ++y) {
+      for (int x = 0; x < WIDTH; ++x) {
+        final var shade = (x + y) % 200;
+        final var alpha = (shade < 20) ? 10 * shade : 0xFF;
+        argb[y * WIDTH + x] = (alpha << 24) | (shade << 8) | (255 - shade);
+      }
+    }
+    return argb;
+  }
+
+  /**
+   * Random colors with random alpha, so that the tile is written as RGBA.
+   */
+  private static int[] rgbaImage() {
+    final var random = new Random(42L);
+    final var argb = new int[WIDTH * HEIGHT];
+    for (int i = 0; i < argb.length; ++i) {
+      // Neighbouring pixels are correlated so that all filters produce different output:
+      argb[i] = (i > 0 && random.nextBoolean()) ? (argb[i - 1] + 0x01010101) : random.nextInt();
+    }
+    return argb;
+  }
+
+  private static void assertDecodesTo(final int[] expected, final byte[] png, final String message) throws IOException {
+    assertDecodesTo(expected, WIDTH, HEIGHT, png, message);
+  }
+
+  private static void assertDecodesTo(final int[] expected, final int width, final int height, final byte[] png, final String message) throws IOException {
+    final var image = ImageIO.read(new ByteArrayInputStream(png));
+    assertNotNull(image, message);
+    assertEquals(width, image.getWidth(), message);
+    assertEquals(height, image.getHeight(), message);
+    assertArrayEquals(expected, image.getRGB(0, 0, width, height, null, 0, width), message);
+  }
+}
@@ -0,0 +1,200 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2024. Aleksandr Serdiukov, Anton Zamyatin, Aleksandr Sinitsyn, Vitalii Dravgelis and Computer Technologies Laboratory ITMO University team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ru.itmo.ctlab.hict.hict_server.handlers.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.itmo.ctlab.hict.hict_library.domain.AssemblyChange;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RenderedTileCacheTest {
+  private static final int TILE_SIZE = 10;
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void evictsLeastRecentlyUsedTilesOverBudget() {
+    final var cache = new RenderedTileCache(100L, null, 0L);
+    for (int i = 0; i < 3; ++i) {
+      cache.put(key(1L, 0L, i, 0L), tile(30, i));
+    }
+    assertNotNull(cache.get(key(1L, 0L, 0, 0L)));
+    cache.put(key(1L, 0L, 3, 0L), tile(30, 3));
+
+    assertTrue(cache.contains(key(1L, 0L, 0, 0L)), "Recently read tile should stay");
+    assertFalse(cache.contains(key(1L, 0L, 1, 0L)), "Least recently used tile should be evicted");
+    assertTrue(cache.contains(key(1L, 0L, 2, 0L)));
+    assertTrue(cache.contains(key(1L, 0L, 3, 0L)));
+    assertEquals(90L, cache.getStatistics().memoryBytes());
+    assertEquals(0, cache.getStatistics().diskTileCount());
+
+    cache.put(key(1L, 0L, 4, 0L), tile(101, 4));
+    assertFalse(cache.contains(key(1L, 0L, 4, 0L)), "Tile larger than the budget should not be cached");
+    assertEquals(3, cache.getStatistics().memoryTileCount());
+  }
+
+  @Test
+  void spillsEvictedTilesAndReadsThemBack() throws IOException {
+    final var cache = new RenderedTileCache(60L, this.tempDir, 1000L);
+    final var first = tile(30, 0);
+    cache.put(key(1L, 0L, 0, 0L), first);
+    cache.put(key(1L, 0L, 1, 0L), tile(30, 1));
+    cache.put(key(1L, 0L, 2, 0L), tile(30, 2));
+    assertEquals(1, cache.getStatistics().diskTileCount());
+    assertEquals(30L, cache.getStatistics().diskBytes());
+    assertEquals(1, spillFiles().size());
+
+    final var readBack = cache.get(key(1L, 0L, 0, 0L));
+    assertNotNull(readBack);
+    assertArrayEquals(first.bytes(), readBack.bytes());
+    assertEquals(first.etag(), readBack.etag());
+    assertEquals(first.contentType(), readBack.contentType());
+    // Read tile went back to memory and pushed out the next least recently used one, whose file replaced its own:
+    assertTrue(cache.contains(key(1L, 0L, 1, 0L)));
+    assertEquals(1, cache.getStatistics().diskTileCount());
+    assertEquals(1, spillFiles().size());
+    assertNotNull(cache.get(key(1L, 0L, 1, 0L)));
+
+    // Tiles of a newer assembly version make spilled ones stale:
+    cache.put(key(1L, 0L, 3, 0L), tile(30, 3));
+    assertFalse(spillFiles().isEmpty());
+    cache.put(key(2L, 0L, 0, 0L), tile(30, 4));
+    assertEquals(0, cache.getStatistics().diskTileCount());
+    assertEquals(List.of(), spillFiles());
+
+    cache.put(key(2L, 0L, 1, 0L), tile(30, 5));
+    cache.put(key(2L, 0L, 2, 0L), tile(30, 6));
+    assertEquals(1, spillFiles().size());
+    cache.onVisualizationOptionsChanged();
+    assertEquals(List.of(), spillFiles(), "Invalidation should delete spilled tiles");
+    assertEquals(0, cache.getStatistics().memoryTileCount());
+  }
+
+  @Test
+  void ignoresLatePutsForReplacedState() {
+    final var cache = new RenderedTileCache(1000L, null, 0L);
+    cache.put(key(2L, 0L, 0, 0L), tile(10, 0));
+    cache.put(key(1L, 0L, 1, 0L), tile(10, 1));
+    assertFalse(cache.contains(key(1L, 0L, 1, 0L)), "Tile of an older assembly version should be ignored");
+
+    cache.put(key(2L, 1L, 2, 0L), tile(10, 2));
+    assertFalse(cache.contains(key(2L, 0L, 0, 0L)), "Tiles of an older options generation should be dropped");
+    cache.put(key(2L, 0L, 3, 0L), tile(10, 3));
+    assertFalse(cache.contains(key(2L, 0L, 3, 0L)), "Tile of an older options generation should be ignored");
+    assertTrue(cache.contains(key(2L, 1L, 2, 0L)));
+
+    cache.onAssemblyChanged(change(2L, 3L, 0L, 0L));
+    cache.put(key(2L, 1L, 4, 0L), tile(10, 4));
+    assertFalse(cache.contains(key(2L, 1L, 4, 0L)), "Tile computed before the assembly change should be ignored");
+  }
+
+  @Test
+  void keepsTilesOutsideOfChangedRegion() throws IOException {
+    final var cache = new RenderedTileCache(60L, this.tempDir, 1000L);
+    // Level 1, changed region covers pixels [15, 25):
+    final var outside = key(1L, 0L, 0, 0L);
+    final var crossingRows = key(1L, 0L, 2, 0L);
+    final var crossingColumns = key(1L, 0L, 0, 2L);
+    final var spilledOutside = key(1L, 0L, 5, 5L);
+    cache.put(spilledOutside, tile(20, 0));
+    cache.put(crossingColumns, tile(20, 1));
+    cache.put(crossingRows, tile(20, 2));
+    cache.put(outside, tile(20, 3));
+    assertEquals(1, spillFiles().size());
+
+    final var otherLevel = new RenderedTileCache.TileKey(1L, 0L, 2, 20L, 20L, TILE_SIZE, TILE_SIZE, "png");
+    cache.put(otherLevel, tile(10, 4));
+    assertEquals(2, spillFiles().size());
+
+    cache.onAssemblyChanged(change(1L, 2L, 15L, 25L));
+    assertTrue(cache.contains(outside.withAssemblyVersion(2L)));
+    assertTrue(cache.contains(spilledOutside.withAssemblyVersion(2L)));
+    assertTrue(cache.contains(otherLevel.withAssemblyVersion(2L)), "Region at other levels does not intersect the tile");
+    assertFalse(cache.contains(crossingRows.withAssemblyVersion(2L)));
+    assertFalse(cache.contains(crossingColumns.withAssemblyVersion(2L)));
+    assertFalse(cache.contains(outside), "Tiles should only be kept under the new version");
+    assertEquals(1, spillFiles().size(), "Spilled tile inside of the changed region should be deleted");
+    assertEquals(2, cache.getStatistics().memoryTileCount());
+    assertEquals(30L, cache.getStatistics().memoryBytes());
+
+    final var readBack = cache.get(spilledOutside.withAssemblyVersion(2L));
+    assertNotNull(readBack);
+    assertArrayEquals(tile(20, 0).bytes(), readBack.bytes());
+
+    // Notification of an older change is ignored:
+    cache.onAssemblyChanged(change(0L, 1L, 0L, Long.MAX_VALUE));
+    assertTrue(cache.contains(outside.withAssemblyVersion(2L)));
+  }
+
+  @Test
+  void matchesStrongWeakAndListedEntityTags() {
+    final var tile = tile(16, 7);
+    final var etag = tile.etag();
+    assertTrue(etag.startsWith("\"") && etag.endsWith("\""));
+    assertFalse(tile.matches(null));
+    assertTrue(tile.matches(etag));
+    assertTrue(tile.matches("W/" + etag));
+    assertTrue(tile.matches("\"other\", W/" + etag));
+    assertTrue(tile.matches("\"other\" ,  " + etag + " "));
+    assertTrue(tile.matches("*"));
+    assertFalse(tile.matches("\"other\", W/\"another\""));
+    assertFalse(tile.matches(etag.substring(1, etag.length() - 1)), "Unquoted tag should not match");
+    assertFalse(tile.matches(""));
+    assertNotEquals(etag, tile(16, 8).etag());
+  }
+
+  private List<Path> spillFiles() throws IOException {
+    try (final Stream<Path> files = Files.walk(this.tempDir)) {
+      return files.filter(Files::isRegularFile).toList();
+    }
+  }
+
+  /**
+   * Key of a tile at level 1 with the given row and column in tiles.
+   */
+  private static RenderedTileCache.TileKey key(final long assemblyVersion, final long optionsGeneration, final int row, final long col) {
+    return new RenderedTileCache.TileKey(assemblyVersion, optionsGeneration, 1, (long) row * TILE_SIZE, col * TILE_SIZE, TILE_SIZE, TILE_SIZE, "png");
+  }
+
+  private static RenderedTileCache.RenderedTile tile(final int size, final int seed) {
+    final var bytes = new byte[size];
+    for (int i = 0; i < size; ++i) {
+      bytes[i] = (byte) (31 * seed + i);
+    }
+    return RenderedTileCache.RenderedTile.of(bytes, "image/png");
+  }
+
+  private static AssemblyChange change(final long previousVersion, final long newVersion, final long startPx, final long endPx) {
+    return new AssemblyChange(previousVersion, newVersion, 0L, 0L, new long[]{0L, startPx, 0L}, new long[]{0L, endPx, 0L});
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2024. Aleksandr Serdiukov, Anton Zamyatin, Aleksandr Sinitsyn, Vitalii Dravgelis and Computer Technologies Laboratory ITMO University team.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ru.itmo.ctlab.hict.hict_server.session;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.ChunkedFile;
+import ru.itmo.ctlab.hict.hict_library.chunkedfile.generator.SyntheticChunkedFileGenerator;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that sessions opening the same file share its resources while curating assemblies of their own.
+ */
+public class ChunkedFileRegistryTest {
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void sessionsShareResourcesButNotAssembly() {
+    final var path = this.tempDir.resolve("synthetic.hict.hdf5");
+    new SyntheticChunkedFileGenerator(SyntheticChunkedFileGenerator.GeneratorOptions.DEFAULT.toBuilder()
+      .contigCount(6)
+      .assemblyLengthBp(60_000L)
+      .resolutions(new long[]{1_000L, 5_000L})
+      .stripeSize(8)
+      .seed(5L)
+      .build()).generate(path);
+    final var registry = new ChunkedFileRegistry();
+    final var options = new ChunkedFile.ChunkedFileOptions(path, 1, 2, 1L << 20, 1);
+
+    try (final var first = registry.acquire(options); final var second = registry.acquire(options)) {
+      final var firstFile = first.getChunkedFile();
+      final var secondFile = second.getChunkedFile();
+      assertNotSame(firstFile, secondFile);
+      assertSame(firstFile.getResources(), secondFile.getResources());
+      assertEquals(1, registry.getOpenFileCount());
+
+      final var original = contigOrder(secondFile);
+      firstFile.scaffoldingOperations().reverseSelectionRangeBp(0L, firstFile.getMatrixSizeBins()[0]);
+      assertNotEquals(original, contigOrder(firstFile));
+      assertEquals(original, contigOrder(secondFile));
+      assertNotSame(firstFile.getContigCatalog(), secondFile.getContigCatalog());
+
+      // Reopening builds the assembly stored in the file rather than reusing the modified one:
+      try (final var reopened = registry.acquire(options)) {
+        assertEquals(original, contigOrder(reopened.getChunkedFile()));
+      }
+    }
+    assertEquals(1, registry.getOpenFileCount());
+    assertEquals(1, registry.evictIdle(0L));
+    assertEquals(0, registry.getOpenFileCount());
+  }
+
+  private static List<String> contigOrder(final ChunkedFile chunkedFile) {
+    return chunkedFile.getContigTree().getOrderedContigList().stream().map(contig -> contig.descriptor().getContigName() + contig.direction()).toList();
+  }
+}